@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.lib.database.bean.manager.interfaces.engine;
+
+import java.io.IOException;
+import org.json.JSONObject;
+
+/**
+ * Receives the response of a query as it is produced, so that end points can send large results to the client without
+ * holding the complete response in memory. A streamed response is a sequence of {@link #writeRow(JSONObject)} calls
+ * followed by a single {@link #end(JSONObject)}. A response that is not streamed, such as that of an update or an error
+ * raised before any row is produced, is delivered whole through {@link #writeResponse(String)} instead.
+ *
+ * @author sanketsarang
+ */
+public interface ResultWriter {
+
+    /**
+     * Writes a row of the result payload
+     *
+     * @param row the row
+     * @throws IOException if the row cannot be sent, in which case the query is aborted
+     */
+    public void writeRow(final JSONObject row) throws IOException;
+
+    /**
+     * Ends a streamed response
+     *
+     * @param status the response fields other than the payload, such as <code>ack</code> and time taken. Holds the
+     * cause of failure if the query failed after rows were written.
+     * @throws IOException if the status cannot be sent
+     */
+    public void end(final JSONObject status) throws IOException;
+
+    /**
+     * Writes a complete response that was not streamed
+     *
+     * @param response the JSON response
+     * @throws IOException if the response cannot be sent
+     */
+    public void writeResponse(final String response) throws IOException;
+}
@@ -37,4 +37,88 @@ public interface SqlExecutor {
      * @return The JSON response of the SQL query, which may be a scalar result, a resultSet, an error etc.
      */
     public String runQuery(final String requestId, final String userName, final String password, final String dbName, final String sqlString);
+
+    /**
+     *
+     * @param requestId the id of the request
+     * @param sessionToken The token of a session opened through the SecurityManager
+     * @param dbName The database name (previously known as appId)
+     * @param sqlString The SQL statement to execute
+     * @return The JSON response of the SQL query, which may be a scalar result, a resultSet, an error etc.
+     */
+    public String runSessionQuery(final String requestId, final String sessionToken, final String dbName, final String sqlString);
+
+    /**
+     * Prepares a statement for repeated execution. The statement is parsed once, and may contain <code>?</code>
+     * placeholders for values that are supplied on each execution.
+     *
+     * @param requestId the id of the request
+     * @param userName The username
+     * @param password The password
+     * @param dbName The database name (previously known as appId)
+     * @param sqlString The SQL statement to prepare
+     * @return JSON response holding the id of the prepared statement in <code>statement</code> and the number of
+     * placeholders in <code>parameters</code>
+     */
+    public String prepareStatement(final String requestId, final String userName, final String password, final String dbName, final String sqlString);
+
+    /**
+     *
+     * @param requestId the id of the request
+     * @param sessionToken The token of a session opened through the SecurityManager
+     * @param dbName The database name (previously known as appId)
+     * @param sqlString The SQL statement to prepare
+     * @return JSON response holding the id of the prepared statement in <code>statement</code> and the number of
+     * placeholders in <code>parameters</code>
+     */
+    public String prepareSessionStatement(final String requestId, final String sessionToken, final String dbName, final String sqlString);
+
+    /**
+     * Executes a statement prepared through {@link #prepareStatement(String, String, String, String, String)}
+     *
+     * @param requestId the id of the request
+     * @param userName The username
+     * @param password The password
+     * @param dbName The database name the statement was prepared on
+     * @param statementId The id of the prepared statement
+     * @param params JSON array holding a value for each placeholder in order
+     * @return The JSON response of the SQL query, which may be a scalar result, a resultSet, an error etc.
+     */
+    public String executeStatement(final String requestId, final String userName, final String password, final String dbName, final String statementId, final String params);
+
+    /**
+     *
+     * @param requestId the id of the request
+     * @param sessionToken The token of a session opened through the SecurityManager
+     * @param dbName The database name the statement was prepared on
+     * @param statementId The id of the prepared statement
+     * @param params JSON array holding a value for each placeholder in order
+     * @return The JSON response of the SQL query, which may be a scalar result, a resultSet, an error etc.
+     */
+    public String executeSessionStatement(final String requestId, final String sessionToken, final String dbName, final String statementId, final String params);
+
+    /**
+     * Runs a query and streams its response to a writer as rows are produced. The response of a SELECT is streamed;
+     * that of any other statement is written whole.
+     *
+     * @param requestId the id of the request
+     * @param userName The username
+     * @param password The password
+     * @param dbName The database name (previously known as appId)
+     * @param sqlString The SQL statement to execute
+     * @param resultWriter receives the response
+     */
+    public void streamQuery(final String requestId, final String userName, final String password, final String dbName, final String sqlString,
+            final ResultWriter resultWriter);
+
+    /**
+     *
+     * @param requestId the id of the request
+     * @param sessionToken The token of a session opened through the SecurityManager
+     * @param dbName The database name (previously known as appId)
+     * @param sqlString The SQL statement to execute
+     * @param resultWriter receives the response
+     */
+    public void streamSessionQuery(final String requestId, final String sessionToken, final String dbName, final String sqlString,
+            final ResultWriter resultWriter);
 }
@@ -32,4 +32,29 @@ public interface SecurityManager {
      * @return true if user is authentic, false otherwise
      */ 
     boolean verifyCredentials(final String username, final String password);
+
+    /**
+     * Verifies the credentials of a user and opens a session for the user. The returned token authenticates further
+     * requests of the session without the password being verified again.
+     *
+     * @param username
+     * @param password
+     * @return the session token if the user is authentic, <code>null</code> otherwise
+     */
+    String login(final String username, final String password);
+
+    /**
+     * Gets the user of an active session
+     *
+     * @param sessionToken the token returned by {@link #login(java.lang.String, java.lang.String)}
+     * @return the username of the session user; <code>null</code> if the token is invalid or the session has expired
+     */
+    String getSessionUser(final String sessionToken);
+
+    /**
+     * Closes a session
+     *
+     * @param sessionToken the token returned by {@link #login(java.lang.String, java.lang.String)}
+     */
+    void logout(final String sessionToken);
 }
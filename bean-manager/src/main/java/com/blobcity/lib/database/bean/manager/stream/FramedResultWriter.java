@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.lib.database.bean.manager.stream;
+
+import com.blobcity.lib.database.bean.manager.interfaces.engine.ResultWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Writes a query response as a sequence of frames, for clients that process a result as it arrives. Each frame is a
+ * one byte frame type, a four byte big endian payload length, and the payload. Rows are encoded into a reused frame
+ * buffer, and a frame is written out and flushed once it reaches {@link #FRAME_SIZE} bytes, so memory use is
+ * independent of the size of the result.</p>
+ *
+ * <p>
+ * Frame types:</p>
+ * <ul>
+ * <li>{@link #ROWS}: rows as UTF-8 JSON objects, each followed by a new line</li>
+ * <li>{@link #COLUMNS}: a batch of up to {@link #BATCH_ROWS} rows in column order. The payload is the number of rows
+ * and of columns as four byte integers, followed for each column by its name and the value of the column in every
+ * row of the batch. A value is a one byte type tag followed by the value: 0 for null or absent, 1 for an eight byte
+ * integer, 2 for an eight byte double, 3 for a string, 4 for a one byte boolean, 5 for a decimal as a string, and 6
+ * for a nested JSON value as a string. Strings are a four byte length followed by the UTF-8 bytes.</li>
+ * <li>{@link #END}: the last frame of every response, holding the response as UTF-8 JSON. For a streamed response it
+ * holds all response fields other than the payload; for a response that was not streamed it holds the complete
+ * response.</li>
+ * </ul>
+ *
+ * @author sanketsarang
+ */
+public class FramedResultWriter implements ResultWriter {
+
+    public static final byte ROWS = 0x01;
+    public static final byte COLUMNS = 0x02;
+    public static final byte END = 0x03;
+    public static final int FRAME_SIZE = 64 * 1024;
+    public static final int BATCH_ROWS = 1024;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte LONG_VALUE = 1;
+    private static final byte DOUBLE_VALUE = 2;
+    private static final byte STRING_VALUE = 3;
+    private static final byte BOOLEAN_VALUE = 4;
+    private static final byte DECIMAL_VALUE = 5;
+    private static final byte JSON_VALUE = 6;
+
+    private final OutputStream outputStream;
+    private final boolean columnar;
+    private final FrameBuffer frame = new FrameBuffer();
+    private final Writer text = new OutputStreamWriter(frame, StandardCharsets.UTF_8);
+    private final DataOutputStream data = new DataOutputStream(frame);
+    private final List<JSONObject> batch = new ArrayList<>();
+
+    /**
+     * Creates a framed result writer
+     *
+     * @param outputStream the stream to write frames to, which is flushed after every frame but not closed
+     * @param columnar <code>true</code> to write rows as {@link #COLUMNS} frames; <code>false</code> to write them as
+     * {@link #ROWS} frames
+     */
+    public FramedResultWriter(final OutputStream outputStream, final boolean columnar) {
+        this.outputStream = outputStream;
+        this.columnar = columnar;
+    }
+
+    @Override
+    public void writeRow(final JSONObject row) throws IOException {
+        if (columnar) {
+            batch.add(row);
+            if (batch.size() >= BATCH_ROWS) {
+                writeBatch();
+            }
+            return;
+        }
+
+        row.write(text);
+        text.write('\n');
+        text.flush();
+        if (frame.size() >= FRAME_SIZE) {
+            writeFrame(ROWS);
+        }
+    }
+
+    @Override
+    public void end(final JSONObject status) throws IOException {
+        if (!batch.isEmpty()) {
+            writeBatch();
+        }
+        if (frame.size() > 0) {
+            writeFrame(ROWS);
+        }
+        writeResponse(status.toString());
+    }
+
+    @Override
+    public void writeResponse(final String response) throws IOException {
+        text.write(response);
+        text.flush();
+        writeFrame(END);
+    }
+
+    private void writeBatch() throws IOException {
+        final Set<String> columns = new LinkedHashSet<>();
+        for (JSONObject row : batch) {
+            for (Object key : row.keySet()) {
+                columns.add((String) key);
+            }
+        }
+
+        data.writeInt(batch.size());
+        data.writeInt(columns.size());
+        for (String column : columns) {
+            writeString(column);
+            for (JSONObject row : batch) {
+                writeValue(row.opt(column));
+            }
+        }
+        data.flush();
+        batch.clear();
+        writeFrame(COLUMNS);
+    }
+
+    private void writeValue(final Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            data.writeByte(NULL_VALUE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            data.writeByte(LONG_VALUE);
+            data.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            data.writeByte(DOUBLE_VALUE);
+            data.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            data.writeByte(DECIMAL_VALUE);
+            writeString(value.toString());
+        } else if (value instanceof Boolean) {
+            data.writeByte(BOOLEAN_VALUE);
+            data.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            data.writeByte(STRING_VALUE);
+            writeString((String) value);
+        } else {
+            data.writeByte(JSON_VALUE);
+            writeString(JSONObject.valueToString(value));
+        }
+    }
+
+    private void writeString(final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private void writeFrame(final byte type) throws IOException {
+        final int length = frame.size();
+        outputStream.write(new byte[]{type, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        outputStream.write(frame.array(), 0, length);
+        outputStream.flush();
+        frame.reset();
+    }
+
+    /**
+     * A growable byte buffer that exposes its backing array, so that frames are written without copying
+     */
+    private static class FrameBuffer extends ByteArrayOutputStream {
+
+        private FrameBuffer() {
+            super(FRAME_SIZE + 1024);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.lib.database.bean.manager.stream;
+
+import com.blobcity.lib.database.bean.manager.interfaces.engine.ResultWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+
+/**
+ * Writes a query response as a single JSON document, in the same form as a response that is not streamed. Rows are
+ * encoded straight into a fixed size buffer as they arrive, and the buffer is written out whenever it fills, so memory
+ * use is independent of the size of the result. The payload is written first, and the remaining response fields after
+ * it once the query completes.
+ *
+ * @author sanketsarang
+ */
+public class JsonResultWriter implements ResultWriter {
+
+    private static final String PAYLOAD = "p";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    private boolean started = false;
+
+    /**
+     * Creates a JSON result writer
+     *
+     * @param outputStream the stream to write the response to, which is flushed but not closed at the end of the
+     * response
+     */
+    public JsonResultWriter(final OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void writeRow(final JSONObject row) throws IOException {
+        if (!started) {
+            writer.write("{" + JSONObject.quote(PAYLOAD) + ":[");
+            started = true;
+        } else {
+            writer.write(',');
+        }
+        row.write(writer);
+    }
+
+    @Override
+    public void end(final JSONObject status) throws IOException {
+        writer.write(started ? "]" : "{" + JSONObject.quote(PAYLOAD) + ":[]");
+        for (Object key : status.keySet()) {
+            writer.write(',');
+            writer.write(JSONObject.quote((String) key));
+            writer.write(':');
+            writer.write(JSONObject.valueToString(status.get((String) key)));
+        }
+        writer.write('}');
+        writer.flush();
+    }
+
+    @Override
+    public void writeResponse(final String response) throws IOException {
+        writer.write(response);
+        writer.flush();
+    }
+}
@@ -23,6 +23,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -404,8 +406,156 @@ public class Query {
         return this;
     }
 
+    /**
+     * Creates a query carrying several internal queries, such as the soft commit, commit and rollback messages of
+     * different requests, to be processed by the receiving node as one message
+     * @param queries the queries, in the order to process them
+     * @return the batch query
+     */
+    public Query batchQuery(final List<Query> queries) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.BATCH.getQueryCode());
+
+        JSONArray queriesArray = new JSONArray();
+        for(Query query : queries) {
+            queriesArray.put(query.toJson());
+        }
+        queryJson.put(QueryParams.PAYLOAD.getParam(), queriesArray);
+        return this;
+    }
+
+    /**
+     * Gets the queries carried by a query created through {@link #batchQuery(List)}
+     * @return the queries, in the order to process them
+     */
+    public List<Query> getBatch() {
+        JSONArray queriesArray = queryJson.getJSONArray(QueryParams.PAYLOAD.getParam());
+        List<Query> queries = new ArrayList<>(queriesArray.length());
+        for(int i = 0; i < queriesArray.length(); i++) {
+            queries.add(new Query(queriesArray.getJSONObject(i)));
+        }
+        return queries;
+    }
+
     public Query responseQuery() {
         queryJson.put(QueryParams.QUERY.getParam(), QueryType.QUERY_RESPONSE.getQueryCode());
         return this;
     }
+
+    /**
+     * Creates a query running the local part of a distributed SQL SELECT on a node holding the collection
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @param sql the SELECT statement
+     * @param nodes the node-id's of all nodes the statement is run on
+     * @param version the version of the partition ring the nodes are to answer for records on
+     * @return the populated query
+     */
+    public Query selectQuery(final String ds, final String collection, final String sql, final Collection<String> nodes, final long version) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.SELECT.getQueryCode());
+        queryJson.put(QueryParams.DATASTORE.getParam(), ds);
+        queryJson.put(QueryParams.COLLECTION.getParam(), collection);
+
+        JSONObject payloadJson = new JSONObject();
+        payloadJson.put(QueryParams.SQL.getParam(), sql);
+        payloadJson.put(QueryParams.NODES.getParam(), new JSONArray(nodes));
+        payloadJson.put(QueryParams.VERSION.getParam(), version);
+
+        queryJson.put(QueryParams.PAYLOAD.getParam(), payloadJson);
+        return this;
+    }
+
+    /**
+     * Creates a request carrying a batch of the rows produced by a node for a distributed SQL SELECT, to the master
+     * of the SELECT
+     * @param rows the rows, in the order the node produced them
+     * @return the populated query
+     */
+    public Query selectRowsQuery(final Collection<JSONObject> rows) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.SELECT_ROWS.getQueryCode());
+
+        JSONObject payloadJson = new JSONObject();
+        payloadJson.put(QueryParams.DATA.getParam(), new JSONArray(rows));
+
+        queryJson.put(QueryParams.PAYLOAD.getParam(), payloadJson);
+        return this;
+    }
+
+    /**
+     * Creates a request for reading records of a partitioned collection from a node owning them
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @param ids the _id's of the records to read
+     * @param cols the columns to read from each record; <code>null</code> to read complete records
+     * @return the populated query
+     */
+    public Query partitionGetQuery(final String ds, final String collection, final Collection<String> ids, final Collection<String> cols) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.PARTITION_GET.getQueryCode());
+        queryJson.put(QueryParams.DATASTORE.getParam(), ds);
+        queryJson.put(QueryParams.COLLECTION.getParam(), collection);
+
+        JSONObject payloadJson = new JSONObject();
+        payloadJson.put(QueryParams.IDS.getParam(), new JSONArray(ids));
+        if(cols != null) {
+            payloadJson.put(QueryParams.COLS.getParam(), new JSONArray(cols));
+        }
+
+        queryJson.put(QueryParams.PAYLOAD.getParam(), payloadJson);
+        return this;
+    }
+
+    /**
+     * Creates a request for storing records of a partitioned collection on a node that became their owner
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @param records the records to store
+     * @return the populated query
+     */
+    public Query partitionPutQuery(final String ds, final String collection, final Collection<JSONObject> records) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.PARTITION_PUT.getQueryCode());
+        queryJson.put(QueryParams.DATASTORE.getParam(), ds);
+        queryJson.put(QueryParams.COLLECTION.getParam(), collection);
+
+        JSONObject payloadJson = new JSONObject();
+        payloadJson.put(QueryParams.DATA.getParam(), new JSONArray(records));
+
+        queryJson.put(QueryParams.PAYLOAD.getParam(), payloadJson);
+        return this;
+    }
+
+    /**
+     * Creates a request for inserting records that a replica missed while it could not be reached. Records already
+     * present on the replica are left as they are.
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @param records the records to insert
+     * @return the populated query
+     */
+    public Query replicaCatchUpQuery(final String ds, final String collection, final Collection<JSONObject> records) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.REPLICA_CATCHUP.getQueryCode());
+        queryJson.put(QueryParams.DATASTORE.getParam(), ds);
+        queryJson.put(QueryParams.COLLECTION.getParam(), collection);
+
+        JSONObject payloadJson = new JSONObject();
+        payloadJson.put(QueryParams.DATA.getParam(), new JSONArray(records));
+
+        queryJson.put(QueryParams.PAYLOAD.getParam(), payloadJson);
+        return this;
+    }
+
+    /**
+     * Creates a request moving a node through a phase of rebalancing partitions onto a new ring
+     * @param phase the phase of the rebalance
+     * @param ring the ring being moved to
+     * @return the populated query
+     */
+    public Query partitionRebalanceQuery(final String phase, final JSONObject ring) {
+        queryJson.put(QueryParams.QUERY.getParam(), QueryType.PARTITION_REBALANCE.getQueryCode());
+
+        JSONObject payloadJson = new JSONObject();
+        payloadJson.put(QueryParams.TYPE.getParam(), phase);
+        payloadJson.put(QueryParams.DATA.getParam(), ring);
+
+        queryJson.put(QueryParams.PAYLOAD.getParam(), payloadJson);
+        return this;
+    }
 }
@@ -49,7 +49,10 @@ public enum QueryParams {
     TIME("time"),
     INTERPRETER("interpreter"),
     INTERCEPTOR("interceptor"),
-    SQL("sql");
+    SQL("sql"),
+    NODES("nodes"),
+    VERSION("version"),
+    MISSED_NODES("missed-nodes");
 
     final String param;
     QueryParams(final String param) {
@@ -125,7 +125,13 @@ public enum QueryType {
     ROLLBACK_SUCCESS("ROLLBACK_SUCCESS"),
     QUERY_RESPONSE("QUERY_RESPONSE"), //response for select / read queries
     PING("PING"), //ping on on-going commit to check if thigns are still running
-    MEM_FLUSH("MEM-FLUSH"); //flush a memory table to disk
+    MEM_FLUSH("MEM-FLUSH"), //flush a memory table to disk
+    PARTITION_GET("PARTITION-GET"), //read records of a partitioned collection from a node owning them
+    PARTITION_PUT("PARTITION-PUT"), //store records streamed to a node that became their owner
+    PARTITION_REBALANCE("PARTITION-REBALANCE"), //move a node through a phase of rebalancing partitions
+    BATCH("BATCH"), //internal queries of several requests between the same pair of nodes, sent as one message
+    REPLICA_CATCHUP("REPLICA-CATCHUP"), //committed inserts shipped from a commit log to a replica that missed them
+    SELECT_ROWS("SELECT-ROWS"); //a batch of the rows produced by a node for a distributed SELECT
 
     final String queryCode;
 
@@ -85,8 +85,9 @@ public class ConsoleEndPointService implements Runnable {
             SecurityManager securityManager = (SecurityManager) BeanConfigFactory.getConfigBean("com.blobcity.pom.database.engine.factory.EngineBeanConfig").getBean("SecurityManagerBean");
             
             logger.info("Incoming connection on console end point from " + socket.getRemoteSocketAddress().toString());
-            /* Validate credentials */
+            /* Validate credentials and open a session */
             boolean authenticated = false;
+            String sessionToken = null;
             int retryCount = 0;
             
             JSONObject loginAttempt;
@@ -97,7 +98,8 @@ public class ConsoleEndPointService implements Runnable {
                 writer.write("password>");
                 writer.flush();
                 final String password = reader.readLine();
-                authenticated = securityManager.verifyCredentials(username, password);
+                sessionToken = securityManager.login(username, password);
+                authenticated = sessionToken != null;
 
                 loginAttempt = new JSONObject();
                 loginAttempt.put("ip", socket.getRemoteSocketAddress().toString())
@@ -123,22 +125,31 @@ public class ConsoleEndPointService implements Runnable {
             writeLine(writer, "Type 'help' for assistance and 'exit' to quit");
             writer.write("blobcity>");
             writer.flush();
-            while ((line = reader.readLine()) != null) {
-                switch (line) {
-                    case "exit":
-                    case "quit":
-                        writer.write("Closing console. Bye!");
-                        writer.newLine();
-                        writer.flush();
+            try {
+                while ((line = reader.readLine()) != null) {
+                    if (securityManager.getSessionUser(sessionToken) == null) {
+                        writeLine(writer, "Session has expired or was closed. Please log in again.");
                         exit();
                         return;
-                    default:
-                        String response = consoleExecutor.runCommand(username, line);
-                        writer.write(response);
-                        writer.newLine();
-                        writer.write("blobcity>");
-                        writer.flush();
+                    }
+                    switch (line) {
+                        case "exit":
+                        case "quit":
+                            writer.write("Closing console. Bye!");
+                            writer.newLine();
+                            writer.flush();
+                            exit();
+                            return;
+                        default:
+                            String response = consoleExecutor.runCommand(username, line);
+                            writer.write(response);
+                            writer.newLine();
+                            writer.write("blobcity>");
+                            writer.flush();
+                    }
                 }
+            } finally {
+                securityManager.logout(sessionToken);
             }
         } catch (IOException ex) {
             logger.error("An IO exception occured while reading/writing on the CLI socket", ex);
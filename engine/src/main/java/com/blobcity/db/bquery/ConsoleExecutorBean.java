@@ -20,8 +20,14 @@ import com.blobcity.db.bsql.BSqlCollectionManager;
 import com.blobcity.db.bsql.BSqlDataManager;
 import com.blobcity.db.bsql.BSqlDatastoreManager;
 import com.blobcity.db.bsql.BSqlIndexManager;
+import com.blobcity.db.cache.CacheRules;
+import com.blobcity.db.cache.DataCache;
+import com.blobcity.db.cache.IndexCache;
+import com.blobcity.db.cache.QueryResultCache;
 import com.blobcity.db.cli.statements.DDLStatement;
 import com.blobcity.db.cluster.nodes.NodeManager;
+import com.blobcity.db.cluster.partition.PartitionManager;
+import com.blobcity.db.cluster.partition.PartitionStore;
 import com.blobcity.db.code.CodeExecutor;
 import com.blobcity.db.code.CodeLoader;
 import com.blobcity.db.config.ConfigBean;
@@ -50,6 +56,9 @@ import com.blobcity.db.security.SecurityManagerBean;
 import com.blobcity.db.security.exceptions.BadPasswordException;
 import com.blobcity.db.security.exceptions.BadUsernameException;
 import com.blobcity.db.security.exceptions.InvalidCredentialsException;
+import com.blobcity.db.sql.execution.QueryContext;
+import com.blobcity.db.sql.execution.QueryMemoryManager;
+import com.blobcity.db.sql.execution.QueryScheduler;
 import com.blobcity.db.sql.util.PathUtil;
 import com.blobcity.db.storage.BSqlMemoryManagerOld;
 import com.blobcity.db.security.UserGroup;
@@ -67,6 +76,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -107,10 +117,14 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
     @Autowired @Lazy
     private CodeExecutor codeExecutor;
     @Autowired @Lazy
+    private CacheRules cacheRules;
+    @Autowired @Lazy
     private BSqlCollectionManager collectionManager;
     @Autowired @Lazy
     private ConfigBean configBean;
     @Autowired @Lazy
+    private DataCache dataCache;
+    @Autowired @Lazy
     private DataCubeManager dataCubeManager;
     @Autowired @Lazy
     private BSqlDatastoreManager datastoreManager;
@@ -121,6 +135,8 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
     @Autowired @Lazy
     private UserGroupManager groupManager;
     @Autowired @Lazy
+    private IndexCache indexCache;
+    @Autowired @Lazy
     private BSqlIndexManager indexManager;
     @Autowired @Lazy
     private LicenseBean licenseBean;
@@ -139,6 +155,16 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
     @Autowired @Lazy
     private QueryStore queryRequestStore;
     @Autowired @Lazy
+    private QueryMemoryManager queryMemoryManager;
+    @Autowired @Lazy
+    private QueryScheduler queryScheduler;
+    @Autowired @Lazy
+    private PartitionStore partitionStore;
+    @Autowired @Lazy
+    private PartitionManager partitionManager;
+    @Autowired @Lazy
+    private QueryResultCache queryResultCache;
+    @Autowired @Lazy
     private SQLExecutorBean sqlExecutorBean;
     @Autowired @Lazy
     private SchemaStore schemaStore;
@@ -182,8 +208,13 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
                 case "node-id":
                 case "apply-license":
                 case "cluster-status":
+                case "partitions":
+                case "rebalance":
                 case "set-replication":
                 case "set-geo-replication":
+                case "cache-stats":
+                case "cache-allow":
+                case "cache-deny":
                     return "Operation restricted";
             }
         }
@@ -210,6 +241,12 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
                 case "cluster-status":
                     response = clusterStatus();
                     break;
+                case "partitions":
+                    response = partitions();
+                    break;
+                case "rebalance":
+                    response = partitionManager.rebalance().toString();
+                    break;
 
             /* indexing related commands */
                 case "create-index":
@@ -410,6 +447,30 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
                 case "gc":
                     response = gc();
                     break;
+                case "cache-stats":
+                    response = cacheStats();
+                    break;
+                case "cache-allow":
+                    response = setCacheRule(elements, true);
+                    break;
+                case "cache-deny":
+                    response = setCacheRule(elements, false);
+                    break;
+                case "set-query-cache-staleness":
+                    response = setQueryCacheStaleness(elements);
+                    break;
+                case "set-query-memory":
+                    response = setQueryMemory(elements);
+                    break;
+                case "set-query-limit":
+                    response = setQueryLimit(elements);
+                    break;
+                case "set-query-timeout":
+                    response = setQueryTimeout(elements);
+                    break;
+                case "kill-query":
+                    response = killQuery(elements);
+                    break;
                 case "export-data":
                     response = exportData(elements);
                     break;
@@ -564,6 +625,19 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
         return status;
     }
 
+    /**
+     * Lists the nodes of the partition ring that distributed collections are placed on, and of the ring being
+     * rebalanced to if a rebalance is in progress
+     */
+    private String partitions() {
+        JSONObject responseJson = new JSONObject();
+        responseJson.put("ring", partitionStore.getRing().toJson());
+        if (partitionStore.getPendingRing() != null) {
+            responseJson.put("pending", partitionStore.getPendingRing().toJson());
+        }
+        return responseJson.toString();
+    }
+
     private String connectNode(String[] elements) throws OperationException {
         if (elements.length != 3) {
             throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "Format for connect-node command is> connect-node <node-id> <ip-address>");
@@ -939,6 +1013,154 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
         return "Garbage collection requested";
     }
 
+    private String cacheStats() {
+        JSONObject responseJson = new JSONObject();
+        responseJson.put("data", dataCache.getStats());
+        responseJson.put("index", indexCache.getStats());
+        responseJson.put("query", queryResultCache.getStats());
+        responseJson.put("rules", cacheRules.getRules());
+        return responseJson.toString();
+    }
+
+    private String setQueryCacheStaleness(String[] elements) throws OperationException {
+        if (elements.length != 3) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "set-query-cache-staleness takes two parameters: datastore name and staleness in milliseconds");
+        }
+
+        final String datastore = elements[1];
+        if (!datastoreManager.exists(datastore)) {
+            throw new OperationException(ErrorCode.DATASTORE_INVALID);
+        }
+
+        final long staleness;
+        try {
+            staleness = Long.parseLong(elements[2]);
+        } catch (NumberFormatException ex) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "Staleness must be a number of milliseconds");
+        }
+        queryResultCache.setStaleness(datastore, staleness);
+        return staleness > 0 ? "Cached query results up to " + staleness + " ms old will be served for datastore " + datastore
+                : "Only current query results will be served for datastore " + datastore;
+    }
+
+    private String setQueryMemory(String[] elements) throws OperationException {
+        if (elements.length != 3) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "set-query-memory takes two parameters: datastore name and memory per query in MB");
+        }
+
+        final String datastore = elements[1];
+        if (!datastoreManager.exists(datastore)) {
+            throw new OperationException(ErrorCode.DATASTORE_INVALID);
+        }
+
+        final long megabytes;
+        try {
+            megabytes = Long.parseLong(elements[2]);
+        } catch (NumberFormatException ex) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "Memory must be a number of MB");
+        }
+        queryMemoryManager.setBudget(datastore, megabytes * 1024 * 1024);
+        return "Queries on datastore " + datastore + " will spill to disk beyond " + queryMemoryManager.getBudget(datastore) / (1024 * 1024) + " MB";
+    }
+
+    private String setQueryLimit(String[] elements) throws OperationException {
+        if (elements.length != 3) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "set-query-limit takes two parameters: datastore name and number of queries that may run at a time");
+        }
+
+        final String datastore = elements[1];
+        if (!datastoreManager.exists(datastore)) {
+            throw new OperationException(ErrorCode.DATASTORE_INVALID);
+        }
+
+        final int limit;
+        try {
+            limit = Integer.parseInt(elements[2]);
+        } catch (NumberFormatException ex) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "Limit must be a number of queries");
+        }
+        queryScheduler.setLimit(datastore, limit);
+        return "Up to " + queryScheduler.getLimit(datastore) + " queries will run at a time on datastore " + datastore;
+    }
+
+    private String setQueryTimeout(String[] elements) throws OperationException {
+        if (elements.length != 3) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "set-query-timeout takes two parameters: datastore name and timeout in seconds");
+        }
+
+        final String datastore = elements[1];
+        if (!datastoreManager.exists(datastore)) {
+            throw new OperationException(ErrorCode.DATASTORE_INVALID);
+        }
+
+        final long seconds;
+        try {
+            seconds = Long.parseLong(elements[2]);
+        } catch (NumberFormatException ex) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "Timeout must be a number of seconds");
+        }
+        queryScheduler.setTimeout(datastore, seconds * 1000);
+        return "Queries on datastore " + datastore + " will be cancelled after running for " + queryScheduler.getTimeout(datastore) / 1000 + " seconds";
+    }
+
+    /**
+     * Kills a queued or running query by the id listed in <code>query-stats</code>
+     */
+    private String killQuery(String[] elements) throws OperationException {
+        if (elements.length != 2) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "kill-query takes one parameter: id of the query as listed by query-stats");
+        }
+
+        if (!queryScheduler.kill(elements[1])) {
+            throw new OperationException(ErrorCode.INVALID_REQUEST_ID, "No query currently queued or running with id " + elements[1]);
+        }
+        return "Query " + elements[1] + " killed";
+    }
+
+    /**
+     * Allows or denies caching for all datastores (<code>*</code>), a datastore, or a collection specified as
+     * <code>datastore.collection</code>
+     */
+    private String setCacheRule(String[] elements, final boolean allow) throws OperationException {
+        if (elements.length != 2) {
+            throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, elements[0] + " takes one parameter: *, a datastore name, or datastore.collection");
+        }
+
+        final String target = elements[1];
+        if ("*".equals(target)) {
+            if (allow) {
+                cacheRules.setAllowAll();
+            } else {
+                cacheRules.setDenyAll();
+            }
+            return "Caching " + (allow ? "allowed" : "denied") + " for all datastores";
+        }
+
+        if (target.contains(".")) {
+            final String datastore = target.substring(0, target.indexOf("."));
+            final String collection = target.substring(target.indexOf(".") + 1);
+            if (!collectionManager.exists(datastore, collection)) {
+                throw new OperationException(ErrorCode.COLLECTION_INVALID);
+            }
+            if (allow) {
+                cacheRules.setAllow(datastore, collection);
+            } else {
+                cacheRules.setDeny(datastore, collection);
+            }
+            return "Caching " + (allow ? "allowed" : "denied") + " for collection " + target;
+        }
+
+        if (!datastoreManager.exists(target)) {
+            throw new OperationException(ErrorCode.DATASTORE_INVALID);
+        }
+        if (allow) {
+            cacheRules.setAllow(target);
+        } else {
+            cacheRules.setDeny(target);
+        }
+        return "Caching " + (allow ? "allowed" : "denied") + " for datastore " + target;
+    }
+
     private String listTables(String[] elements) throws OperationException {
         if (elements.length == 1) {
             throw new OperationException(ErrorCode.INVALID_QUERY_FORMAT, "Datastore name missing");
@@ -1042,13 +1264,17 @@ public class ConsoleExecutorBean implements ConsoleExecutor {
         JSONObject responseJson = new JSONObject();
         JSONArray jsonArray = new JSONArray();
         responseJson.put("db", database);
+        responseJson.put("memory", queryMemoryManager.getStats(database));
+        responseJson.put("scheduler", queryScheduler.getStats(database));
 
         Map<String, QueryData> map = queryRequestStore.getAppQueries(database);
         if (map == null) {
             return "No queries currently executing for database " + database;
         }
+        final Map<String, QueryContext> scheduled = new HashMap<>();
+        queryScheduler.getQueries(database).forEach(context -> scheduled.put(context.getRequestId(), context));
         map.forEach((key, value) -> {
-            JSONObject itemJson = new JSONObject();
+            JSONObject itemJson = scheduled.containsKey(key) ? scheduled.get(key).toJson() : new JSONObject().put("id", key);
             itemJson.put("q", value.getQuery());
             itemJson.put("tm", currentTime - value.getStartTime());
             jsonArray.put(itemJson);
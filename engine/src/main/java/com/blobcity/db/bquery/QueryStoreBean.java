@@ -18,8 +18,8 @@ package com.blobcity.db.bquery;
 
 import com.blobcity.lib.database.bean.manager.interfaces.engine.QueryData;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.QueryStore;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.springframework.stereotype.Component;
 
 /**
@@ -28,15 +28,11 @@ import org.springframework.stereotype.Component;
  */
 @Component
 public class QueryStoreBean implements QueryStore {
-    private final Map<String, Map<String, QueryData>> map = new HashMap<>();
+    private final Map<String, Map<String, QueryData>> map = new ConcurrentHashMap<>();
     
     @Override
     public void register(final String appId, final String requestId, final QueryData queryData) {
-        if(!map.containsKey(appId)){
-            map.put(appId, new HashMap<>());
-        }
-        
-        map.get(appId).put(requestId, queryData);
+        map.computeIfAbsent(appId, key -> new ConcurrentHashMap<>()).put(requestId, queryData);
     }
     
     @Override
@@ -16,11 +16,16 @@
 
 package com.blobcity.db.bquery;
 
+import com.blobcity.db.cache.StatementCache;
 import com.blobcity.db.security.SecurityManagerBean;
+import com.blobcity.db.sql.execution.QueryContext;
+import com.blobcity.db.sql.execution.QueryScheduler;
 import com.blobcity.db.sql.statements.*;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.QueryData;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.QueryStore;
+import com.blobcity.lib.database.bean.manager.interfaces.engine.ResultWriter;
 import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.exceptions.DbRuntimeException;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.license.LicenseBean;
@@ -28,13 +33,16 @@ import com.blobcity.db.util.JSONOperationException;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.SqlExecutor;
 import com.foundationdb.sql.StandardException;
 import com.foundationdb.sql.parser.NodeTypes;
-import com.foundationdb.sql.parser.SQLParser;
 import com.foundationdb.sql.parser.StatementNode;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
@@ -74,6 +82,10 @@ public class SQLExecutorBean implements SqlExecutor {
     private CreateSchemaExecutor createSchemaExecutor;
     @Autowired
     private QueryStore requestStore;
+    @Autowired @Lazy
+    private StatementCache statementCache;
+    @Autowired @Lazy
+    private QueryScheduler queryScheduler;
 
     @Override
     public String runQuery(final String requestId, final String username, final String password, final String datastore, final String sqlString) {
@@ -89,16 +101,91 @@ public class SQLExecutorBean implements SqlExecutor {
         }
     }
 
+    @Override
+    public String runSessionQuery(final String requestId, final String sessionToken, final String datastore, final String sqlString) {
+        if (securityManager.getSessionUser(sessionToken) != null) {
+            return runQuery(requestId, datastore, sqlString);
+        } else {
+            return JSONOperationException.create(new OperationException(ErrorCode.SESSION_INVALID)).toString();
+        }
+    }
+
+    @Override
+    public void streamQuery(final String requestId, final String username, final String password, final String datastore, final String sqlString,
+            final ResultWriter resultWriter) {
+        if (securityManager.verifyCredentials(username, password)) {
+            respond(resultWriter, runQuery(requestId, datastore, sqlString, resultWriter));
+        } else {
+            respond(resultWriter, JSONOperationException.create(new OperationException(ErrorCode.USER_CREDENTIALS_INVALID)).toString());
+        }
+    }
+
+    @Override
+    public void streamSessionQuery(final String requestId, final String sessionToken, final String datastore, final String sqlString,
+            final ResultWriter resultWriter) {
+        if (securityManager.getSessionUser(sessionToken) != null) {
+            respond(resultWriter, runQuery(requestId, datastore, sqlString, resultWriter));
+        } else {
+            respond(resultWriter, JSONOperationException.create(new OperationException(ErrorCode.SESSION_INVALID)).toString());
+        }
+    }
+
     public String executePrivileged(final String datastore, final String sql) {
         return runQuery("", datastore, sql);
     }
 
+    @Override
+    public String prepareStatement(final String requestId, final String username, final String password, final String datastore, final String sqlString) {
+        if (securityManager.verifyCredentials(username, password)) {
+            return prepare(datastore, sqlString);
+        } else {
+            return JSONOperationException.create(new OperationException(ErrorCode.USER_CREDENTIALS_INVALID)).toString();
+        }
+    }
+
+    @Override
+    public String prepareSessionStatement(final String requestId, final String sessionToken, final String datastore, final String sqlString) {
+        if (securityManager.getSessionUser(sessionToken) != null) {
+            return prepare(datastore, sqlString);
+        } else {
+            return JSONOperationException.create(new OperationException(ErrorCode.SESSION_INVALID)).toString();
+        }
+    }
+
+    @Override
+    public String executeStatement(final String requestId, final String username, final String password, final String datastore, final String statementId, final String params) {
+        if (securityManager.verifyCredentials(username, password)) {
+            return runPrepared(requestId, datastore, statementId, params);
+        } else {
+            return JSONOperationException.create(new OperationException(ErrorCode.USER_CREDENTIALS_INVALID)).toString();
+        }
+    }
+
+    @Override
+    public String executeSessionStatement(final String requestId, final String sessionToken, final String datastore, final String statementId, final String params) {
+        if (securityManager.getSessionUser(sessionToken) != null) {
+            return runPrepared(requestId, datastore, statementId, params);
+        } else {
+            return JSONOperationException.create(new OperationException(ErrorCode.SESSION_INVALID)).toString();
+        }
+    }
+
     //This method will be made private and renamed later
     private String runQuery(final String requestId, final String datastore, final String sqlString) {
+        return runQuery(requestId, datastore, sqlString, null);
+    }
+
+    /**
+     * Runs a query, streaming the response of a SELECT to the writer if one is given
+     *
+     * @param resultWriter receives a streamed response; <code>null</code> to return the complete response
+     * @return the complete response; <code>null</code> if the response was streamed to the writer
+     */
+    private String runQuery(final String requestId, final String datastore, final String sqlString, final ResultWriter resultWriter) {
         if (StringUtils.isBlank(datastore) || StringUtils.isBlank(sqlString)) {
             return JSONOperationException.create(new OperationException(ErrorCode.INVALID_QUERY)).toString();
         }
-        StatementNode stmt;
+        final StatementCache.Statement statement;
 
         final String tempRequestId = UUID.randomUUID().toString();
         final long startTime = System.currentTimeMillis();
@@ -108,50 +195,157 @@ public class SQLExecutorBean implements SqlExecutor {
 
         try {
 
-            SQLParser parser = new SQLParser();
             try {
-                stmt = parser.parseStatement(sqlString);
+                statement = statementCache.get(datastore, sqlString);
             } catch (StandardException ex) {
                 String msg = "Invalid SQL. ParseStatement failed: " + sqlString + ". " + ex.getMessage();
                 logger.info(msg, ex);
                 return new JSONObject().put("ack", "0").put("cause", msg).toString();
             }
 
-            try {
-                switch (stmt.getNodeType()) {
-                    case NodeTypes.CURSOR_NODE:
-                        return selectExecutor.execute(datastore, stmt, sqlString);
-                    case NodeTypes.UPDATE_NODE:
-                        return updateExecutor.execute(datastore, stmt);
-                    case NodeTypes.DELETE_NODE:
-                        return deleteExecutor.execute(datastore, stmt);
-                    case NodeTypes.CREATE_TABLE_NODE:
-                        return createTableExecutor.execute(datastore, stmt);
-                    case NodeTypes.ALTER_TABLE_NODE:
-                        return alterTableExecutor.execute(datastore, stmt);
-                    case NodeTypes.DROP_TABLE_NODE:
-                        return dropTableExecutor.execute(datastore, stmt);
-                    case NodeTypes.CREATE_SCHEMA_NODE:
-                        return createSchemaExecutor.execute(stmt);
-                    default:
-                        throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Unsupported statement type: "
-                                + stmt.getNodeType()
-                                + ". "
-                                + sqlString);
+            if (statement.getParameterCount() > 0) {
+                return JSONOperationException.create(new OperationException(ErrorCode.INVALID_QUERY,
+                        "Statement has parameters. Prepare the statement and execute it with the parameter values")).toString();
+            }
+            return execute(tempRequestId, datastore, statement.getNode(), sqlString, resultWriter);
+        } finally {
+            long executionTime = System.currentTimeMillis() - startTime;
+            requestStore.unregister(datastore, tempRequestId);
+            logger.debug("SQL Query ({}, {}) Executed in (ms): {} ", requestId, tempRequestId, executionTime);
+        }
+    }
+
+    private String prepare(final String datastore, final String sqlString) {
+        if (StringUtils.isBlank(datastore) || StringUtils.isBlank(sqlString)) {
+            return JSONOperationException.create(new OperationException(ErrorCode.INVALID_QUERY)).toString();
+        }
+
+        try {
+            final StatementCache.PreparedStatement preparedStatement = statementCache.prepare(datastore, sqlString);
+            logger.debug("Prepared statement ({}): {}", preparedStatement.getId(), sqlString);
+            return new JSONObject().put("ack", "1").put("statement", preparedStatement.getId())
+                    .put("parameters", preparedStatement.getParameterCount()).toString();
+        } catch (StandardException ex) {
+            String msg = "Invalid SQL. ParseStatement failed: " + sqlString + ". " + ex.getMessage();
+            logger.info(msg, ex);
+            return new JSONObject().put("ack", "0").put("cause", msg).toString();
+        }
+    }
+
+    /**
+     * Executes a prepared statement
+     *
+     * @param params JSON array holding the value of each parameter of the statement in order; may be blank for a
+     * statement without parameters
+     */
+    private String runPrepared(final String requestId, final String datastore, final String statementId, final String params) {
+        if (StringUtils.isBlank(datastore) || StringUtils.isBlank(statementId)) {
+            return JSONOperationException.create(new OperationException(ErrorCode.INVALID_QUERY)).toString();
+        }
+        final String label = "Prepared statement " + statementId;
+
+        final String tempRequestId = UUID.randomUUID().toString();
+        final long startTime = System.currentTimeMillis();
+        logger.debug("SQL Query ({}): {} with parameters {}", tempRequestId, label, params);
+
+        requestStore.register(datastore, tempRequestId, new QueryData(label, startTime));
+
+        try {
+            final List<Object> values = new ArrayList<>();
+            if (!StringUtils.isBlank(params)) {
+                final JSONArray jsonArray = new JSONArray(params);
+                for (int i = 0; i < jsonArray.length(); i++) {
+                    values.add(jsonArray.get(i));
                 }
-            } catch (OperationException e) {
-                return JSONOperationException.create(e).toString();
-            } catch (IOException ex) {
-                logger.error(null ,ex);
             }
+            return execute(tempRequestId, datastore, statementCache.bind(datastore, statementId, values).getNode(), label, null);
+        } catch (JSONException ex) {
+            return JSONOperationException.create(new OperationException(ErrorCode.INVALID_QUERY, "Parameters must be a JSON array")).toString();
+        } catch (OperationException ex) {
+            return JSONOperationException.create(ex).toString();
+        } catch (StandardException ex) {
+            String msg = "Invalid SQL. ParseStatement failed: " + label + ". " + ex.getMessage();
+            logger.info(msg, ex);
+            return new JSONObject().put("ack", "0").put("cause", msg).toString();
         } finally {
             long executionTime = System.currentTimeMillis() - startTime;
             requestStore.unregister(datastore, tempRequestId);
             logger.debug("SQL Query ({}, {}) Executed in (ms): {} ", requestId, tempRequestId, executionTime);
         }
+    }
+
+    /**
+     * Executes a statement once it is admitted by the {@link QueryScheduler}. The statement can be killed through its
+     * request id while it waits for admission or runs.
+     */
+    private String execute(final String requestId, final String datastore, final StatementNode stmt, final String sqlString, final ResultWriter resultWriter) {
+        final QueryContext context;
+        try {
+            context = queryScheduler.admit(datastore, requestId, sqlString, QueryScheduler.classify(stmt));
+        } catch (OperationException ex) {
+            return JSONOperationException.create(ex).toString();
+        }
+
+        try {
+            return execute(datastore, stmt, sqlString, resultWriter);
+        } finally {
+            queryScheduler.release(context);
+        }
+    }
+
+    private String execute(final String datastore, final StatementNode stmt, final String sqlString, final ResultWriter resultWriter) {
+        try {
+            switch (stmt.getNodeType()) {
+                case NodeTypes.CURSOR_NODE:
+                    return resultWriter != null ? selectExecutor.stream(datastore, stmt, sqlString, resultWriter)
+                            : selectExecutor.execute(datastore, stmt, sqlString);
+                case NodeTypes.UPDATE_NODE:
+                    return updateExecutor.execute(datastore, stmt);
+                case NodeTypes.DELETE_NODE:
+                    return deleteExecutor.execute(datastore, stmt);
+                case NodeTypes.CREATE_TABLE_NODE:
+                    return createTableExecutor.execute(datastore, stmt);
+                case NodeTypes.ALTER_TABLE_NODE:
+                    return alterTableExecutor.execute(datastore, stmt);
+                case NodeTypes.DROP_TABLE_NODE:
+                    return dropTableExecutor.execute(datastore, stmt);
+                case NodeTypes.CREATE_SCHEMA_NODE:
+                    return createSchemaExecutor.execute(stmt);
+                default:
+                    throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Unsupported statement type: "
+                            + stmt.getNodeType()
+                            + ". "
+                            + sqlString);
+            }
+        } catch (OperationException e) {
+            return JSONOperationException.create(e).toString();
+        } catch (DbRuntimeException ex) {
+            if (ex.getCause() instanceof OperationException) {
+                return JSONOperationException.create((OperationException) ex.getCause()).toString();
+            }
+            throw ex;
+        } catch (IOException ex) {
+            logger.error(null ,ex);
+        }
         return null;
     }
 
+    /**
+     * Writes a response that was not streamed to the writer
+     *
+     * @param response the complete response; <code>null</code> if the response was already streamed
+     */
+    private void respond(final ResultWriter resultWriter, final String response) {
+        if (response == null) {
+            return;
+        }
+        try {
+            resultWriter.writeResponse(response);
+        } catch (IOException ex) {
+            logger.warn("Could not write query response: " + ex.getMessage());
+        }
+    }
+
     // Setters for EJBs (used for setting mocks in unit tests ---------------------------------------------------------
     public void setLicenseBean(LicenseBean licenseBean) {
         this.licenseBean = licenseBean;
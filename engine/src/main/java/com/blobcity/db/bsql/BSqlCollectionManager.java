@@ -16,13 +16,18 @@
 
 package com.blobcity.db.bsql;
 
+import com.blobcity.db.cache.DataCache;
+import com.blobcity.db.cache.QueryResultCache;
 import com.blobcity.db.constants.BSql;
 import com.blobcity.db.constants.License;
 import com.blobcity.db.data.RowCountManager;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.data.RowIdStore;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.indexcache.OnDiskBtreeIndexCache;
 import com.blobcity.db.indexing.IndexFactory;
+import com.blobcity.db.indexing.IndexSyncStore;
 import com.blobcity.db.indexing.IndexingStrategy;
 import com.blobcity.db.lang.columntypes.FieldType;
 import com.blobcity.db.lang.columntypes.FieldTypeFactory;
@@ -36,6 +41,9 @@ import com.blobcity.db.schema.*;
 import com.blobcity.db.schema.beans.SchemaManager;
 import com.blobcity.db.schema.beans.SchemaStore;
 import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.indexing.PackedIndexStore;
+import com.blobcity.db.storage.SegmentStore;
+import com.blobcity.db.transaction.CollectionCommitLogWriter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -85,6 +93,22 @@ public class BSqlCollectionManager {
     private MemCollectionStoreBean memCollectionStoreBean;
     @Autowired @Lazy
     private OnDiskBtreeIndexCache onDiskBtreeIndexCache;
+    @Autowired @Lazy
+    private DataCache dataCache;
+    @Autowired @Lazy
+    private QueryResultCache queryResultCache;
+    @Autowired @Lazy
+    private SegmentStore segmentStore;
+    @Autowired @Lazy
+    private PackedIndexStore packedIndexStore;
+    @Autowired @Lazy
+    private CollectionCommitLogWriter collectionCommitLogWriter;
+    @Autowired @Lazy
+    private RowIdStore rowIdStore;
+    @Autowired @Lazy
+    private RowCountStore rowCountStore;
+    @Autowired @Lazy
+    private IndexSyncStore indexSyncStore;
     
     /**
      * Create a new table with the given name
@@ -250,6 +274,14 @@ public class BSqlCollectionManager {
             throw new OperationException(ErrorCode.COLLECTION_INVALID, "Attempting to drop an inexistent table");
         }
 
+        /* Release open segment files of the table */
+        segmentStore.evict(datastore, collection);
+        packedIndexStore.evict(datastore, collection);
+        collectionCommitLogWriter.evict(datastore, collection);
+        rowIdStore.evict(datastore, collection);
+        rowCountStore.evict(datastore, collection);
+        indexSyncStore.evict(datastore, collection);
+
         /* Move table to delete folder */
         long currentTime = System.currentTimeMillis();
         backupPath = BSql.BSQL_BASE_FOLDER + datastore + BSql.DELETE_FOLDER + collection + "." + currentTime;
@@ -274,7 +306,9 @@ public class BSqlCollectionManager {
             // TODO: delete data cube from here
         }
 
-        /* Invalidate any index caches */
+        /* Invalidate any data and index caches */
+        dataCache.invalidate(datastore, collection);
+        queryResultCache.invalidate(datastore, collection);
         onDiskBtreeIndexCache.invalidate(datastore, collection);
     }
 
@@ -300,6 +334,13 @@ public class BSqlCollectionManager {
         absolutePath = PathUtil.tableFolderPath(datastore, collection);
         file = new File(absolutePath);
 
+        segmentStore.evict(datastore, collection);
+        packedIndexStore.evict(datastore, collection);
+        collectionCommitLogWriter.evict(datastore, collection);
+        rowIdStore.evict(datastore, collection);
+        rowCountStore.evict(datastore, collection);
+        indexSyncStore.evict(datastore, collection);
+
         try{
             Files.delete(FileSystems.getDefault().getPath(absolutePath));
         } catch (IOException ex) {
@@ -316,7 +357,9 @@ public class BSqlCollectionManager {
             // TODO: delete data cube from here
         }
 
-        /* Invalidate any index caches */
+        /* Invalidate any data and index caches */
+        dataCache.invalidate(datastore, collection);
+        queryResultCache.invalidate(datastore, collection);
         onDiskBtreeIndexCache.invalidate(datastore, collection);
     }
 
@@ -348,7 +391,9 @@ public class BSqlCollectionManager {
         dropTable(datastore, collection);
         createTable(datastore, collection, jsonSchema);
 
-        /* Invalidate any index caches */
+        /* Invalidate any data and index caches */
+        dataCache.invalidate(datastore, collection);
+        queryResultCache.invalidate(datastore, collection);
         onDiskBtreeIndexCache.invalidate(datastore, collection);
     }
 
@@ -392,6 +437,14 @@ public class BSqlCollectionManager {
                     + ", but a table with the name " + collectionNewName + " already isPresent");
         }
 
+        /* Release open segment files of the table */
+        segmentStore.evict(datastore, collectionOldName);
+        packedIndexStore.evict(datastore, collectionOldName);
+        collectionCommitLogWriter.evict(datastore, collectionOldName);
+        rowIdStore.evict(datastore, collectionOldName);
+        rowCountStore.evict(datastore, collectionOldName);
+        indexSyncStore.evict(datastore, collectionOldName);
+
         if (!currentTableFile.renameTo(newTableFile)) {
             throw new OperationException(ErrorCode.RENAME_COLLECTION_ERROR, "Rename of table: " + collectionOldName + " to table: " + collectionNewName
                     + " failed with a file system error. Please contact system administrators");
@@ -404,7 +457,11 @@ public class BSqlCollectionManager {
             // TODO: update data cube here with column rename
         }
 
-        /* Invalidate any index caches */
+        /* Invalidate any data and index caches */
+        dataCache.invalidate(datastore, collectionOldName);
+        dataCache.invalidate(datastore, collectionNewName);
+        queryResultCache.invalidate(datastore, collectionOldName);
+        queryResultCache.invalidate(datastore, collectionNewName);
         onDiskBtreeIndexCache.invalidate(datastore, collectionOldName);
         onDiskBtreeIndexCache.invalidate(datastore, collectionNewName); //just in case someone screws up the code
     }
@@ -675,11 +732,11 @@ public class BSqlCollectionManager {
         File file;
         final String absolutePath = PathUtil.tableFolderPath(datastore, collection);
 
-        /* Make table data directory */
-        file = new File(absolutePath + "/data");
+        /* Make table data segments directory */
+        file = new File(absolutePath + "/segments");
         if (!file.mkdir()) {
             undoCreateTable(datastore, collection);
-            logger.warn("Could not create table data folder. app = {}. table = {}", new Object[]{datastore, collection});
+            logger.warn("Could not create table segments folder. app = {}. table = {}", new Object[]{datastore, collection});
             throw new OperationException(ErrorCode.COLLECTION_CREATION_ERROR, "The table: " + collection + " could not be created");
         }
 
@@ -27,8 +27,11 @@ import com.blobcity.db.bsql.filefilters.NEQFilenameFilter;
 import com.blobcity.db.bsql.filefilters.NotInFilenameFilter;
 import com.blobcity.db.bsql.filefilters.OperatorFileFilter;
 import com.blobcity.db.cache.QueryResultCache;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.data.RowIdStore;
 import com.blobcity.db.code.CodeExecutor;
 import com.blobcity.db.code.triggers.TriggerFunction;
+import com.blobcity.db.exceptions.DbRuntimeException;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.indexing.IndexFactory;
@@ -54,6 +57,7 @@ import com.blobcity.db.schema.Schema;
 import com.blobcity.db.schema.Types;
 import com.blobcity.db.schema.beans.SchemaManager;
 import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.execution.QueryContext;
 import com.blobcity.db.storage.BSqlFileManager;
 
 import java.io.BufferedReader;
@@ -63,8 +67,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -127,6 +133,12 @@ public class BSqlDataManager {
     @Lazy
     @Autowired
     private QueryResultCache queryResultCache;
+    @Lazy
+    @Autowired
+    private RowCountStore rowCountStore;
+    @Lazy
+    @Autowired
+    private RowIdStore rowIdStore;
 
     /**
      *
@@ -149,7 +161,7 @@ public class BSqlDataManager {
         try {
 //            recordLockBean.acquireReadLock(account, collection, _id);
             if (! collectionManager.isInMemory(datastore, collection)) {
-                fileJson = new JSONObject(fileManager.select(datastore, collection, _id));
+                fileJson = fileManager.select(datastore, collection, _id);
             } else {
                 fileJson = new JSONObject(memoryManagerOld.select(datastore, collection, _id));
             }
@@ -172,13 +184,40 @@ public class BSqlDataManager {
         }
     }
 
+    /**
+     * Selects only the specified columns of a record. For on-disk collections only the selected columns are decoded
+     * from the stored record and converted to viewable form. A primary key column with UUID auto-definition always
+     * holds the key of the record, so it is answered from the key itself, and the record is not read at all when it
+     * is the only selected column.
+     *
+     * @param datastore the datastore
+     * @param collection name of the collection
+     * @param _id primary key of the record
+     * @param columns viewable names of the columns to select
+     * @return viewable JSON containing the selected columns that are present in the schema
+     * @throws OperationException if the record is not found or is corrupted
+     */
     public JSONObject select(final String datastore, final String collection, final String _id, final Set<String> columns) throws OperationException {
+        final boolean inMemory = collectionManager.isInMemory(datastore, collection);
+        final String keyColumn = inMemory ? null : keyColumn(datastore, collection, columns);
+        if (keyColumn != null && columns.size() == 1) {
+            if (!fileManager.exists(datastore, collection, _id)) {
+                throw new OperationException(ErrorCode.PRIMARY_KEY_INEXISTENT, "A record with the given primary key: " + _id + " could not be found in table: " + collection);
+            }
+            JSONObject viewableResultJson = new JSONObject();
+            viewableResultJson.put(keyColumn, _id);
+            return viewableResultJson;
+        }
+
         JSONObject fileJson;
-        //TODO: Optimize to load data from index only rather than from actual record
         try {
 //            recordLockBean.acquireReadLock(account, collection, _id);
-            if (!collectionManager.isInMemory(datastore, collection)) {
-                fileJson = new JSONObject(fileManager.select(datastore, collection, _id));
+            if (!inMemory) {
+                final Set<String> internalColumns = toInternalColumns(datastore, collection, columns);
+                if (keyColumn != null) {
+                    internalColumns.remove(SchemaStore.getInstance().getColumnMapping(datastore, collection).getInternalName(keyColumn));
+                }
+                fileJson = fileManager.select(datastore, collection, _id, internalColumns);
             } else {
                 fileJson = new JSONObject(memoryManagerOld.select(datastore, collection, _id));
             }
@@ -194,8 +233,10 @@ public class BSqlDataManager {
         }
 
         try {
-            JSONObject viewableResultJson = schemaManager.internalToViewable(datastore, collection, fileJson);
-            retainSelectedColumns(viewableResultJson, columns);
+            JSONObject viewableResultJson = schemaManager.internalToViewable(datastore, collection, fileJson, columns);
+            if (keyColumn != null) {
+                viewableResultJson.put(keyColumn, _id);
+            }
             return viewableResultJson;
         } catch (OperationException ex) {
             logger.error(null, ex);
@@ -216,7 +257,7 @@ public class BSqlDataManager {
         JSONObject fileJson;
         try {
             if (!collectionManager.isInMemory(datastore, collection)) {
-                fileJson = new JSONObject(fileManager.select(datastore, collection, _id));
+                fileJson = fileManager.select(datastore, collection, _id);
             } else {
                 fileJson = new JSONObject(memoryManagerOld.select(datastore, collection, _id));
             }
@@ -367,9 +408,9 @@ public class BSqlDataManager {
     public Iterator<String> selectAllKeysAsStream(final String datastore, final String collection) throws OperationException {
         try {
             if (!collectionManager.isInMemory(datastore, collection)) {
-                return fileManager.selectAllKeysAsStream(datastore, collection);
+                return cancellable(fileManager.selectAllKeysAsStream(datastore, collection));
             } else {
-                return memoryManagerOld.selectAllKeysAsStream(datastore, collection);
+                return cancellable(memoryManagerOld.selectAllKeysAsStream(datastore, collection));
             }
         } catch (IOException ex) {
             logger.error(null, ex);
@@ -393,6 +434,7 @@ public class BSqlDataManager {
                 iterator = fileManager.selectAllKeysAsStream(datastore, collection);
                 int count = 0;
                 while(count++ < limit && iterator.hasNext()) {
+                    QueryContext.checkCancelled();
                     keys.add(iterator.next());
                 }
             } catch (IOException e) {
@@ -404,9 +446,45 @@ public class BSqlDataManager {
         return keys;
     }
     
-    public Iterator<JSONObject> selectAllAsStream(final String datastore, final String collection) {
-        //Iterator<Path> iterator = fileManager.selectAllAsStream(dsSet, collection);
-        throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Gets a stream of all records present in the specified on-disk collection. Records are read in their on-disk
+     * order, so that a full scan of a segmented collection is served by sequential reads.
+     *
+     * @param datastore The dsSet name
+     * @param collection The collection name of the target collection for selecting the records
+     * @return An <code>Iterator<JSONObject></code> over viewable form of all records within the collection
+     * @throws OperationException If the collection is in-memory or if an error occurs in reading the records
+     */
+    public Iterator<JSONObject> selectAllAsStream(final String datastore, final String collection) throws OperationException {
+        if (collectionManager.isInMemory(datastore, collection)) {
+            throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "In-Memory select all records as stream not yet supported");
+        }
+
+        final Iterator<Map.Entry<String, JSONObject>> iterator;
+        try {
+            iterator = fileManager.selectAllAsStream(datastore, collection);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An exception occurred in reading records from the collection");
+        }
+
+        return new Iterator<JSONObject>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public JSONObject next() {
+                try {
+                    QueryContext.checkCancelled();
+                    final Map.Entry<String, JSONObject> entry = iterator.next();
+                    return schemaManager.internalToViewable(datastore, collection, entry.getValue());
+                } catch (OperationException ex) {
+                    throw new DbRuntimeException(ex);
+                }
+            }
+        };
     }
 
     public Iterator<Object> selectMemoryRecordsWithPattern(final String datastore, final String collection, final List<String> colsToSelect, final String column, final Object referenceValue, final Operators operator) throws OperationException {
@@ -623,16 +701,48 @@ public class BSqlDataManager {
                         return listForIterator.iterator();
                 }
                 if (!collectionManager.isInMemory(datastore, collection)) {
-                    return fileManager.selectWithFilterAsStream(datastore, collection, directoryStreamFilter);
+                    return cancellable(fileManager.selectWithFilterAsStream(datastore, collection, directoryStreamFilter));
                 }
-                return memoryManagerOld.selectWithFilterAsStream(datastore, collection, directoryStreamFilter);
+                return cancellable(memoryManagerOld.selectWithFilterAsStream(datastore, collection, directoryStreamFilter));
             } catch (IOException ex) {
                 logger.error(null, ex);
                 throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR);
             }
         } else {
-            return indexManager.readIndexStreamWithFilter(datastore, collection, column, directoryStreamFilter);
+            return cancellable(indexManager.readIndexStreamWithFilter(datastore, collection, column, directoryStreamFilter));
+        }
+    }
+
+    /**
+     * Wraps an iterator over keys read from storage so that iteration stops once the query reading the keys is
+     * cancelled, by throwing a {@link DbRuntimeException} holding the cancellation
+     */
+    private static <T> Iterator<T> cancellable(final Iterator<T> iterator) {
+        if (QueryContext.current() == null) {
+            return iterator;
         }
+
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    QueryContext.checkCancelled();
+                } catch (OperationException ex) {
+                    throw new DbRuntimeException(ex);
+                }
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
     }
 
     /**
@@ -685,8 +795,7 @@ public class BSqlDataManager {
                     key = keysIterator.next();
                     
                     if (!collectionManager.isInMemory(datastore, collection)) {
-                        String selectJson = fileManager.select(datastore, collection, key);
-                        return schemaManager.internalToViewable(datastore, collection, new JSONObject(selectJson));
+                        return schemaManager.internalToViewable(datastore, collection, fileManager.select(datastore, collection, key));
                     }
 
                     String selectJson = memoryManagerOld.select(datastore, collection, key);
@@ -717,74 +826,11 @@ public class BSqlDataManager {
 
     public JSONObject insert(final String datastore, final String collection, final JSONObject jsonObject) throws OperationException {
         queryResultCache.invalidate(datastore, collection);
-        Schema schema;
-        String primaryKey;
-        schema = SchemaStore.getInstance().getSchema(datastore, collection);
-        
-        IndexTypes indexType = IndexTypes.fromString("unique");
-        AutoDefineTypes autoDefineType = AutoDefineTypes.fromString("uuid");
-        FieldType fieldType = FieldTypeFactory.fromString("string");
-        Column primaryColumn = new Column("_id", fieldType, indexType, autoDefineType);
-        
-//        if (collectionManager.isInMemory(datastore, collection)) {
-
-            Iterator<String> keys = jsonObject.keys();
-            while (keys.hasNext()) {
-                String currentColName = keys.next();
-                String val = null;
-                if (!schema.getColumnMap().containsKey(currentColName)) {
-                    indexType = IndexTypes.fromString("none");
-                    autoDefineType = AutoDefineTypes.fromString("none");
-                    Object colValue = jsonObject.get(currentColName);
-//                    if(colValue instanceof JSONArray) {
-//                        fieldType = FieldTypeFactory.fromString("array");
-//                    } else {
-                    fieldType = FieldTypeFactory.fromString("string");
-//                    }
-
-                    Column column = new Column(currentColName, fieldType, indexType, autoDefineType);
-                    schema.getColumnMap().put(currentColName, column);
-                    try {
-                        schemaManager.writeSchema(datastore, collection, schema, true);
-                    } catch (JSONException ex) {
-                        //TODO: Notify admin
-                        throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred");
-                    }
-                }
-            }
-//        }
-        /* Set value of auto defined item by ignoring any value if already set, also add missing auto-defined columns.
-         Also checks if indexing is required */
-        try {
-            for (String columnName : schema.getColumnMap().keySet()) {
-                final Column column = schema.getColumn(columnName);
-                switch (column.getAutoDefineType()) {
-                    case UUID:
-                        jsonObject.put(columnName, UUID.randomUUID().toString());
-                        break;
-                    case TIMESTAMP:
-                        jsonObject.put(columnName, System.currentTimeMillis());
-                        break;
-                }
-            }
-        } catch (JSONException ex) {
-
-            //TODO: Notify admin
-            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred " + ex.getMessage());
-        }
-
-        //check for primary key
-        try {
-            primaryKey = jsonObject.getString(schema.getPrimary());
-        } catch (JSONException ex) {
-            primaryKey = UUID.randomUUID().toString();
-        }
-
-        //insert value depending on the primary key mentioned in the query
-        if (primaryKey == null || primaryKey.isEmpty()) {
-            throw new OperationException(ErrorCode.INSERT_ERROR, "INSERT with a null or empty primary key is not permitted");
+        final Schema schema = SchemaStore.getInstance().getSchema(datastore, collection);
+        if (addNewColumns(schema, jsonObject)) {
+            writeSchema(datastore, collection, schema);
         }
-
+        final String primaryKey = prepareInsert(schema, jsonObject);
 
         /* Insert new record */
 
@@ -796,7 +842,7 @@ public class BSqlDataManager {
         try {
 //            recordLockBean.acquireWriteLock(account, collection, primaryKey);
             if (!collectionManager.isInMemory(datastore, collection)) {
-                fileManager.insert(datastore, collection, primaryKey, fileJson.toString());
+                fileManager.insert(datastore, collection, primaryKey, fileJson);
             } else {
                 ColumnMapping map = schemaManager.readColumnMapping(datastore, collection);
                 //memoryManagerOld.insert(dsSet, collection, primaryKey, fileJson, map.getViewableNameMap());
@@ -804,7 +850,7 @@ public class BSqlDataManager {
                 memoryManager.insert(datastore, collection, new JsonRecord(fileJson));
 //                memoryManagerOld.insert(datastore, collection, primaryKey, fileJson);
             }
-//            rowCountStore.incrementRowCount(dsSet, collection);
+            rowCountStore.incrementRowCount(datastore, collection);
             responseJson = schemaManager.internalToViewable(datastore, collection, fileJson);
 
             /* Update indexes */
@@ -821,6 +867,156 @@ public class BSqlDataManager {
         return responseJson;
     }
 
+    /**
+     * Inserts a batch of records. Work that {@link #insert(String, String, JSONObject)} repeats for every record is
+     * done once for the batch: columns new to the schema across all records are added with a single schema write,
+     * records of on-disk collections are appended together along with a single change to the row count, index entries
+     * are grouped by column value, triggers are resolved once, and the query cache and Tableau publishing are notified
+     * once.
+     *
+     * @param datastore the datastore
+     * @param collection name of the collection
+     * @param jsonObjects the records to insert, in viewable form
+     * @return the viewable form of each inserted record, in the order of the passed records. The entry is
+     * <code>null</code> for a record that could not be inserted, such as one whose primary key is already present
+     * @throws OperationException if the schema could not be updated or the batch could not be written
+     */
+    public List<JSONObject> insertBatch(final String datastore, final String collection, final List<JSONObject> jsonObjects) throws OperationException {
+        final List<JSONObject> responses = new ArrayList<>(Collections.nCopies(jsonObjects.size(), (JSONObject) null));
+        if (jsonObjects.isEmpty()) {
+            return responses;
+        }
+
+        if (collectionManager.isInMemory(datastore, collection)) {
+            for (int i = 0; i < jsonObjects.size(); i++) {
+                try {
+                    responses.set(i, insert(datastore, collection, jsonObjects.get(i)));
+                } catch (OperationException ex) {
+                    logger.debug("Insert failed within batch for " + datastore + "." + collection + ": " + ex.getMessage());
+                }
+            }
+            return responses;
+        }
+
+        queryResultCache.invalidate(datastore, collection);
+        final Schema schema = SchemaStore.getInstance().getSchema(datastore, collection);
+        boolean schemaChanged = false;
+        for (JSONObject jsonObject : jsonObjects) {
+            schemaChanged |= addNewColumns(schema, jsonObject);
+        }
+        if (schemaChanged) {
+            writeSchema(datastore, collection, schema);
+        }
+
+        /* records are keyed by primary key, in batch order. Only the first of records sharing a primary key is kept */
+        final Map<String, JSONObject> fileJsons = new LinkedHashMap<>();
+        final Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < jsonObjects.size(); i++) {
+            try {
+                final String primaryKey = prepareInsert(schema, jsonObjects.get(i));
+                if (!fileJsons.containsKey(primaryKey)) {
+                    fileJsons.put(primaryKey, schemaManager.viewableToInternal(datastore, collection, jsonObjects.get(i)));
+                    positions.put(primaryKey, i);
+                }
+            } catch (OperationException ex) {
+                logger.debug("Insert failed within batch for " + datastore + "." + collection + ": " + ex.getMessage());
+            }
+        }
+
+        codeExecutor.executeTrigger(datastore, collection, TriggerFunction.BEFORE_INSERT, new ArrayList<>(fileJsons.values()));
+        fileJsons.keySet().removeAll(fileManager.insertAll(datastore, collection, fileJsons));
+        rowCountStore.add(datastore, collection, fileJsons.size());
+
+        final Map<String, JSONObject> viewableJsons = new LinkedHashMap<>();
+        for (Map.Entry<String, JSONObject> entry : fileJsons.entrySet()) {
+            final JSONObject responseJson = schemaManager.internalToViewable(datastore, collection, entry.getValue());
+            viewableJsons.put(entry.getKey(), responseJson);
+            responses.set(positions.get(entry.getKey()), responseJson);
+        }
+
+        if (schema.isIndexingNeeded()) {
+            indexManager.addIndex(datastore, collection, viewableJsons);
+        }
+
+        codeExecutor.executeTrigger(datastore, collection, TriggerFunction.AFTER_INSERT, new ArrayList<>(fileJsons.values()));
+        tableauPublishStore.notifyDataChange(datastore, collection);
+        return responses;
+    }
+
+    /**
+     * Adds columns of the record that are not in the schema as non-indexed string columns. The schema is only changed
+     * in memory, and must be written by the caller if this function returns <code>true</code>.
+     *
+     * @return <code>true</code> if any column was added to the schema; <code>false</code> otherwise
+     * @throws OperationException if the type of a new column cannot be created
+     */
+    private boolean addNewColumns(final Schema schema, final JSONObject jsonObject) throws OperationException {
+        boolean added = false;
+        Iterator<String> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String currentColName = keys.next();
+            if (!schema.getColumnMap().containsKey(currentColName)) {
+                Column column = new Column(currentColName, FieldTypeFactory.fromString("string"), IndexTypes.fromString("none"), AutoDefineTypes.fromString("none"));
+                schema.getColumnMap().put(currentColName, column);
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    private void writeSchema(final String datastore, final String collection, final Schema schema) throws OperationException {
+        try {
+            schemaManager.writeSchema(datastore, collection, schema, true);
+        } catch (JSONException ex) {
+            //TODO: Notify admin
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred");
+        }
+    }
+
+    /**
+     * Sets values of auto defined columns of a record that is to be inserted, ignoring any value if already set. A
+     * primary key already assigned by the caller is kept, as it is the key the insert is logged and locked under.
+     *
+     * @return the primary key of the record
+     * @throws OperationException if the record does not have a usable primary key
+     */
+    private String prepareInsert(final Schema schema, final JSONObject jsonObject) throws OperationException {
+        try {
+            for (String columnName : schema.getColumnMap().keySet()) {
+                final Column column = schema.getColumn(columnName);
+                switch (column.getAutoDefineType()) {
+                    case UUID:
+                        if (columnName.equals(schema.getPrimary()) && !jsonObject.optString(columnName).isEmpty()) {
+                            break;
+                        }
+                        jsonObject.put(columnName, UUID.randomUUID().toString());
+                        break;
+                    case TIMESTAMP:
+                        jsonObject.put(columnName, System.currentTimeMillis());
+                        break;
+                }
+            }
+        } catch (JSONException ex) {
+
+            //TODO: Notify admin
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred " + ex.getMessage());
+        }
+
+        //check for primary key
+        String primaryKey;
+        try {
+            primaryKey = jsonObject.getString(schema.getPrimary());
+        } catch (JSONException ex) {
+            primaryKey = UUID.randomUUID().toString();
+        }
+
+        //insert value depending on the primary key mentioned in the query
+        if (primaryKey == null || primaryKey.isEmpty()) {
+            throw new OperationException(ErrorCode.INSERT_ERROR, "INSERT with a null or empty primary key is not permitted");
+        }
+        return primaryKey;
+    }
+
     public JSONObject insert(String datastore, String database, String collection, JSONObject jsonObject) throws OperationException {
         queryResultCache.invalidate(datastore, collection);
         Schema schema;
@@ -893,12 +1089,12 @@ public class BSqlDataManager {
         try {
 //            recordLockBean.acquireWriteLock(account, collection, primaryKey);
             if (!collectionManager.isInMemory(datastore, collection)) {
-                fileManager.insert(datastore, collection, primaryKey, fileJson.toString());
+                fileManager.insert(datastore, collection, primaryKey, fileJson);
             } else {
                 ColumnMapping map = schemaManager.readColumnMapping(datastore, collection);
                 memoryManagerOld.insert(datastore, collection, primaryKey, fileJson, jsonObject, map.getViewableNameMap());
             }
-//            rowCountStore.incrementRowCount(dsSet, collection);
+            rowCountStore.incrementRowCount(datastore, collection);
             responseJson = schemaManager.internalToViewable(datastore, collection, fileJson);
 
             /* Update indexes */
@@ -922,7 +1118,7 @@ public class BSqlDataManager {
 //            recordLockBean.acquireWriteLock(account, collection, _id);
             try {
                 if (!collectionManager.isInMemory(datastore, collection)) {
-                    fileJson = new JSONObject(fileManager.select(datastore, collection, _id));
+                    fileJson = fileManager.select(datastore, collection, _id);
                 } else {
                     fileJson = new JSONObject(memoryManagerOld.select(datastore, collection, _id));
                 }
@@ -947,7 +1143,8 @@ public class BSqlDataManager {
             // calling after delete trigger
             codeExecutor.executeTrigger(datastore, collection, TriggerFunction.AFTER_DELETE, fileJson);
             tableauPublishStore.notifyDataChange(datastore, collection);
-//            rowCountStore.decrementRowCount(dsSet, collection);
+            rowCountStore.decrementRowCount(datastore, collection);
+            rowIdStore.release(datastore, collection, _id);
         } finally {
 //            recordLockBean.releaseWriteLock(account, collection, _id);
         }
@@ -1019,7 +1216,7 @@ public class BSqlDataManager {
             if (requiresIndexing || recordExists) {
                 try {
                     if (!collectionManager.isInMemory(datastore, collection)) {
-                        existingJsonObject = schemaManager.internalToViewable(datastore, collection, new JSONObject(fileManager.select(datastore, collection, primaryKey)));
+                        existingJsonObject = schemaManager.internalToViewable(datastore, collection, fileManager.select(datastore, collection, primaryKey));
                     } else {
                         existingJsonObject = schemaManager.internalToViewable(datastore, collection, new JSONObject(memoryManagerOld.select(datastore, collection, primaryKey)));
                     }
@@ -1046,14 +1243,14 @@ public class BSqlDataManager {
             // no updates has hdatastoreened yet.
             codeExecutor.executeTrigger(datastore, collection, TriggerFunction.BEFORE_UPDATE, existingJsonObject, fileJson);
             if (!collectionManager.isInMemory(datastore, collection)) {
-                fileManager.save(datastore, collection, primaryKey, fileJson.toString());
+                fileManager.save(datastore, collection, primaryKey, fileJson);
             } else {
                 memoryManagerOld.save(datastore, collection, primaryKey, fileJson.toString());
             }
             codeExecutor.executeTrigger(datastore, collection, TriggerFunction.AFTER_UPDATE, existingJsonObject, fileJson);
-//            if (!recordExists) {
-//                rowCountStore.incrementRowCount(dsSet, collection);
-//            }
+            if (!recordExists) {
+                rowCountStore.incrementRowCount(datastore, collection);
+            }
 
             /* Update indexes */
             if (requiresIndexing) {
@@ -1098,14 +1295,30 @@ public class BSqlDataManager {
         }
     }
 
-    private void retainSelectedColumns(final JSONObject viewableJsonData, Set<String> columns) {
-        Set<String> toRemoveColumns = new HashSet<>(viewableJsonData.keySet());
-        toRemoveColumns.removeAll(columns);
-        for (String key : toRemoveColumns) {
-            viewableJsonData.remove(key);
+    /* the selected primary key column, if its value is always the key of the record */
+    private String keyColumn(final String datastore, final String collection, final Set<String> columns) throws OperationException {
+        final Schema schema = SchemaStore.getInstance().getSchema(datastore, collection);
+        final String primary = schema.getPrimary();
+        if (primary == null || !columns.contains(primary)) {
+            return null;
         }
+        final Column column = schema.getColumn(primary);
+        return column != null && column.getAutoDefineType() == AutoDefineTypes.UUID ? primary : null;
     }
 
+    private Set<String> toInternalColumns(final String datastore, final String collection, final Set<String> columns) throws OperationException {
+        final ColumnMapping mapping = SchemaStore.getInstance().getColumnMapping(datastore, collection);
+        final Set<String> internalColumns = new HashSet<>();
+        for (String column : columns) {
+            final String internalName = mapping.getInternalName(column);
+            if (internalName != null) {
+                internalColumns.add(internalName);
+            }
+        }
+        return internalColumns;
+    }
+
+
     public void clearAllData(final String datastore, final String collection) throws OperationException {
         if (collectionManager.isInMemory(datastore, collection)) {
             memoryManagerOld.clearContents(datastore, collection);
@@ -1387,8 +1600,14 @@ public class BSqlDataManager {
         if(collectionManager.isInMemory(ds, collection)) {
             throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "In-Memory select all records not yet supported");
         } else {
-            selectAllKeys(ds, collection).parallelStream()
-                    .forEach(ConsumerUtil.throwsException(key -> resultList.add(select(ds, collection, key)), OperationException.class));
+            try {
+                selectAllAsStream(ds, collection).forEachRemaining(resultList::add);
+            } catch (DbRuntimeException ex) {
+                if (ex.getCause() instanceof OperationException) {
+                    throw (OperationException) ex.getCause();
+                }
+                throw ex;
+            }
             return resultList;
         }
     }
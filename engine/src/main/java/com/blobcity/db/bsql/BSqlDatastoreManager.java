@@ -33,6 +33,15 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.blobcity.db.operations.OperationExecutor;
+import com.blobcity.db.indexing.IndexSyncStore;
+import com.blobcity.db.indexing.PackedIndexStore;
+import com.blobcity.db.cache.DataCache;
+import com.blobcity.db.cache.QueryResultCache;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.data.RowIdStore;
+import com.blobcity.db.sql.execution.QueryMemoryManager;
+import com.blobcity.db.storage.SegmentStore;
+import com.blobcity.db.transaction.CollectionCommitLogWriter;
 import com.sun.org.apache.xpath.internal.operations.Operation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +58,24 @@ public class BSqlDatastoreManager {
     
     @Autowired @Lazy
     private CodeLoader codeloader;
+    @Autowired @Lazy
+    private SegmentStore segmentStore;
+    @Autowired @Lazy
+    private PackedIndexStore packedIndexStore;
+    @Autowired @Lazy
+    private CollectionCommitLogWriter collectionCommitLogWriter;
+    @Autowired @Lazy
+    private RowCountStore rowCountStore;
+    @Autowired @Lazy
+    private RowIdStore rowIdStore;
+    @Autowired @Lazy
+    private IndexSyncStore indexSyncStore;
+    @Autowired @Lazy
+    private QueryMemoryManager queryMemoryManager;
+    @Autowired @Lazy
+    private DataCache dataCache;
+    @Autowired @Lazy
+    private QueryResultCache queryResultCache;
     
     Logger logger = LoggerFactory.getLogger(BSqlDatastoreManager.class);
     
@@ -97,6 +124,15 @@ public class BSqlDatastoreManager {
         }
         // remove entry for all custom codes by user
         codeloader.removeAllClasses(ds);
+        segmentStore.evictDatastore(ds);
+        packedIndexStore.evictDatastore(ds);
+        collectionCommitLogWriter.evictDatastore(ds);
+        rowCountStore.evictDatastore(ds);
+        rowIdStore.evictDatastore(ds);
+        indexSyncStore.evictDatastore(ds);
+        queryMemoryManager.evictDatastore(ds);
+        dataCache.invalidateDatastore(ds);
+        queryResultCache.invalidateDatastore(ds);
         // TODO: remove from other in-memory location like indexing and caching etc.
 
         final String absolutePath = BSql.BSQL_BASE_FOLDER + ds;
@@ -121,6 +157,15 @@ public class BSqlDatastoreManager {
         }
         // remove entry for all custom codes by user
         codeloader.removeAllClasses(ds);
+        segmentStore.evictDatastore(ds);
+        packedIndexStore.evictDatastore(ds);
+        collectionCommitLogWriter.evictDatastore(ds);
+        rowCountStore.evictDatastore(ds);
+        rowIdStore.evictDatastore(ds);
+        indexSyncStore.evictDatastore(ds);
+        queryMemoryManager.evictDatastore(ds);
+        dataCache.invalidateDatastore(ds);
+        queryResultCache.invalidateDatastore(ds);
         // TODO: remove from other in-memory location like indexing and caching etc.
 
         String absolutePath = BSql.BSQL_BASE_FOLDER + ds;
@@ -21,7 +21,9 @@ import com.blobcity.db.constants.BSql;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.global.live.GlobalLiveStore;
+import com.blobcity.db.indexing.IndexCountStore;
 import com.blobcity.db.indexing.IndexFactory;
+import com.blobcity.db.indexing.PackedIndexStore;
 import com.blobcity.db.indexing.IndexingStrategy;
 import com.blobcity.db.operations.OperationLogLevel;
 import com.blobcity.db.operations.OperationStatus;
@@ -38,7 +40,11 @@ import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
 
 import com.blobcity.db.sql.util.PathUtil;
@@ -71,6 +77,12 @@ public class BSqlIndexManager {
     @Autowired
     @Lazy
     private GlobalLiveStore globalLiveStore;
+    @Autowired
+    @Lazy
+    private PackedIndexStore packedIndexStore;
+    @Autowired
+    @Lazy
+    private IndexCountStore indexCountStore;
 
     public String index(final String app, final String table, final String columnName, final IndexTypes indexTypes, final OperationLogLevel operationLogLevel) throws OperationException {
         Schema schema = schemaManager.readSchema(app, table);
@@ -206,6 +218,7 @@ public class BSqlIndexManager {
 
         /* Move index folder to del location */
 
+        packedIndexStore.evict(app, table, columnName);
         final String absolutePath = PathUtil.indexColumnFolder(app, table, columnName);
         long currentTime = System.currentTimeMillis();
         String backupPath = BSql.BSQL_BASE_FOLDER + app + BSql.DELETE_FOLDER + "index-" + table + "." + columnName + "." + currentTime;
@@ -223,6 +236,15 @@ public class BSqlIndexManager {
         }
     }
 
+    /**
+     * Drops the index of a column while the database is not serving requests, as during a storage version upgrade. May
+     * be called on an instance that is not managed by Spring, so uses none of the injected beans.
+     *
+     * @param app the datastore
+     * @param table the collection
+     * @param columnName the column whose index is to be dropped
+     * @throws OperationException if the column has no index that can be dropped, or its index folder cannot be moved
+     */
     public void dropIndexOffline(final String app, final String table, final String columnName) throws OperationException {
         SchemaManager schemaManager = new SchemaManager();
         Schema schema = schemaManager.readSchema(app, table);
@@ -246,7 +268,7 @@ public class BSqlIndexManager {
             throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred.");
         }
 
-        /* move index folder to del location */
+        /* move index folder to del location. No packed index is loaded while offline, so there is nothing to evict */
 
         final String absolutePath = PathUtil.indexColumnFolder(app, table, columnName);
         long currentTime = System.currentTimeMillis();
@@ -299,6 +321,75 @@ public class BSqlIndexManager {
         }
     }
 
+    /**
+     * Indexes a batch of records. Primary keys are grouped by column value, so that each distinct value of an indexed
+     * column is written to its index once for the whole batch.
+     *
+     * @param app The application id of the BlobCity application
+     * @param table Name of table within the specified application
+     * @param records The records to be indexed, mapped by primary key. The records must be keyed on viewable column
+     * names.
+     * @throws OperationException if an operation error occurs
+     */
+    public void addIndex(final String app, final String table, final Map<String, JSONObject> records) throws OperationException {
+        Schema schema = schemaManager.readSchema(app, table);
+        if (!schema.isIndexingNeeded()) {
+            return;
+        }
+
+        for (Column column : schema.getColumnMap().values()) {
+            if (column.getName().equals(schema.getPrimary()) || column.getIndexType() == IndexTypes.NONE) {
+                continue;
+            }
+
+            final Map<String, List<String>> postings = new HashMap<>();
+            for (Map.Entry<String, JSONObject> entry : records.entrySet()) {
+                try {
+                    final String columnValue = entry.getValue().get(column.getName()).toString();
+                    postings.computeIfAbsent(columnValue, value -> new ArrayList<>()).add(entry.getKey());
+                } catch (JSONException ex) {
+
+                    //TODO: Notify admin
+                    logger.error(null, ex);
+                    throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred. Unable to add index value for column: " + column.getName() + " in table: " + table);
+                }
+            }
+
+            final IndexingStrategy indexingStrategy = indexFactory.getStrategy(column.getIndexType());
+            for (Map.Entry<String, List<String>> posting : postings.entrySet()) {
+                indexingStrategy.index(app, table, column.getName(), posting.getKey(), posting.getValue());
+            }
+        }
+    }
+
+    /**
+     * Adds any index entries of the record that are missing, leaving existing entries untouched. Used to bring indexes
+     * back in line with a record after a crash recovery.
+     *
+     * @param app The application id of the BlobCity application
+     * @param table Name of table within the specified application
+     * @param pk The primary key of the record to be indexed
+     * @param jsonObject The JSONObject representing the complete record associated with the primary key. The JSONObject must be keyed on viewable column names.
+     * @throws OperationException if an operation error occurs
+     */
+    public void repairIndex(final String app, final String table, final String pk, JSONObject jsonObject) throws OperationException {
+        Schema schema = schemaManager.readSchema(app, table);
+        IndexingStrategy indexingStrategy;
+        if (schema.isIndexingNeeded()) {
+            for (Column column : schema.getColumnMap().values()) {
+                if (column.getName().equals(schema.getPrimary()) || column.getIndexType() == IndexTypes.NONE || !jsonObject.has(column.getName())) {
+                    continue;
+                }
+
+                indexingStrategy = indexFactory.getStrategy(column.getIndexType());
+                final String columnValue = jsonObject.get(column.getName()).toString();
+                if (!indexingStrategy.contains(app, table, column.getName(), columnValue, pk)) {
+                    indexingStrategy.index(app, table, column.getName(), columnValue, pk);
+                }
+            }
+        }
+    }
+
     /**
      * Re-indexes column values of columns that have changed. All keys in json objects have to viewableColumn names.
      *
@@ -456,6 +547,45 @@ public class BSqlIndexManager {
         return strategy.contains(app, table, columnName, columnValue.toString(), pk.toString());
     }
 
+    /**
+     * Gets the number of records holding the specified value in an indexed column, without reading the index entries.
+     * BTREE and HASHED counts are served from {@link IndexCountStore}, other index types report their own counts. For
+     * a HASHED index the count is that of the hash bucket, and so is an upper bound on the matching records.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param columnName name of the column
+     * @param columnValue the column value in its indexed (cardinal) form
+     * @return the number of records holding the value; 0 if no record holds the value and -1 if the column is not
+     * indexed
+     * @throws OperationException if the column does not exist or an I/O error occurs in reading the count
+     */
+    public long getIndexCount(final String ds, final String collection, final String columnName, final String columnValue) throws OperationException {
+        final Column column = schemaStore.getSchema(ds, collection).getColumn(columnName);
+        if (column == null) {
+            throw new OperationException(ErrorCode.COLUMN_INVALID, "No column found with name: " + columnName);
+        }
+
+        final IndexingStrategy strategy = indexFactory.getStrategy(column.getIndexType());
+        if (strategy == null) {
+            return -1;
+        }
+
+        final long count;
+        switch (column.getIndexType()) {
+            case BTREE:
+                count = indexCountStore.getIndexSize(ds, collection, columnName, columnValue, strategy);
+                break;
+            case HASHED:
+                count = indexCountStore.getIndexSize(ds, collection, columnName, "" + columnValue.hashCode(), strategy);
+                break;
+            default:
+                count = strategy.readIndexCount(ds, collection, columnName, columnValue);
+                break;
+        }
+        return count < 0 ? 0 : count;
+    }
+
     public String getAnyCardinalEntry(final String ds, final String collection, final String columnName, final Object columnValue) throws OperationException {
         Schema schema = schemaStore.getSchema(ds, collection);
         Column column = schema.getColumn(columnName);
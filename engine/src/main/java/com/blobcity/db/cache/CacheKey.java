@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cache;
+
+import java.util.Objects;
+
+/**
+ * Key of an entry in the data and index caches. Keeps its parts separate, so that names containing separator
+ * characters cannot make keys of different collections collide.
+ *
+ * @author sanketsarang
+ */
+final class CacheKey {
+
+    /* approximate heap size of a key object with its hash */
+    private static final long KEY_OVERHEAD = 32;
+
+    private final String ds;
+    private final String collection;
+    private final String column;
+    private final String value;
+    private final int hash;
+
+    CacheKey(final String ds, final String collection, final String column, final String value) {
+        this.ds = ds;
+        this.collection = collection;
+        this.column = column;
+        this.value = value;
+        this.hash = Objects.hash(ds, collection, column, value);
+    }
+
+    String getDs() {
+        return ds;
+    }
+
+    String getCollection() {
+        return collection;
+    }
+
+    String getColumn() {
+        return column;
+    }
+
+    boolean isOf(final String ds, final String collection) {
+        return this.ds.equals(ds) && this.collection.equals(collection);
+    }
+
+    /**
+     * Gets the approximate number of bytes the key occupies on the heap
+     *
+     * @return the approximate size of the key in bytes
+     */
+    long weigh() {
+        return KEY_OVERHEAD + weigh(ds) + weigh(collection) + weigh(column) + weigh(value);
+    }
+
+    /**
+     * Gets the approximate number of bytes a string occupies on the heap, with its character array
+     *
+     * @param string the string
+     * @return the approximate size of the string in bytes
+     */
+    static long weigh(final String string) {
+        return string == null ? 0 : 40 + 2L * string.length();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CacheKey)) {
+            return false;
+        }
+        final CacheKey other = (CacheKey) obj;
+        return hash == other.hash
+                && Objects.equals(value, other.value)
+                && Objects.equals(column, other.column)
+                && Objects.equals(collection, other.collection)
+                && Objects.equals(ds, other.ds);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
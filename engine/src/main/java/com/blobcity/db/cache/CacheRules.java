@@ -17,16 +17,33 @@
 package com.blobcity.db.cache;
 
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 /**
+ * <p>
+ * Rules deciding which datastores and collections may use the data and index caches. Rules may be set for all
+ * datastores, for a datastore, or for a single collection, and the most specific rule applies. Caching is allowed
+ * when no rule applies.</p>
+ *
+ * <p>
+ * Denying caching removes any entries already cached within the scope of the rule.</p>
  *
  * @author sanketsarang
  */
 @Component
 public class CacheRules {
-    private Set<String> allow;
-    private Set<String> deny;
+    private final Set<String> allow = ConcurrentHashMap.newKeySet();
+    private final Set<String> deny = ConcurrentHashMap.newKeySet();
+
+    @Autowired @Lazy
+    private DataCache dataCache;
+    @Autowired @Lazy
+    private IndexCache indexCache;
     
     public void setAllow(final String app) {
         allow.add(getKey(app));
@@ -46,25 +63,31 @@ public class CacheRules {
     public void setDeny(final String app, final String table) {
         allow.remove(getKey(app, table));
         deny.add(getKey(app, table));
+        dataCache.invalidate(app, table);
+        indexCache.invalidate(app, table);
     }
     
     public void setDeny(final String app) {
         allow.remove(getKey(app));
-        deny.remove(getKey(app));
+        deny.add(getKey(app));
+        dataCache.invalidateDatastore(app);
+        indexCache.invalidateDatastore(app);
     }
     
     public void setDenyAll() {
         allow.remove(getAllKey());
-        deny.remove(getAllKey());
+        deny.add(getAllKey());
+        dataCache.invalidateAll();
+        indexCache.invalidateAll();
     }
-    
+
     private String getKey(final String app) {
         return app;
     }
     
     private String getKey(final String app, final String table) {
         StringBuilder sb = new StringBuilder(app);
-        sb.append("-");
+        sb.append(".");
         sb.append(table);
         return sb.toString();
     }
@@ -74,7 +97,29 @@ public class CacheRules {
     }
     
     public boolean shouldCache(final String app, final String table) {
-        //TODO: Implement this
-        return true;
+        final String tableKey = getKey(app, table);
+        if (deny.contains(tableKey)) {
+            return false;
+        }
+        if (allow.contains(tableKey)) {
+            return true;
+        }
+
+        final String appKey = getKey(app);
+        if (deny.contains(appKey)) {
+            return false;
+        }
+        if (allow.contains(appKey)) {
+            return true;
+        }
+
+        return !deny.contains(getAllKey());
+    }
+
+    public JSONObject getRules() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("allow", new JSONArray(allow));
+        jsonObject.put("deny", new JSONArray(deny));
+        return jsonObject;
     }
 }
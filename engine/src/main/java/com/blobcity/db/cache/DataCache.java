@@ -16,48 +16,88 @@
 
 package com.blobcity.db.cache;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import javax.annotation.PostConstruct;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
+ * Caches records of on-disk collections in their stored form, as encoded by
+ * {@link com.blobcity.db.storage.RecordCodec}. The cache is bounded by the
+ * approximate heap size of its entries, configured in MB through {@link ConfigProperties#DATA_CACHE_SIZE}, and
+ * defaults to a tenth of the maximum heap.
  *
  * @author sanketsarang
  */
 @Component
 public class DataCache {
-    
-    /* appId-table-pk -> record in non-viewable json string form */
-    private final Map<String, String> map = createLruMap();
-    
-    public void cache(final String app, final String table, final String pk, final String internalJsonString) {
-        map.put(makeKey(app, table, pk), internalJsonString);
-    }
-    
+
+    private static final Logger logger = LoggerFactory.getLogger(DataCache.class.getName());
+    private static final double DEFAULT_HEAP_FRACTION = 0.1;
+
+    /* approximate heap size of a byte array object, excluding its contents */
+    private static final long ARRAY_OVERHEAD = 16;
+
+    /* ds, collection, pk -> stored bytes of the record */
+    private final WTinyLfuCache<CacheKey, byte[]> cache = new WTinyLfuCache<>(
+            (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION), (key, value) -> key.weigh() + ARRAY_OVERHEAD + value.length);
+
+    @Autowired
+    private ConfigBean configBean;
+
+    @PostConstruct
+    private void init() {
+        final Object size = configBean.getProperty(ConfigProperties.DATA_CACHE_SIZE);
+        if (size instanceof Number) {
+            cache.setMaximumWeight(((Number) size).longValue() * 1024 * 1024);
+        }
+        logger.info("Data cache size set to {} bytes", cache.getMaximumWeight());
+    }
+
+    public void cache(final String app, final String table, final String pk, final byte[] record) {
+        cache.put(makeKey(app, table, pk), record);
+    }
+
     public void invalidate(final String app, final String table, final String pk) {
-        map.remove(makeKey(app, table, pk));
-    }
-    
-    public String load(final String app, final String table, final String pk) {
-        return map.get(makeKey(app, table, pk));
-    }
-    
-    private String makeKey(final String app, final String table, final String pk) {
-        StringBuilder sb = new StringBuilder(app);
-        sb.append("-");
-        sb.append(table);
-        sb.append("-");
-        sb.append(pk);
-        return sb.toString();
-    }
-    
-    private LinkedHashMap<String, String> createLruMap() {
-        return new LinkedHashMap<String, String>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
-                return Runtime.getRuntime().totalMemory() > Runtime.getRuntime().maxMemory() * 0.98;
-            }
-        };
+        cache.remove(makeKey(app, table, pk));
+    }
+
+    /**
+     * Removes all cached records of a collection
+     *
+     * @param app the datastore
+     * @param table name of the collection
+     */
+    public void invalidate(final String app, final String table) {
+        cache.removeIf(key -> key.isOf(app, table));
+    }
+
+    /**
+     * Removes all cached records of all collections within a datastore
+     *
+     * @param app the datastore
+     */
+    public void invalidateDatastore(final String app) {
+        cache.removeIf(key -> key.getDs().equals(app));
+    }
+
+    public byte[] load(final String app, final String table, final String pk) {
+        return cache.get(makeKey(app, table, pk));
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    public JSONObject getStats() {
+        return cache.getStats();
+    }
+
+    private CacheKey makeKey(final String app, final String table, final String pk) {
+        return new CacheKey(app, table, null, pk);
     }
 }
@@ -16,82 +16,107 @@
 
 package com.blobcity.db.cache;
 
-import com.blobcity.db.exceptions.ErrorCode;
-import com.blobcity.db.exceptions.OperationException;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
 import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
+ * Caches the set of primary keys indexed against each column value. The cache is bounded by the approximate heap size
+ * of its entries, configured in MB through {@link ConfigProperties#INDEX_CACHE_SIZE}, and defaults to a twentieth of
+ * the maximum heap. Cached sets are weighed when cached and must not be modified afterwards.
  *
  * @author sanketsarang
  */
 @Component
 public class IndexCache {
 
-    /* appId-table-pk -> set of indexed values */
-    private final Map<String, Set<String>> map = createLruMap();
+    private static final Logger logger = LoggerFactory.getLogger(IndexCache.class.getName());
+    private static final double DEFAULT_HEAP_FRACTION = 0.05;
 
-    public void cache(final String app, final String table, final String columnValue, final Set<String> keys) {
-        map.put(makeKey(app, table, columnValue), keys);
+    /* approximate heap size of a set element excluding the element itself */
+    private static final long SET_ENTRY_OVERHEAD = 48;
+
+    /* ds, collection, column, column value -> set of primary keys */
+    private final WTinyLfuCache<CacheKey, Set<String>> cache = new WTinyLfuCache<>(
+            (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION), (key, keys) -> key.weigh() + weigh(keys));
+
+    @Autowired
+    private ConfigBean configBean;
+
+    @PostConstruct
+    private void init() {
+        final Object size = configBean.getProperty(ConfigProperties.INDEX_CACHE_SIZE);
+        if (size instanceof Number) {
+            cache.setMaximumWeight(((Number) size).longValue() * 1024 * 1024);
+        }
+        logger.info("Index cache size set to {} bytes", cache.getMaximumWeight());
     }
 
-    public void invalidate(final String app, final String table, final String columnValue) {
-        map.remove(makeKey(app, table, columnValue));
+    public void cache(final String app, final String table, final String column, final String columnValue, final Set<String> keys) {
+        cache.put(makeKey(app, table, column, columnValue), keys);
     }
 
-    public Set<String> load(final String app, final String table, final String columnValue) {
-        return map.get(makeKey(app, table, columnValue));
+    public void invalidate(final String app, final String table, final String column, final String columnValue) {
+        cache.remove(makeKey(app, table, column, columnValue));
     }
 
-    private String makeKey(final String app, final String table, final String columnValue) {
-        StringBuilder sb = new StringBuilder(app);
-        sb.append("-");
-        sb.append(table);
-        sb.append("-");
-        sb.append(columnValue);
-        return sb.toString();
+    /**
+     * Removes all cached values of a column
+     *
+     * @param app the datastore
+     * @param table name of the collection
+     * @param column name of the column
+     */
+    public void invalidate(final String app, final String table, final String column) {
+        cache.removeIf(key -> key.isOf(app, table) && key.getColumn().equals(column));
     }
 
-    private LinkedHashMap<String, Set<String>> createLruMap() {
-        return new LinkedHashMap<String, Set<String>>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
-                return Runtime.getRuntime().totalMemory() > Runtime.getRuntime().maxMemory() * 0.98;
-            }
-        };
+    /**
+     * Removes all cached values of all columns of a collection
+     *
+     * @param app the datastore
+     * @param table name of the collection
+     */
+    public void invalidate(final String app, final String table) {
+        cache.removeIf(key -> key.isOf(app, table));
     }
 
-    private byte[] zip(Set<String> set) throws OperationException {
-        GZIPOutputStream gzipos = null;
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            gzipos = new GZIPOutputStream(baos);
-            ObjectOutputStream oos = new ObjectOutputStream(gzipos);
-            oos.writeObject(set);
-            return baos.toByteArray();
-        } catch (IOException ex) {
-            Logger.getLogger(IndexCache.class.getName()).log(Level.SEVERE, null, ex);
-            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Index cache failed during in-memory data compression");
-        } finally {
-            try {
-                if (gzipos != null) {
-                    gzipos.close();
-                }
-            } catch (IOException ex) {
-                Logger.getLogger(IndexCache.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        }
+    /**
+     * Removes all cached values of all collections within a datastore
+     *
+     * @param app the datastore
+     */
+    public void invalidateDatastore(final String app) {
+        cache.removeIf(key -> key.getDs().equals(app));
+    }
+
+    public Set<String> load(final String app, final String table, final String column, final String columnValue) {
+        return cache.get(makeKey(app, table, column, columnValue));
     }
 
-    private Set<String> unzip(byte[] zippedData) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    public JSONObject getStats() {
+        return cache.getStats();
+    }
+
+    private CacheKey makeKey(final String app, final String table, final String column, final String columnValue) {
+        return new CacheKey(app, table, column, columnValue);
+    }
+
+    private static long weigh(final Set<String> keys) {
+        long weight = SET_ENTRY_OVERHEAD;
+        for (String key : keys) {
+            weight += SET_ENTRY_OVERHEAD + CacheKey.weigh(key);
+        }
+        return weight;
     }
 }
@@ -16,54 +16,214 @@
 
 package com.blobcity.db.cache;
 
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import com.foundationdb.sql.StandardException;
+import com.foundationdb.sql.parser.StatementNode;
+import com.foundationdb.sql.unparser.NodeToString;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.*;
-
 /**
+ * <p>
+ * Caches results of SELECT queries. Queries are keyed on the datastore and the statement regenerated from its parse
+ * tree, so queries differing only in whitespace or in the case of keywords and identifiers share an entry.</p>
+ *
+ * <p>
+ * Each collection has a version that is incremented on every change to its data. A cached result remembers the
+ * version its query started on, and is served only while that version is current. Invalidation is therefore a single
+ * increment, and outdated entries are replaced by the next execution of their query or evicted.</p>
+ *
+ * <p>
+ * A datastore may be configured to accept results up to a given age even if its collections have changed since,
+ * which suits dashboards that repeat the same queries every few seconds on collections under constant writes. The
+ * age of a result is counted from the start of its query, so results of such datastores are cached even when writes
+ * arrive while the query runs.</p>
+ *
+ * <p>
+ * The cache is bounded by the approximate heap size of its entries, configured in MB through
+ * {@link ConfigProperties#QUERY_CACHE_SIZE}, and defaults to a twentieth of the maximum heap.</p>
+ *
  * @author sanketsarang
  */
 @Component
 public class QueryResultCache {
 
-    /* Maps SQL query to the result string */
-    private final LinkedHashMap<String, String> map = createLruMap();
+    private static final Logger logger = LoggerFactory.getLogger(QueryResultCache.class.getName());
+    private static final double DEFAULT_HEAP_FRACTION = 0.05;
+
+    /* approximate heap size of a key and a result object excluding their strings */
+    private static final long ENTRY_OVERHEAD = 96;
 
-    /* Maintains a map of which tables correspond to which SQL queries that are cached. This is used for invalidating
-    the cache when data in the corresponding tables changes.
+    private final WTinyLfuCache<Key, CachedResult> cache = new WTinyLfuCache<>(
+            (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION),
+            (key, cachedResult) -> ENTRY_OVERHEAD + CacheKey.weigh(key.ds) + CacheKey.weigh(key.sql) + CacheKey.weigh(cachedResult.result));
+
+    /* ds -> collection -> version of data in the collection */
+    private final Map<String, Map<String, AtomicLong>> versions = new ConcurrentHashMap<>();
+
+    /* ds -> maximum age in milliseconds of a result that may be served after its collection has changed */
+    private final Map<String, Long> stalenessMap = new ConcurrentHashMap<>();
+
+    @Autowired
+    private ConfigBean configBean;
+
+    @PostConstruct
+    private void init() {
+        final Object size = configBean.getProperty(ConfigProperties.QUERY_CACHE_SIZE);
+        if (size instanceof Number) {
+            cache.setMaximumWeight(((Number) size).longValue() * 1024 * 1024);
+        }
+        logger.info("Query result cache size set to {} bytes", cache.getMaximumWeight());
+    }
+
+    /**
+     * Creates the cache key for a SELECT query, capturing the current version of the collection it reads. The key
+     * must be created before the query starts reading data.
+     *
+     * @param ds the datastore
+     * @param collection the collection the query reads
+     * @param statement the parsed query
+     * @return the cache key
+     * @throws StandardException if the statement cannot be converted back to SQL
+     */
+    public Key newKey(final String ds, final String collection, final StatementNode statement) throws StandardException {
+        return new Key(ds, collection, new NodeToString().toString(statement), getVersion(ds, collection).get(), System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the cached result of a query
+     *
+     * @param key key of the query
+     * @return the cached result; <code>null</code> if no result is cached, or the cached result is outdated
      */
-    private final Map<String, Set<String>> tableToSqlMap = new HashMap<>();
+    public String get(final Key key) {
+        final CachedResult cachedResult = cache.get(key);
+        if (cachedResult == null) {
+            return null;
+        }
 
-    public void cache(final String ds, final String collection, final String sqlQuery, final String result) {
-        final String dsCollection = ds + "." + collection;
-        if(!tableToSqlMap.containsKey(dsCollection)) {
-            tableToSqlMap.put(dsCollection, new HashSet<>());
+        if (cachedResult.version == getVersion(key.ds, key.collection).get()) {
+            return cachedResult.result;
         }
 
-        tableToSqlMap.get(dsCollection).add(sqlQuery);
-        map.put(sqlQuery, result);
+        final Long staleness = stalenessMap.get(key.ds);
+        if (staleness != null && System.currentTimeMillis() - cachedResult.cachedAt <= staleness) {
+            return cachedResult.result;
+        }
+        return null;
     }
 
-    public void invalidate(final String ds, final String collection) {
-        final String dsCollection = ds + "." + collection;
-        if(!tableToSqlMap.containsKey(dsCollection)) {
+    /**
+     * Caches the result of a query, as of the version and time its query started. Results of queries during which
+     * the collection changed are only cached for datastores that accept stale results.
+     *
+     * @param key key of the query, created before the query was executed
+     * @param result the query result
+     */
+    public void cache(final Key key, final String result) {
+        if (key.version != getVersion(key.ds, key.collection).get() && !stalenessMap.containsKey(key.ds)) {
             return;
         }
+        cache.put(key, new CachedResult(key.version, key.startedAt, result));
+    }
+
+    public void invalidate(final String ds, final String collection) {
+        getVersion(ds, collection).incrementAndGet();
+    }
+
+    /**
+     * Invalidates results of all collections within a datastore
+     *
+     * @param ds the datastore
+     */
+    public void invalidateDatastore(final String ds) {
+        final Map<String, AtomicLong> collectionVersions = versions.get(ds);
+        if (collectionVersions != null) {
+            collectionVersions.values().forEach(AtomicLong::incrementAndGet);
+        }
+    }
+
+    /**
+     * Sets the maximum age of results that may be served for queries on a datastore after their collection has
+     * changed
+     *
+     * @param ds the datastore
+     * @param stalenessMillis the maximum age in milliseconds; 0 to serve only current results
+     */
+    public void setStaleness(final String ds, final long stalenessMillis) {
+        if (stalenessMillis <= 0) {
+            stalenessMap.remove(ds);
+        } else {
+            stalenessMap.put(ds, stalenessMillis);
+        }
+    }
 
-        tableToSqlMap.get(dsCollection).forEach(sql -> map.remove(sql));
+    public JSONObject getStats() {
+        final JSONObject jsonObject = cache.getStats();
+        jsonObject.put("staleness", new JSONObject(stalenessMap));
+        return jsonObject;
     }
 
-    public String get(final String sql) {
-        return map.get(sql);
+    private AtomicLong getVersion(final String ds, final String collection) {
+        return versions.computeIfAbsent(ds, key -> new ConcurrentHashMap<>()).computeIfAbsent(collection, key -> new AtomicLong());
     }
 
-    private LinkedHashMap<String, String> createLruMap() {
-        return new LinkedHashMap<String, String>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
-                return Runtime.getRuntime().totalMemory() > Runtime.getRuntime().maxMemory() * 0.98;
+    /**
+     * Key of a cached query result
+     */
+    public static final class Key {
+
+        private final String ds;
+        private final String collection;
+        private final String sql;
+        private final long version;
+        private final long startedAt;
+
+        private Key(final String ds, final String collection, final String sql, final long version, final long startedAt) {
+            this.ds = ds;
+            this.collection = collection;
+            this.sql = sql;
+            this.version = version;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
             }
-        };
+            final Key other = (Key) obj;
+            return sql.equals(other.sql) && ds.equals(other.ds);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ds, sql);
+        }
+    }
+
+    private static class CachedResult {
+
+        private final long version;
+        private final long cachedAt;
+        private final String result;
+
+        private CachedResult(final long version, final long cachedAt, final String result) {
+            this.version = version;
+            this.cachedAt = cachedAt;
+            this.result = result;
+        }
     }
 }
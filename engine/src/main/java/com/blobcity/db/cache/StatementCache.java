@@ -0,0 +1,412 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cache;
+
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.StandardException;
+import com.foundationdb.sql.parser.CursorNode;
+import com.foundationdb.sql.parser.DDLStatementNode;
+import com.foundationdb.sql.parser.DMLModStatementNode;
+import com.foundationdb.sql.parser.FromList;
+import com.foundationdb.sql.parser.NodeTypes;
+import com.foundationdb.sql.parser.ParameterNode;
+import com.foundationdb.sql.parser.SQLParser;
+import com.foundationdb.sql.parser.SelectNode;
+import com.foundationdb.sql.parser.StatementNode;
+import com.foundationdb.sql.parser.TableName;
+import com.foundationdb.sql.parser.Visitable;
+import com.foundationdb.sql.parser.Visitor;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Caches parsed SQL statements, so that statements executed repeatedly are parsed once. Statements are keyed on the
+ * datastore and the SQL text with whitespace outside of literals collapsed. Every caller gets a private copy of the
+ * cached parse tree, which the statement executors are free to modify.</p>
+ *
+ * <p>
+ * Statements may be prepared with <code>?</code> placeholders, which returns an id that is later executed with a
+ * value for each placeholder. The values are bound into a copy of the cached parse tree, so executing a prepared
+ * statement never parses SQL.</p>
+ *
+ * <p>
+ * Each collection has a schema version that is incremented when the collection is altered or dropped. A cached
+ * statement remembers the version of the collection it was parsed against, and is parsed again once that version is
+ * outdated. Prepared statement ids stay valid across schema changes.</p>
+ *
+ * <p>
+ * The cache holds up to {@link #DEFAULT_SIZE} statements, configurable through
+ * {@link ConfigProperties#STATEMENT_CACHE_SIZE}, and evicts using {@link WTinyLfuCache}.</p>
+ *
+ * @author sanketsarang
+ */
+@Component
+public class StatementCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementCache.class.getName());
+    private static final int DEFAULT_SIZE = 1024;
+
+    /* prepared statement ids are small, so many more of them are retained than parsed statements */
+    private static final int PREPARED_PER_STATEMENT = 16;
+
+    private static final ThreadLocal<SQLParser> parsers = ThreadLocal.withInitial(SQLParser::new);
+
+    private final WTinyLfuCache<Key, CachedStatement> cache = new WTinyLfuCache<>(DEFAULT_SIZE, (key, cachedStatement) -> 1);
+    private final WTinyLfuCache<String, Key> prepared = new WTinyLfuCache<>(DEFAULT_SIZE * PREPARED_PER_STATEMENT, (id, key) -> 1);
+
+    /* ds -> collection -> version of the schema of the collection */
+    private final Map<String, Map<String, AtomicLong>> versions = new ConcurrentHashMap<>();
+
+    @Autowired
+    private ConfigBean configBean;
+
+    @PostConstruct
+    private void init() {
+        final Object size = configBean.getProperty(ConfigProperties.STATEMENT_CACHE_SIZE);
+        if (size instanceof Number) {
+            cache.setMaximumWeight(((Number) size).longValue());
+            prepared.setMaximumWeight(((Number) size).longValue() * PREPARED_PER_STATEMENT);
+        }
+        logger.info("Statement cache size set to {} statements", cache.getMaximumWeight());
+    }
+
+    /**
+     * Gets a statement, parsing it only if it is not already cached
+     *
+     * @param ds the datastore the statement is executed on
+     * @param sql the SQL statement
+     * @return a private copy of the parsed statement
+     * @throws StandardException if the statement is not valid SQL
+     */
+    public Statement get(final String ds, final String sql) throws StandardException {
+        final CachedStatement cachedStatement = getCached(new Key(ds, normalize(sql)));
+        return new Statement(copy(cachedStatement.statement), cachedStatement.parameterCount);
+    }
+
+    /**
+     * Prepares a statement for repeated execution
+     *
+     * @param ds the datastore the statement is executed on
+     * @param sql the SQL statement, which may contain <code>?</code> placeholders
+     * @return the prepared statement, holding the id to execute it with
+     * @throws StandardException if the statement is not valid SQL
+     */
+    public PreparedStatement prepare(final String ds, final String sql) throws StandardException {
+        final Key key = new Key(ds, normalize(sql));
+        final CachedStatement cachedStatement = getCached(key);
+        final String id = UUID.randomUUID().toString();
+        prepared.put(id, key);
+        return new PreparedStatement(id, cachedStatement.parameterCount);
+    }
+
+    /**
+     * Binds values to the placeholders of a prepared statement
+     *
+     * @param ds the datastore the statement is executed on, which must be the datastore it was prepared on
+     * @param id the id of the prepared statement
+     * @param params a value for each placeholder in order; <code>null</code> or {@link JSONObject#NULL} for SQL NULL
+     * @return a private copy of the parsed statement with the values in place of the placeholders
+     * @throws OperationException if the prepared statement is unknown, or the number of values does not match
+     * @throws StandardException if the statement cannot be parsed again after a schema change
+     */
+    public Statement bind(final String ds, final String id, final List<Object> params) throws OperationException, StandardException {
+        final Key key = id == null ? null : prepared.get(id);
+        if (key == null || !key.ds.equals(ds)) {
+            throw new OperationException(ErrorCode.PREPARED_STATEMENT_INVALID);
+        }
+
+        final CachedStatement cachedStatement = getCached(key);
+        if (params.size() != cachedStatement.parameterCount) {
+            throw new OperationException(ErrorCode.PREPARED_STATEMENT_PARAMS, "Statement has " + cachedStatement.parameterCount
+                    + " parameters, " + params.size() + " values given");
+        }
+
+        final SQLParser parser = parsers.get();
+        final StatementNode statement = (StatementNode) copy(cachedStatement.statement).accept(new Visitor() {
+            @Override
+            public Visitable visit(final Visitable visitable) throws StandardException {
+                if (visitable instanceof ParameterNode) {
+                    return constant(parser, params.get(((ParameterNode) visitable).getParameterNumber()));
+                }
+                return visitable;
+            }
+
+            @Override
+            public boolean visitChildrenFirst(final Visitable visitable) {
+                return false;
+            }
+
+            @Override
+            public boolean stopTraversal() {
+                return false;
+            }
+
+            @Override
+            public boolean skipChildren(final Visitable visitable) {
+                return false;
+            }
+        });
+        return new Statement(statement, 0);
+    }
+
+    /**
+     * Invalidates cached statements on a collection. Must be called when the schema of the collection changes or the
+     * collection is dropped.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     */
+    public void invalidate(final String ds, final String collection) {
+        getVersion(ds, collection).incrementAndGet();
+    }
+
+    /**
+     * Invalidates cached statements on all collections within a datastore
+     *
+     * @param ds the datastore
+     */
+    public void invalidateDatastore(final String ds) {
+        final Map<String, AtomicLong> collectionVersions = versions.get(ds);
+        if (collectionVersions != null) {
+            collectionVersions.values().forEach(AtomicLong::incrementAndGet);
+        }
+    }
+
+    public JSONObject getStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Collapses runs of whitespace outside of quoted literals and identifiers into a single space, and removes
+     * leading and trailing whitespace and semicolons
+     *
+     * @param sql the SQL statement
+     * @return the normalized statement
+     */
+    public static String normalize(final String sql) {
+        final StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            final char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                space = false;
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                sb.append(c);
+            }
+        }
+
+        int length = sb.length();
+        while (quote == 0 && length > 0 && (sb.charAt(length - 1) == ';' || sb.charAt(length - 1) == ' ')) {
+            length--;
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    private CachedStatement getCached(final Key key) throws StandardException {
+        final CachedStatement cachedStatement = cache.get(key);
+        if (cachedStatement != null && (cachedStatement.collection == null
+                || cachedStatement.version == getVersion(key.ds, cachedStatement.collection).get())) {
+            return cachedStatement;
+        }
+
+        final SQLParser parser = parsers.get();
+        final StatementNode statement = parser.parseStatement(key.sql);
+        final int parameterCount = parser.getParameterList() == null ? 0 : parser.getParameterList().size();
+        final String collection = collectionOf(statement);
+        final long version = collection == null ? 0 : getVersion(key.ds, collection).get();
+        final CachedStatement parsed = new CachedStatement(statement, parameterCount, collection, version);
+        cache.put(key, parsed);
+        return parsed;
+    }
+
+    private StatementNode copy(final StatementNode statement) throws StandardException {
+        final SQLParser parser = parsers.get();
+        return (StatementNode) parser.getNodeFactory().copyNode(statement, parser);
+    }
+
+    private static Visitable constant(final SQLParser parser, final Object value) throws StandardException {
+        final int nodeType;
+        final Object nodeValue;
+        if (value == null || value == JSONObject.NULL) {
+            nodeType = NodeTypes.UNTYPED_NULL_CONSTANT_NODE;
+            nodeValue = null;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            nodeType = NodeTypes.INT_CONSTANT_NODE;
+            nodeValue = ((Number) value).intValue();
+        } else if (value instanceof Long) {
+            nodeType = NodeTypes.LONGINT_CONSTANT_NODE;
+            nodeValue = value;
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            nodeType = NodeTypes.DECIMAL_CONSTANT_NODE;
+            nodeValue = value.toString();
+        } else if (value instanceof Number) {
+            nodeType = NodeTypes.DOUBLE_CONSTANT_NODE;
+            nodeValue = ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            nodeType = NodeTypes.BOOLEAN_CONSTANT_NODE;
+            nodeValue = value;
+        } else {
+            nodeType = NodeTypes.CHAR_CONSTANT_NODE;
+            nodeValue = value.toString();
+        }
+        return (Visitable) parser.getNodeFactory().getNode(nodeType, nodeValue, parser);
+    }
+
+    /**
+     * Gets the collection a statement reads or modifies
+     *
+     * @return the name of the collection; <code>null</code> if the statement is not on a single collection
+     */
+    private static String collectionOf(final StatementNode statement) throws StandardException {
+        final TableName tableName;
+        if (statement instanceof DMLModStatementNode) {
+            tableName = ((DMLModStatementNode) statement).getTargetTableName();
+        } else if (statement instanceof DDLStatementNode) {
+            tableName = ((DDLStatementNode) statement).getObjectName();
+        } else if (statement instanceof CursorNode && ((CursorNode) statement).getResultSetNode() instanceof SelectNode) {
+            final FromList fromList = ((SelectNode) ((CursorNode) statement).getResultSetNode()).getFromList();
+            tableName = fromList.size() == 1 ? fromList.get(0).getTableName() : null;
+        } else {
+            tableName = null;
+        }
+        return tableName == null ? null : tableName.getTableName();
+    }
+
+    private AtomicLong getVersion(final String ds, final String collection) {
+        return versions.computeIfAbsent(ds, key -> new ConcurrentHashMap<>()).computeIfAbsent(collection, key -> new AtomicLong());
+    }
+
+    /**
+     * A parsed statement ready for execution
+     */
+    public static final class Statement {
+
+        private final StatementNode node;
+        private final int parameterCount;
+
+        private Statement(final StatementNode node, final int parameterCount) {
+            this.node = node;
+            this.parameterCount = parameterCount;
+        }
+
+        public StatementNode getNode() {
+            return node;
+        }
+
+        /**
+         * @return the number of <code>?</code> placeholders in the statement that have no value bound
+         */
+        public int getParameterCount() {
+            return parameterCount;
+        }
+    }
+
+    /**
+     * A statement prepared for repeated execution
+     */
+    public static final class PreparedStatement {
+
+        private final String id;
+        private final int parameterCount;
+
+        private PreparedStatement(final String id, final int parameterCount) {
+            this.id = id;
+            this.parameterCount = parameterCount;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getParameterCount() {
+            return parameterCount;
+        }
+    }
+
+    private static final class Key {
+
+        private final String ds;
+        private final String sql;
+
+        private Key(final String ds, final String sql) {
+            this.ds = ds;
+            this.sql = sql;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return ds.equals(other.ds) && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ds, sql);
+        }
+    }
+
+    private static final class CachedStatement {
+
+        private final StatementNode statement;
+        private final int parameterCount;
+        private final String collection;
+        private final long version;
+
+        private CachedStatement(final StatementNode statement, final int parameterCount, final String collection, final long version) {
+            this.statement = statement;
+            this.parameterCount = parameterCount;
+            this.collection = collection;
+            this.version = version;
+        }
+    }
+}
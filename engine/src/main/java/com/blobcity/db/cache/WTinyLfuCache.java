@@ -0,0 +1,452 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongBiFunction;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * A concurrent cache bounded by the total weight of its entries, that uses the W-TinyLFU policy for eviction.</p>
+ *
+ * <p>
+ * New entries go into a small LRU admission window. Entries leaving the window become candidates for the main space,
+ * which is a segmented LRU made of a probation and a protected queue. A candidate is admitted only if its estimated
+ * access frequency is higher than that of the entry it would evict from probation, so a scan of cold keys cannot flush
+ * out frequently used ones. Entries accessed while on probation are promoted to the protected queue.</p>
+ *
+ * <p>
+ * Lookups do not block. Accesses are recorded into a bounded buffer that is applied to the queues by whichever thread
+ * next holds the eviction lock; accesses are dropped when the buffer is full, which only costs some recency
+ * information. Writes are serialized on the eviction lock.</p>
+ *
+ * @author sanketsarang
+ * @param <K> type of key
+ * @param <V> type of value
+ */
+public class WTinyLfuCache<K, V> {
+
+    private static final int READ_BUFFER_SIZE = 256;
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int INITIAL_SKETCH_SIZE = 1024;
+
+    private enum QueueType {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ToLongBiFunction<K, V> weigher;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Queue<Node<K, V>> readBuffer = new ArrayBlockingQueue<>(READ_BUFFER_SIZE);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /* guarded by evictionLock */
+    private final FrequencySketch sketch = new FrequencySketch(INITIAL_SKETCH_SIZE);
+    private final AccessOrderQueue<K, V> window = new AccessOrderQueue<>();
+    private final AccessOrderQueue<K, V> probation = new AccessOrderQueue<>();
+    private final AccessOrderQueue<K, V> protectedQueue = new AccessOrderQueue<>();
+    private long maximumWeight;
+    private long windowMaximum;
+    private long protectedMaximum;
+    private long windowWeight;
+    private long protectedWeight;
+    private volatile long weight;
+
+    /**
+     * Creates a cache
+     *
+     * @param maximumWeight the maximum total weight of all entries
+     * @param weigher computes the weight of an entry, usually its approximate size in bytes
+     */
+    public WTinyLfuCache(final long maximumWeight, final ToLongBiFunction<K, V> weigher) {
+        this.weigher = weigher;
+        setMaximumWeight(maximumWeight);
+    }
+
+    /**
+     * Gets the value cached against the key
+     *
+     * @param key the key
+     * @return the cached value; <code>null</code> if not cached
+     */
+    public V get(final K key) {
+        final Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        final V value = node.value;
+        readBuffer.offer(node);
+        if (evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Caches the value against the key, replacing any existing value. Entries weighing more than the whole cache are
+     * not cached.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(final K key, final V value) {
+        final long entryWeight = weigher.applyAsLong(key, value);
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+
+            Node<K, V> node = data.get(key);
+            if (entryWeight > maximumWeight) {
+                if (node != null) {
+                    removeNode(node);
+                }
+                return;
+            }
+
+            if (node == null) {
+                node = new Node<>(key, value, entryWeight);
+                data.put(key, node);
+                window.add(node);
+                windowWeight += entryWeight;
+                weight += entryWeight;
+                sketch.increment(key);
+                if (data.size() > sketch.capacity()) {
+                    sketch.ensureCapacity(data.size() * 2);
+                }
+            } else {
+                node.value = value;
+                adjustWeight(node, entryWeight - node.weight);
+                onAccess(node);
+            }
+
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry of the key, if cached
+     *
+     * @param key the key
+     * @return the value that was cached; <code>null</code> if the key was not cached
+     */
+    public V remove(final K key) {
+        evictionLock.lock();
+        try {
+            final Node<K, V> node = data.get(key);
+            if (node == null) {
+                return null;
+            }
+            removeNode(node);
+            return node.value;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries whose keys match the filter
+     *
+     * @param filter the key filter
+     */
+    public void removeIf(final Predicate<K> filter) {
+        evictionLock.lock();
+        try {
+            final List<Node<K, V>> matches = new ArrayList<>();
+            data.forEach((key, node) -> {
+                if (filter.test(key)) {
+                    matches.add(node);
+                }
+            });
+            matches.forEach(this::removeNode);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void clear() {
+        removeIf(key -> true);
+    }
+
+    /**
+     * Changes the weight bound of the cache, evicting entries if the cache is above the new bound
+     *
+     * @param maximumWeight the new maximum total weight of all entries
+     */
+    public final void setMaximumWeight(final long maximumWeight) {
+        evictionLock.lock();
+        try {
+            this.maximumWeight = Math.max(0, maximumWeight);
+            this.windowMaximum = (long) (this.maximumWeight * WINDOW_RATIO);
+            this.protectedMaximum = (long) ((this.maximumWeight - windowMaximum) * PROTECTED_RATIO);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the usage statistics of the cache
+     *
+     * @return JSON with the entry count, weight, maximum weight, and the hit, miss and eviction counts
+     */
+    public JSONObject getStats() {
+        final long hitCount = getHitCount();
+        final long requestCount = hitCount + getMissCount();
+        final JSONObject jsonObject = new JSONObject();
+        jsonObject.put("entries", size());
+        jsonObject.put("weight", getWeight());
+        jsonObject.put("max-weight", getMaximumWeight());
+        jsonObject.put("hits", hitCount);
+        jsonObject.put("misses", getMissCount());
+        jsonObject.put("evictions", getEvictionCount());
+        jsonObject.put("hit-ratio", requestCount == 0 ? 0 : (double) hitCount / requestCount);
+        return jsonObject;
+    }
+
+    private void drainReadBuffer() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            final Node<K, V> node = readBuffer.poll();
+            if (node == null) {
+                return;
+            }
+            onAccess(node);
+        }
+    }
+
+    private void onAccess(final Node<K, V> node) {
+        if (!node.alive) {
+            return;
+        }
+
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = QueueType.PROTECTED;
+                protectedQueue.add(node);
+                protectedWeight += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                protectedQueue.moveToBack(node);
+                break;
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMaximum) {
+            final Node<K, V> node = protectedQueue.pollFirst();
+            if (node == null) {
+                return;
+            }
+            protectedWeight -= node.weight;
+            node.queue = QueueType.PROBATION;
+            probation.add(node);
+        }
+    }
+
+    private void evict() {
+
+        /* entries that overflow the window move to the back of probation as candidates for the main space */
+        Node<K, V> candidate = null;
+        while (windowWeight > windowMaximum) {
+            final Node<K, V> node = window.pollFirst();
+            if (node == null) {
+                break;
+            }
+            windowWeight -= node.weight;
+            node.queue = QueueType.PROBATION;
+            probation.add(node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        /* each candidate competes with the least recently used entry of probation, the less frequent one is evicted */
+        while (weight > maximumWeight) {
+            final Node<K, V> victim = probation.peekFirst();
+            if (victim == null) {
+                final Node<K, V> node = protectedQueue.peekFirst() != null ? protectedQueue.peekFirst() : window.peekFirst();
+                if (node == null) {
+                    return;
+                }
+                evictNode(node);
+            } else if (candidate == null) {
+                evictNode(victim);
+            } else if (candidate == victim) {
+                candidate = candidate.next;
+                evictNode(victim);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                final Node<K, V> next = candidate.next;
+                evictNode(candidate);
+                candidate = next;
+            }
+        }
+    }
+
+    private void evictNode(final Node<K, V> node) {
+        removeNode(node);
+        evictions.increment();
+    }
+
+    private void removeNode(final Node<K, V> node) {
+        data.remove(node.key, node);
+        node.alive = false;
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                windowWeight -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedQueue.remove(node);
+                protectedWeight -= node.weight;
+                break;
+        }
+        weight -= node.weight;
+    }
+
+    private void adjustWeight(final Node<K, V> node, final long delta) {
+        node.weight += delta;
+        weight += delta;
+        if (node.queue == QueueType.WINDOW) {
+            windowWeight += delta;
+        } else if (node.queue == QueueType.PROTECTED) {
+            protectedWeight += delta;
+        }
+    }
+
+    private static class Node<K, V> {
+
+        private final K key;
+        private volatile V value;
+        private long weight;
+        private QueueType queue = QueueType.WINDOW;
+        private volatile boolean alive = true;
+        private Node<K, V> prev;
+        private Node<K, V> next;
+
+        private Node(final K key, final V value, final long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /* doubly linked list ordered from least to most recently used */
+    private static class AccessOrderQueue<K, V> {
+
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+        private void add(final Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        private void remove(final Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        private void moveToBack(final Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        private Node<K, V> peekFirst() {
+            return first;
+        }
+
+        private Node<K, V> pollFirst() {
+            final Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+    }
+}
@@ -113,7 +113,14 @@ public class ClusterNodesStore {
         }
 
         //TODO: implement the load factor based return of nodes
-        throw new UnsupportedOperationException("not supported yet.");
+        final Set<String> nodes = new HashSet<>(Arrays.asList(getSelfId()));
+        for(String nodeId : clusterNodes) {
+            if(nodes.size() > replicationFactor) {
+                break;
+            }
+            nodes.add(nodeId);
+        }
+        return nodes;
     }
 
     private void loadClusterNodes() {
@@ -16,55 +16,79 @@
 
 package com.blobcity.db.cluster.connection;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import com.blobcity.db.cluster.transport.PeerConnection;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.springframework.stereotype.Component;
 
 /**
- * Stores a collection of {@link ClusterConnection} mapped to the respective node-id's of the nodes. It is
- * responsibility of the connection manager to ensure that this store at all times has only active connections listed.
- * This class is also not responsible for opening and closing the {@link ClusterConnection}.
+ * Stores a collection of {@link PeerConnection} mapped to the respective node-id's of the nodes. Connections that have
+ * closed are dropped as they are found, so callers always receive an active connection if the node has one. This class
+ * is not responsible for opening the {@link PeerConnection}.
  *
  * @author sanketsarang
  */
 @Component
 public class ConnectionStore {
 
-    private Semaphore semaphore = new Semaphore(1);
-    private final Random random = new Random();
-    private final Map<String, List<ClusterConnection>> map = new HashMap<>();
-    private final Map<String, List<ClusterConnection>> inUseMap = new HashMap<>();
+    private final AtomicInteger counter = new AtomicInteger();
+    private final Map<String, List<PeerConnection>> map = new ConcurrentHashMap<>();
 
-    public void addConnection(final String nodeId, final ClusterConnection clusterConnection) {
-        if (!map.containsKey(nodeId)) {
-            map.put(nodeId, new ArrayList<ClusterConnection>());
-        }
-
-        map.get(nodeId).add(clusterConnection);
+    public void addConnection(final String nodeId, final PeerConnection peerConnection) {
+        map.computeIfAbsent(nodeId, key -> new CopyOnWriteArrayList<>()).add(peerConnection);
     }
 
-    public void removeConnection(final String nodeId, final ClusterConnection clusterConnection) {
-        if (!map.containsKey(nodeId)) {
-            return;
+    public void removeConnection(final String nodeId, final PeerConnection peerConnection) {
+        final List<PeerConnection> connectionList = map.get(nodeId);
+        if (connectionList != null) {
+            connectionList.remove(peerConnection);
         }
-
-        map.get(nodeId).remove(clusterConnection);
     }
 
     public void removeNode(final String nodeId) {
-        map.remove(nodeId);
+        final List<PeerConnection> connectionList = map.remove(nodeId);
+        if (connectionList != null) {
+            connectionList.forEach(PeerConnection::close);
+        }
     }
 
-    public ClusterConnection getConnection(final String nodeId) {
-        if (!map.containsKey(nodeId)) {
+    /**
+     * Gets an active connection to a node. Connections of the node are handed out in turn.
+     *
+     * @param nodeId the node id of the node
+     * @return an active connection; <code>null</code> if no connection to the node is open
+     */
+    public PeerConnection getConnection(final String nodeId) {
+        final List<PeerConnection> connectionList = map.get(nodeId);
+        if (connectionList == null) {
             return null;
         }
 
-        List<ClusterConnection> connectionList = map.get(nodeId);
-        return connectionList.get(random.nextInt(connectionList.size()));
+        while (!connectionList.isEmpty()) {
+            final int size = connectionList.size();
+            final PeerConnection peerConnection;
+            try {
+                peerConnection = connectionList.get(Math.floorMod(counter.getAndIncrement(), size));
+            } catch (IndexOutOfBoundsException ex) {
+                continue; // a connection was removed concurrently
+            }
+            if (peerConnection.isActive()) {
+                return peerConnection;
+            }
+            connectionList.remove(peerConnection);
+        }
+        return null;
+    }
+
+    /**
+     * @param nodeId the node id of the node
+     * @return the number of connections held to the node, including any that closed and are not yet dropped
+     */
+    public int getConnectionCount(final String nodeId) {
+        final List<PeerConnection> connectionList = map.get(nodeId);
+        return connectionList == null ? 0 : connectionList.size();
     }
 }
@@ -17,16 +17,23 @@
 package com.blobcity.db.cluster.messaging;
 
 import com.blobcity.db.cluster.ClusterNodesStore;
-import com.blobcity.db.cluster.connection.ClusterConnection;
 import com.blobcity.db.cluster.connection.ConnectionStore;
+import com.blobcity.db.cluster.transport.PeerConnection;
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.blobcity.db.processors.ProcessHandler;
 import com.blobcity.db.processors.ProcessorExecutorService;
 import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -85,17 +92,80 @@ public class ClusterMessaging {
             return true;
         }
 
-        ClusterConnection clusterConnection = connectionStore.getConnection(nodeId);
-        if (clusterConnection == null) {
-            return false;
+        PeerConnection peerConnection = connectionStore.getConnection(nodeId);
+        return peerConnection != null && peerConnection.send(query);
+    }
+
+    /**
+     * Sends a request to a single node on the cluster and returns the response of that node. Any number of requests
+     * may be awaiting their response at a time. The request is answered by the
+     * {@link com.blobcity.db.cluster.transport.ClusterRequestHandler} of the remote node, and is never short circuited
+     * for the self node.
+     *
+     * @param query the request
+     * @param nodeId the node id of the node to which the request is sent
+     * @return a future completed with the response of the node, or exceptionally with an {@link OperationException}
+     * if the node cannot be reached
+     */
+    public CompletableFuture<Query> request(Query query, String nodeId) {
+        query.fromNode(clusterNodesStore.getSelfId());
+
+        PeerConnection peerConnection = connectionStore.getConnection(nodeId);
+        if (peerConnection == null) {
+            CompletableFuture<Query> future = new CompletableFuture<>();
+            future.completeExceptionally(new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "No connection open to node " + nodeId));
+            return future;
         }
+        return peerConnection.request(query);
+    }
+
+    /**
+     * Waits for the response to a request sent through {@link #request(Query, String)}, for up to
+     * {@link ClusterConstants#REQUEST_TIMEOUT}
+     *
+     * @param future the future returned for the request
+     * @param nodeId the node id of the node to which the request was sent
+     * @return the response, if acknowledged with success
+     * @throws OperationException if the node could not be reached, did not respond in time, or responded with a
+     * failure
+     */
+    public Query awaitResponse(CompletableFuture<Query> future, String nodeId) throws OperationException {
+        return awaitResponse(future, nodeId, ClusterConstants.REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Waits for the response to a request sent through {@link #request(Query, String)}
+     *
+     * @param future the future returned for the request
+     * @param nodeId the node id of the node to which the request was sent
+     * @param timeout time in milli-seconds to wait for; 0 to wait until the node responds or its connection fails
+     * @return the response, if acknowledged with success
+     * @throws OperationException if the node could not be reached, did not respond in time, or responded with a
+     * failure
+     */
+    public Query awaitResponse(CompletableFuture<Query> future, String nodeId, long timeout) throws OperationException {
+        final Query response;
         try {
-            clusterConnection.sendMessage(query.getRequestId(), query.getQueryType().getQueryCode(), query.toJson());
-            return true;
-        } catch (OperationException ex) {
-            logger.error(ex.getMessage(), ex);
-            return false;
+            response = timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Interrupted while waiting for node " + nodeId);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof OperationException) {
+                throw (OperationException) ex.getCause();
+            }
+            throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Request to node " + nodeId + " failed: " + ex.getCause().getMessage());
+        } catch (TimeoutException ex) {
+            future.cancel(false);
+            throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Node " + nodeId + " did not respond within " + timeout + " ms");
+        }
+
+        if (!response.isAckSuccess()) {
+            final ErrorCode errorCode = response.contains(QueryParams.ERROR_CODE) ? ErrorCode.fromString(response.getErrorCode()) : null;
+            throw new OperationException(errorCode == null ? ErrorCode.INTERNAL_OPERATION_ERROR : errorCode,
+                    "Node " + nodeId + " failed the request" + (response.contains(QueryParams.MESSAGE) ? ": " + response.getMessage() : ""));
         }
+        return response;
     }
 
     /**
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.partition;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A consistent hash ring placing records of partitioned collections on the nodes of the cluster. Every node is
+ * placed on the ring at a number of virtual node positions, and a record is owned by the first distinct nodes found
+ * walking the ring clockwise from the hash of its <code>_id</code>. Adding or removing a node only moves the records
+ * on the ring segments that node gains or loses.
+ *
+ * <p>
+ * The ring depends only on the node ids and the number of virtual nodes, so every node computes the same ring from
+ * the same membership. Instances are immutable.
+ *
+ * @author sanketsarang
+ */
+public class HashRing {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final String NODES = "nodes";
+    private static final String VIRTUAL_NODES = "virtual-nodes";
+    private static final String VERSION = "version";
+
+    private final Set<String> nodes;
+    private final int virtualNodes;
+    private final long version;
+    private final long[] tokens;
+    private final String[] tokenOwners;
+
+    /**
+     * Creates a ring
+     *
+     * @param nodes the node ids of the nodes on the ring
+     * @param virtualNodes the number of positions each node takes on the ring
+     * @param version the version of the ring, increased every time the cluster moves to a new ring
+     */
+    public HashRing(final Collection<String> nodes, final int virtualNodes, final long version) {
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        this.virtualNodes = Math.max(1, virtualNodes);
+        this.version = version;
+
+        final List<Token> ring = new ArrayList<>(this.nodes.size() * this.virtualNodes);
+        for (String node : this.nodes) {
+            for (int i = 0; i < this.virtualNodes; i++) {
+                ring.add(new Token(hash(node + "#" + i), node));
+            }
+        }
+        ring.sort((token1, token2) -> {
+            final int result = Long.compare(token1.position, token2.position);
+            return result != 0 ? result : token1.node.compareTo(token2.node);
+        });
+
+        this.tokens = new long[ring.size()];
+        this.tokenOwners = new String[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            tokens[i] = ring.get(i).position;
+            tokenOwners[i] = ring.get(i).node;
+        }
+    }
+
+    /**
+     * Gets the nodes owning a key
+     *
+     * @param key the <code>_id</code> of the record
+     * @param replicas the number of copies of the record to place
+     * @return the owning nodes, primary owner first; fewer than <code>replicas</code> if the ring has fewer nodes
+     */
+    public List<String> getOwners(final String key, final int replicas) {
+        if (tokens.length == 0 || replicas <= 0) {
+            return Collections.emptyList();
+        }
+
+        int index = Arrays.binarySearch(tokens, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return new ArrayList<>(ownersFrom(index, Math.min(replicas, nodes.size())));
+    }
+
+    /**
+     * Checks if every key has at least one owner among a set of nodes, so that the nodes together hold a copy of every
+     * record
+     *
+     * @param liveNodes the nodes
+     * @param replicas the number of copies placed of every record
+     * @return <code>true</code> if no segment of the ring is owned only by nodes outside the set
+     */
+    public boolean covers(final Collection<String> liveNodes, final int replicas) {
+        final int count = Math.min(Math.max(1, replicas), nodes.size());
+        for (int i = 0; i < tokens.length; i++) {
+            if (Collections.disjoint(ownersFrom(i, count), liveNodes)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<String> ownersFrom(final int index, final int count) {
+        final Set<String> owners = new LinkedHashSet<>(count * 2);
+        for (int i = 0; i < tokens.length && owners.size() < count; i++) {
+            owners.add(tokenOwners[(index + i) % tokens.length]);
+        }
+        return owners;
+    }
+
+    /**
+     * Gets the primary owner of a key
+     *
+     * @param key the <code>_id</code> of the record
+     * @return the node id of the primary owner; <code>null</code> if the ring is empty
+     */
+    public String getOwner(final String key) {
+        final List<String> owners = getOwners(key, 1);
+        return owners.isEmpty() ? null : owners.get(0);
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Creates the ring that follows this ring for a new cluster membership
+     *
+     * @param nodes the node ids of the nodes of the new ring
+     * @return the new ring, one version ahead of this ring
+     */
+    public HashRing withNodes(final Collection<String> nodes) {
+        return new HashRing(nodes, virtualNodes, version + 1);
+    }
+
+    public JSONObject toJson() {
+        final JSONObject jsonObject = new JSONObject();
+        jsonObject.put(NODES, new JSONArray(nodes));
+        jsonObject.put(VIRTUAL_NODES, virtualNodes);
+        jsonObject.put(VERSION, version);
+        return jsonObject;
+    }
+
+    public static HashRing fromJson(final JSONObject jsonObject) {
+        final JSONArray nodesArray = jsonObject.getJSONArray(NODES);
+        final List<String> nodes = new ArrayList<>(nodesArray.length());
+        for (int i = 0; i < nodesArray.length(); i++) {
+            nodes.add(nodesArray.getString(i));
+        }
+        return new HashRing(nodes, jsonObject.getInt(VIRTUAL_NODES), jsonObject.optLong(VERSION, 0));
+    }
+
+    static long hash(final String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static class Token {
+
+        private final long position;
+        private final String node;
+
+        private Token(final long position, final String node) {
+            this.position = position;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.partition;
+
+import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.bsql.BSqlDatastoreManager;
+import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.cluster.messaging.ClusterMessaging;
+import com.blobcity.db.cluster.transport.ClusterTransport;
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.schema.ReplicationType;
+import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.blobcity.lib.query.QueryType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads and moves the records of partitioned collections across the nodes of the cluster.
+ *
+ * <p>
+ * Point reads go straight to a node owning each key: the self node when it is an owner, else the primary owner,
+ * falling back to the other owners if that node cannot be reached.
+ *
+ * <p>
+ * A rebalance moves the cluster to a ring built from the current cluster nodes, in three phases run on every node of
+ * the current and new ring. In <code>prepare</code> writes start going to the owners on both rings. In
+ * <code>transfer</code> every node streams the records it is responsible for to the owners that do not have them yet.
+ * In <code>commit</code> every node moves to the new ring and deletes the records it no longer owns. A failure before
+ * the commit aborts the rebalance, leaving the current ring in place.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class PartitionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionManager.class.getName());
+    private static final String PREPARE = "prepare";
+    private static final String TRANSFER = "transfer";
+    private static final String COMMIT = "commit";
+    private static final String ABORT = "abort";
+    private static final int MAX_PENDING_TRANSFERS = 8;
+
+    @Autowired @Lazy
+    private PartitionStore partitionStore;
+    @Autowired @Lazy
+    private ClusterTransport clusterTransport;
+    @Autowired @Lazy
+    private ClusterMessaging clusterMessaging;
+    @Autowired @Lazy
+    private ClusterNodesStore clusterNodesStore;
+    @Autowired @Lazy
+    private BSqlDataManager dataManager;
+    @Autowired @Lazy
+    private BSqlDatastoreManager datastoreManager;
+    @Autowired @Lazy
+    private BSqlCollectionManager collectionManager;
+
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    /**
+     * Registers the handlers answering partition requests from other nodes. Must be called before the cluster
+     * transport starts accepting connections.
+     */
+    public void init() {
+        clusterTransport.registerRequestHandler(QueryType.PARTITION_GET, (nodeId, request) -> handleGet(request));
+        clusterTransport.registerRequestHandler(QueryType.PARTITION_PUT, (nodeId, request) -> handlePut(request));
+        clusterTransport.registerRequestHandler(QueryType.PARTITION_REBALANCE, (nodeId, request) -> handleRebalance(request));
+    }
+
+    /**
+     * Reads records of a partitioned collection from the nodes owning them
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param keys the <code>_id</code>'s of the records
+     * @param columns the columns to read from each record; <code>null</code> to read complete records
+     * @return the records found, in the order of their keys
+     * @throws OperationException if no owner of some key could be reached
+     */
+    public List<JSONObject> select(final String ds, final String collection, final Collection<String> keys, final Set<String> columns) throws OperationException {
+        final String selfId = clusterNodesStore.getSelfId();
+        final Map<String, List<String>> ownersByKey = new HashMap<>();
+        final Map<String, List<String>> keysByNode = new LinkedHashMap<>();
+        for (String key : keys) {
+            final List<String> owners = partitionStore.getOwners(ds, collection, key);
+            ownersByKey.put(key, owners);
+            final String node = owners.isEmpty() || owners.contains(selfId) ? selfId : owners.get(0);
+            keysByNode.computeIfAbsent(node, nodeId -> new ArrayList<>()).add(key);
+        }
+
+        final Map<String, CompletableFuture<Query>> requests = new HashMap<>();
+        keysByNode.forEach((nodeId, nodeKeys) -> {
+            if (!nodeId.equals(selfId)) {
+                requests.put(nodeId, clusterMessaging.request(new Query().partitionGetQuery(ds, collection, nodeKeys, columns), nodeId));
+            }
+        });
+
+        final Map<String, JSONObject> records = new HashMap<>();
+        if (keysByNode.containsKey(selfId)) {
+            records.putAll(selectLocal(ds, collection, keysByNode.get(selfId), columns));
+        }
+        for (Map.Entry<String, CompletableFuture<Query>> entry : requests.entrySet()) {
+            try {
+                records.putAll(toRecords(clusterMessaging.awaitResponse(entry.getValue(), entry.getKey())));
+            } catch (OperationException ex) {
+                logger.warn("Reading from replicas as node {} failed to return records of {}.{}: {}", entry.getKey(), ds, collection, ex.getMessage());
+                for (String key : keysByNode.get(entry.getKey())) {
+                    selectFromReplicas(ds, collection, key, columns, ownersByKey.get(key), entry.getKey(), records);
+                }
+            }
+        }
+
+        final List<JSONObject> result = new ArrayList<>(records.size());
+        for (String key : keys) {
+            final JSONObject record = records.get(key);
+            if (record != null) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the cluster to a ring holding the current cluster nodes, streaming records to the nodes that become
+     * their owners. Only one rebalance may run at a time from a node.
+     *
+     * @return the version of the new ring, and the records moved and removed on each node
+     * @throws OperationException if a node of the new ring fails the rebalance, or a rebalance is already running
+     */
+    public JSONObject rebalance() throws OperationException {
+        if (!rebalancing.compareAndSet(false, true)) {
+            throw new OperationException(ErrorCode.CLUSTER_REBALANCE_ERROR, "A rebalance is already in progress");
+        }
+
+        try {
+            final HashRing current = partitionStore.getRing();
+            final Set<String> members = new TreeSet<>(clusterNodesStore.getAllNodes());
+            final JSONObject result = new JSONObject();
+            if (current.getNodes().equals(members)) {
+                result.put("version", current.getVersion());
+                result.put("nodes", new JSONArray(members));
+                result.put("moved", new JSONObject());
+                return result;
+            }
+
+            final HashRing target = current.withNodes(members);
+            final Set<String> participants = new TreeSet<>(current.getNodes());
+            participants.addAll(members);
+            logger.info("Rebalancing partitions from ring version {} with nodes {} to nodes {}", current.getVersion(), current.getNodes(), members);
+
+            final JSONObject moved;
+            try {
+                runPhase(PREPARE, target, participants);
+                moved = runPhase(TRANSFER, target, participants);
+            } catch (OperationException ex) {
+                logger.error("Rebalance to ring version " + target.getVersion() + " failed and is aborted. " + ex.getMessage());
+                try {
+                    runPhase(ABORT, target, participants);
+                } catch (OperationException abortEx) {
+                    logger.error("Could not abort rebalance on all nodes. " + abortEx.getMessage());
+                }
+                throw ex;
+            }
+            final JSONObject removed = runPhase(COMMIT, target, participants);
+
+            result.put("version", target.getVersion());
+            result.put("nodes", new JSONArray(members));
+            result.put("moved", moved);
+            result.put("removed", removed);
+            return result;
+        } finally {
+            rebalancing.set(false);
+        }
+    }
+
+    /**
+     * Runs a phase of a rebalance on all participating nodes. Only nodes of the new ring are required to succeed, as
+     * nodes leaving the cluster may no longer be reachable.
+     */
+    private JSONObject runPhase(final String phase, final HashRing target, final Set<String> participants) throws OperationException {
+        final String selfId = clusterNodesStore.getSelfId();
+        final Map<String, CompletableFuture<Query>> requests = new LinkedHashMap<>();
+        for (String nodeId : participants) {
+            if (!nodeId.equals(selfId)) {
+                requests.put(nodeId, clusterMessaging.request(new Query().partitionRebalanceQuery(phase, target.toJson()), nodeId));
+            }
+        }
+
+        final JSONObject result = new JSONObject();
+        OperationException failure = null;
+        if (participants.contains(selfId)) {
+            try {
+                result.put(selfId, runPhase(phase, target));
+            } catch (OperationException ex) {
+                failure = ex;
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<Query>> entry : requests.entrySet()) {
+            try {
+                final Query response = clusterMessaging.awaitResponse(entry.getValue(), entry.getKey(), TRANSFER.equals(phase) ? 0 : ClusterConstants.REQUEST_TIMEOUT);
+                result.put(entry.getKey(), response.getPayload());
+            } catch (OperationException ex) {
+                if (target.getNodes().contains(entry.getKey())) {
+                    failure = failure == null ? ex : failure;
+                } else {
+                    logger.warn("Node {} leaving the cluster failed rebalance phase {}: {}", entry.getKey(), phase, ex.getMessage());
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw new OperationException(ErrorCode.CLUSTER_REBALANCE_ERROR, "Rebalance phase " + phase + " failed. " + failure.getMessage());
+        }
+        return result;
+    }
+
+    private JSONObject runPhase(final String phase, final HashRing target) throws OperationException {
+        switch (phase) {
+            case PREPARE:
+                if (target.getVersion() <= partitionStore.getRing().getVersion()) {
+                    throw new OperationException(ErrorCode.CLUSTER_REBALANCE_ERROR, "Node " + clusterNodesStore.getSelfId()
+                            + " is already on ring version " + partitionStore.getRing().getVersion());
+                }
+                partitionStore.prepare(target);
+                return new JSONObject();
+            case TRANSFER:
+                return transfer(target);
+            case COMMIT:
+                partitionStore.commit(target);
+                return removeUnowned(target);
+            case ABORT:
+                partitionStore.abort();
+                return new JSONObject();
+            default:
+                throw new OperationException(ErrorCode.INVALID_QUERY, "Unknown rebalance phase " + phase);
+        }
+    }
+
+    /**
+     * Streams every record this node is responsible for to the owners on the target ring that are not owners on the
+     * current ring. Of the current owners of a record the first one remaining on the target ring sends it. Records
+     * held by a node that does not own them are sent to all their owners.
+     */
+    private JSONObject transfer(final HashRing target) throws OperationException {
+        final HashRing current = partitionStore.getRing();
+        final String selfId = clusterNodesStore.getSelfId();
+        final JSONObject moved = new JSONObject();
+        for (String ds : datastoreManager.listDatabases()) {
+            for (String collection : collectionManager.listTables(ds)) {
+                if (!isDistributed(ds, collection)) {
+                    continue;
+                }
+
+                final int replicas = partitionStore.getReplicas(ds, collection);
+                final Map<String, List<JSONObject>> batches = new HashMap<>();
+                final Queue<Transfer> pending = new ArrayDeque<>();
+                long count = 0;
+                final Iterator<String> keys = dataManager.selectAllKeysAsStream(ds, collection);
+                while (keys.hasNext()) {
+                    final String key = keys.next();
+                    final List<String> currentOwners = current.getOwners(key, replicas);
+                    final boolean owned = currentOwners.contains(selfId);
+                    if (owned && !selfId.equals(sender(currentOwners, target))) {
+                        continue;
+                    }
+
+                    JSONObject record = null;
+                    for (String owner : target.getOwners(key, replicas)) {
+                        if (owner.equals(selfId) || (owned && currentOwners.contains(owner))) {
+                            continue;
+                        }
+                        if (record == null) {
+                            try {
+                                record = dataManager.select(ds, collection, key);
+                            } catch (OperationException ex) {
+                                if (ex.getErrorCode() == ErrorCode.PRIMARY_KEY_INEXISTENT) {
+                                    break;
+                                }
+                                throw ex;
+                            }
+                        }
+
+                        final List<JSONObject> batch = batches.computeIfAbsent(owner, nodeId -> new ArrayList<>());
+                        batch.add(record);
+                        count++;
+                        if (batch.size() >= ClusterConstants.PARTITION_TRANSFER_BATCH) {
+                            send(ds, collection, owner, batches.remove(owner), pending);
+                        }
+                    }
+                }
+                for (Map.Entry<String, List<JSONObject>> entry : batches.entrySet()) {
+                    send(ds, collection, entry.getKey(), entry.getValue(), pending);
+                }
+                while (!pending.isEmpty()) {
+                    pending.poll().await();
+                }
+
+                if (count > 0) {
+                    logger.info("Transferred {} records of {}.{} to their new owners", count, ds, collection);
+                    moved.put(ds + "." + collection, count);
+                }
+            }
+        }
+        return moved;
+    }
+
+    private void send(final String ds, final String collection, final String nodeId, final List<JSONObject> records, final Queue<Transfer> pending) throws OperationException {
+        while (pending.size() >= MAX_PENDING_TRANSFERS) {
+            pending.poll().await();
+        }
+        pending.add(new Transfer(nodeId, clusterMessaging.request(new Query().partitionPutQuery(ds, collection, records), nodeId)));
+    }
+
+    private String sender(final List<String> currentOwners, final HashRing target) {
+        for (String owner : currentOwners) {
+            if (target.getNodes().contains(owner)) {
+                return owner;
+            }
+        }
+        return currentOwners.isEmpty() ? null : currentOwners.get(0);
+    }
+
+    private JSONObject removeUnowned(final HashRing target) throws OperationException {
+        final String selfId = clusterNodesStore.getSelfId();
+        final JSONObject removed = new JSONObject();
+        for (String ds : datastoreManager.listDatabases()) {
+            for (String collection : collectionManager.listTables(ds)) {
+                if (!isDistributed(ds, collection)) {
+                    continue;
+                }
+
+                final int replicas = partitionStore.getReplicas(ds, collection);
+                final List<String> unowned = new ArrayList<>();
+                final Iterator<String> keys = dataManager.selectAllKeysAsStream(ds, collection);
+                while (keys.hasNext()) {
+                    final String key = keys.next();
+                    if (!target.getOwners(key, replicas).contains(selfId)) {
+                        unowned.add(key);
+                    }
+                }
+                for (String key : unowned) {
+                    dataManager.remove(ds, collection, key);
+                }
+
+                if (!unowned.isEmpty()) {
+                    logger.info("Removed {} records of {}.{} no longer owned by this node", unowned.size(), ds, collection);
+                    removed.put(ds + "." + collection, unowned.size());
+                }
+            }
+        }
+        return removed;
+    }
+
+    private boolean isDistributed(final String ds, final String collection) throws OperationException {
+        return SchemaStore.getInstance().getSchema(ds, collection).getReplicationType() == ReplicationType.DISTRIBUTED;
+    }
+
+    private void selectFromReplicas(final String ds, final String collection, final String key, final Set<String> columns,
+            final List<String> owners, final String failedNodeId, final Map<String, JSONObject> records) throws OperationException {
+        final List<String> keys = new ArrayList<>(1);
+        keys.add(key);
+        OperationException failure = null;
+        for (String owner : owners) {
+            if (owner.equals(failedNodeId)) {
+                continue;
+            }
+            try {
+                records.putAll(owner.equals(clusterNodesStore.getSelfId()) ? selectLocal(ds, collection, keys, columns)
+                        : toRecords(clusterMessaging.awaitResponse(clusterMessaging.request(new Query().partitionGetQuery(ds, collection, keys, columns), owner), owner)));
+                return;
+            } catch (OperationException ex) {
+                failure = ex;
+            }
+        }
+        throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "No node owning record " + key + " of " + ds + "." + collection
+                + " could be reached" + (failure == null ? "" : ". " + failure.getMessage()));
+    }
+
+    private Map<String, JSONObject> selectLocal(final String ds, final String collection, final List<String> keys, final Set<String> columns) throws OperationException {
+        final Map<String, JSONObject> records = new HashMap<>();
+        for (String key : keys) {
+            try {
+                records.put(key, columns == null ? dataManager.select(ds, collection, key) : dataManager.select(ds, collection, key, columns));
+            } catch (OperationException ex) {
+                if (ex.getErrorCode() != ErrorCode.PRIMARY_KEY_INEXISTENT) {
+                    throw ex;
+                }
+            }
+        }
+        return records;
+    }
+
+    private Map<String, JSONObject> toRecords(final Query response) {
+        final Map<String, JSONObject> records = new HashMap<>();
+        final JSONObject payload = (JSONObject) response.getPayload();
+        for (Object key : payload.keySet()) {
+            records.put((String) key, payload.getJSONObject((String) key));
+        }
+        return records;
+    }
+
+    private Query handleGet(final Query request) throws OperationException {
+        final JSONObject payload = request.getJSONObject(QueryParams.PAYLOAD);
+        final JSONArray idsArray = payload.getJSONArray(QueryParams.IDS.getParam());
+        final List<String> keys = new ArrayList<>(idsArray.length());
+        for (int i = 0; i < idsArray.length(); i++) {
+            keys.add(idsArray.getString(i));
+        }
+        Set<String> columns = null;
+        if (payload.has(QueryParams.COLS.getParam())) {
+            final JSONArray colsArray = payload.getJSONArray(QueryParams.COLS.getParam());
+            columns = new HashSet<>();
+            for (int i = 0; i < colsArray.length(); i++) {
+                columns.add(colsArray.getString(i));
+            }
+        }
+
+        final JSONObject records = new JSONObject();
+        selectLocal(request.getDs(), request.getCollection(), keys, columns).forEach(records::put);
+        return new Query().requestId(request.getRequestId()).ackSuccess().payload(records);
+    }
+
+    private Query handlePut(final Query request) throws OperationException {
+        final JSONArray records = request.getJSONObject(QueryParams.PAYLOAD).getJSONArray(QueryParams.DATA.getParam());
+        for (int i = 0; i < records.length(); i++) {
+            dataManager.save(request.getDs(), request.getCollection(), records.getJSONObject(i));
+        }
+        return new Query().requestId(request.getRequestId()).ackSuccess().payload(records.length());
+    }
+
+    private Query handleRebalance(final Query request) throws OperationException {
+        final JSONObject payload = request.getJSONObject(QueryParams.PAYLOAD);
+        final HashRing target = HashRing.fromJson(payload.getJSONObject(QueryParams.DATA.getParam()));
+        final JSONObject result = runPhase(payload.getString(QueryParams.TYPE.getParam()), target);
+        return new Query().requestId(request.getRequestId()).ackSuccess().payload(result);
+    }
+
+    private class Transfer {
+
+        private final String nodeId;
+        private final CompletableFuture<Query> future;
+
+        private Transfer(final String nodeId, final CompletableFuture<Query> future) {
+            this.nodeId = nodeId;
+            this.future = future;
+        }
+
+        private void await() throws OperationException {
+            clusterMessaging.awaitResponse(future, nodeId);
+        }
+    }
+}
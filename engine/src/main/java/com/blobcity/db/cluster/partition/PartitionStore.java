@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.partition;
+
+import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.schema.ReplicationType;
+import com.blobcity.db.schema.Schema;
+import com.blobcity.db.schema.beans.SchemaStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the {@link HashRing} placing the records of {@link ReplicationType#DISTRIBUTED} collections, and saves it
+ * in the cluster configuration. A record of a distributed collection is kept on <code>replicationFactor + 1</code>
+ * nodes of the ring.
+ *
+ * <p>
+ * While a rebalance is in progress the store also holds the ring being moved to. Writes then go to the owners on
+ * both rings, so that records written during the move are already in place when the new ring is committed. Reads
+ * use the current ring until the commit.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class PartitionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionStore.class.getName());
+
+    @Autowired @Lazy
+    private ConfigBean configBean;
+    @Autowired @Lazy
+    private ClusterNodesStore clusterNodesStore;
+
+    private volatile HashRing ring;
+    private volatile HashRing pendingRing;
+
+    /**
+     * Gets the current ring. On first use the ring is loaded from the cluster configuration, or created from the
+     * current cluster nodes and saved if the configuration holds no ring.
+     *
+     * @return the current ring
+     */
+    public HashRing getRing() {
+        HashRing current = ring;
+        if (current == null) {
+            synchronized (this) {
+                if (ring == null) {
+                    ring = loadRing();
+                }
+                current = ring;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the ring a rebalance is moving to; <code>null</code> if no rebalance is in progress
+     */
+    public HashRing getPendingRing() {
+        return pendingRing;
+    }
+
+    /**
+     * Checks if records of a collection are placed on a subset of nodes by the ring, rather than being present on
+     * every node
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @return <code>true</code> if the collection is distributed and the cluster has more than one node
+     * @throws OperationException if the schema of the collection cannot be loaded
+     */
+    public boolean isPartitioned(final String ds, final String collection) throws OperationException {
+        final Schema schema = SchemaStore.getInstance().getSchema(ds, collection);
+        if (schema.getReplicationType() != ReplicationType.DISTRIBUTED) {
+            return false;
+        }
+        final HashRing pending = pendingRing;
+        return getRing().size() > 1 || (pending != null && pending.size() > 1);
+    }
+
+    /**
+     * @param ds the datastore
+     * @param collection the collection
+     * @return the number of copies kept of every record of the collection
+     * @throws OperationException if the schema of the collection cannot be loaded
+     */
+    public int getReplicas(final String ds, final String collection) throws OperationException {
+        return Math.max(0, SchemaStore.getInstance().getSchema(ds, collection).getReplicationFactor()) + 1;
+    }
+
+    /**
+     * Gets the nodes to read a record of a partitioned collection from
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param key the <code>_id</code> of the record
+     * @return the owners of the record on the current ring, primary owner first
+     * @throws OperationException if the schema of the collection cannot be loaded
+     */
+    public List<String> getOwners(final String ds, final String collection, final String key) throws OperationException {
+        return getRing().getOwners(key, getReplicas(ds, collection));
+    }
+
+    /**
+     * Creates a filter accepting the keys of a collection that the self node answers for in a query run on a set of
+     * nodes. Each key is answered by the first of its owners on the current ring that takes part in the query, so that
+     * every record is read once however many copies of it are kept, and records held by a node that does not own them
+     * are not read at all.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param nodes the nodes taking part in the query
+     * @return the filter on the <code>_id</code> of local records
+     * @throws OperationException if the schema of the collection cannot be loaded
+     */
+    public Predicate<String> getAnswerableKeys(final String ds, final String collection, final Collection<String> nodes) throws OperationException {
+        final HashRing current = getRing();
+        final int replicas = getReplicas(ds, collection);
+        final String selfId = clusterNodesStore.getSelfId();
+        return key -> {
+            for (String owner : current.getOwners(key, replicas)) {
+                if (nodes.contains(owner)) {
+                    return owner.equals(selfId);
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Gets the nodes a record of a partitioned collection must be written to. These are the owners on the current
+     * ring, followed by any further owners on the ring a rebalance is moving to.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param key the <code>_id</code> of the record
+     * @return the nodes to write the record to
+     * @throws OperationException if the schema of the collection cannot be loaded
+     */
+    public List<String> getWriteOwners(final String ds, final String collection, final String key) throws OperationException {
+        final int replicas = getReplicas(ds, collection);
+        final HashRing pending = pendingRing;
+        if (pending == null) {
+            return getRing().getOwners(key, replicas);
+        }
+
+        final Set<String> owners = new LinkedHashSet<>(getRing().getOwners(key, replicas));
+        owners.addAll(pending.getOwners(key, replicas));
+        return new ArrayList<>(owners);
+    }
+
+    /**
+     * Starts routing writes to the owners on a new ring as well as the current ring
+     *
+     * @param target the ring being moved to
+     */
+    public synchronized void prepare(final HashRing target) {
+        pendingRing = target;
+    }
+
+    /**
+     * Makes a ring the current ring and saves it in the cluster configuration
+     *
+     * @param target the ring moved to
+     * @throws OperationException if the cluster configuration could not be updated
+     */
+    public synchronized void commit(final HashRing target) throws OperationException {
+        ring = target;
+        pendingRing = null;
+        saveRing(target);
+        logger.info("Moved to partition ring version {} with nodes {}", target.getVersion(), target.getNodes());
+    }
+
+    /**
+     * Stops routing writes to the owners on the ring a rebalance was moving to
+     */
+    public synchronized void abort() {
+        pendingRing = null;
+    }
+
+    private HashRing loadRing() {
+        final Object ringConfig = configBean.getProperty(ConfigProperties.CLUSTER_RING);
+        if (ringConfig instanceof JSONObject) {
+            return HashRing.fromJson((JSONObject) ringConfig);
+        }
+
+        final HashRing initialRing = new HashRing(clusterNodesStore.getAllNodes(), ClusterConstants.VIRTUAL_NODES, 0);
+        try {
+            saveRing(initialRing);
+        } catch (OperationException ex) {
+            logger.error(ex.getMessage());
+        }
+        return initialRing;
+    }
+
+    private void saveRing(final HashRing hashRing) throws OperationException {
+        try {
+            configBean.acquireExclusiveAccess();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OperationException(ErrorCode.CONFIG_FILE_ERROR, "Interrupted while saving the partition ring");
+        }
+        try {
+            configBean.setProperty(ConfigProperties.CLUSTER_RING, hashRing.toJson());
+            configBean.updateConfig();
+        } finally {
+            try {
+                configBean.releaseExclusiveAccess();
+            } catch (InterruptedException ex) {
+                logger.error("Error releasing exclusive lock on configuration change. Cluster may require manual reboot", ex);
+            }
+        }
+    }
+}
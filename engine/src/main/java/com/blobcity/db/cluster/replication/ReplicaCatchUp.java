@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.replication;
+
+import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.bsql.BSqlDatastoreManager;
+import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.cluster.connection.ConnectionStore;
+import com.blobcity.db.cluster.messaging.ClusterMessaging;
+import com.blobcity.db.cluster.partition.PartitionStore;
+import com.blobcity.db.cluster.transport.ClusterTransport;
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.schema.SchemaProperties;
+import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.transaction.CollectionCommitLogWriter;
+import com.blobcity.db.transaction.CommitLog;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.blobcity.lib.query.QueryType;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Brings replicas of partitioned collections that missed inserts while they could not be reached back in sync, by
+ * shipping the missed inserts from the commit log of the collection instead of resending whole partitions.
+ *
+ * <p>
+ * A node that logs an insert some owners of which could not be reached records, per collection, the commit log
+ * position of each such owner (see {@link ReplicaPositions}). Every second the positions of owners that can be reached
+ * again are moved forward: committed inserts logged after the position are read from the commit log and sent to the
+ * owner in batches, skipping records the owner does not own on the partition ring and records it already holds.
+ * Inserts still awaiting their commit or rollback are shipped on a later round.
+ *
+ * <p>
+ * An owner whose position falls behind the oldest segment of the log, or more than the configured number of entries
+ * behind the end of the log, is sent a snapshot of the records it owns instead. Segments holding entries not yet
+ * shipped to an owner within that limit are kept past checkpoints.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class ReplicaCatchUp {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaCatchUp.class.getName());
+    private static final long DEFAULT_MAX_LOG_LAG = 1000000;
+
+    @Autowired @Lazy
+    private CollectionCommitLogWriter commitLogWriter;
+    @Autowired @Lazy
+    private PartitionStore partitionStore;
+    @Autowired @Lazy
+    private ClusterTransport clusterTransport;
+    @Autowired @Lazy
+    private ClusterMessaging clusterMessaging;
+    @Autowired @Lazy
+    private ConnectionStore connectionStore;
+    @Autowired @Lazy
+    private ClusterNodesStore clusterNodesStore;
+    @Autowired @Lazy
+    private BSqlDataManager dataManager;
+    @Autowired @Lazy
+    private BSqlDatastoreManager datastoreManager;
+    @Autowired @Lazy
+    private BSqlCollectionManager collectionManager;
+    @Autowired @Lazy
+    private ConfigBean configBean;
+
+    private final Map<String, CollectionPositions> positionsMap = new ConcurrentHashMap<>(); //ds.collection -> positions
+    private long maxLogLag = -1;
+
+    /**
+     * Registers the handler applying shipped inserts, and loads the positions of lagging replicas stored by earlier
+     * runs. Must be called before the cluster transport starts accepting connections.
+     */
+    public void init() {
+        clusterTransport.registerRequestHandler(QueryType.REPLICA_CATCHUP, (nodeId, request) -> handleCatchUp(request));
+
+        try {
+            for (String ds : datastoreManager.listDatabases()) {
+                for (String collection : collectionManager.listTables(ds)) {
+                    if (Files.exists(Paths.get(PathUtil.commitLogsFolderPath(ds, collection), ReplicaPositions.FILE_NAME))) {
+                        getPositions(ds, collection);
+                    }
+                }
+            }
+        } catch (OperationException ex) {
+            logger.error("Could not load positions of lagging replicas", ex);
+        }
+    }
+
+    /**
+     * Records that nodes owning some of the records of an insert missed it. Called once the insert is durable in the
+     * commit log, and before the insert is reported as soft committed.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param nodeIds the nodes that missed the insert
+     * @param lsn the LSN of the insert in the commit log of the collection
+     * @throws OperationException if the positions of the nodes could not be stored
+     */
+    public void markMissed(final String ds, final String collection, final Collection<String> nodeIds, final long lsn) throws OperationException {
+        final ReplicaPositions positions = getPositions(ds, collection);
+        try {
+            for (String nodeId : nodeIds) {
+                positions.markMissed(nodeId, lsn);
+            }
+        } catch (IOException ex) {
+            logger.error("Could not store positions of lagging replicas of " + ds + "." + collection, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not store positions of lagging replicas of " + ds + "." + collection);
+        }
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    private void catchUp() {
+        for (CollectionPositions collectionPositions : positionsMap.values()) {
+            final String ds = collectionPositions.ds;
+            final String collection = collectionPositions.collection;
+            final CommitLog commitLog;
+            try {
+                commitLog = commitLogWriter.getCommitLog(ds, collection);
+            } catch (OperationException ex) {
+                if (ex.getErrorCode() == ErrorCode.COLLECTION_INVALID) {
+                    positionsMap.remove(key(ds, collection)); //collection dropped
+                } else {
+                    logger.error("Could not open commit log of " + ds + "." + collection + " for replica catch up", ex);
+                }
+                continue;
+            }
+
+            for (Map.Entry<String, Long> entry : collectionPositions.positions.getPositions().entrySet()) {
+                if (connectionStore.getConnection(entry.getKey()) == null) {
+                    continue;
+                }
+                try {
+                    catchUp(collectionPositions, commitLog, entry.getKey(), entry.getValue());
+                } catch (OperationException | IOException ex) {
+                    logger.warn("Could not catch up node " + entry.getKey() + " on " + ds + "." + collection + ": " + ex.getMessage());
+                }
+            }
+
+            retain(collectionPositions, commitLog);
+        }
+    }
+
+    private void catchUp(final CollectionPositions collectionPositions, final CommitLog commitLog, final String nodeId, final long position) throws OperationException, IOException {
+        final String ds = collectionPositions.ds;
+        final String collection = collectionPositions.collection;
+        final long durableLsn = commitLog.getDurableLsn();
+        if (position < durableLsn) {
+            if (position < commitLog.getFirstLsn() - 1 || durableLsn - position > getMaxLogLag()) {
+                final long completedLsn = commitLogWriter.getCompletedLsn(ds, collection);
+                final long sent = sendSnapshot(ds, collection, nodeId);
+                logger.info("Sent snapshot of {} records of {}.{} to node {} that was too far behind the commit log", sent, ds, collection, nodeId);
+                collectionPositions.positions.advance(nodeId, position, completedLsn);
+                return;
+            }
+
+            shipLog(collectionPositions, commitLog, nodeId, position);
+        }
+
+        if (collectionPositions.positions.release(nodeId, commitLog.getDurableLsn())) {
+            logger.info("Node {} caught up on {}.{}", nodeId, ds, collection);
+        }
+    }
+
+    /**
+     * Ships committed inserts logged after the position to the node. The position is moved forward after every
+     * batch, up to the last entry read but never past an insert that is yet to complete.
+     */
+    private void shipLog(final CollectionPositions collectionPositions, final CommitLog commitLog, final String nodeId, final long position) throws OperationException, IOException {
+        final String ds = collectionPositions.ds;
+        final String collection = collectionPositions.collection;
+        final Map<String, PendingInsert> pending = new LinkedHashMap<>(); //request id -> insert awaiting completion, in LSN order
+        final List<JSONObject> batch = new ArrayList<>();
+        long from = position;
+        long read = position;
+        long shipped = 0;
+
+        try (CommitLog.EntryIterator entries = commitLog.entries(position)) {
+            while (entries.hasNext()) {
+                final CommitLog.Entry entry = entries.next();
+                read = entry.getLsn();
+                final Query query = new Query(new JSONObject(new String(entry.getPayload(), StandardCharsets.UTF_8)));
+                if (!query.contains(QueryParams.REQUEST_ID) || !query.contains(QueryParams.QUERY)) {
+                    continue;
+                }
+
+                switch (query.getQueryType()) {
+                    case INSERT:
+                        final List<JSONObject> owned = ownedRecords(ds, collection, nodeId, query);
+                        if (!owned.isEmpty()) {
+                            pending.put(query.getRequestId(), new PendingInsert(entry.getLsn(), owned));
+                        }
+                        break;
+                    case COMMIT_SUCCESS:
+                        final PendingInsert committed = pending.remove(query.getRequestId());
+                        if (committed != null) {
+                            batch.addAll(committed.records);
+                        }
+                        break;
+                    case ROLLBACK_SUCCESS:
+                        pending.remove(query.getRequestId());
+                        break;
+                    default:
+                        break;
+                }
+
+                if (batch.size() >= ClusterConstants.PARTITION_TRANSFER_BATCH) {
+                    shipped += send(ds, collection, nodeId, batch);
+                    from = advance(collectionPositions, nodeId, from, read, pending);
+                }
+            }
+        }
+        shipped += send(ds, collection, nodeId, batch);
+        advance(collectionPositions, nodeId, from, read, pending);
+
+        if (shipped > 0) {
+            logger.info("Shipped {} records of {}.{} from the commit log to node {}", shipped, ds, collection, nodeId);
+        }
+    }
+
+    private long advance(final CollectionPositions collectionPositions, final String nodeId, final long from, final long read, final Map<String, PendingInsert> pending) throws IOException {
+        final long to = pending.isEmpty() ? read : Math.min(read, pending.values().iterator().next().lsn - 1);
+        collectionPositions.positions.advance(nodeId, from, to);
+        return Math.max(from, to);
+    }
+
+    private List<JSONObject> ownedRecords(final String ds, final String collection, final String nodeId, final Query insertQuery) throws OperationException {
+        final JSONArray records = insertQuery.getJSONObject(QueryParams.PAYLOAD).getJSONArray(QueryParams.DATA.getParam());
+        final List<JSONObject> owned = new ArrayList<>();
+        for (int i = 0; i < records.length(); i++) {
+            final JSONObject record = records.optJSONObject(i);
+            if (record != null && record.has(SchemaProperties.PRIMARY_KEY_COL_NAME)
+                    && partitionStore.getWriteOwners(ds, collection, record.getString(SchemaProperties.PRIMARY_KEY_COL_NAME)).contains(nodeId)) {
+                owned.add(record);
+            }
+        }
+        return owned;
+    }
+
+    private long send(final String ds, final String collection, final String nodeId, final List<JSONObject> records) throws OperationException {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        clusterMessaging.awaitResponse(clusterMessaging.request(new Query().replicaCatchUpQuery(ds, collection, records), nodeId), nodeId);
+        final long count = records.size();
+        records.clear();
+        return count;
+    }
+
+    /**
+     * Sends all records held by this node that the node owns on the partition ring, replacing any copy it holds
+     */
+    private long sendSnapshot(final String ds, final String collection, final String nodeId) throws OperationException {
+        final List<JSONObject> batch = new ArrayList<>();
+        long count = 0;
+        final Iterator<String> keys = dataManager.selectAllKeysAsStream(ds, collection);
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            if (!partitionStore.getWriteOwners(ds, collection, key).contains(nodeId)) {
+                continue;
+            }
+            try {
+                batch.add(dataManager.select(ds, collection, key));
+            } catch (OperationException ex) {
+                if (ex.getErrorCode() != ErrorCode.PRIMARY_KEY_INEXISTENT) {
+                    throw ex;
+                }
+            }
+            if (batch.size() >= ClusterConstants.PARTITION_TRANSFER_BATCH) {
+                count += sendPut(ds, collection, nodeId, batch);
+            }
+        }
+        return count + sendPut(ds, collection, nodeId, batch);
+    }
+
+    private long sendPut(final String ds, final String collection, final String nodeId, final List<JSONObject> records) throws OperationException {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        clusterMessaging.awaitResponse(clusterMessaging.request(new Query().partitionPutQuery(ds, collection, records), nodeId), nodeId);
+        final long count = records.size();
+        records.clear();
+        return count;
+    }
+
+    /**
+     * Keeps the log segments needed by lagging nodes that can still be caught up from the log
+     */
+    private void retain(final CollectionPositions collectionPositions, final CommitLog commitLog) {
+        final long durableLsn = commitLog.getDurableLsn();
+        long retained = Long.MAX_VALUE;
+        for (long position : collectionPositions.positions.getPositions().values()) {
+            if (durableLsn - position <= getMaxLogLag()) {
+                retained = Math.min(retained, position);
+            }
+        }
+        commitLog.retainAfter(retained);
+    }
+
+    private Query handleCatchUp(final Query request) throws OperationException {
+        final JSONArray recordsArray = request.getJSONObject(QueryParams.PAYLOAD).getJSONArray(QueryParams.DATA.getParam());
+        final List<JSONObject> records = new ArrayList<>(recordsArray.length());
+        for (int i = 0; i < recordsArray.length(); i++) {
+            records.add(recordsArray.getJSONObject(i));
+        }
+
+        /* records already present are left as they are, as they may have been changed since the missed insert */
+        int inserted = 0;
+        for (JSONObject record : dataManager.insertBatch(request.getDs(), request.getCollection(), records)) {
+            if (record != null) {
+                inserted++;
+            }
+        }
+        return new Query().requestId(request.getRequestId()).ackSuccess().payload(inserted);
+    }
+
+    private ReplicaPositions getPositions(final String ds, final String collection) throws OperationException {
+        final String key = key(ds, collection);
+        CollectionPositions collectionPositions = positionsMap.get(key);
+        if (collectionPositions != null) {
+            return collectionPositions.positions;
+        }
+
+        synchronized (positionsMap) {
+            collectionPositions = positionsMap.get(key);
+            if (collectionPositions == null) {
+                final Path folder = Paths.get(PathUtil.commitLogsFolderPath(ds, collection));
+                try {
+                    collectionPositions = new CollectionPositions(ds, collection, ReplicaPositions.load(folder));
+                } catch (IOException ex) {
+                    logger.error("Could not read positions of lagging replicas of " + key, ex);
+                    throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not read positions of lagging replicas of " + key);
+                }
+                positionsMap.put(key, collectionPositions);
+            }
+            return collectionPositions.positions;
+        }
+    }
+
+    private long getMaxLogLag() {
+        if (maxLogLag == -1) {
+            final Object value = configBean == null ? null : configBean.getProperty(ConfigProperties.REPLICA_MAX_LOG_LAG);
+            maxLogLag = value instanceof Number ? Math.max(1, ((Number) value).longValue()) : DEFAULT_MAX_LOG_LAG;
+        }
+        return maxLogLag;
+    }
+
+    private String key(final String ds, final String collection) {
+        return ds + "." + collection;
+    }
+
+    private static class CollectionPositions {
+
+        private final String ds;
+        private final String collection;
+        private final ReplicaPositions positions;
+
+        private CollectionPositions(final String ds, final String collection, final ReplicaPositions positions) {
+            this.ds = ds;
+            this.collection = collection;
+            this.positions = positions;
+        }
+    }
+
+    private static class PendingInsert {
+
+        private final long lsn;
+        private final List<JSONObject> records;
+
+        private PendingInsert(final long lsn, final List<JSONObject> records) {
+            this.lsn = lsn;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.replication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * The commit log positions of the replicas of a collection that missed writes, persisted in a file next to the commit
+ * log of the collection. For every such replica the position is the LSN up to which the replica is known to hold the
+ * committed inserts of the log. Replicas that are not lagging have no position.
+ *
+ * <p>
+ * Every change is written to disk before the call returns, so that a write reported as committed is never missed by
+ * catch-up after a restart. Writes are only made when a position changes, which for a replica that stays down is on
+ * its first missed write.</p>
+ *
+ * @author sanketsarang
+ */
+class ReplicaPositions {
+
+    static final String FILE_NAME = "replicas.json";
+    private static final String TEMP_FILE_NAME = "replicas.json.tmp";
+
+    private final Path folder;
+    private final Map<String, Long> positions; //node id -> LSN up to which the node holds the log
+
+    private ReplicaPositions(final Path folder, final Map<String, Long> positions) {
+        this.folder = folder;
+        this.positions = positions;
+    }
+
+    /**
+     * Loads the positions stored in a commit log folder
+     *
+     * @param folder the commit log folder of the collection
+     * @return the positions; empty if none are stored
+     * @throws IOException if the stored positions could not be read
+     */
+    static ReplicaPositions load(final Path folder) throws IOException {
+        final Map<String, Long> positions = new HashMap<>();
+        final Path file = folder.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            final JSONObject json = new JSONObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            for (Object nodeId : json.keySet()) {
+                positions.put((String) nodeId, json.getLong((String) nodeId));
+            }
+        }
+        return new ReplicaPositions(folder, positions);
+    }
+
+    /**
+     * Records that a node missed the write logged at the LSN. The position of a node already lagging is only moved
+     * back, never forward.
+     *
+     * @param nodeId the node that missed the write
+     * @param lsn the LSN of the missed write
+     * @throws IOException if the positions could not be written
+     */
+    synchronized void markMissed(final String nodeId, final long lsn) throws IOException {
+        final Long position = positions.get(nodeId);
+        if (position == null || position >= lsn) {
+            positions.put(nodeId, lsn - 1);
+            save();
+        }
+    }
+
+    /**
+     * @return the positions of all lagging nodes
+     */
+    synchronized Map<String, Long> getPositions() {
+        return new HashMap<>(positions);
+    }
+
+    /**
+     * Moves a node forward once entries up to an LSN have been shipped to it. Nothing is changed if the position of
+     * the node moved since it was read, as it was then moved back by a newly missed write.
+     *
+     * @param nodeId the node
+     * @param from the position the entries were shipped from
+     * @param to the LSN up to which entries were shipped
+     * @throws IOException if the positions could not be written
+     */
+    synchronized void advance(final String nodeId, final long from, final long to) throws IOException {
+        final Long position = positions.get(nodeId);
+        if (position != null && position == from && to > from) {
+            positions.put(nodeId, to);
+            save();
+        }
+    }
+
+    /**
+     * Stops tracking a node that holds every durable entry of the log
+     *
+     * @param nodeId the node
+     * @param durableLsn the durable LSN of the log
+     * @return <code>true</code> if the node is no longer lagging
+     * @throws IOException if the positions could not be written
+     */
+    synchronized boolean release(final String nodeId, final long durableLsn) throws IOException {
+        final Long position = positions.get(nodeId);
+        if (position == null) {
+            return true;
+        }
+        if (position < durableLsn) {
+            return false;
+        }
+        positions.remove(nodeId);
+        save();
+        return true;
+    }
+
+    private void save() throws IOException {
+        final Path temp = folder.resolve(TEMP_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(new JSONObject(positions).toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, folder.resolve(FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.DecoderException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Encodes JSON values to and from a compact binary form, so that cluster messages are written to and read from
+ * buffers directly instead of going through JSON text. Every value is a tag byte followed by its data: numbers in
+ * fixed width big-endian form, strings as a 4-byte length followed by UTF-8 bytes, and objects and arrays as a 4-byte
+ * entry count followed by their entries.
+ *
+ * <p>
+ * Integers, longs, doubles and decimals keep their Java type through encoding. Values of other types are encoded as
+ * their string form.
+ *
+ * @author sanketsarang
+ */
+public final class BinaryJsonCodec {
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte STRING = 6;
+    private static final byte DECIMAL = 7;
+    private static final byte OBJECT = 8;
+    private static final byte ARRAY = 9;
+
+    private BinaryJsonCodec() {
+        //do nothing
+    }
+
+    /**
+     * Writes an object to a buffer
+     *
+     * @param buf the buffer to write to
+     * @param jsonObject the object
+     */
+    public static void writeObject(final ByteBuf buf, final JSONObject jsonObject) {
+        buf.writeInt(jsonObject.length());
+        for (Object key : jsonObject.keySet()) {
+            writeString(buf, (String) key);
+            writeValue(buf, jsonObject.opt((String) key));
+        }
+    }
+
+    /**
+     * Reads an object written by {@link #writeObject(ByteBuf, JSONObject)}
+     *
+     * @param buf the buffer to read from
+     * @return the object
+     * @throws DecoderException if the buffer does not hold a well formed object
+     */
+    public static JSONObject readObject(final ByteBuf buf) {
+        final int length = readLength(buf);
+        final JSONObject jsonObject = new JSONObject();
+        for (int i = 0; i < length; i++) {
+            final String key = readString(buf);
+            jsonObject.put(key, readValue(buf));
+        }
+        return jsonObject;
+    }
+
+    private static void writeArray(final ByteBuf buf, final JSONArray jsonArray) {
+        buf.writeInt(jsonArray.length());
+        for (int i = 0; i < jsonArray.length(); i++) {
+            writeValue(buf, jsonArray.opt(i));
+        }
+    }
+
+    private static JSONArray readArray(final ByteBuf buf) {
+        final int length = readLength(buf);
+        final JSONArray jsonArray = new JSONArray();
+        for (int i = 0; i < length; i++) {
+            jsonArray.put(readValue(buf));
+        }
+        return jsonArray;
+    }
+
+    private static void writeValue(final ByteBuf buf, final Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            buf.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            buf.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            buf.writeByte(INT);
+            buf.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            buf.writeByte(LONG);
+            buf.writeLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            buf.writeByte(DOUBLE);
+            buf.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            buf.writeByte(DECIMAL);
+            writeString(buf, value.toString());
+        } else if (value instanceof JSONObject) {
+            buf.writeByte(OBJECT);
+            writeObject(buf, (JSONObject) value);
+        } else if (value instanceof Map) {
+            buf.writeByte(OBJECT);
+            writeObject(buf, new JSONObject((Map) value));
+        } else if (value instanceof JSONArray) {
+            buf.writeByte(ARRAY);
+            writeArray(buf, (JSONArray) value);
+        } else if (value instanceof Collection) {
+            buf.writeByte(ARRAY);
+            writeArray(buf, new JSONArray((Collection) value));
+        } else {
+            buf.writeByte(STRING);
+            writeString(buf, value.toString());
+        }
+    }
+
+    private static Object readValue(final ByteBuf buf) {
+        final byte tag = buf.readByte();
+        switch (tag) {
+            case NULL:
+                return JSONObject.NULL;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INT:
+                return buf.readInt();
+            case LONG:
+                return buf.readLong();
+            case DOUBLE:
+                return buf.readDouble();
+            case STRING:
+                return readString(buf);
+            case DECIMAL:
+                return new BigDecimal(readString(buf));
+            case OBJECT:
+                return readObject(buf);
+            case ARRAY:
+                return readArray(buf);
+            default:
+                throw new DecoderException("Unknown value tag " + tag);
+        }
+    }
+
+    private static void writeString(final ByteBuf buf, final String value) {
+        final int lengthIndex = buf.writerIndex();
+        buf.writeInt(0);
+        buf.setInt(lengthIndex, ByteBufUtil.writeUtf8(buf, value));
+    }
+
+    private static String readString(final ByteBuf buf) {
+        final int length = readLength(buf);
+        if (length > buf.readableBytes()) {
+            throw new DecoderException("String of " + length + " bytes exceeds the frame");
+        }
+        final String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    private static int readLength(final ByteBuf buf) {
+        final int length = buf.readInt();
+        if (length < 0) {
+            throw new DecoderException("Negative length " + length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import com.blobcity.db.cluster.connection.ConnectionProperties;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.lib.query.Query;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import java.util.concurrent.CompletableFuture;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles the frames of a single cluster connection. The first frame in each direction is a handshake carrying the
+ * node id of its sender; every later frame is dispatched to the {@link ClusterTransport} or, for responses, to the
+ * request awaiting it on the {@link PeerConnection}.
+ *
+ * @author sanketsarang
+ */
+class ClusterChannelHandler extends SimpleChannelInboundHandler<Frame> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterChannelHandler.class.getName());
+
+    private final ClusterTransport transport;
+    private final String expectedNodeId;
+    private final CompletableFuture<PeerConnection> handshake = new CompletableFuture<>();
+    private PeerConnection peer;
+
+    /**
+     * @param transport the transport owning the connection
+     * @param expectedNodeId the node id of the node connected to; <code>null</code> for a connection accepted from
+     * another node
+     */
+    ClusterChannelHandler(final ClusterTransport transport, final String expectedNodeId) {
+        this.transport = transport;
+        this.expectedNodeId = expectedNodeId;
+    }
+
+    /**
+     * @return a future completed with the connection once the handshake succeeds
+     */
+    CompletableFuture<PeerConnection> getHandshake() {
+        return handshake;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        if (expectedNodeId != null) {
+            ctx.writeAndFlush(handshakeFrame());
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final Frame frame) {
+        if (peer == null) {
+            handshake(ctx, frame);
+            return;
+        }
+
+        switch (frame.getType()) {
+            case Frame.MESSAGE:
+                transport.onMessage(peer, new Query(frame.getPayload()));
+                break;
+            case Frame.REQUEST:
+                transport.onRequest(peer, frame.getStreamId(), new Query(frame.getPayload()));
+                break;
+            case Frame.RESPONSE:
+                peer.complete(frame.getStreamId(), new Query(frame.getPayload()));
+                break;
+            default:
+                logger.warn("Ignoring frame of unknown type {} from node {}", frame.getType(), peer.getRemoteNodeId());
+        }
+    }
+
+    private void handshake(final ChannelHandlerContext ctx, final Frame frame) {
+        final String remoteNodeId = frame.getPayload().optString(ConnectionProperties.NODE_ID, null);
+        if (frame.getType() != Frame.HANDSHAKE || remoteNodeId == null) {
+            failHandshake(ctx, "Cluster connection from " + ctx.channel().remoteAddress() + " did not start with a handshake");
+            return;
+        }
+        if (expectedNodeId != null && !expectedNodeId.equals(remoteNodeId)) {
+            failHandshake(ctx, "Cluster connection established to incorrect node or the node ip addresses has changed. "
+                    + "Expected node id " + expectedNodeId + " but node with nodeId " + remoteNodeId + " found");
+            return;
+        }
+
+        peer = new PeerConnection(ctx.channel(), remoteNodeId);
+        if (expectedNodeId == null) {
+            ctx.writeAndFlush(handshakeFrame());
+            transport.register(peer);
+        }
+        handshake.complete(peer);
+        logger.debug("Cluster connection to node {} at {} open", remoteNodeId, ctx.channel().remoteAddress());
+    }
+
+    private void failHandshake(final ChannelHandlerContext ctx, final String message) {
+        logger.error(message + ". The connection will be closed.");
+        handshake.completeExceptionally(new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, message));
+        ctx.close();
+    }
+
+    private Frame handshakeFrame() {
+        return new Frame(Frame.HANDSHAKE, 0, new JSONObject().put(ConnectionProperties.NODE_ID, transport.getSelfNodeId()));
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        handshake.completeExceptionally(new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Cluster connection closed during handshake"));
+        if (peer != null) {
+            peer.failAll(null);
+            transport.unregister(peer);
+            logger.debug("Cluster connection to node {} closed", peer.getRemoteNodeId());
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        logger.error("Cluster connection to " + (peer != null ? "node " + peer.getRemoteNodeId() : ctx.channel().remoteAddress()) + " failed", cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.lib.query.Query;
+
+/**
+ * Answers {@link Frame#REQUEST}s received from other nodes of the cluster
+ *
+ * @author sanketsarang
+ */
+public interface ClusterRequestHandler {
+
+    /**
+     * Handles a request. Called on a worker thread, never on the network thread of the connection.
+     *
+     * @param nodeId the node id of the requesting node
+     * @param request the request
+     * @return the response sent back to the requesting node
+     * @throws OperationException if the request fails, in which case a failure response is sent back
+     */
+    public Query handle(final String nodeId, final Query request) throws OperationException;
+}
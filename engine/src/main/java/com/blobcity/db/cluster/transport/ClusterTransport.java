@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.cluster.connection.ConnectionStore;
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.processors.ProcessHandler;
+import com.blobcity.db.processors.ProcessorExecutorService;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryType;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * The inter node transport of the cluster. Every node listens on {@link ClusterConstants#CLUSTER_PORT} and keeps a
+ * small pool of persistent connections to each other node. Queries travel as length prefixed binary frames, many
+ * requests share a connection through stream ids, and writes made close together are flushed to the socket together.
+ *
+ * <p>
+ * Messages arriving on a connection are processed through {@link ProcessHandler}, same as messages sent to the self
+ * node. Requests are answered by the {@link ClusterRequestHandler} registered for their {@link QueryType}, and the
+ * answer is sent back on the stream of the request.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class ClusterTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterTransport.class.getName());
+
+    @Autowired @Lazy
+    private ClusterNodesStore clusterNodesStore;
+    @Autowired @Lazy
+    private ConnectionStore connectionStore;
+
+    private final ExecutorService requestExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("cluster-request", true));
+    private final Map<QueryType, ClusterRequestHandler> requestHandlers = new ConcurrentHashMap<>();
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    /**
+     * Starts listening for connections from other nodes of the cluster. Calling the function on a started transport
+     * has no effect.
+     */
+    public synchronized void start() {
+        if (workerGroup != null) {
+            return;
+        }
+
+        bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("cluster-transport-boss", true));
+        workerGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("cluster-transport", true));
+
+        final ServerBootstrap serverBootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(initializer(null));
+        try {
+            serverChannel = serverBootstrap.bind(ClusterConstants.CLUSTER_PORT).sync().channel();
+            logger.info("Cluster transport listening on port " + ClusterConstants.CLUSTER_PORT);
+        } catch (Exception ex) {
+            logger.error("Could not bind cluster transport on port " + ClusterConstants.CLUSTER_PORT
+                    + ". Other nodes will not be able to connect to this node.", ex);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+            serverChannel = null;
+        }
+        if (workerGroup != null) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            bossGroup = null;
+            workerGroup = null;
+        }
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Registers the handler answering requests of a type sent by other nodes through
+     * {@link PeerConnection#request(Query)}. A handler registered earlier for the type is replaced.
+     *
+     * @param queryType the type of requests answered by the handler
+     * @param requestHandler the handler
+     */
+    public void registerRequestHandler(final QueryType queryType, final ClusterRequestHandler requestHandler) {
+        requestHandlers.put(queryType, requestHandler);
+    }
+
+    /**
+     * Opens a connection to a node and completes the handshake with it. The connection is not added to the
+     * {@link ConnectionStore}.
+     *
+     * @param nodeId the node id of the node expected at the address
+     * @param ipAddress the ip address of the node
+     * @return the open connection
+     * @throws OperationException if the connection could not be opened within
+     * {@link ClusterConstants#CONNECTION_TIMEOUT}, or a different node answered at the address
+     */
+    public PeerConnection open(final String nodeId, final String ipAddress) throws OperationException {
+        start();
+
+        final ClusterChannelHandler handler = new ClusterChannelHandler(this, nodeId);
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(workerGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, ClusterConstants.CONNECTION_TIMEOUT)
+                .handler(initializer(handler));
+
+        final ChannelFuture connectFuture = bootstrap.connect(ipAddress, ClusterConstants.CLUSTER_PORT);
+        try {
+            return handler.getHandshake().get(ClusterConstants.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            connectFuture.channel().close();
+            Thread.currentThread().interrupt();
+            throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Interrupted while connecting to node " + nodeId);
+        } catch (ExecutionException ex) {
+            connectFuture.channel().close();
+            throw ex.getCause() instanceof OperationException ? (OperationException) ex.getCause()
+                    : new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, ex.getCause().getMessage());
+        } catch (TimeoutException ex) {
+            connectFuture.channel().close();
+            final Throwable cause = connectFuture.cause();
+            throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Failed to open cluster connection to node "
+                    + nodeId + " at ip " + ipAddress + " on port " + ClusterConstants.CLUSTER_PORT
+                    + (cause == null ? "" : ": " + cause.getMessage()));
+        }
+    }
+
+    String getSelfNodeId() {
+        return clusterNodesStore.getSelfId();
+    }
+
+    void register(final PeerConnection peerConnection) {
+        connectionStore.addConnection(peerConnection.getRemoteNodeId(), peerConnection);
+    }
+
+    void unregister(final PeerConnection peerConnection) {
+        connectionStore.removeConnection(peerConnection.getRemoteNodeId(), peerConnection);
+    }
+
+    void onMessage(final PeerConnection peerConnection, final Query query) {
+        ProcessorExecutorService.getInstance().submit(new ProcessHandler(peerConnection.getRemoteNodeId(), query));
+    }
+
+    void onRequest(final PeerConnection peerConnection, final long streamId, final Query request) {
+        requestExecutor.submit(() -> {
+            Query response;
+            try {
+                final ClusterRequestHandler handler = request.getQueryType() == null ? null : requestHandlers.get(request.getQueryType());
+                if (handler == null) {
+                    throw new OperationException(ErrorCode.INVALID_QUERY, "Node " + getSelfNodeId() + " does not accept cluster requests of type " + request.getQueryType());
+                }
+                response = handler.handle(peerConnection.getRemoteNodeId(), request);
+            } catch (OperationException ex) {
+                response = new Query().requestId(request.getRequestId()).ackFailure().errorCode(ex.getErrorCode().getErrorCode()).message(ex.getMessage());
+            } catch (RuntimeException ex) {
+                logger.error("Cluster request from node " + peerConnection.getRemoteNodeId() + " failed", ex);
+                response = new Query().requestId(request.getRequestId()).ackFailure().errorCode(ErrorCode.INTERNAL_OPERATION_ERROR.getErrorCode()).message(ex.getMessage());
+            }
+            peerConnection.respond(streamId, response);
+        });
+    }
+
+    private ChannelInitializer<SocketChannel> initializer(final ClusterChannelHandler clientHandler) {
+        return new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(final SocketChannel channel) {
+                channel.pipeline()
+                        .addLast(new FlushConsolidationHandler(ClusterConstants.MAX_COALESCED_FLUSHES, true))
+                        .addLast(new FrameDecoder(ClusterConstants.MAX_FRAME_SIZE))
+                        .addLast(new FrameEncoder())
+                        .addLast(clientHandler != null ? clientHandler : new ClusterChannelHandler(ClusterTransport.this, null));
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import org.json.JSONObject;
+
+/**
+ * A unit of the binary cluster protocol. On the wire a frame is a 4-byte length of the rest of the frame, a type byte,
+ * an 8-byte stream id and a payload encoded by {@link BinaryJsonCodec}. The stream id pairs a {@link #RESPONSE} with
+ * its {@link #REQUEST}, so that any number of requests can be in flight on a single connection.
+ *
+ * @author sanketsarang
+ */
+public class Frame {
+
+    /**
+     * Opens a connection, carrying the node id of the sender. Answered by a handshake of the receiving node.
+     */
+    public static final byte HANDSHAKE = 0x01;
+
+    /**
+     * A query sent without expecting a response frame
+     */
+    public static final byte MESSAGE = 0x02;
+
+    /**
+     * A query expecting a {@link #RESPONSE} on the same stream id
+     */
+    public static final byte REQUEST = 0x03;
+
+    /**
+     * The response to the {@link #REQUEST} with the same stream id
+     */
+    public static final byte RESPONSE = 0x04;
+
+    private final byte type;
+    private final long streamId;
+    private final JSONObject payload;
+
+    public Frame(final byte type, final long streamId, final JSONObject payload) {
+        this.type = type;
+        this.streamId = streamId;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getStreamId() {
+        return streamId;
+    }
+
+    public JSONObject getPayload() {
+        return payload;
+    }
+}
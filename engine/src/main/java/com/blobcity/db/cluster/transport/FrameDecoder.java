@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+/**
+ * Splits the inbound byte stream on the length prefix of each frame and decodes it into a {@link Frame}
+ *
+ * @author sanketsarang
+ */
+public class FrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    /**
+     * @param maxFrameSize the largest frame accepted, in bytes, beyond which the connection is failed
+     */
+    public FrameDecoder(final int maxFrameSize) {
+        super(maxFrameSize, 0, 4, 0, 4);
+    }
+
+    @Override
+    protected Object decode(final ChannelHandlerContext ctx, final ByteBuf in) throws Exception {
+        final ByteBuf buf = (ByteBuf) super.decode(ctx, in);
+        if (buf == null) {
+            return null;
+        }
+
+        try {
+            final byte type = buf.readByte();
+            final long streamId = buf.readLong();
+            return new Frame(type, streamId, BinaryJsonCodec.readObject(buf));
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * Writes {@link Frame}s into pooled buffers of the channel, prefixing each with its length
+ *
+ * @author sanketsarang
+ */
+public class FrameEncoder extends MessageToByteEncoder<Frame> {
+
+    @Override
+    protected void encode(final ChannelHandlerContext ctx, final Frame frame, final ByteBuf out) {
+        final int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        out.writeByte(frame.getType());
+        out.writeLong(frame.getStreamId());
+        BinaryJsonCodec.writeObject(out, frame.getPayload());
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+}
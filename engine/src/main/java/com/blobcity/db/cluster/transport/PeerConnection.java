@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.lib.query.Query;
+import io.netty.channel.Channel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent connection to another node of the cluster. Queries are sent as binary frames, and any number of
+ * requests may be awaiting their response on the connection at a time. Writes from all threads are coalesced into as
+ * few socket writes as the load allows.
+ *
+ * @author sanketsarang
+ */
+public class PeerConnection {
+
+    private final Channel channel;
+    private final String remoteNodeId;
+    private final AtomicLong streamIds = new AtomicLong();
+    private final Map<Long, CompletableFuture<Query>> pending = new ConcurrentHashMap<>();
+
+    PeerConnection(final Channel channel, final String remoteNodeId) {
+        this.channel = channel;
+        this.remoteNodeId = remoteNodeId;
+    }
+
+    public String getRemoteNodeId() {
+        return remoteNodeId;
+    }
+
+    public boolean isActive() {
+        return channel.isActive();
+    }
+
+    /**
+     * Sends a query that expects no response frame. The query is queued for writing and the call does not wait for
+     * the write to complete.
+     *
+     * @param query the query
+     * @return <code>true</code> if the query was queued for writing; <code>false</code> if the connection is closed
+     */
+    public boolean send(final Query query) {
+        if (!channel.isActive()) {
+            return false;
+        }
+        channel.writeAndFlush(new Frame(Frame.MESSAGE, 0, query.toJson()), channel.voidPromise());
+        return true;
+    }
+
+    /**
+     * Sends a query and returns the response of the remote node to it
+     *
+     * @param query the query
+     * @return a future completed with the response, or exceptionally with an {@link OperationException} if the
+     * connection fails before the response arrives
+     */
+    public CompletableFuture<Query> request(final Query query) {
+        final CompletableFuture<Query> future = new CompletableFuture<>();
+        if (!channel.isActive()) {
+            future.completeExceptionally(new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Connection to node " + remoteNodeId + " is closed"));
+            return future;
+        }
+
+        final long streamId = streamIds.incrementAndGet();
+        pending.put(streamId, future);
+        channel.writeAndFlush(new Frame(Frame.REQUEST, streamId, query.toJson())).addListener(write -> {
+            if (!write.isSuccess()) {
+                fail(streamId, write.cause());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Closes the connection, failing all requests awaiting their response
+     */
+    public void close() {
+        channel.close();
+    }
+
+    void respond(final long streamId, final Query response) {
+        channel.writeAndFlush(new Frame(Frame.RESPONSE, streamId, response.toJson()), channel.voidPromise());
+    }
+
+    void complete(final long streamId, final Query response) {
+        final CompletableFuture<Query> future = pending.remove(streamId);
+        if (future != null) {
+            future.complete(response);
+        }
+    }
+
+    void failAll(final Throwable cause) {
+        for (Long streamId : pending.keySet()) {
+            fail(streamId, cause);
+        }
+    }
+
+    private void fail(final long streamId, final Throwable cause) {
+        final CompletableFuture<Query> future = pending.remove(streamId);
+        if (future != null) {
+            future.completeExceptionally(new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR,
+                    "Connection to node " + remoteNodeId + " failed" + (cause == null ? "" : ": " + cause.getMessage())));
+        }
+    }
+}
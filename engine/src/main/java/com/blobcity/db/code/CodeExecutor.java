@@ -190,6 +190,21 @@ public class CodeExecutor {
         triggerExecutor.executeTrigger(datastore, collection, function, rowJSON);
     }
 
+    /**
+     * Execute a given trigger on each row of a batch, with operations which require only one version of row (INSERT,
+     * DELETE). Triggers are resolved once for the whole batch.
+     *
+     * @param datastore: dsSet name
+     * @param collection: collection name
+     * @param function: which trigger function to execute (BEFORE or AFTER)
+     * @param rows: jsonObjects of the rows
+     * @throws OperationException
+     */
+    public void executeTrigger( final String datastore, final String collection,
+            final TriggerFunction function, List<JSONObject> rows) throws OperationException{
+        triggerExecutor.executeTrigger(datastore, collection, function, rows);
+    }
+
     /**
      * Execute a given trigger with functions which require two versions of a row (UPDATE)
      *
@@ -54,6 +54,42 @@ public class TriggerExecutorBean {
         for(String trigger: activatedTriggers) executeTrigger(appId, table, trigger, function, jsonObj);
     }
     
+    /**
+     * execute the specified function of all triggers related to given app and table, for each of a batch of records.
+     * Activated triggers are looked up, loaded and instantiated once for the whole batch.
+     *
+     * @param appId : id of database, trigger is related to.
+     * @param table: table to which trigger is related.
+     * @param function: which trigger function to execute.
+     * @param jsonObjects: jsonObjects of the records which are inserted or deleted.
+     * @throws OperationException
+     */
+    public void executeTrigger(final String appId, final String table, final TriggerFunction function, List<JSONObject> jsonObjects) throws OperationException {
+        List<String> activatedTriggers = triggerStore.getTriggers(appId, table, Boolean.TRUE);
+        if (activatedTriggers.isEmpty() || jsonObjects.isEmpty()) {
+            return;
+        }
+
+        RestrictedClassLoader blobCityClassLoader = loaderStore.getLoaderWithCreate(appId);
+        for (String triggerName : activatedTriggers) {
+            if (!triggerStore.isActivated(appId, triggerName)) {
+                continue;
+            }
+            try {
+                Class triggerClass = blobCityClassLoader.loadClass(triggerName);
+                Object object = triggerClass.newInstance();
+                Method method = triggerClass.getDeclaredMethod(function.getFunctionName(), JSONObject.class);
+                for (JSONObject jsonObj : jsonObjects) {
+                    method.invoke(object, jsonObj);
+                }
+            } catch (ClassNotFoundException ex) {
+                throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not load class for trigger: " + triggerName);
+            } catch (InstantiationException | NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+                throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Internal error occured while loading triger: " + triggerName);
+            }
+        }
+    }
+
     /**
      * execute the specified function of all triggers related to given app and table. 
      * This is to be called when there is an UPDATE operation to an existing record.
@@ -25,5 +25,14 @@ public class ConfigProperties {
     public static final String CLUSTER_BROADCAST_IP = "cluster-broadcast-ip";
     public static final String LICENSE = "license";
     public static final String CLUSTER_NODES = "cluster-nodes";
+    public static final String CLUSTER_RING = "cluster-ring";
     public static final String VERSION = "version";
+    public static final String COMMIT_LOG_GROUP_COMMIT_WINDOW = "commit-log-group-commit-window-us";
+    public static final String COMMIT_LOG_GROUP_COMMIT_BYTES = "commit-log-group-commit-bytes";
+    public static final String COMMIT_BATCH_SIZE = "commit-batch-size";
+    public static final String REPLICA_MAX_LOG_LAG = "replica-max-log-lag";
+    public static final String DATA_CACHE_SIZE = "data-cache-size-mb";
+    public static final String INDEX_CACHE_SIZE = "index-cache-size-mb";
+    public static final String QUERY_CACHE_SIZE = "query-cache-size-mb";
+    public static final String STATEMENT_CACHE_SIZE = "statement-cache-size";
 }
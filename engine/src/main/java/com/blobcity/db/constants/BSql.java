@@ -37,6 +37,7 @@ public final class BSql {
     public static final String DATABASE_FOLDER_NAME = "db";
     public static final String DELETE_FOLDER = SEPERATOR + "del" + SEPERATOR;
     public static final String DATA_FOLDER = SEPERATOR + "data" + SEPERATOR;
+    public static final String SEGMENTS_FOLDER = SEPERATOR + "segments" + SEPERATOR;
     public static final String COMMIT_LOGS_FOLDER = BSQL_BASE_FOLDER + "commit-logs" + SEPERATOR;
     public static final String COMMIT_LOGS_FOLDER_NAME = "commit-logs" + SEPERATOR;
     public static final String FTP_FOLDER_NAME = "ftp" + SEPERATOR;
@@ -48,6 +49,8 @@ public final class BSql {
     public static final String DB_HOT_DEPLOY_FOLDER = SEPERATOR + "deploy-db-hot" + SEPERATOR;
     public static final String IMPORT_FOLDER = SEPERATOR + "import" + SEPERATOR;//app/db/table/import
     public static final String EXPORT_FOLDER = SEPERATOR + "export" + SEPERATOR;//app/export
+    public static final String SPILL_FOLDER = SEPERATOR + "spill" + SEPERATOR;//app/spill
+    public static final String DATASTORE_CONFIG_FILE = SEPERATOR + "ds-config.json";//app/ds-config.json
     public static final String SCHEMA_FILE = SEPERATOR + "meta" + SEPERATOR + "schema.bdb";
     public static final String TABLE_ROW_COUNT_FILE = SEPERATOR + "meta" + SEPERATOR + "row-count.bdb";
     public static final String INDEX_COUNT_FOLDER = SEPERATOR + "index-count" + SEPERATOR ;//app/db/table/index-count
@@ -61,7 +64,7 @@ public final class BSql {
     public static final String SYSTEM_DB_FOLDER = BSQL_BASE_FOLDER + SYSTEM_DB + SEPERATOR;
     public static final String RESOURCES = "resources";
 
-    public static final int STORAGE_VERSION = 4;
+    public static final int STORAGE_VERSION = 5;
     // Map Reduce Related Constants
     public static final String MAP_REDCUCE_STATUS_FILE_NAME = "mapreduce-status.log";
     public static final String MAP_REDUCE_HISTORY_FILE_NAME = "mapreduce-history.log";
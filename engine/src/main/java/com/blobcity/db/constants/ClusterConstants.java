@@ -26,4 +26,13 @@ public class ClusterConstants {
     public static int CLUSTER_PORT = 8094;
     public static int BEACON_PORT = 23234;
     public static int DEFAULT_CONNECTION_POOL = 5;
+    public static int CONNECTION_TIMEOUT = 5000; //time in ms to open a cluster connection and complete its handshake
+    public static int MAX_FRAME_SIZE = 64 * 1024 * 1024; //largest frame accepted on a cluster connection, in bytes
+    public static int MAX_COALESCED_FLUSHES = 256; //writes coalesced into a single socket flush under load
+    public static int VIRTUAL_NODES = 128; //positions each node takes on the hash ring of partitioned collections
+    public static int PARTITION_TRANSFER_BATCH = 500; //records per request when streaming partitions during a rebalance
+    public static int REQUEST_TIMEOUT = 60000; //time in ms to wait for the response to a request sent to another node
+    public static int SELECT_RESULT_BATCH = 500; //rows per request when streaming the result of a distributed SELECT fragment
+    public static int SELECT_RESULT_BATCH_BYTES = 4 * 1024 * 1024; //approximate bytes of rows per result batch of a SELECT fragment
+    public static int SELECT_BUFFERED_BATCHES = 4; //result batches of each node held by the master of a distributed SELECT
 }
@@ -22,4 +22,11 @@ package com.blobcity.db.constants;
  */
 public class Governor {
     public static final int SELECT_ALL_LIMIT = 50000;
+    public static final long QUERY_MEMORY_BUDGET = 256L * 1024 * 1024; //default per query heap budget of sort, aggregate and distinct operators in bytes
+    public static final int SPILL_PARTITIONS = 16; //hash partitions written when an aggregate or distinct operator exceeds its budget
+    public static final int MAX_CONCURRENT_QUERIES = 4 * Runtime.getRuntime().availableProcessors(); //queries running at a time across all datastores
+    public static final int MAX_CONCURRENT_HEAVY_QUERIES = Math.max(1, Runtime.getRuntime().availableProcessors()); //heavy queries running at a time, leaving the remaining slots to short queries
+    public static final int MAX_QUEUED_QUERIES = 1000; //queries waiting for admission beyond which new queries are rejected
+    public static final long QUERY_QUEUE_TIMEOUT = 30000; //time in ms a query may wait for admission
+    public static final long QUERY_TIMEOUT = 600000; //default time in ms a query may run before it is cancelled
 }
@@ -29,5 +29,5 @@ public class License {
     public static final String VERSION = "559"; //version 1.0
 //    public static final String SALT = Hex.encodeHexString("NaCl".getBytes());
     //NOTETOSELF: change it to 4
-    public static final int RELEASE_NUMBER = 4;
+    public static final int RELEASE_NUMBER = 5;
 }
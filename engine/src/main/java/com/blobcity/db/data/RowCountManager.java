@@ -28,7 +28,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 /**
- * Reading and writing row count values to and from the table specific row count files
+ * Reading and writing row count values to and from the table specific row count files. A table whose counter has
+ * changes that are not yet written carries an open marker file next to its row count file. A marker found on load
+ * means the process stopped without writing its count, and the count file is stale.
  *
  * @author sanketsarang
  */
@@ -70,4 +72,63 @@ public class RowCountManager {
             throw new OperationException(ErrorCode.COLLECTION_ROW_COUNT_ERROR);
         }
     }
+
+    /**
+     * Checks if the open marker of the table row count is present
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @return <code>true</code> if the row count file may be stale; <code>false</code> otherwise
+     */
+    public boolean isOpen(final String app, final String table) {
+        return Files.exists(markerPath(app, table));
+    }
+
+    /**
+     * Creates the open marker of the table row count. Must be invoked before the first change to the in-memory count
+     * value that is not yet written to the row count file.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @throws OperationException if an I/O error occurs while creating the marker file
+     */
+    public void markOpen(final String app, final String table) throws OperationException {
+        try {
+            Files.write(markerPath(app, table), new byte[0]);
+        } catch (IOException ex) {
+            LoggerFactory.getLogger(RowCountManager.class.getName()).error(null, ex);
+            throw new OperationException(ErrorCode.COLLECTION_ROW_COUNT_ERROR);
+        }
+    }
+
+    /**
+     * Removes the open marker of the table row count. Must be invoked only after the final count value is written.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @throws OperationException if an I/O error occurs while deleting the marker file
+     */
+    public void markClosed(final String app, final String table) throws OperationException {
+        try {
+            Files.deleteIfExists(markerPath(app, table));
+        } catch (IOException ex) {
+            LoggerFactory.getLogger(RowCountManager.class.getName()).error(null, ex);
+            throw new OperationException(ErrorCode.COLLECTION_ROW_COUNT_ERROR);
+        }
+    }
+
+    /**
+     * Checks if the folder holding the row count file of the table is present
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @return <code>true</code> if the table is present on disk; <code>false</code> if it was dropped or renamed
+     */
+    public boolean exists(final String app, final String table) {
+        return Files.exists(FileSystems.getDefault().getPath(PathUtil.tableRowCountFilePath(app, table)).getParent());
+    }
+
+    private Path markerPath(final String app, final String table) {
+        return FileSystems.getDefault().getPath(PathUtil.tableRowCountFilePath(app, table) + ".open");
+    }
 }
@@ -16,28 +16,41 @@
 
 package com.blobcity.db.data;
 
-import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
-import com.blobcity.db.util.AtomicCounter;
+import com.blobcity.db.storage.BSqlFileManager;
+import com.blobcity.db.util.CheckpointedCounter;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 /**
  * Caches the number of records present in a table. Also provides methods to save and retrieve such values from permanent storage.
  *
- * TODO: Fix the locking mechanism because Spring doesn't support method locks
+ * <p>
+ * Counts are updated in memory only and written to the row count files by a periodic checkpoint and on shutdown, so
+ * concurrent inserts into a table do not contend on its row count file. Before the first unwritten change to a count,
+ * an open marker is placed next to the row count file, and it is removed once the final count is written on shutdown.
+ * A count loaded while its marker is present was not written before the process stopped, and is recounted from the
+ * records of the table. A count of zero is also recounted, as it may have been left by a version that did not maintain
+ * row counts; recounting an empty table is cheap.
  *
  * @author sanketsarang
  */
 @Component
 public class RowCountStore {
 
+    private static final Logger logger = LoggerFactory.getLogger(RowCountStore.class.getName());
+
     @Autowired
     private RowCountManager rowCountManager;
-    private final Map<String, AtomicCounter> map = new ConcurrentHashMap<>();
+    @Autowired
+    private BSqlFileManager fileManager;
+    private final Map<String, TableCount> map = new ConcurrentHashMap<>();
 
     /**
      * Gets the number of records currently present within the specified table
@@ -47,25 +60,8 @@ public class RowCountStore {
      * @return the current row count of the specified table
      * @throws OperationException if the app/table is inexistent or an I/O error occurs while reading the count file
      */
-//    @Lock(LockType.READ)
     public long getRowCount(final String app, final String table) throws OperationException {
-        final String mapKey = getKey(app, table);
-
-        /* Cache count value if not already cached */
-        if (!map.containsKey(mapKey)) {
-            loadCount(app, table);
-        }
-
-        AtomicCounter counter = map.get(mapKey);
-        try {
-            counter.getSemaphore().acquireReadLock();
-            return counter.getValue();
-        } catch (InterruptedException ex) {
-            LoggerFactory.getLogger(RowCountStore.class.getName()).error(null, ex);
-            throw new OperationException(ErrorCode.COLLECTION_ROW_COUNT_ERROR);
-        } finally {
-            counter.getSemaphore().releaseReadLock();
-        }
+        return getTableCount(app, table).counter.get();
     }
 
     /**
@@ -73,28 +69,10 @@ public class RowCountStore {
      *
      * @param app the application id of the BlobCity application
      * @param table name of table within the application
-     * @throws OperationException if the app/table is inexistent or if an I/O error occurs while updating the row count file
+     * @throws OperationException if the app/table is inexistent or if an I/O error occurs while loading the row count
      */
-//    @Lock(LockType.READ)
     public void incrementRowCount(final String app, final String table) throws OperationException {
-        final String mapKey = getKey(app, table);
-
-        /* Cache count value if not already cached */
-        if (!map.containsKey(mapKey)) {
-            loadCount(app, table);
-        }
-
-        AtomicCounter counter = map.get(mapKey);
-        try {
-            counter.getSemaphore().acquireWriteLock();
-            final long newValue = counter.incrementAndGet();
-            rowCountManager.writeCount(app, table, newValue);
-        } catch (InterruptedException ex) {
-            LoggerFactory.getLogger(RowCountStore.class.getName()).error(null, ex);
-            throw new OperationException(ErrorCode.COLLECTION_ROW_COUNT_ERROR);
-        } finally {
-            counter.getSemaphore().releaseWriteLock();
-        }
+        add(app, table, 1);
     }
 
     /**
@@ -102,27 +80,124 @@ public class RowCountStore {
      *
      * @param app the application id of the BlobCity application
      * @param table name of table within the application
-     * @throws OperationException if the app/table is inexistent or if an I/O error occurs while updating the row count file
+     * @throws OperationException if the app/table is inexistent or if an I/O error occurs while loading the row count
      */
-//    @Lock(LockType.READ)
     public void decrementRowCount(final String app, final String table) throws OperationException {
+        add(app, table, -1);
+    }
+
+    /**
+     * Sets the row count of a table to a known value, such as a value counted from the records of the table after a
+     * recovery
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @param count the number of records present in the table
+     * @throws OperationException if an I/O error occurs while updating the row count file
+     */
+    public void setRowCount(final String app, final String table, final long count) throws OperationException {
         final String mapKey = getKey(app, table);
+        synchronized (map) {
+            rowCountManager.writeCount(app, table, count);
+            final TableCount tableCount = new TableCount(app, table, new CheckpointedCounter(count));
+            final TableCount previous = map.put(mapKey, tableCount);
+            tableCount.open = previous != null && previous.open;
+        }
+    }
 
-        /* Cache count value if not already cached */
-        if (!map.containsKey(mapKey)) {
-            loadCount(app, table);
+    /**
+     * Writes the changed row counts of all loaded tables to their row count files. Counts of tables that no longer
+     * exist on disk are discarded.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void checkpoint() {
+        map.forEach((mapKey, tableCount) -> {
+            if (!tableCount.counter.isDirty()) {
+                return;
+            }
+            if (!rowCountManager.exists(tableCount.app, tableCount.table)) {
+                map.remove(mapKey, tableCount);
+                return;
+            }
+            try {
+                tableCount.counter.checkpoint(count -> rowCountManager.writeCount(tableCount.app, tableCount.table, count));
+            } catch (OperationException ex) {
+                logger.error("Failed to checkpoint row count of " + tableCount.app + "." + tableCount.table, ex);
+            }
+        });
+    }
+
+    /**
+     * Discards the count of a table without writing it. Must be called when the table is dropped, truncated or
+     * renamed, as the count of a table created again under the name is loaded from its own row count file.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     */
+    public void evict(final String app, final String table) {
+        map.remove(getKey(app, table));
+    }
+
+    /**
+     * Discards the counts of all tables of an application. Must be called when the application is dropped.
+     *
+     * @param app the application id of the BlobCity application
+     */
+    public void evictDatastore(final String app) {
+        map.values().removeIf(tableCount -> tableCount.app.equals(app));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        checkpoint();
+        map.forEach((mapKey, tableCount) -> {
+            if (!tableCount.open || tableCount.counter.isDirty()) {
+                return;
+            }
+            try {
+                rowCountManager.markClosed(tableCount.app, tableCount.table);
+            } catch (OperationException ex) {
+                logger.error("Failed to close row count of " + tableCount.app + "." + tableCount.table, ex);
+            }
+        });
+        map.clear();
+    }
+
+    /**
+     * Adds to the row count of a table, such as the number of records inserted by a batch
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @param delta the change in the number of records; negative for records removed
+     * @throws OperationException if the app/table is inexistent or if an I/O error occurs while loading the row count
+     */
+    public void add(final String app, final String table, final long delta) throws OperationException {
+        final TableCount tableCount = getTableCount(app, table);
+        if (!tableCount.open) {
+            synchronized (tableCount) {
+                if (!tableCount.open) {
+                    rowCountManager.markOpen(app, table);
+                    tableCount.open = true;
+                }
+            }
+        }
+        tableCount.counter.add(delta);
+    }
+
+    private TableCount getTableCount(final String app, final String table) throws OperationException {
+        final String mapKey = getKey(app, table);
+        TableCount tableCount = map.get(mapKey);
+        if (tableCount != null) {
+            return tableCount;
         }
 
-        AtomicCounter counter = map.get(mapKey);
-        try {
-            counter.getSemaphore().acquireWriteLock();
-            final long newValue = counter.decrementAndGet();
-            rowCountManager.writeCount(app, table, newValue);
-        } catch (InterruptedException ex) {
-            LoggerFactory.getLogger(RowCountStore.class.getName()).error(null, ex);
-            throw new OperationException(ErrorCode.COLLECTION_ROW_COUNT_ERROR);
-        } finally {
-            counter.getSemaphore().releaseWriteLock();
+        synchronized (map) {
+            tableCount = map.get(mapKey);
+            if (tableCount == null) {
+                tableCount = loadCount(app, table);
+                map.put(mapKey, tableCount);
+            }
+            return tableCount;
         }
     }
 
@@ -134,23 +209,47 @@ public class RowCountStore {
      * @param table name of table within the application
      * @return the key used for the cache map that identifies the application and table combination. Key is a String of the form: <code>app + "-" + table</code>
      */
-//    @Lock(LockType.READ)
     private String getKey(final String app, final String table) {
         return app + "-" + table;
     }
 
     /**
-     * Performs a file system I/O operation to load the current row count from the corresponding row count file
+     * Performs a file system I/O operation to load the current row count from the corresponding row count file. If the
+     * open marker of the table is present, the count file is stale and the records of the table are counted instead.
      *
      * @param app the application id of the BlobCity application
      * @param table name of table within the application
+     * @return the loaded count of the table
      * @throws OperationException if the specified app/table combination is inexist or an I/O error occurs while reading the row count file
      */
-//    @Lock(LockType.WRITE)
-    private void loadCount(final String app, final String table) throws OperationException {
+    private TableCount loadCount(final String app, final String table) throws OperationException {
         final long count = rowCountManager.readCount(app, table);
-        final AtomicCounter counter = new AtomicCounter(count);
-        final String mapKey = getKey(app, table);
-        map.put(mapKey, counter);
+        if (count == 0 && !rowCountManager.isOpen(app, table)) {
+
+            /* versions that did not maintain row counts left zero in the count file of every table */
+            return new TableCount(app, table, new CheckpointedCounter(fileManager.count(app, table), 0));
+        }
+        if (!rowCountManager.isOpen(app, table)) {
+            return new TableCount(app, table, new CheckpointedCounter(count));
+        }
+
+        logger.info("Row count of " + app + "." + table + " was not closed on shutdown. Recounting records.");
+        final TableCount tableCount = new TableCount(app, table, new CheckpointedCounter(fileManager.count(app, table), count));
+        tableCount.open = true;
+        return tableCount;
+    }
+
+    private static class TableCount {
+
+        private final String app;
+        private final String table;
+        private final CheckpointedCounter counter;
+        private volatile boolean open = false;
+
+        private TableCount(final String app, final String table, final CheckpointedCounter counter) {
+            this.app = app;
+            this.table = table;
+            this.counter = counter;
+        }
     }
 }
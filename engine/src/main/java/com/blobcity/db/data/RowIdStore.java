@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.data;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * Assigns dense integer row ids to the records of each collection, so that sets of records can be held and combined
+ * as {@link RowIdBitmap}s instead of as sets of primary keys. A row id is assigned to a primary key the first time the
+ * key is seen, and maps back to the same key until the record is deleted.
+ *
+ * <p>
+ * Row ids are held in memory only. The row id of a deleted record is released, and is assigned again to later keys in
+ * the order row ids were released, so a collection holds at most as many row ids as the keys it held at any one
+ * time, and row ids stay dense for bitmaps. A bitmap made before a record was deleted skips its row id until the row
+ * id is assigned again; as with any record changed while a query runs, a query may then see the record of the new key.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class RowIdStore {
+
+    private final Map<String, RowIds> map = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the row id of a record, assigning a new row id if the key has not been seen before
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param key the primary key of the record
+     * @return the row id of the record
+     */
+    public int getRowId(final String ds, final String collection, final String key) {
+        return getRowIds(ds, collection).getRowId(key);
+    }
+
+    /**
+     * Gets the primary key of the record having a row id
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param rowId the row id
+     * @return the primary key; <code>null</code> if the row id has not been assigned
+     */
+    public String getKey(final String ds, final String collection, final int rowId) {
+        return getRowIds(ds, collection).getKey(rowId);
+    }
+
+    /**
+     * Releases the row id of a record, so that it can be assigned to another key. Must be called when the record is
+     * deleted.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param key the primary key of the deleted record
+     */
+    public void release(final String ds, final String collection, final String key) {
+        final RowIds rowIds = map.get(ds + "." + collection);
+        if (rowIds != null) {
+            rowIds.release(key);
+        }
+    }
+
+    /**
+     * Reads a stream of primary keys into a bitmap of their row ids. Keys are consumed one at a time and not retained,
+     * other than the first time a key is seen.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param keys the primary keys; may be <code>null</code> for no keys
+     * @return the bitmap of row ids
+     */
+    public RowIdBitmap toBitmap(final String ds, final String collection, final Iterator<String> keys) {
+        final RowIdBitmap bitmap = new RowIdBitmap();
+        if (keys == null) {
+            return bitmap;
+        }
+
+        final RowIds rowIds = getRowIds(ds, collection);
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            if (key != null) {
+                bitmap.add(rowIds.getRowId(key));
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Gets an iterator that maps the row ids of a bitmap back to primary keys as they are consumed. Row ids released
+     * since the bitmap was made are skipped.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param bitmap the bitmap of row ids
+     * @return an iterator over the primary keys, in row id order
+     */
+    public Iterator<String> toKeys(final String ds, final String collection, final RowIdBitmap bitmap) {
+        final RowIds rowIds = getRowIds(ds, collection);
+        final PrimitiveIterator.OfInt iterator = bitmap.iterator();
+        return new Iterator<String>() {
+            private String next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && iterator.hasNext()) {
+                    next = rowIds.getKey(iterator.nextInt());
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final String key = next;
+                next = null;
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Discards the row ids of a collection. Must be called when the collection is dropped.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     */
+    public void evict(final String ds, final String collection) {
+        map.remove(ds + "." + collection);
+    }
+
+    /**
+     * Discards the row ids of all collections of a datastore. Must be called when the datastore is dropped.
+     *
+     * @param ds the datastore
+     */
+    public void evictDatastore(final String ds) {
+        map.keySet().removeIf(mapKey -> mapKey.startsWith(ds + "."));
+    }
+
+    private RowIds getRowIds(final String ds, final String collection) {
+        return map.computeIfAbsent(ds + "." + collection, mapKey -> new RowIds());
+    }
+
+    private static class RowIds {
+
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile String[] keys = new String[1024];
+        private final ArrayDeque<Integer> released = new ArrayDeque<>();
+        private int next = 0;
+
+        private int getRowId(final String key) {
+            final Integer rowId = ids.get(key);
+            return rowId != null ? rowId : assign(key);
+        }
+
+        private synchronized int assign(final String key) {
+            final Integer existing = ids.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            final int rowId = released.isEmpty() ? next++ : released.poll();
+            String[] current = keys;
+            if (rowId == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[rowId] = key;
+            keys = current;
+            ids.put(key, rowId);
+            return rowId;
+        }
+
+        private synchronized void release(final String key) {
+            final Integer rowId = ids.remove(key);
+            if (rowId == null) {
+                return;
+            }
+
+            final String[] current = keys;
+            current[rowId] = null;
+            keys = current;
+            released.add(rowId);
+        }
+
+        private String getKey(final int rowId) {
+            final String[] current = keys;
+            return rowId >= 0 && rowId < current.length ? current[rowId] : null;
+        }
+    }
+}
@@ -33,6 +33,7 @@ public enum ErrorCode {
     CLUSTER_ADD_NODE_VALIDATION_FAILED("CLUSTER_ADD_NODE_VALIDATION_FAILED", "Cluster add node validation failed"),
     CLUSTER_CONNECTION_ERROR("CLUSTER_CONNECTION_ERROR", "Problem with cluster socket connection"),
     CLUSTER_MESSAGE_FORMAT_ERROR("CLUSTER_MESSAGE_FORMAT_ERROR", "Message format for internal cluster communication message incorrect"),
+    CLUSTER_REBALANCE_ERROR("CLUSTER_REBALANCE_ERROR", "Rebalancing of partitions across cluster nodes failed"),
     CODE_MANIFEST_PARSING_ERROR("DB403", "Code manifest file could not be successfully parsed"),
     COLUMN_INVALID("COLUMN_INVALID", "Column invalid"),
     CONFIG_FILE_ERROR("CONFIG_FILE_ERROR", "Error occured in reading / writing / processing the configuration file"),
@@ -116,6 +117,9 @@ public enum ErrorCode {
     UNKNOWN_NODE_ID("UNKNOWN_NODE_ID", "Node id unknown"),
     UPDATE_OPERATION_ERROR("UPDATE_OPERATION_ERROR","Update operation failed"),
     USER_CREDENTIALS_INVALID("APP003", "Invalid credentials"),
+    SESSION_INVALID("APP004", "Session token is invalid or has expired"),
+    PREPARED_STATEMENT_INVALID("PREPARED_STATEMENT_INVALID", "Prepared statement is unknown or has been evicted. Prepare it again"),
+    PREPARED_STATEMENT_PARAMS("PREPARED_STATEMENT_PARAMS", "Number of parameter values does not match the statement"),
     DATA_FILE_NOT_FOUND("DATA_FILE_NOT_FOUND","Data file not found. Check the file path"),
     UNKNOWN_ERROR("UNKNOWN_ERROR","An unknown error occurred"),
     ACF_PARSE_ERROR("ACF_PARSE_ERROR", "Error occured in parsing ACF"),
@@ -127,7 +131,10 @@ public enum ErrorCode {
     INVALID_WEBSERVICE_ENDPOINT("INVALID_WEBSERVICE_ENDPOINT", "No customer web-service registered at the specified endpoint"),
     CODE_LOAD_ERROR("CODE_LOAD_ERROR", "Unable to load code"),
     TABLEAU_EXCEPTION("TABLEAU_EXCEPTION", "Internal error with Tableau integration"),
-    GROUP_BY("GROUP_BY", "Error executing GROUP BY clause");
+    GROUP_BY("GROUP_BY", "Error executing GROUP BY clause"),
+    QUERY_CANCELLED("QUERY_CANCELLED", "Query was cancelled"),
+    QUERY_TIMEOUT("QUERY_TIMEOUT", "Query was cancelled as it exceeded its time limit"),
+    QUERY_REJECTED("QUERY_REJECTED", "Too many queries are running. Try again later");
     
     private final String errorCode;
     private final String errorMessage;
@@ -16,13 +16,23 @@
 
 package com.blobcity.db.indexing;
 
-import com.blobcity.db.util.AtomicCounter;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.util.CheckpointedCounter;
+import com.blobcity.db.util.FileNameEncoding;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 /**
@@ -34,15 +44,27 @@ import org.springframework.stereotype.Component;
  * <p>
  * This store performs lazy load of index size information, hence first time fetch for any index maybe a slow operation
  *
+ * <p>
+ * Counts are updated in memory only and written to the index count files by a periodic checkpoint and on shutdown.
+ * Before the first unwritten change to any count of a column, an open marker is placed in the index count folder of
+ * the column, and it is removed once the final counts are written on shutdown. If the marker is found when a column is
+ * loaded, the count files of the column are stale and are rebuilt from the index.
+ *
  * @author sanketsarang
  */
 @Component
 public class IndexCountStore {
 
+    private static final Logger logger = LoggerFactory.getLogger(IndexCountStore.class.getName());
+
+    /* maximum number of counts per column kept in memory once they are written */
     private static final int LRU_SIZE = 10000;
 
-    /* AppId-table-column -> columnValue -> indexCount */
-    private final Map<String, Map<String, AtomicCounter>> map = new HashMap<>();
+    /* '#' is always percent encoded in index count file names, so the marker cannot clash with a count file */
+    private static final String OPEN_MARKER = "#open";
+
+    /* AppId-table-column -> counts of the column */
+    private final Map<String, ColumnCounts> map = new ConcurrentHashMap<>();
 
     /**
      * Gets the size of the specified index cardinal. -1 if an entry cannot be found for the specified cardinal. The
@@ -57,142 +79,179 @@ public class IndexCountStore {
      * read from the index count file
      * @return current size of the index for all entries under the specified cardinal. -1 if an entry is not found for
      * the specified index.
-     * @throws com.blobcity.db.exceptions.OperationException
+     * @throws com.blobcity.db.exceptions.OperationException if an I/O error occurs while loading the count
      */
     public long getIndexSize(String app, String table, String column, String columnValue, IndexingStrategy indexingStrategy) throws OperationException {
-//        long count;
-//        final String mapKey = getKey(app, table, column);
-//        final AtomicCounter indexCount;
-//
-//        if (map.containsKey(mapKey) && map.get(mapKey).containsKey(columnValue)) {
-//            indexCount = map.get(mapKey).get(columnValue);
-//            try {
-//                indexCount.getSemaphore().acquireReadLock();
-//                count = indexCount.getValue();
-//                return count;
-//            } catch (InterruptedException ex) {
-//                LoggerFactory.getLogger(IndexCountStore.class.getName()).error(null, ex);
-//                throw new OperationException(ErrorCode.INDEX_COUNT_ERROR);
-//            } finally {
-//                indexCount.getSemaphore().releaseReadLock();
-//            }
-//        } else if (!map.containsKey(mapKey)) {
-//            synchronized (map) {
-//                count = indexingStrategy.readIndexCount(app, table, column, columnValue);
-//                if (count == -1) {
-//                    return -1;
-//                }
-//
-//                map.put(mapKey, newLruMap());
-//                indexCount = new AtomicCounter(count);
-//                map.get(mapKey).put(columnValue, indexCount);
-//                return count;
-//            }
-//        } else {
-//            synchronized (map.get(mapKey)) {
-//                count = indexingStrategy.readIndexCount(app, table, column, columnValue);
-//                if (count == -1) {
-//                    return -1;
-//                }
-//
-//                indexCount = new AtomicCounter(count);
-//                map.get(mapKey).put(columnValue, indexCount);
-//                return count;
-//            }
-//        }
-        
-        return 1;
+        final long count = getCounter(getColumnCounts(app, table, column, indexingStrategy), columnValue).get();
+        return count > 0 ? count : -1;
     }
 
     public void incrementCount(final String app, final String table, final String column, final String columnValue, final IndexingStrategy indexingStrategy) throws OperationException {
-//        AtomicCounter indexCount;
-//        final String mapKey = getKey(app, table, column);
-//
-//        /* Create entry for column if one not already present */
-//        synchronized (map) {
-//            if (!map.containsKey(mapKey)) {
-//                map.put(mapKey, newLruMap());
-//            }
-//        }
-//
-//        /* Add entry for columnValue if one not already present */
-//        synchronized (map.get(mapKey)) {
-//            if (!map.get(mapKey).containsKey(columnValue)) {
-//                long value = indexingStrategy.readIndexCount(app, table, column, columnValue);
-//
-//                /* short-circuit optimisation. Directly adding entry with incremented value */
-//                if (value == -1) {
-//                    value = 1;
-//                }
-//                indexCount = new AtomicCounter(value);
-//                map.get(mapKey).put(columnValue, indexCount);
-//                indexingStrategy.writeIndexCount(app, table, column, columnValue, indexCount.getValue());
-//                return;
-//            }
-//        }
-//
-//        /* Increment and write new value to index count file */
-//        indexCount = map.get(mapKey).get(columnValue);
-//        try {
-//            indexCount.getSemaphore().acquireWriteLock();
-//            indexingStrategy.writeIndexCount(app, table, column, columnValue, indexCount.incrementAndGet());
-//            indexCount.getSemaphore().releaseWriteLock();
-//        } catch (InterruptedException ex) {
-//            LoggerFactory.getLogger(IndexCountStore.class.getName()).error(null, ex);
-//            throw new OperationException(ErrorCode.INDEX_COUNT_ERROR);
-//        }
+        add(app, table, column, columnValue, indexingStrategy, 1);
     }
 
     public void decrementCount(final String app, final String table, final String column, final String columnValue, final IndexingStrategy indexingStrategy) throws OperationException {
-//        AtomicCounter indexCount;
-//        final String mapKey = getKey(app, table, column);
-//
-//        /* Create entry for column if one not already present */
-//        synchronized (map) {
-//            if (!map.containsKey(mapKey)) {
-//                map.put(mapKey, newLruMap());
-//            }
-//        }
-//
-//        /* Add entry for columnValue if one not already present */
-//        synchronized (map.get(mapKey)) {
-//            if (!map.get(mapKey).containsKey(columnValue)) {
-//                long value = indexingStrategy.readIndexCount(app, table, column, columnValue);
-//
-//                /* If no current entry formed, then the requested decrement is erroneous*/
-//                if (value == -1) {
-//                    throw new OperationException(ErrorCode.INDEX_COUNT_ERROR);
-//                }
-//
-//                indexCount = new AtomicCounter(value - 1);//initialize with decrement value for faster operation
-//                map.get(mapKey).put(columnValue, indexCount);
-//                indexingStrategy.writeIndexCount(app, table, column, columnValue, indexCount.getValue());
-//                return;
-//            }
-//        }
-//
-//        /* Decrement and write new value to index count file */
-//        indexCount = map.get(mapKey).get(columnValue);
-//        try {
-//            indexCount.getSemaphore().acquireWriteLock();
-//
-//            /* Updates new index value. Passing a value of zero or negative will result in the corresponding index 
-//             count file getting deleted */
-//            indexingStrategy.writeIndexCount(app, table, column, columnValue, indexCount.decrementAndGet());
-//
-//            /* Remove entry from map if new value is 0 */
-//            if (indexCount.getValue() <= 0) {
-//                map.get(mapKey).remove(columnValue);
-//                if (map.get(mapKey).isEmpty()) {
-//                    map.remove(mapKey);
-//                }
-//            }
-//
-//            indexCount.getSemaphore().releaseWriteLock();
-//        } catch (InterruptedException ex) {
-//            LoggerFactory.getLogger(IndexCountStore.class.getName()).error(null, ex);
-//            throw new OperationException(ErrorCode.INDEX_COUNT_ERROR);
-//        }
+        add(app, table, column, columnValue, indexingStrategy, -1);
+    }
+
+    /**
+     * Writes the changed counts of all loaded columns to their index count files. Counts beyond {@link #LRU_SIZE} per
+     * column are dropped from memory once written. Counts of columns whose index no longer exists are discarded.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void checkpoint() {
+        map.forEach((mapKey, columnCounts) -> {
+            if (columnCounts.counters.values().stream().noneMatch(CheckpointedCounter::isDirty)) {
+                return;
+            }
+            if (!Files.exists(Paths.get(PathUtil.indexColumnFolder(columnCounts.app, columnCounts.table, columnCounts.column)))) {
+                map.remove(mapKey, columnCounts);
+                return;
+            }
+
+            columnCounts.counters.forEach((columnValue, counter) -> {
+                try {
+                    counter.checkpoint(count -> columnCounts.indexingStrategy.writeIndexCount(columnCounts.app, columnCounts.table, columnCounts.column, columnValue, count));
+                } catch (OperationException ex) {
+                    logger.error("Failed to checkpoint index count of " + mapKey + " for value " + columnValue, ex);
+                }
+            });
+
+            final Iterator<Map.Entry<String, CheckpointedCounter>> iterator = columnCounts.counters.entrySet().iterator();
+            while (columnCounts.counters.size() > LRU_SIZE && iterator.hasNext()) {
+                final Map.Entry<String, CheckpointedCounter> entry = iterator.next();
+                if (entry.getValue().retire()) {
+                    columnCounts.counters.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        checkpoint();
+        map.forEach((mapKey, columnCounts) -> {
+            if (!columnCounts.open || columnCounts.counters.values().stream().anyMatch(CheckpointedCounter::isDirty)) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(markerPath(columnCounts.app, columnCounts.table, columnCounts.column));
+            } catch (IOException ex) {
+                logger.error("Failed to close index counts of " + mapKey, ex);
+            }
+        });
+        map.clear();
+    }
+
+    private void add(final String app, final String table, final String column, final String columnValue, final IndexingStrategy indexingStrategy, final long delta) throws OperationException {
+        final ColumnCounts columnCounts = getColumnCounts(app, table, column, indexingStrategy);
+        if (!columnCounts.open) {
+            synchronized (columnCounts) {
+                if (!columnCounts.open) {
+                    markOpen(app, table, column);
+                    columnCounts.open = true;
+                }
+            }
+        }
+
+        /* a counter retired by a concurrent checkpoint is written already, so the update goes to a reloaded counter */
+        CheckpointedCounter counter = getCounter(columnCounts, columnValue);
+        while (!counter.add(delta)) {
+            counter = getCounter(columnCounts, columnValue);
+        }
+    }
+
+    private ColumnCounts getColumnCounts(final String app, final String table, final String column, final IndexingStrategy indexingStrategy) throws OperationException {
+        final String mapKey = getKey(app, table, column);
+        ColumnCounts columnCounts = map.get(mapKey);
+        if (columnCounts != null) {
+            return columnCounts;
+        }
+
+        synchronized (map) {
+            columnCounts = map.get(mapKey);
+            if (columnCounts == null) {
+                columnCounts = new ColumnCounts(app, table, column, indexingStrategy);
+                if (Files.exists(markerPath(app, table, column))) {
+                    logger.info("Index counts of " + mapKey + " were not closed on shutdown. Recounting index entries.");
+                    recount(app, table, column, indexingStrategy);
+                    columnCounts.open = true;
+                }
+                map.put(mapKey, columnCounts);
+            }
+            return columnCounts;
+        }
+    }
+
+    private CheckpointedCounter getCounter(final ColumnCounts columnCounts, final String columnValue) throws OperationException {
+        CheckpointedCounter counter = columnCounts.counters.get(columnValue);
+        if (counter != null) {
+            return counter;
+        }
+
+        synchronized (columnCounts.counters) {
+            counter = columnCounts.counters.get(columnValue);
+            if (counter == null) {
+                final long count = columnCounts.indexingStrategy.readIndexCount(columnCounts.app, columnCounts.table, columnCounts.column, columnValue);
+                counter = new CheckpointedCounter(count > 0 ? count : 0);
+                columnCounts.counters.put(columnValue, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * Rebuilds the index count files of a column by counting the entries under every cardinal of its index
+     *
+     * @param app the id of the BlobCity application
+     * @param table name of table within the application
+     * @param column name of indexed column within the specified table
+     * @param indexingStrategy the indexing strategy used to write the index count files
+     * @throws OperationException if an I/O error occurs while counting the index entries
+     */
+    private void recount(final String app, final String table, final String column, final IndexingStrategy indexingStrategy) throws OperationException {
+        try {
+            try (DirectoryStream<Path> countFiles = Files.newDirectoryStream(Paths.get(PathUtil.indexCountColumnFolder(app, table, column)))) {
+                for (Path countFile : countFiles) {
+                    if (!countFile.getFileName().toString().equals(OPEN_MARKER)) {
+                        Files.delete(countFile);
+                    }
+                }
+            }
+
+            final Path indexFolder = Paths.get(PathUtil.indexColumnFolder(app, table, column));
+            if (!Files.exists(indexFolder)) {
+                return;
+            }
+            try (DirectoryStream<Path> valueFolders = Files.newDirectoryStream(indexFolder, Files::isDirectory)) {
+                for (Path valueFolder : valueFolders) {
+                    long count = 0;
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(valueFolder)) {
+                        for (Path entry : entries) {
+                            count++;
+                        }
+                    }
+                    indexingStrategy.writeIndexCount(app, table, column, FileNameEncoding.decode(valueFolder.getFileName().toString()), count);
+                }
+            }
+        } catch (IOException ex) {
+            logger.error("Failed to recount index entries of " + app + "." + table + "." + column, ex);
+            throw new OperationException(ErrorCode.INDEX_COUNT_ERROR, "Could not recount index of column: " + column);
+        }
+    }
+
+    private void markOpen(final String app, final String table, final String column) throws OperationException {
+        try {
+            Files.createDirectories(Paths.get(PathUtil.indexCountColumnFolder(app, table, column)));
+            Files.write(markerPath(app, table, column), new byte[0]);
+        } catch (IOException ex) {
+            logger.error("Failed to open index counts of " + app + "." + table + "." + column, ex);
+            throw new OperationException(ErrorCode.INDEX_COUNT_ERROR);
+        }
+    }
+
+    private Path markerPath(final String app, final String table, final String column) {
+        return Paths.get(PathUtil.indexCountColumnFolder(app, table, column), OPEN_MARKER);
     }
 
     private String getKey(String app, String table, String column) {
@@ -204,12 +263,20 @@ public class IndexCountStore {
         return sb.toString();
     }
 
-    private LinkedHashMap<String, AtomicCounter> newLruMap() {
-        return new LinkedHashMap<String, AtomicCounter>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, AtomicCounter> eldest) {
-                return size() > LRU_SIZE;
-            }
-        };
+    private static class ColumnCounts {
+
+        private final String app;
+        private final String table;
+        private final String column;
+        private final IndexingStrategy indexingStrategy;
+        private final Map<String, CheckpointedCounter> counters = new ConcurrentHashMap<>();
+        private volatile boolean open = false;
+
+        private ColumnCounts(final String app, final String table, final String column, final IndexingStrategy indexingStrategy) {
+            this.app = app;
+            this.table = table;
+            this.column = column;
+            this.indexingStrategy = indexingStrategy;
+        }
     }
 }
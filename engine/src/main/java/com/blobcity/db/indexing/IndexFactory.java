@@ -38,6 +38,9 @@ public class IndexFactory {
     @Autowired
     @Qualifier("OnDiskUniqueIndex")
     private IndexingStrategy uniqueIndexingStrategy;
+    @Autowired
+    @Qualifier("OnDiskPackedIndex")
+    private IndexingStrategy packedIndexingStrategy;
 
     public IndexingStrategy getStrategy(final IndexTypes indexType) {
         switch (indexType) {
@@ -47,6 +50,8 @@ public class IndexFactory {
                 return hashedIndexingStrategy;
             case UNIQUE:
                 return uniqueIndexingStrategy;
+            case PACKED:
+                return packedIndexingStrategy;
             case NONE:
                 return null;
         }
@@ -62,6 +67,8 @@ public class IndexFactory {
                 return new OnDiskHashedIndex();
             case UNIQUE:
                 return new OnDiskUniqueIndex();
+            case PACKED:
+                return new OnDiskPackedIndex();
             case NONE:
                 return null;
         }
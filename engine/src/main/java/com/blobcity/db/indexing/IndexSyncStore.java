@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.indexing;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the paths of the on-disk BTREE, HASHED and UNIQUE index entries of each collection that changed since they were
+ * last synced, so that they can be made durable before the commit log of the collection is checkpointed.
+ *
+ * <p>
+ * The entries of these indexes are files within a folder per cardinal. A created or deleted entry is durable once the
+ * folder holding it is synced, and an entry that holds data, as the entries of UNIQUE indexes do, once the file itself
+ * is also synced.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class IndexSyncStore {
+
+    private final Map<String, Set<Path>> map = new ConcurrentHashMap<>();
+
+    /**
+     * Records that a folder or file of an index of the collection changed and must be synced
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param path the folder in which an entry was created or deleted, or the file of an entry holding data
+     */
+    public void markChanged(final String ds, final String collection, final Path path) {
+        map.computeIfAbsent(key(ds, collection), key -> ConcurrentHashMap.newKeySet()).add(path);
+    }
+
+    /**
+     * Syncs to disk every index folder and file of the collection that changed since it was last synced. Paths deleted
+     * since they changed, as by dropping the index, are skipped.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @throws IOException if a folder or file could not be synced; it remains to be synced
+     */
+    public void sync(final String ds, final String collection) throws IOException {
+        final Set<Path> paths = map.get(key(ds, collection));
+        if (paths == null) {
+            return;
+        }
+
+        final Iterator<Path> iterator = paths.iterator();
+        while (iterator.hasNext()) {
+            final Path path = iterator.next();
+
+            /* removed before the sync, so that a change made while syncing is synced again */
+            iterator.remove();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (NoSuchFileException ex) {
+                // deleted since it changed
+            } catch (IOException ex) {
+                paths.add(path);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Discards the changed paths of a collection. Must be called when the collection is dropped or renamed.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     */
+    public void evict(final String ds, final String collection) {
+        map.remove(key(ds, collection));
+    }
+
+    /**
+     * Discards the changed paths of all collections of a datastore. Must be called when the datastore is dropped.
+     *
+     * @param ds the datastore
+     */
+    public void evictDatastore(final String ds) {
+        map.keySet().removeIf(key -> key.startsWith(ds + "."));
+    }
+
+    private String key(final String ds, final String collection) {
+        return ds + "." + collection;
+    }
+}
@@ -18,6 +18,7 @@ package com.blobcity.db.indexing;
 
 import com.blobcity.db.bsql.filefilters.OperatorFileFilter;
 import com.blobcity.db.exceptions.OperationException;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -29,6 +30,23 @@ public interface IndexingStrategy {
 
     public void index(String app, String table, String column, String columnValue, String pk) throws OperationException;
 
+    /**
+     * Indexes a group of records that hold the same value in the column. Strategies that can write a posting list in
+     * one step override this to avoid the per record work of {@link #index(String, String, String, String, String)}
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @param column name of the indexed column
+     * @param columnValue the value held by all the records
+     * @param pks primary keys of the records
+     * @throws OperationException if an operation error occurs
+     */
+    public default void index(String app, String table, String column, String columnValue, Collection<String> pks) throws OperationException {
+        for (String pk : pks) {
+            index(app, table, column, columnValue, pk);
+        }
+    }
+
     /**
      * Loads all values present within the specified index
      *
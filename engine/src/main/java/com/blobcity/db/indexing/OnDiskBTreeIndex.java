@@ -32,6 +32,7 @@ import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileSystems;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -55,6 +56,8 @@ public class OnDiskBTreeIndex implements IndexingStrategy {
 
     @Autowired
     private IndexCountStore indexCountStore;
+    @Autowired
+    private IndexSyncStore indexSyncStore;
     @Autowired @Lazy
     private OnDiskBtreeIndexCache indexCache;
 
@@ -87,6 +90,7 @@ public class OnDiskBTreeIndex implements IndexingStrategy {
         if (!Files.exists(path)) {
             try {
                 Files.createDirectory(path);
+                indexSyncStore.markChanged(app, table, path.getParent());
             } catch (IOException ex) {
 
                 //TODO: Notify admin
@@ -101,6 +105,7 @@ public class OnDiskBTreeIndex implements IndexingStrategy {
         if (!Files.exists(path)) {
             try {
                 Files.createFile(path);
+                indexSyncStore.markChanged(app, table, path.getParent());
             } catch (IOException ex) {
 
                 //TODO: Notify admin
@@ -118,6 +123,58 @@ public class OnDiskBTreeIndex implements IndexingStrategy {
         indexCountStore.incrementCount(app, table, column, columnValue, this);
     }
 
+    /**
+     * Indexes a group of records holding the same column value. The column value folder is checked and created once
+     * for the whole group.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @param column name of column within the table
+     * @param columnValue the value held by all the records
+     * @param pks the primary keys of the records
+     * @throws OperationException if a file system error occurs in writing the index entries
+     */
+    @Override
+    public void index(String app, String table, String column, String columnValue, Collection<String> pks) throws OperationException {
+        if (columnValue == null || columnValue.isEmpty()) {
+            return;
+        }
+
+        final String folder = PathUtil.indexColumnValueFolder(app, table, column, columnValue);
+        try {
+            Files.createDirectories(Paths.get(folder));
+            indexSyncStore.markChanged(app, table, Paths.get(folder).getParent());
+            indexSyncStore.markChanged(app, table, Paths.get(folder));
+        } catch (IOException ex) {
+
+            //TODO: Notify admin
+            LoggerFactory.getLogger(OnDiskBTreeIndex.class.getName()).error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "The index for column: " + column + " in table: "
+                    + table + " could not be created");
+        }
+
+        final Set<String> cachedIndex = LicenseRules.INDEX_CACHING ? indexCache.get(app, table, column, columnValue) : null;
+        for (String pk : pks) {
+            final Path path = Paths.get(folder + pk);
+            try {
+                Files.createFile(path);
+            } catch (FileAlreadyExistsException ex) {
+                continue;
+            } catch (IOException ex) {
+
+                //TODO: Notify admin
+                LoggerFactory.getLogger(OnDiskBTreeIndex.class.getName()).error(null, ex);
+                throw new OperationException(ErrorCode.INDEXING_ERROR, "The index for column: " + column + " in table: "
+                        + table + " could not be created for column value: " + columnValue
+                        + " mapping to a record with primary key: " + pk);
+            }
+            if (cachedIndex != null) {
+                cachedIndex.add(pk);
+            }
+            indexCountStore.incrementCount(app, table, column, columnValue, this);
+        }
+    }
+
     @Override
     public Set<String> loadIndex(String app, String table, String column, String columnValue) throws OperationException {
         if(LicenseRules.INDEX_CACHING) {
@@ -314,6 +371,7 @@ public class OnDiskBTreeIndex implements IndexingStrategy {
         Path path = Paths.get(PathUtil.indexColumnValueFolder(app, table, column, columnValue) + pk);
         try {
             if (Files.deleteIfExists(path)) {
+                indexSyncStore.markChanged(app, table, path.getParent());
                 indexCountStore.decrementCount(app, table, column, columnValue, this);
                 if(LicenseRules.INDEX_CACHING) {
                     indexCache.removeEntry(app, table, column, columnValue, pk);
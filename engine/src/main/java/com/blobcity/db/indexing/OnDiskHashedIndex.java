@@ -48,6 +48,8 @@ public class OnDiskHashedIndex implements IndexingStrategy {
 
     @Autowired
     private IndexCountStore indexCountStore;
+    @Autowired
+    private IndexSyncStore indexSyncStore;
 
     /**
      * <p>
@@ -80,6 +82,7 @@ public class OnDiskHashedIndex implements IndexingStrategy {
         if (!Files.exists(path)) {
             try {
                 Files.createDirectory(path);
+                indexSyncStore.markChanged(app, table, path.getParent());
             } catch (IOException ex) {
 
                 //TODO: Notify admin
@@ -94,6 +97,7 @@ public class OnDiskHashedIndex implements IndexingStrategy {
         if (!Files.exists(path)) {
             try {
                 Files.createFile(path);
+                indexSyncStore.markChanged(app, table, path.getParent());
             } catch (IOException ex) {
 
                 //TODO: Notify admin
@@ -333,6 +337,7 @@ public class OnDiskHashedIndex implements IndexingStrategy {
         Path path = Paths.get(PathUtil.indexColumnValueFolder(app, table, column, columnValue) + pk);
         try {
             if (Files.deleteIfExists(path)) {
+                indexSyncStore.markChanged(app, table, path.getParent());
                 indexCountStore.decrementCount(app, table, column, columnValue, this);
             }
         } catch (IOException ex) {
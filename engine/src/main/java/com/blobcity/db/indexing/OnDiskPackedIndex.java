@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.indexing;
+
+import com.blobcity.db.bsql.filefilters.EQFilenameFilter;
+import com.blobcity.db.bsql.filefilters.InFilenameFilter;
+import com.blobcity.db.bsql.filefilters.OperatorFileFilter;
+import com.blobcity.db.exceptions.DbRuntimeException;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.util.FileNameEncoding;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Index stored as packed posting lists inside a sorted, immutable postings file per column, along with a small write
+ * buffer that is merged into the postings file in the background. See {@link PackedColumnIndex} for the storage
+ * format.</p>
+ *
+ * <p>
+ * Unlike {@link OnDiskBTreeIndex} an index entry is not a file on the file system, so adding an entry is a single
+ * append to the index journal and range scans are sequential reads of the postings file. Cardinal sizes are
+ * maintained as part of the index itself and do not require separate index count files.</p>
+ *
+ * @author sanketsarang
+ */
+@Component
+public class OnDiskPackedIndex implements IndexingStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(OnDiskPackedIndex.class.getName());
+
+    @Autowired
+    private PackedIndexStore packedIndexStore;
+
+    @Override
+    public void index(String app, String table, String column, String columnValue, String pk) throws OperationException {
+        /* Ignore indexing of null or empty values */
+        if (columnValue == null || columnValue.isEmpty()) {
+            return;
+        }
+
+        try {
+            packedIndexStore.get(app, table, column).add(columnValue, pk);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "The index for column: " + column + " in table: "
+                    + table + " could not be created for column value: " + columnValue
+                    + " mapping to a record with primary key: " + pk);
+        }
+    }
+
+    @Override
+    public void index(String app, String table, String column, String columnValue, Collection<String> pks) throws OperationException {
+        if (columnValue == null || columnValue.isEmpty()) {
+            return;
+        }
+
+        try {
+            packedIndexStore.get(app, table, column).addAll(columnValue, pks);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "The index for column: " + column + " in table: "
+                    + table + " could not be created for column value: " + columnValue);
+        }
+    }
+
+    @Override
+    public Set<String> loadIndex(String app, String table, String column, String columnValue) throws OperationException {
+        return new HashSet<>(readPosting(app, table, column, columnValue));
+    }
+
+    @Override
+    public Set<String> loadIndex(String app, String table, String column, OperatorFileFilter filter) throws OperationException {
+        Set<String> set = new HashSet<>();
+        loadIndexStream(app, table, column, filter).forEachRemaining(set::add);
+        return set;
+    }
+
+    @Override
+    public Iterator<String> loadIndexStream(String app, String table, String column, String columnValue) throws OperationException {
+        return readPosting(app, table, column, columnValue).iterator();
+    }
+
+    /**
+     * Loads an iterator over pk's for all index values matching the specified filter criteria. The filter is applied
+     * on the encoded form of every value, exactly as it is applied on value folder names of {@link OnDiskBTreeIndex},
+     * and posting lists of matching values are read in value order.
+     *
+     * @param app the BlobCity application id
+     * @param table the name of the table within the BlobCity application
+     * @param column the name of the column within the specified table
+     * @param filter a file filter to select only values that match the specified condition
+     * @return <code>Iterator<String></code> containing all pk's that match the filter criteria; an empty iterator if no
+     * value matches the search criteria
+     * @throws OperationException if an error occurs when reading the index.
+     */
+    @Override
+    public Iterator<String> loadIndexStream(String app, String table, String column, OperatorFileFilter filter) throws OperationException {
+        if (filter instanceof EQFilenameFilter) {
+            return loadIndexStream(app, table, column, filter.getTypeConvertedReferenceValue().toString());
+        }
+
+        final PackedColumnIndex index = packedIndexStore.get(app, table, column);
+        final List<String> values;
+        if (filter instanceof InFilenameFilter) {
+            final Set<String> referenceValues = (Set<String>) filter.getReferenceValue();
+            if (referenceValues == null) {
+                return Collections.emptyIterator();
+            }
+            values = index.values(referenceValues::contains);
+        } else {
+            values = index.values(value -> accept(filter, value));
+        }
+
+        return new Iterator<String>() {
+            private final Iterator<String> valueIterator = values.iterator();
+            private Iterator<String> pkIterator = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!pkIterator.hasNext() && valueIterator.hasNext()) {
+                    try {
+                        pkIterator = index.get(valueIterator.next()).iterator();
+                    } catch (IOException ex) {
+                        logger.error("Failed to read packed index for column: " + column + " in table: " + table, ex);
+                        throw new DbRuntimeException(ex);
+                    }
+                }
+                return pkIterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pkIterator.next();
+            }
+        };
+    }
+
+    @Override
+    public void initializeIndexing(String app, String table, String column) throws OperationException {
+        Path path = Paths.get(PathUtil.indexColumnFolder(app, table, column));
+        try {
+            Files.createDirectories(path);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "The index for column: " + column + " in table: "
+                    + table + " could not be created");
+        }
+        packedIndexStore.get(app, table, column);
+    }
+
+    @Override
+    public boolean contains(String app, String table, String column, String columnValue, String pk) throws OperationException {
+        try {
+            return packedIndexStore.get(app, table, column).contains(columnValue, pk);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "Could not read index for column: " + column
+                    + "  in table: " + table + " for searched value: " + columnValue);
+        }
+    }
+
+    @Override
+    public void remove(String app, String table, String column, String columnValue, String pk) throws OperationException {
+        try {
+            packedIndexStore.get(app, table, column).remove(columnValue, pk);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "Unable to remove indexed value for column: "
+                    + column + " in table: " + table + " when attempting to deleted index value: " + columnValue);
+        }
+    }
+
+    @Override
+    public void dropIndex(String app, String table, String column) throws OperationException {
+        packedIndexStore.evict(app, table, column);
+        Path sourcePath = Paths.get(PathUtil.indexColumnFolder(app, table, column));
+        Path destinationPath = Paths.get(PathUtil.globalDeleteFolder(app + "_" + table + "_" + column + "_" + System.currentTimeMillis()));
+        try {
+            Files.move(sourcePath, destinationPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not drop index for column: "
+                    + column + " in table: " + table);
+        }
+    }
+
+    @Override
+    public Iterator<String> cardinality(String app, String table, String column) throws OperationException {
+        return packedIndexStore.get(app, table, column).values().iterator();
+    }
+
+    /**
+     * Reads the size of the cardinal from the in-memory state of the index. No I/O is performed.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table name of table within the application
+     * @param column name of column within the table
+     * @param columnValue value of the column for which the index entry is present
+     * @return the size of the specified cardinal if entry is found; -1 otherwise
+     * @throws OperationException if the index could not be loaded
+     */
+    @Override
+    public long readIndexCount(String app, String table, String column, String columnValue) throws OperationException {
+        final long count = packedIndexStore.get(app, table, column).count(columnValue);
+        return count > 0 ? count : -1;
+    }
+
+    /**
+     * No-op, as cardinal sizes are maintained by the index itself
+     */
+    @Override
+    public void writeIndexCount(String app, String table, String column, String columnValue, long count) throws OperationException {
+        /* do nothing */
+    }
+
+    @Override
+    public String getAnyCardinalEntry(final String ds, final String collection, final String column, final String columnValue) throws OperationException {
+        final List<String> pks = readPosting(ds, collection, column, columnValue);
+        if (pks.isEmpty()) {
+            throw new OperationException(ErrorCode.SELECT_ERROR, "No entry found in supposedly valid cardinal inside OnDisk Packed index");
+        }
+        return pks.get(0);
+    }
+
+    private List<String> readPosting(final String app, final String table, final String column, final String columnValue) throws OperationException {
+        try {
+            return packedIndexStore.get(app, table, column).get(columnValue);
+        } catch (IOException ex) {
+            logger.error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "Could not read index for column: " + column
+                    + "  in table: " + table + " for searched value: " + columnValue);
+        }
+    }
+
+    private boolean accept(final OperatorFileFilter filter, final String value) {
+        try {
+            return filter.accept(Paths.get(FileNameEncoding.encode(value)));
+        } catch (IOException | OperationException ex) {
+            logger.error("Failed to apply filter on index value: " + value, ex);
+            return false;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
@@ -38,6 +39,7 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -47,6 +49,9 @@ import org.springframework.stereotype.Component;
 @Component
 public class OnDiskUniqueIndex implements IndexingStrategy {
 
+    @Autowired
+    private IndexSyncStore indexSyncStore;
+
     @Override
     public void index(String app, String table, String column, String columnValue, String pk) throws OperationException {
         /* Ignore indexing of null or empty values */
@@ -58,6 +63,8 @@ public class OnDiskUniqueIndex implements IndexingStrategy {
         if (!Files.exists(path)) {
             try {
                 Files.write(path, pk.getBytes());
+                indexSyncStore.markChanged(app, table, path);
+                indexSyncStore.markChanged(app, table, path.getParent());
             } catch (IOException ex) {
 
                 //TODO: Notify admin
@@ -258,7 +265,19 @@ public class OnDiskUniqueIndex implements IndexingStrategy {
     @Override
     public boolean contains(String app, String table, String column, String columnValue, String pk) throws OperationException {
         Path path = Paths.get(PathUtil.indexColumnValueFolder(app, table, column, columnValue));
-        return Files.exists(path);
+        if (!Files.exists(path)) {
+            return false;
+        }
+
+        try {
+            return new String(Files.readAllBytes(path)).equals(pk);
+        } catch (NoSuchFileException ex) {
+            return false;
+        } catch (IOException ex) {
+            LoggerFactory.getLogger(OnDiskUniqueIndex.class.getName()).error(null, ex);
+            throw new OperationException(ErrorCode.INDEXING_ERROR, "Could not read Unique index entry of column: "
+                    + column + " with column value: " + columnValue + " in table: " + table);
+        }
     }
 
     @Override
@@ -273,6 +292,7 @@ public class OnDiskUniqueIndex implements IndexingStrategy {
 
             if (actualPk.equals(pk)) {
                 Files.delete(path);
+                indexSyncStore.markChanged(app, table, path.getParent());
             } else {
                 throw new OperationException(ErrorCode.INDEXING_ERROR, "Incorrect primary key specification while "
                         + "deleting Unique index record of column: " + column + " with column value: " + columnValue
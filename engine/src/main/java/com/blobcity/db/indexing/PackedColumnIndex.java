@@ -0,0 +1,823 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Packed index of a single column. The index is held in one immutable postings file sorted on column value, in which
+ * the primary keys of every column value are stored as a sorted, front coded posting list. Changes are collected in
+ * an in-memory buffer of additions and removals, which is made durable through an append only journal and is
+ * periodically merged with the postings file into a new postings file by {@link #merge()}.</p>
+ *
+ * <p>
+ * Files inside the column folder are versioned by a generation number. <code>postings-N.pidx</code> contains every
+ * change recorded in journals of generation lower than N. On load the latest postings file is opened and all journals
+ * of the same or higher generation are replayed into the buffer.</p>
+ *
+ * @author sanketsarang
+ */
+public class PackedColumnIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackedColumnIndex.class.getName());
+
+    private static final int MAGIC = 0x42504958;
+    private static final int FORMAT_VERSION = 1;
+    private static final String POSTINGS_PREFIX = "postings-";
+    private static final String POSTINGS_EXTENSION = ".pidx";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_EXTENSION = ".log";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private final Path folder;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object mergeLock = new Object();
+
+    /* immutable base: postings file and its dictionary of column value to posting list location */
+    private FileChannel postingsChannel;
+    private NavigableMap<String, Posting> dictionary = new TreeMap<>();
+
+    /* buffer being merged in the background, and the buffer receiving new changes */
+    private Delta frozen = new Delta();
+    private Delta live = new Delta();
+
+    private long generation = 0;
+    private FileChannel journal;
+    private volatile boolean dirty = false;
+
+    public PackedColumnIndex(final Path folder) throws IOException {
+        this.folder = folder;
+        Files.createDirectories(folder);
+        load();
+    }
+
+    /**
+     * Adds the primary key to the posting list of the column value. Adding an entry that is already present in the
+     * postings file leaves {@link #count(String)} overstated until the next merge.
+     *
+     * @param columnValue the indexed value
+     * @param pk the primary key of the record holding the value
+     * @throws IOException if the change could not be written to the journal
+     */
+    public void add(final String columnValue, final String pk) throws IOException {
+        lock.writeLock().lock();
+        try {
+            writeJournal(OP_ADD, columnValue, pk);
+            applyAdd(columnValue, pk);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a set of primary keys to the posting list of the column value, appending all their journal entries in a
+     * single write
+     *
+     * @param columnValue the indexed value
+     * @param pks the primary keys of the records holding the value
+     * @throws IOException if the changes could not be written to the journal
+     */
+    public void addAll(final String columnValue, final Collection<String> pks) throws IOException {
+        final byte[] value = columnValue.getBytes(StandardCharsets.UTF_8);
+        final List<byte[]> keys = new ArrayList<>(pks.size());
+        int size = 0;
+        for (String pk : pks) {
+            final byte[] key = pk.getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            size += 13 + value.length + key.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] key : keys) {
+            putJournalEntry(buffer, OP_ADD, value, key);
+        }
+        buffer.flip();
+
+        lock.writeLock().lock();
+        try {
+            writeJournal(buffer);
+            pks.forEach(pk -> applyAdd(columnValue, pk));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the primary key from the posting list of the column value
+     *
+     * @param columnValue the indexed value
+     * @param pk the primary key of the record that held the value
+     * @return <code>true</code> if an entry was removed; <code>false</code> if no such entry was present
+     * @throws IOException if the postings file could not be read or the change could not be written to the journal
+     */
+    public boolean remove(final String columnValue, final String pk) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!contains(columnValue, pk)) {
+                return false;
+            }
+            writeJournal(OP_REMOVE, columnValue, pk);
+            applyRemove(columnValue, pk);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(final String columnValue, final String pk) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (live.contains(live.added, columnValue, pk)) {
+                return true;
+            }
+            return !live.contains(live.removed, columnValue, pk) && containsInMerged(columnValue, pk);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the primary keys of all records holding the specified column value
+     *
+     * @param columnValue the indexed value
+     * @return sorted list of primary keys; an empty list if the value is not present in the index
+     * @throws IOException if the postings file could not be read
+     */
+    public List<String> get(final String columnValue) throws IOException {
+        lock.readLock().lock();
+        try {
+            return view(columnValue);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records holding the specified column value
+     *
+     * @param columnValue the indexed value
+     * @return count of records; 0 if the value is not present in the index
+     */
+    public long count(final String columnValue) {
+        lock.readLock().lock();
+        try {
+            final Posting posting = dictionary.get(columnValue);
+            long count = posting == null ? 0 : posting.count;
+            count += frozen.size(frozen.added, columnValue) - frozen.size(frozen.removed, columnValue);
+            count += live.size(live.added, columnValue) - live.size(live.removed, columnValue);
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets all distinct column values present in the index in sorted order
+     *
+     * @return sorted list of indexed values having at least one record
+     */
+    public List<String> values() {
+        return values(value -> true);
+    }
+
+    /**
+     * Gets all distinct column values present in the index that match the specified predicate, in sorted order
+     *
+     * @param predicate condition to be satisfied by returned values
+     * @return sorted list of matching indexed values having at least one record
+     */
+    public List<String> values(final Predicate<String> predicate) {
+        lock.readLock().lock();
+        try {
+            final Set<String> candidates = new TreeSet<>(dictionary.keySet());
+            candidates.addAll(frozen.added.keySet());
+            candidates.addAll(live.added.keySet());
+            final List<String> result = new ArrayList<>();
+            for (String value : candidates) {
+                if (predicate.test(value) && count(value) > 0) {
+                    result.add(value);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of buffered changes that are yet to be merged into the postings file
+     *
+     * @return count of buffered additions and removals
+     */
+    public int bufferedChanges() {
+        lock.readLock().lock();
+        try {
+            return live.changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces all journal entries to the storage device
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void sync() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (journal == null) {
+                return;
+            }
+            journal.force(false);
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merges all buffered changes into a new postings file. Reads and writes continue to be served while the new
+     * postings file is written; changes arriving during the merge are buffered for the next merge.
+     *
+     * @throws IOException if the new postings file could not be written
+     */
+    public void merge() throws IOException {
+        synchronized (mergeLock) {
+            final Delta merging;
+            final NavigableMap<String, Posting> baseDictionary;
+            final long newGeneration;
+            final FileChannel oldJournal;
+
+            lock.writeLock().lock();
+            try {
+                if (live.changes == 0 || journal == null) {
+                    return;
+                }
+                merging = live;
+                frozen = live;
+                live = new Delta();
+                baseDictionary = dictionary;
+                newGeneration = generation + 1;
+                journal.force(false);
+                oldJournal = journal;
+                journal = openJournal(newGeneration);
+                generation = newGeneration;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            oldJournal.close();
+
+            final Path tempPath = postingsPath(newGeneration).resolveSibling(POSTINGS_PREFIX + newGeneration + POSTINGS_EXTENSION + TEMP_EXTENSION);
+            final NavigableMap<String, Posting> newDictionary = writePostings(tempPath, baseDictionary, merging);
+            Files.move(tempPath, postingsPath(newGeneration), StandardCopyOption.ATOMIC_MOVE);
+            final FileChannel newChannel = FileChannel.open(postingsPath(newGeneration), StandardOpenOption.READ);
+
+            final FileChannel oldChannel;
+            lock.writeLock().lock();
+            try {
+                if (journal == null) {
+                    newChannel.close();
+                    return;
+                }
+                oldChannel = postingsChannel;
+                postingsChannel = newChannel;
+                dictionary = newDictionary;
+                frozen = new Delta();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            if (oldChannel != null) {
+                oldChannel.close();
+            }
+            deleteOlderThan(newGeneration);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.force(false);
+                journal.close();
+                journal = null;
+            }
+            if (postingsChannel != null) {
+                postingsChannel.close();
+                postingsChannel = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visible primary keys of the column value. Must be called holding the lock.
+     */
+    private List<String> view(final String columnValue) throws IOException {
+        final Set<String> pks = new TreeSet<>(readPosting(dictionary.get(columnValue)));
+        frozen.applyTo(columnValue, pks);
+        live.applyTo(columnValue, pks);
+        return new ArrayList<>(pks);
+    }
+
+    /**
+     * Checks presence of the entry in the postings file combined with the buffer currently being merged
+     */
+    private boolean containsInMerged(final String columnValue, final String pk) throws IOException {
+        if (frozen.contains(frozen.added, columnValue, pk)) {
+            return true;
+        }
+        if (frozen.contains(frozen.removed, columnValue, pk)) {
+            return false;
+        }
+        return readPosting(dictionary.get(columnValue)).contains(pk);
+    }
+
+    private void applyAdd(final String columnValue, final String pk) {
+        if (!live.discard(live.removed, columnValue, pk)) {
+            live.put(live.added, columnValue, pk);
+        }
+    }
+
+    private void applyRemove(final String columnValue, final String pk) throws IOException {
+        if (!live.discard(live.added, columnValue, pk) && containsInMerged(columnValue, pk)) {
+            live.put(live.removed, columnValue, pk);
+        }
+    }
+
+    private List<String> readPosting(final Posting posting) throws IOException {
+        if (posting == null) {
+            return Collections.emptyList();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(posting.length);
+        long position = posting.offset;
+        while (buffer.hasRemaining()) {
+            final int read = postingsChannel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of postings file in " + folder);
+            }
+            position += read;
+        }
+        return decodePosting(buffer.array(), posting.count);
+    }
+
+    /**
+     * Writes a new postings file as the union of the current postings file and the delta, streaming the existing
+     * posting lists sequentially in value order.
+     */
+    private NavigableMap<String, Posting> writePostings(final Path path, final NavigableMap<String, Posting> baseDictionary,
+            final Delta delta) throws IOException {
+        final Set<String> values = new TreeSet<>(baseDictionary.keySet());
+        values.addAll(delta.added.keySet());
+
+        final NavigableMap<String, Posting> newDictionary = new TreeMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            final DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(0); // value count, written once all values are known
+            for (String value : values) {
+                final Set<String> pks = new TreeSet<>(readPosting(baseDictionary.get(value)));
+                delta.applyTo(value, pks);
+                if (pks.isEmpty()) {
+                    continue;
+                }
+
+                final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+                final byte[] posting = encodePosting(new ArrayList<>(pks));
+                writeVarInt(out, valueBytes.length);
+                out.write(valueBytes);
+                writeVarInt(out, pks.size());
+                writeVarInt(out, posting.length);
+                newDictionary.put(value, new Posting(counter.count, posting.length, pks.size()));
+                out.write(posting);
+            }
+            out.flush();
+
+            final ByteBuffer valueCount = ByteBuffer.allocate(4);
+            valueCount.putInt(newDictionary.size());
+            valueCount.flip();
+            channel.write(valueCount, 8);
+            channel.force(true);
+        }
+        return newDictionary;
+    }
+
+    private NavigableMap<String, Posting> readDictionary(final Path path) throws IOException {
+        final NavigableMap<String, Posting> result = new TreeMap<>();
+        try (InputStream stream = Files.newInputStream(path)) {
+            final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(stream, 1 << 16));
+            final DataInputStream in = new DataInputStream(counter);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unrecognised postings file format at " + path);
+            }
+            final int valueCount = in.readInt();
+            for (int i = 0; i < valueCount; i++) {
+                final byte[] valueBytes = new byte[readVarInt(in)];
+                in.readFully(valueBytes);
+                final int count = readVarInt(in);
+                final int length = readVarInt(in);
+                result.put(new String(valueBytes, StandardCharsets.UTF_8), new Posting(counter.count, length, count));
+                skipFully(in, length);
+            }
+        }
+        return result;
+    }
+
+    private void load() throws IOException {
+        long postingsGeneration = -1;
+        final List<Long> journals = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                final String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_EXTENSION)) {
+                    Files.delete(path);
+                } else if (name.startsWith(POSTINGS_PREFIX) && name.endsWith(POSTINGS_EXTENSION)) {
+                    postingsGeneration = Math.max(postingsGeneration, parseGeneration(name, POSTINGS_PREFIX, POSTINGS_EXTENSION));
+                } else if (name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_EXTENSION)) {
+                    journals.add(parseGeneration(name, JOURNAL_PREFIX, JOURNAL_EXTENSION));
+                }
+            }
+        }
+        Collections.sort(journals);
+
+        if (postingsGeneration >= 0) {
+            dictionary = readDictionary(postingsPath(postingsGeneration));
+            postingsChannel = FileChannel.open(postingsPath(postingsGeneration), StandardOpenOption.READ);
+            deleteOlderThan(postingsGeneration);
+        }
+
+        generation = Math.max(postingsGeneration, 0);
+        for (Long journalGeneration : journals) {
+            if (journalGeneration >= postingsGeneration) {
+                replayJournal(journalGeneration);
+                generation = Math.max(generation, journalGeneration);
+            }
+        }
+        journal = openJournal(generation);
+    }
+
+    private void replayJournal(final long journalGeneration) throws IOException {
+        final Path path = journalPath(journalGeneration);
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                final int checksum;
+                final byte op;
+                final byte[] value;
+                final byte[] pk;
+                try {
+                    checksum = in.readInt();
+                    op = in.readByte();
+                    value = new byte[in.readInt()];
+                    pk = new byte[in.readInt()];
+                    in.readFully(value);
+                    in.readFully(pk);
+                } catch (EOFException | NegativeArraySizeException | OutOfMemoryError ex) {
+                    break;
+                }
+                if (checksum != journalChecksum(op, value, pk)) {
+                    break;
+                }
+
+                final String columnValue = new String(value, StandardCharsets.UTF_8);
+                final String primaryKey = new String(pk, StandardCharsets.UTF_8);
+                if (op == OP_ADD) {
+                    applyAdd(columnValue, primaryKey);
+                } else {
+                    applyRemove(columnValue, primaryKey);
+                }
+                validLength += 13 + value.length + pk.length;
+            }
+        }
+
+        if (validLength < Files.size(path)) {
+            logger.warn("Truncating index journal {} to {} bytes due to an incomplete or corrupt entry", path, validLength);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    private void writeJournal(final byte op, final String columnValue, final String pk) throws IOException {
+        final byte[] value = columnValue.getBytes(StandardCharsets.UTF_8);
+        final byte[] key = pk.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(13 + value.length + key.length);
+        putJournalEntry(buffer, op, value, key);
+        buffer.flip();
+        writeJournal(buffer);
+    }
+
+    private void writeJournal(final ByteBuffer buffer) throws IOException {
+        if (journal == null) {
+            throw new IOException("Packed index at " + folder + " is closed");
+        }
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        dirty = true;
+    }
+
+    private static void putJournalEntry(final ByteBuffer buffer, final byte op, final byte[] value, final byte[] key) {
+        buffer.putInt(journalChecksum(op, value, key));
+        buffer.put(op);
+        buffer.putInt(value.length);
+        buffer.putInt(key.length);
+        buffer.put(value);
+        buffer.put(key);
+    }
+
+    private static int journalChecksum(final byte op, final byte[] value, final byte[] pk) {
+        final CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(value);
+        crc.update(pk);
+        return (int) crc.getValue();
+    }
+
+    private FileChannel openJournal(final long journalGeneration) throws IOException {
+        return FileChannel.open(journalPath(journalGeneration), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void deleteOlderThan(final long keepGeneration) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                final String name = path.getFileName().toString();
+                if (name.startsWith(POSTINGS_PREFIX) && name.endsWith(POSTINGS_EXTENSION)
+                        && parseGeneration(name, POSTINGS_PREFIX, POSTINGS_EXTENSION) < keepGeneration) {
+                    Files.delete(path);
+                } else if (name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_EXTENSION)
+                        && parseGeneration(name, JOURNAL_PREFIX, JOURNAL_EXTENSION) < keepGeneration) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private Path postingsPath(final long postingsGeneration) {
+        return folder.resolve(POSTINGS_PREFIX + postingsGeneration + POSTINGS_EXTENSION);
+    }
+
+    private Path journalPath(final long journalGeneration) {
+        return folder.resolve(JOURNAL_PREFIX + journalGeneration + JOURNAL_EXTENSION);
+    }
+
+    private static long parseGeneration(final String name, final String prefix, final String extension) {
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - extension.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Encodes a sorted list of primary keys by storing for every key the length of the prefix shared with the
+     * previous key followed by the remaining suffix
+     */
+    static byte[] encodePosting(final List<String> pks) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        byte[] previous = new byte[0];
+        for (String pk : pks) {
+            final byte[] current = pk.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            final int max = Math.min(previous.length, current.length);
+            while (shared < max && previous[shared] == current[shared]) {
+                shared++;
+            }
+            writeVarInt(out, shared);
+            writeVarInt(out, current.length - shared);
+            out.write(current, shared, current.length - shared);
+            previous = current;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<String> decodePosting(final byte[] data, final int count) throws IOException {
+        final List<String> pks = new ArrayList<>(count);
+        final DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(data));
+        byte[] previous = new byte[0];
+        for (int i = 0; i < count; i++) {
+            final int shared = readVarInt(in);
+            final int suffix = readVarInt(in);
+            final byte[] current = new byte[shared + suffix];
+            System.arraycopy(previous, 0, current, 0, shared);
+            in.readFully(current, shared, suffix);
+            pks.add(new String(current, StandardCharsets.UTF_8));
+            previous = current;
+        }
+        return pks;
+    }
+
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void skipFully(final DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            final int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Location of the posting list of a single column value inside the postings file
+     */
+    private static final class Posting {
+
+        private final long offset;
+        private final int length;
+        private final int count;
+
+        private Posting(final long offset, final int length, final int count) {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Buffered additions and removals against the postings file
+     */
+    private static final class Delta {
+
+        private final Map<String, Set<String>> added = new HashMap<>();
+        private final Map<String, Set<String>> removed = new HashMap<>();
+        private int changes = 0;
+
+        private boolean contains(final Map<String, Set<String>> map, final String columnValue, final String pk) {
+            final Set<String> pks = map.get(columnValue);
+            return pks != null && pks.contains(pk);
+        }
+
+        private int size(final Map<String, Set<String>> map, final String columnValue) {
+            final Set<String> pks = map.get(columnValue);
+            return pks == null ? 0 : pks.size();
+        }
+
+        private void put(final Map<String, Set<String>> map, final String columnValue, final String pk) {
+            if (map.computeIfAbsent(columnValue, key -> new HashSet<>()).add(pk)) {
+                changes++;
+            }
+        }
+
+        private boolean discard(final Map<String, Set<String>> map, final String columnValue, final String pk) {
+            final Set<String> pks = map.get(columnValue);
+            if (pks == null || !pks.remove(pk)) {
+                return false;
+            }
+            if (pks.isEmpty()) {
+                map.remove(columnValue);
+            }
+            changes++;
+            return true;
+        }
+
+        private void applyTo(final String columnValue, final Set<String> pks) {
+            final Set<String> removedPks = removed.get(columnValue);
+            if (removedPks != null) {
+                pks.removeAll(removedPks);
+            }
+            final Set<String> addedPks = added.get(columnValue);
+            if (addedPks != null) {
+                pks.addAll(addedPks);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends java.io.FilterOutputStream {
+
+        private long count = 0;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends java.io.FilterInputStream {
+
+        private long count = 0;
+
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = in.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int result = in.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long result = in.skip(n);
+            count += result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.indexing;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.sql.util.PathUtil;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the open {@link PackedColumnIndex} of every column indexed with {@link OnDiskPackedIndex}. Indexes are loaded
+ * lazily on first access. Their write buffers are synced to disk periodically and merged into new postings files in
+ * the background.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class PackedIndexStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackedIndexStore.class.getName());
+
+    /* number of buffered changes above which a column index is merged without waiting for the periodic merge */
+    private static final int MERGE_THRESHOLD = 50000;
+
+    /* ds.collection -> column -> index */
+    private final Map<String, Map<String, PackedColumnIndex>> map = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the packed index of the column, loading it from disk if not already loaded
+     *
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @param column name of the indexed column
+     * @return the {@link PackedColumnIndex} of the column
+     * @throws OperationException if the index files could not be loaded
+     */
+    public PackedColumnIndex get(final String ds, final String collection, final String column) throws OperationException {
+        final Map<String, PackedColumnIndex> columnMap = map.computeIfAbsent(ds + "." + collection, key -> new ConcurrentHashMap<>());
+        PackedColumnIndex index = columnMap.get(column);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (columnMap) {
+            index = columnMap.get(column);
+            if (index == null) {
+                try {
+                    index = new PackedColumnIndex(Paths.get(PathUtil.indexColumnFolder(ds, collection, column)));
+                } catch (IOException ex) {
+                    logger.error("Failed to load packed index for " + ds + "." + collection + "." + column, ex);
+                    throw new OperationException(ErrorCode.INDEXING_ERROR, "Could not load index for column: " + column
+                            + " in collection: " + collection);
+                }
+                columnMap.put(column, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Closes and removes the loaded index of a column. Must be invoked before the index folder of the column is moved
+     * or deleted.
+     *
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @param column name of the indexed column
+     */
+    public void evict(final String ds, final String collection, final String column) {
+        final Map<String, PackedColumnIndex> columnMap = map.get(ds + "." + collection);
+        if (columnMap == null) {
+            return;
+        }
+        final PackedColumnIndex index;
+        synchronized (columnMap) {
+            index = columnMap.remove(column);
+        }
+        close(ds + "." + collection + "." + column, index);
+    }
+
+    /**
+     * Closes and removes the loaded indexes of all columns of a collection
+     *
+     * @param ds name of datastore
+     * @param collection name of collection
+     */
+    public void evict(final String ds, final String collection) {
+        final Map<String, PackedColumnIndex> columnMap = map.remove(ds + "." + collection);
+        if (columnMap == null) {
+            return;
+        }
+        synchronized (columnMap) {
+            columnMap.forEach((column, index) -> close(ds + "." + collection + "." + column, index));
+            columnMap.clear();
+        }
+    }
+
+    /**
+     * Closes and removes the loaded indexes of all collections within a datastore
+     *
+     * @param ds name of datastore
+     */
+    public void evictDatastore(final String ds) {
+        final String prefix = ds + ".";
+        final List<String> keys = new ArrayList<>();
+        map.keySet().stream().filter(key -> key.startsWith(prefix)).forEach(keys::add);
+        keys.forEach(key -> evict(ds, key.substring(prefix.length())));
+    }
+
+    /**
+     * Makes the buffered changes of all loaded column indexes of the collection durable
+     *
+     * @param ds name of datastore
+     * @param collection name of collection
+     * @throws IOException if an I/O error occurs while syncing an index journal
+     */
+    public void sync(final String ds, final String collection) throws IOException {
+        final Map<String, PackedColumnIndex> columnMap = map.get(ds + "." + collection);
+        if (columnMap == null) {
+            return;
+        }
+        for (PackedColumnIndex index : columnMap.values()) {
+            index.sync();
+        }
+    }
+
+    @Scheduled(fixedRate = 1000)
+    private void sync() {
+        forEachIndex((key, index) -> {
+            try {
+                index.sync();
+                if (index.bufferedChanges() >= MERGE_THRESHOLD) {
+                    index.merge();
+                }
+            } catch (IOException ex) {
+                logger.error("Failed to sync packed index " + key, ex);
+            }
+        });
+    }
+
+    @Scheduled(fixedRate = 60000)
+    private void merge() {
+        forEachIndex((key, index) -> {
+            try {
+                index.merge();
+            } catch (IOException ex) {
+                logger.error("Failed to merge packed index " + key, ex);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        forEachIndex(this::close);
+        map.clear();
+    }
+
+    private void forEachIndex(final BiConsumer<String, PackedColumnIndex> consumer) {
+        map.forEach((collectionKey, columnMap) -> columnMap.forEach((column, index) -> consumer.accept(collectionKey + "." + column, index)));
+    }
+
+    private void close(final String key, final PackedColumnIndex index) {
+        if (index == null) {
+            return;
+        }
+        try {
+            index.close();
+        } catch (IOException ex) {
+            logger.error("Failed to close packed index " + key, ex);
+        }
+    }
+}
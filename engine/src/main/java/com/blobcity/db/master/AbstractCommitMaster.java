@@ -95,16 +95,20 @@ public abstract class AbstractCommitMaster implements MasterExecutable {
         pingMap.put(nodeId, System.currentTimeMillis());
     }
 
+    protected CommitCoordinator commitCoordinatorInstance() {
+        return this.applicationContext.getBean(CommitCoordinator.class);
+    }
+
     protected void messageAllConcernedNodes(Query query) {
         if(this.nodeIds == null) {
             this.clusterMessagingBeanInstance().sendMessage(query); //sends to all nodes in the cluster. May use UDP.
         } else {
-            this.clusterMessagingBeanInstance().sendMessage(query, nodeIds); //send to specified nodes. Uses TCP.
+            this.commitCoordinatorInstance().send(query, nodeIds); //batched with other requests to the same nodes. Uses TCP.
         }
     }
 
     @Override
-    public void notifyMessage(final String nodeId, final Query query) {
+    public synchronized void notifyMessage(final String nodeId, final Query query) {
         switch(query.getQueryType()) {
             case SOFT_COMMIT_SUCCESS:
                 registerSuccessStatus(nodeId, query);
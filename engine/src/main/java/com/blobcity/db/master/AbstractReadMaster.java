@@ -24,6 +24,7 @@ import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
 import com.blobcity.lib.query.Query;
 import com.blobcity.lib.query.QueryParams;
 import com.blobcity.pom.database.engine.factory.EngineBeanConfig;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.context.ApplicationContext;
 import java.util.*;
@@ -183,14 +184,18 @@ public abstract class AbstractReadMaster implements MasterExecutable {
         }
 
         responseMap.forEach((key, value) -> {
-//
-//
-//            JSONArray jsonArray = value.getJSONArray(QueryParams.PAYLOAD.getParam());
-//            List<Object> list = new ArrayList<>();
-//            for(int i = 0; i < jsonArray.length(); i++) {
-//                list.add(jsonArray.get(i));
-//            }
-            aggregator.add((Collection)value.get(QueryParams.PAYLOAD.getParam()));
+            Object payload = value.get(QueryParams.PAYLOAD.getParam());
+
+            /* Responses of the self node carry the collection as is, while those of other nodes are parsed as JSON */
+            if(payload instanceof JSONArray) {
+                JSONArray jsonArray = (JSONArray) payload;
+                List<Object> list = new ArrayList<>();
+                for(int i = 0; i < jsonArray.length(); i++) {
+                    list.add(jsonArray.get(i));
+                }
+                payload = list;
+            }
+            aggregator.add((Collection) payload);
         });
 
         complete(new Query().ackSuccess().payload(aggregator.getAggregated()));
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.master;
+
+import com.blobcity.db.cluster.messaging.ClusterMessaging;
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.lib.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the two-phase commit messages of commit masters to the nodes taking part in their requests. Messages of
+ * different requests headed to the same node are sent together as a single
+ * {@link com.blobcity.lib.query.QueryType#BATCH} message, which the node processes with one commit log force for the
+ * whole batch, and answers with one message.
+ *
+ * <p>
+ * Each node has a queue of messages and at most one sender draining it. A message finding the sender idle is sent
+ * right away, while messages queued during a send go out together in the next batch, so batches grow with load
+ * without delaying requests on an idle cluster. Senders never wait for the responses of a batch, so any number of
+ * batches may be outstanding per node.</p>
+ *
+ * <p>
+ * If a batch cannot be sent, every request in it is notified of a failure from that node, so that its master rolls
+ * back instead of waiting.</p>
+ *
+ * @author sanketsarang
+ */
+@Component
+public class CommitCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommitCoordinator.class.getName());
+    private static final int DEFAULT_MAX_BATCH_SIZE = 512;
+
+    private final Map<String, NodeQueue> nodeQueues = new ConcurrentHashMap<>();
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private volatile int maxBatchSize = -1;
+
+    @Autowired
+    @Lazy
+    private ClusterMessaging clusterMessaging;
+    @Autowired
+    @Lazy
+    private MasterStore masterStore;
+    @Autowired
+    @Lazy
+    private ConfigBean configBean;
+
+    /**
+     * Queues a message for sending to a node
+     *
+     * @param query the message
+     * @param nodeId the node to send the message to
+     */
+    public void send(final Query query, final String nodeId) {
+        final NodeQueue nodeQueue = nodeQueues.computeIfAbsent(nodeId, NodeQueue::new);
+        nodeQueue.queries.add(query);
+        if(nodeQueue.sending.compareAndSet(false, true)) {
+            executorService.submit(() -> drain(nodeQueue));
+        }
+    }
+
+    /**
+     * Queues a message for sending to each of the nodes
+     *
+     * @param query the message
+     * @param nodeIds the nodes to send the message to
+     */
+    public void send(final Query query, final Collection<String> nodeIds) {
+        nodeIds.forEach(nodeId -> send(query, nodeId));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executorService.shutdown();
+    }
+
+    private void drain(final NodeQueue nodeQueue) {
+        while(true) {
+            final List<Query> batch = new ArrayList<>();
+            final int limit = getMaxBatchSize();
+            Query query;
+            while(batch.size() < limit && (query = nodeQueue.queries.poll()) != null) {
+                batch.add(query);
+            }
+
+            if(batch.isEmpty()) {
+                nodeQueue.sending.set(false);
+
+                /* a message queued after the last poll, but before the release, finds the sender still busy */
+                if(nodeQueue.queries.isEmpty() || !nodeQueue.sending.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                sendBatch(nodeQueue.nodeId, batch);
+            } catch(RuntimeException ex) {
+                logger.error("Failed to send batch of " + batch.size() + " messages to node " + nodeQueue.nodeId, ex);
+                failBatch(nodeQueue.nodeId, batch);
+            }
+        }
+    }
+
+    private void sendBatch(final String nodeId, final List<Query> batch) {
+        final Query message = batch.size() == 1 ? batch.get(0) : new Query().batchQuery(batch);
+        if(!clusterMessaging.sendMessage(message, nodeId)) {
+            logger.warn("Could not send batch of " + batch.size() + " messages to node " + nodeId);
+            failBatch(nodeId, batch);
+        }
+    }
+
+    private void failBatch(final String nodeId, final List<Query> batch) {
+        for(Query query : batch) {
+            final MasterExecutable masterExecutable = masterStore.get(query.getRequestId());
+            final Query failure = failureResponse(query);
+            if(masterExecutable != null && failure != null) {
+                masterExecutable.notifyMessage(nodeId, failure);
+            }
+        }
+    }
+
+    private Query failureResponse(final Query query) {
+        final Query failure = new Query().requestId(query.getRequestId()).ackFailure()
+                .errorCode(ErrorCode.CLUSTER_CONNECTION_ERROR.getErrorCode());
+        switch(query.getQueryType()) {
+            case COMMIT:
+                return failure.commitSuccessQuery();
+            case ROLLBACK:
+                return failure.rollbackSuccessQuery();
+            default:
+                return failure.softCommitSuccessQuery();
+        }
+    }
+
+    private int getMaxBatchSize() {
+        if(maxBatchSize == -1) {
+            final Object value = configBean == null ? null : configBean.getProperty(ConfigProperties.COMMIT_BATCH_SIZE);
+            maxBatchSize = value instanceof Number ? Math.max(1, ((Number) value).intValue()) : DEFAULT_MAX_BATCH_SIZE;
+        }
+        return maxBatchSize;
+    }
+
+    private static class NodeQueue {
+
+        private final String nodeId;
+        private final Queue<Query> queries = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+
+        private NodeQueue(final String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package com.blobcity.db.master.executors.data;
 
 import com.blobcity.db.bsql.BSqlCollectionManager;
 import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.cluster.connection.ConnectionStore;
+import com.blobcity.db.cluster.partition.PartitionStore;
 import com.blobcity.db.code.CodeExecutor;
 import com.blobcity.db.code.datainterpreter.InterpreterExecutorBean;
 import com.blobcity.db.exceptions.ErrorCode;
@@ -84,7 +86,7 @@ public class InsertMaster extends ExecuteSelectedNodesCommitMaster implements Ma
             return new Query().ackFailure().errorCode(ErrorCode.COLLECTION_INVALID.getErrorCode());
         }
 
-        insertStatusHolder = new InsertStatusHolder(SchemaStore.getInstance().getReplicationFactor(ds, collection));
+        insertStatusHolder = new InsertStatusHolder();
 
         final JSONObject payloadJson = super.query.getJSONObject(QueryParams.PAYLOAD);
         RecordType recordType = RecordType.fromTypeCode(payloadJson.getString(QueryParams.TYPE.getParam()));
@@ -173,14 +175,21 @@ public class InsertMaster extends ExecuteSelectedNodesCommitMaster implements Ma
 //        }
 
 
-        insertStatusHolder.addRecords(ClusterNodesStore.getInstance().getSelfId(), toInsertList); //this needs to change for smart sharding
-        super.query.insertQuery(ds, collection, toInsertList, recordType);
-        this.messageAllConcernedNodes(super.query);
+        final PartitionStore partitionStore = super.getBean(PartitionStore.class);
+        if(partitionStore.isPartitioned(ds, collection)) {
+            messagePartitionOwners(partitionStore, ds, collection);
+        } else {
+            for(String nodeId : nodeIds) {
+                insertStatusHolder.addRecords(nodeId, toInsertList);
+            }
+            super.query.insertQuery(ds, collection, toInsertList, recordType);
+            this.messageAllConcernedNodes(super.query);
+        }
         this.awaitCompletion(); //TODO: Might want to have a timeout to prevent indefinite waiting
         return this.getResponse();
     }
 
-    public void notifyMessage(final String nodeId, final Query query) {
+    public synchronized void notifyMessage(final String nodeId, final Query query) {
         switch(query.getQueryType()) {
             case SOFT_COMMIT_SUCCESS:
                 registerSuccessStatus(nodeId, query);
@@ -239,6 +248,56 @@ public class InsertMaster extends ExecuteSelectedNodesCommitMaster implements Ma
         }
     }
 
+    /**
+     * Sends each record only to the nodes owning it on the partition ring, including the owners on a ring being
+     * rebalanced to. Records are sent as JSON so that their _id, on which the owners were chosen, reaches the owners.
+     *
+     * Owners that are not connected are skipped as long as some owner of the record is, so that the insert does not
+     * wait on a replica that is down. The owners that receive the record are told which owners missed it, and ship it
+     * to them from their commit logs once they can be reached again.
+     */
+    private void messagePartitionOwners(final PartitionStore partitionStore, final String ds, final String collection) throws OperationException {
+        final ConnectionStore connectionStore = super.getBean(ConnectionStore.class);
+        final String selfId = ClusterNodesStore.getInstance().getSelfId();
+        final Map<String, List<Record>> recordsByNode = new LinkedHashMap<>();
+        final Map<String, Set<String>> missedByNode = new HashMap<>();
+        for(Record record : toInsertList) {
+            final List<String> owners = partitionStore.getWriteOwners(ds, collection, record.getId());
+            final List<String> reachable = new ArrayList<>();
+            final List<String> missed = new ArrayList<>();
+            for(String owner : owners) {
+                if(owner.equals(selfId) || connectionStore.getConnection(owner) != null) {
+                    reachable.add(owner);
+                } else {
+                    missed.add(owner);
+                }
+            }
+
+            /* with no owner reachable the insert is attempted on all owners, and fails as it would otherwise */
+            if(reachable.isEmpty()) {
+                reachable.addAll(owners);
+                missed.clear();
+            }
+
+            for(String nodeId : reachable) {
+                recordsByNode.computeIfAbsent(nodeId, key -> new ArrayList<>()).add(record);
+                if(!missed.isEmpty()) {
+                    missedByNode.computeIfAbsent(nodeId, key -> new TreeSet<>()).addAll(missed);
+                }
+            }
+        }
+
+        super.nodeIds = new HashSet<>(recordsByNode.keySet());
+        recordsByNode.forEach((nodeId, records) -> {
+            insertStatusHolder.addRecords(nodeId, records);
+            Query nodeQuery = new Query(new JSONObject(super.query.toJson().toString())).insertQuery(ds, collection, records, RecordType.JSON);
+            if(missedByNode.containsKey(nodeId)) {
+                nodeQuery.getJSONObject(QueryParams.PAYLOAD).put(QueryParams.MISSED_NODES.getParam(), new JSONArray(missedByNode.get(nodeId)));
+            }
+            this.commitCoordinatorInstance().send(nodeQuery, nodeId);
+        });
+    }
+
     private Query produceFinalResponse() {
         Query responseQuery = new Query().ackSuccess();
         responseQuery.payload(insertStatusHolder.produceResponsePayload(toInsertList));
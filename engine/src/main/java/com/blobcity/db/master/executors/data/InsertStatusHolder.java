@@ -20,26 +20,25 @@ import com.blobcity.lib.data.Record;
 import com.blobcity.lib.query.QueryParams;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Tracks the nodes each record of an insert was sent to, and the per record status reported back by each node. A
+ * record is consistent when it was inserted on all the nodes it was sent to, or on none of them.
+ *
  * @author sanketsarang
  */
 public class InsertStatusHolder {
-    private final Integer replicas;
     private final Map<String, List<Record>> recordMap = new ConcurrentHashMap<>();
     private final Map<String, List<Integer>> statusMap = new ConcurrentHashMap<>();
+    private final Map<Record, Integer> expectedMap = new ConcurrentHashMap<>();
     private final Map<Record, Integer> successMap = new ConcurrentHashMap<>();
 
-    public InsertStatusHolder(int replicationFactor) {
-        this.replicas = replicationFactor + 1;
-    }
-
     public void addRecords(final String nodeId, final List<Record> recordList) {
         recordMap.put(nodeId, recordList);
+        recordList.forEach(record -> expectedMap.merge(record, 1, Integer::sum));
     }
 
     public void addStatus(final String nodeId, final List<Integer> statusList) {
@@ -47,25 +46,19 @@ public class InsertStatusHolder {
     }
 
     public boolean allInsertsConsistent() {
+        successMap.clear();
         recordMap.forEach((nodeId, records) -> {
             List<Integer> statusList = statusMap.get(nodeId);
 
             for(int i = 0; i < records.size(); i++) {
-                Record record = records.get(i);
-                int status = statusList.get(i);
-
-                if(status == 1) {
-                    if(!successMap.containsKey(record)) {
-                        successMap.put(record, 0);
-                    }
-
-                    successMap.put(record, successMap.get(record) + 1);
+                if(statusList.get(i) == 1) {
+                    successMap.merge(records.get(i), 1, Integer::sum);
                 }
             }
         });
 
-        return !successMap.values().stream()
-                .filter(value -> value != 0 && value != replicas).findFirst()
+        return !successMap.entrySet().stream()
+                .filter(entry -> !entry.getValue().equals(expectedMap.get(entry.getKey()))).findFirst()
                 .isPresent();
     }
 
@@ -77,7 +70,7 @@ public class InsertStatusHolder {
         int failedCount = 0;
 
         for(Record record : recordOrderList) {
-            if(successMap.get(record) == replicas) {
+            if(successMap.containsKey(record) && successMap.get(record).equals(expectedMap.get(record))) {
                 statusArray.put(1);
                 idArray.put(record.getId());
                 successCount ++;
@@ -16,105 +16,209 @@
 
 package com.blobcity.db.master.executors.data;
 
-import com.blobcity.db.bsql.BSqlCollectionManager;
-import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.constants.ClusterConstants;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.master.MasterExecutable;
-import com.blobcity.db.master.executors.generic.ExecuteSelectedNodesCommitMaster;
-import com.blobcity.db.memory.records.*;
-import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.master.aggregators.ArrayAggregator;
+import com.blobcity.db.master.executors.generic.ExecuteSelectedNodesReadMaster;
+import com.blobcity.db.sql.execution.Operator;
+import com.blobcity.db.sql.execution.QueryContext;
 import com.blobcity.lib.query.Query;
 import com.blobcity.lib.query.QueryParams;
 import com.blobcity.lib.query.QueryType;
-import com.blobcity.lib.query.RecordType;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Master that manages the data insert requests
+ * Master that scatters a distributed SQL SELECT to the data nodes and gathers the rows each node produces for it. Each
+ * node streams its rows in batches through {@link #addRows(String, List)} while its fragment runs, and the rows of
+ * each node are produced as a run of their own by {@link #getRuns()}, so that runs already sorted by the nodes can be
+ * merged in order by the caller as they arrive. At most {@link ClusterConstants#SELECT_BUFFERED_BATCHES} batches are
+ * held per node; a node sending further batches waits until the caller has consumed the earlier ones.
  *
  * @author sanketsarang
  */
-public class SelectMaster extends ExecuteSelectedNodesCommitMaster implements MasterExecutable {
+public class SelectMaster extends ExecuteSelectedNodesReadMaster implements MasterExecutable {
 
-    public SelectMaster(Query query) throws OperationException {
-        super(query, ClusterNodesStore.getInstance().getLeastLoadedNodes(SchemaStore.getInstance().getReplicationFactor(query.getDs(), query.getCollection())));
+    private static final long POLL_INTERVAL = 100; //ms between checks for the query failing or being killed
 
-        if(query.getQueryType() != QueryType.SELECT && query.getQueryType() != QueryType.SEARCH) {
-            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Incorrect query passed to insert master");
+    private final Map<String, NodeRun> runs = new LinkedHashMap<>();
+
+    public SelectMaster(final Query query, final Set<String> nodeIds) throws OperationException {
+        super(query, nodeIds, new ArrayAggregator<JSONObject>());
+
+        if(query.getQueryType() != QueryType.SELECT) {
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Incorrect query passed to select master");
+        }
+
+        for(String nodeId : nodeIds) {
+            runs.put(nodeId, new NodeRun());
+        }
+    }
+
+    /**
+     * @return the rows of the query, one run per node, each producing the rows of its node as they are received. A
+     * run fails once any node fails the query.
+     */
+    public List<Operator> getRuns() {
+        return new ArrayList<>(runs.values());
+    }
+
+    /**
+     * Adds a batch of the rows produced by a node, waiting while the batches held for the node are yet to be consumed
+     *
+     * @param nodeId the node id of the node that produced the rows
+     * @param rows the rows, in the order the node produced them
+     * @return <code>true</code> if the rows were added; <code>false</code> if the master has completed or was rolled
+     * back, in which case the node must stop sending rows
+     */
+    public boolean addRows(final String nodeId, final List<JSONObject> rows) {
+        final NodeRun run = runs.get(nodeId);
+        if(run == null) {
+            return false;
+        }
+
+        try {
+            while(!isCompleted()) {
+                if(run.batches.offer(rows, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
+        return false;
     }
 
     @Override
     public Query call() throws Exception {
-        List<com.blobcity.lib.data.Record> toInsertList = new ArrayList<>();
+        for(String nodeId : nodeIds) {
+            if(!this.clusterMessagingBeanInstance().sendMessage(query, nodeId)) {
+                abort(new Query().ackFailure().errorCode(ErrorCode.CLUSTER_CONNECTION_ERROR.getErrorCode())
+                        .message("Could not send query to node " + nodeId));
+                break;
+            }
+        }
 
-        final String ds = super.query.getString(QueryParams.DATASTORE);
-        final String collection = super.query.getString(QueryParams.COLLECTION);
+        this.awaitCompletion();
+        return this.getResponse();
+    }
 
-        BSqlCollectionManager collectionManager = super.getBean(BSqlCollectionManager.class);
-        if(!collectionManager.exists(ds, collection)) {
-            return new Query().ackFailure().errorCode(ErrorCode.COLLECTION_INVALID.getErrorCode());
+    @Override
+    protected void registerResponse(final String nodeId, final Query nodeResponse) {
+        super.registerResponse(nodeId, nodeResponse);
+        if("1".equals(nodeResponse.getAck())) {
+            final NodeRun run = runs.get(nodeId);
+            if(run != null) {
+                run.finished = true; //all batches of the node were added before it responded
+            }
+            return;
         }
 
-        final JSONObject payloadJson = super.query.getJSONObject(QueryParams.PAYLOAD);
-        final RecordType recordType = RecordType.fromTypeCode(payloadJson.getString(QueryParams.TYPE.getParam()));
-        final JSONArray recordsArray = payloadJson.getJSONArray(QueryParams.DATA.getParam());
-        final List<Object> records = new ArrayList<>();
-        for(int i = 0; i < recordsArray.length(); i++) {
-            records.add(recordsArray.get(i));
-        }
+        final Query failure = new Query().ackFailure().errorCode(nodeResponse.contains(QueryParams.ERROR_CODE)
+                ? nodeResponse.getErrorCode() : ErrorCode.SELECT_ERROR.getErrorCode());
+        failure.message("Node " + nodeId + ": " + (nodeResponse.contains(QueryParams.MESSAGE)
+                ? nodeResponse.getMessage() : ErrorCode.SELECT_ERROR.getErrorMessage()));
+        abort(failure);
+    }
 
-        List<String> csvColumnNames = null; //only for CSV type
-        if(recordType == RecordType.CSV && payloadJson.has(QueryParams.COLS.getParam())) {
-            csvColumnNames = (List<String>) payloadJson.get(QueryParams.COLS.getParam());
+    @Override
+    protected synchronized void produceResponse() {
+        if(!completed) {
+            complete(new Query().ackSuccess());
         }
+    }
 
-        for(Object r : records) {
-            RecordType rt;
-            if(recordType == RecordType.AUTO) {
-                rt = RecordInterpreter.getBestMatchedType(r);
-            } else {
-                rt = recordType;
-            }
+    /**
+     * Stops the nodes still running the query. Rows not yet consumed from the runs are dropped by the caller.
+     */
+    @Override
+    public void rollback() {
+        abort(new Query().ackFailure().errorCode(ErrorCode.QUERY_CANCELLED.getErrorCode())
+                .message(ErrorCode.QUERY_CANCELLED.getErrorMessage()));
+    }
 
-            switch (rt) {
-                case JSON:
-                    toInsertList.add(new JsonRecord(r.toString()));
-                    break;
-                case XML:
-                    toInsertList.add(new XmlRecord(r.toString()));
-                    break;
-                case SQL:
-                    toInsertList.add(new SqlRecord(r.toString()));
-                    break;
-                case TEXT:
-                    toInsertList.add(new TextRecord(r.toString()));
-                    break;
-                case CSV:
-                    if(csvColumnNames == null) {
-                        try {
-                            toInsertList.add(new CsvRecord(r.toString(), SchemaStore.getInstance().getSchema(ds, collection)));
-                        } catch (OperationException e) {
-                            toInsertList.add(null);
-                        }
-                    } else {
-                        toInsertList.add(new CsvRecord(csvColumnNames, Arrays.asList(r.toString().split(","))));
-                    }
-                    break;
+    /**
+     * Fails the master, and tells the nodes to cancel their part of the query if they are still running it
+     */
+    private void abort(final Query failure) {
+        synchronized(this) {
+            if(completed) {
+                return;
             }
+            complete(failure);
         }
+        messageAllConcernedNodes(new Query().requestId(query.getRequestId()).rollbackQuery());
+    }
 
-        //TODO: Create missing columns here
+    private synchronized boolean isCompleted() {
+        return completed;
+    }
 
-        super.query.insertQuery(ds, collection, toInsertList, recordType);
-        this.messageAllConcernedNodes(super.query);
-        this.awaitCompletion(); //TODO: Might want to have a timeout to prevent indefinite waiting
-        return this.getResponse();
+    private synchronized Query getFailure() {
+        return completed && !"1".equals(response.getAck()) ? response : null;
+    }
+
+    /**
+     * The rows of a single node, in the order the node produced them
+     */
+    private class NodeRun implements Operator {
+
+        private final BlockingQueue<List<JSONObject>> batches = new ArrayBlockingQueue<>(ClusterConstants.SELECT_BUFFERED_BATCHES);
+        private volatile boolean finished = false;
+        private Iterator<JSONObject> batch;
+
+        @Override
+        public void open() {
+            //rows are received as the node produces them
+        }
+
+        @Override
+        public JSONObject next() throws OperationException {
+            while(true) {
+                if(batch != null && batch.hasNext()) {
+                    return batch.next();
+                }
+
+                final boolean last = finished;
+                final List<JSONObject> rows;
+                try {
+                    rows = batches.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new OperationException(ErrorCode.QUERY_CANCELLED, "Interrupted while waiting for rows of query " + query.getRequestId());
+                }
+                if(rows != null) {
+                    batch = rows.iterator();
+                    continue;
+                }
+                if(last) {
+                    return null;
+                }
+
+                final Query failure = getFailure();
+                if(failure != null) {
+                    final ErrorCode errorCode = failure.contains(QueryParams.ERROR_CODE) ? ErrorCode.fromString(failure.getErrorCode()) : null;
+                    throw new OperationException(errorCode != null ? errorCode : ErrorCode.SELECT_ERROR,
+                            failure.contains(QueryParams.MESSAGE) ? failure.getMessage() : null);
+                }
+                QueryContext.checkCancelled();
+            }
+        }
+
+        @Override
+        public void close() {
+            batch = null;
+        }
     }
 }
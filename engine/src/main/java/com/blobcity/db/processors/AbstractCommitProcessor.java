@@ -17,6 +17,8 @@
 package com.blobcity.db.processors;
 
 import com.blobcity.db.cluster.messaging.ClusterMessaging;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.transaction.CollectionCommitLogWriter;
 import com.blobcity.db.transientstate.TransientStore;
 import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
 import com.blobcity.lib.query.Query;
@@ -32,6 +34,7 @@ public abstract class AbstractCommitProcessor {
     protected final Query query;
     protected final TransientStore transientStore;
     protected boolean rollbackNeedsAction = false; //should be set to true if soft commit was successful
+    protected ProcessorBatch batch = null; //batch of the message being processed; null if received on its own
 
     public AbstractCommitProcessor(final Query query) {
         this.query = query;
@@ -51,6 +54,47 @@ public abstract class AbstractCommitProcessor {
         return getBean(ClusterMessaging.class);
     }
 
+    /**
+     * Sets the batch the next message for this processor arrived in
+     *
+     * @param batch the batch; <code>null</code> if the message arrived on its own
+     */
+    public void setBatch(final ProcessorBatch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * Writes a query to the commit log of a collection. Within a batch the entry becomes durable when the batch
+     * completes, together with the entries of all other queries of the batch.
+     */
+    protected void writeCommitLog(final String ds, final String collection, final Query logQuery) throws OperationException {
+        if(batch == null) {
+            getBean(CollectionCommitLogWriter.class).write(ds, collection, logQuery);
+        } else {
+            batch.log(ds, collection, logQuery);
+        }
+    }
+
+    /**
+     * @return the LSN the query of this processor was durably logged at by its batch before processing; <code>-1</code>
+     * if it was not logged ahead
+     */
+    protected long getLoggedAheadLsn() {
+        return batch == null ? -1 : batch.getLoggedAheadLsn(query.getRequestId());
+    }
+
+    /**
+     * Sends a response to the master node. Within a batch the response is held until all entries logged by the batch
+     * are durable.
+     */
+    protected void respond(final Query response) {
+        if(batch == null) {
+            getClusterMessagingBean().sendMessage(response, query.getMasterNodeId());
+        } else {
+            batch.respond(response, query.getMasterNodeId());
+        }
+    }
+
     protected void setRollbackNeedsAction() {
         rollbackNeedsAction = true;
     }
@@ -16,17 +16,23 @@
 
 package com.blobcity.db.processors;
 
+import com.blobcity.db.cluster.messaging.ClusterMessaging;
 import com.blobcity.db.master.MasterExecutable;
 import com.blobcity.db.master.MasterStore;
 import com.blobcity.db.processors.data.InsertProcessor;
+import com.blobcity.db.processors.data.SelectProcessor;
 import com.blobcity.db.processors.schema.*;
+import com.blobcity.db.transaction.CollectionCommitLogWriter;
 import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
 import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryType;
 import com.blobcity.pom.database.engine.factory.EngineBeanConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 
+import java.util.List;
+
 /**
  * Executes the request using the appropriate execution functions. The class does minimilistic format and error checks
  * as it is assumed that the master has done all checks required to be carried out the query level and then sent
@@ -40,11 +46,24 @@ public class ProcessHandler implements Runnable {
 
     private final String nodeId;
     private final Query query;
+    private final ProcessorBatch batch;
     private final ApplicationContext applicationContext;
 
     public ProcessHandler(final String nodeId, final Query query) {
+        this(nodeId, query, null);
+    }
+
+    /**
+     * Creates a handler for a query received as part of a {@link QueryType#BATCH} message
+     *
+     * @param nodeId the node the batch was received from
+     * @param query the query
+     * @param batch the batch of the query; <code>null</code> if the query was received on its own
+     */
+    public ProcessHandler(final String nodeId, final Query query, final ProcessorBatch batch) {
         this.nodeId = nodeId;
         this.query = query;
+        this.batch = batch;
         this.applicationContext = BeanConfigFactory.getConfigBean(EngineBeanConfig.class.getName());
     }
 
@@ -61,11 +80,21 @@ public class ProcessHandler implements Runnable {
             /* Handle commands coming from master */
             case COMMIT:
                 processorStore = getBean(ProcessorStore.class);
-                processorStore.get(query.getRequestId()).commit();
+                bind(processorStore.get(query.getRequestId())).commit();
                 return;
             case ROLLBACK:
                 processorStore = getBean(ProcessorStore.class);
-                processorStore.get(query.getRequestId()).rollback();
+                processor = processorStore.get(query.getRequestId());
+                if(processor == null) {
+                    logger.debug("Ignoring rollback from node {} for completed request {}", nodeId, query.getRequestId());
+                    return;
+                }
+                bind(processor).rollback();
+                return;
+
+            /* Handle queries of several requests received as one message */
+            case BATCH:
+                processBatch();
                 return;
 
             /* Handle commands coming to master from processing nodes */
@@ -75,6 +104,10 @@ public class ProcessHandler implements Runnable {
             case QUERY_RESPONSE:
                 masterStore = getBean(MasterStore.class);
                 MasterExecutable me = masterStore.get(query.getRequestId());
+                if(me == null) {
+                    logger.debug("Ignoring response from node {} for completed request {}", nodeId, query.getRequestId());
+                    return;
+                }
                 me.notifyMessage(nodeId, query);
                 return;
 
@@ -124,7 +157,14 @@ public class ProcessHandler implements Runnable {
 
             case INSERT:
                 processorStore = getBean(ProcessorStore.class);
-                processor = new InsertProcessor(query);
+                processor = bind(new InsertProcessor(query));
+                processorStore.register(query.getRequestId(), processor);
+                processor.softCommit();
+                return;
+
+            case SELECT:
+                processorStore = getBean(ProcessorStore.class);
+                processor = new SelectProcessor(query);
                 processorStore.register(query.getRequestId(), processor);
                 processor.softCommit();
                 return;
@@ -132,6 +172,31 @@ public class ProcessHandler implements Runnable {
         }
     }
 
+    /**
+     * Runs the queries of a batch in order on the calling thread, and completes the batch once all have run, which
+     * forces their commit log entries and sends their responses
+     */
+    private void processBatch() {
+        final List<Query> queries = query.getBatch();
+        final ProcessorBatch processorBatch = new ProcessorBatch(getBean(CollectionCommitLogWriter.class), getBean(ClusterMessaging.class));
+        processorBatch.logAhead(queries);
+        for(Query batchQuery : queries) {
+            try {
+                new ProcessHandler(nodeId, batchQuery, processorBatch).run();
+            } catch (RuntimeException ex) {
+                logger.error("Failed to process query of batch from node " + nodeId + ": " + batchQuery.toJsonString(), ex);
+            }
+        }
+        processorBatch.complete();
+    }
+
+    private Processor bind(final Processor processor) {
+        if(processor instanceof AbstractCommitProcessor) {
+            ((AbstractCommitProcessor) processor).setBatch(batch);
+        }
+        return processor;
+    }
+
     private <T> T getBean(Class<T> clazz) {
         return this.applicationContext.getBean(clazz);
     }
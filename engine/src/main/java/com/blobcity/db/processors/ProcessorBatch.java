@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.processors;
+
+import com.blobcity.db.cluster.messaging.ClusterMessaging;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.transaction.CollectionCommitLogWriter;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryType;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Processing state shared by the queries of a {@link QueryType#BATCH} message. Commit log entries written by the
+ * processors of the batch are only appended, and are made durable together by a single group-committed force per
+ * collection once all queries of the batch have run. Responses of the processors are held until then, and are sent
+ * to each master node as one message.
+ *
+ * <p>
+ * Inserts are logged ahead of running any query of the batch, and forced together, so that no record is written
+ * before the request inserting it is durable in the commit log.</p>
+ *
+ * @author sanketsarang
+ */
+public class ProcessorBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessorBatch.class.getName());
+
+    private final CollectionCommitLogWriter commitLogWriter;
+    private final ClusterMessaging clusterMessaging;
+    private final Map<List<String>, Long> pendingLsns = new HashMap<>(); //[ds, collection] -> highest LSN not yet forced
+    private final Map<String, Long> loggedAhead = new HashMap<>(); //request id -> LSN of the logged query
+    private final Map<String, List<Query>> responses = new LinkedHashMap<>(); //master node id -> responses
+
+    public ProcessorBatch(final CollectionCommitLogWriter commitLogWriter, final ClusterMessaging clusterMessaging) {
+        this.commitLogWriter = commitLogWriter;
+        this.clusterMessaging = clusterMessaging;
+    }
+
+    /**
+     * Logs the queries of the batch that change data ahead of running any of them, and forces them to disk together.
+     * Queries that could not be logged are left for their processor to log.
+     *
+     * @param queries the queries of the batch
+     */
+    public synchronized void logAhead(final List<Query> queries) {
+        for(Query query : queries) {
+            if(query.getQueryType() != QueryType.INSERT) {
+                continue;
+            }
+
+            try {
+                loggedAhead.put(query.getRequestId(), log(query.getDs(), query.getCollection(), query));
+            } catch (OperationException ex) {
+                logger.debug(query.getRequestId() + " : " + ex.getErrorCode().getErrorCode() + " - " + ex.getMessage());
+            }
+        }
+
+        try {
+            force();
+        } catch (OperationException ex) {
+            logger.debug("Could not force requests of batch to commit logs: " + ex.getMessage());
+            loggedAhead.clear();
+        }
+    }
+
+    /**
+     * @param requestId the request id of a query of the batch
+     * @return the LSN the query was durably logged at by {@link #logAhead(List)}; <code>-1</code> if it was not
+     * logged ahead
+     */
+    public synchronized long getLoggedAheadLsn(final String requestId) {
+        return loggedAhead.getOrDefault(requestId, -1L);
+    }
+
+    /**
+     * Appends a query to the commit log of a collection, to be made durable when the batch completes
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @param query the query to log
+     * @return the LSN of the entry
+     * @throws OperationException if the commit log could not be written
+     */
+    public synchronized long log(final String ds, final String collection, final Query query) throws OperationException {
+        final long lsn = commitLogWriter.append(ds, collection, query);
+        pendingLsns.merge(Arrays.asList(ds, collection), lsn, Math::max);
+        return lsn;
+    }
+
+    /**
+     * Holds a response until the batch completes
+     *
+     * @param response the response
+     * @param nodeId the node to send the response to
+     */
+    public synchronized void respond(final Query response, final String nodeId) {
+        responses.computeIfAbsent(nodeId, key -> new ArrayList<>()).add(response);
+    }
+
+    /**
+     * Forces the entries logged by the batch to disk, and then sends the held responses. Success responses are
+     * turned into failures if the entries could not be forced.
+     */
+    public synchronized void complete() {
+        boolean durable = true;
+        try {
+            force();
+        } catch (OperationException ex) {
+            logger.error("Could not force batch to commit logs: " + ex.getMessage());
+            durable = false;
+        }
+
+        for(Map.Entry<String, List<Query>> entry : responses.entrySet()) {
+            final List<Query> nodeResponses = entry.getValue();
+            if(!durable) {
+                nodeResponses.replaceAll(response -> new Query(new JSONObject(response.toJsonString())).ackFailure());
+            }
+
+            final Query message = nodeResponses.size() == 1 ? nodeResponses.get(0) : new Query().batchQuery(nodeResponses);
+            if(!clusterMessaging.sendMessage(message, entry.getKey())) {
+                logger.warn("Could not send " + nodeResponses.size() + " responses to node " + entry.getKey());
+            }
+        }
+        responses.clear();
+    }
+
+    private void force() throws OperationException {
+        try {
+            for(Map.Entry<List<String>, Long> entry : pendingLsns.entrySet()) {
+                commitLogWriter.awaitDurable(entry.getKey().get(0), entry.getKey().get(1), entry.getValue());
+            }
+        } finally {
+            pendingLsns.clear();
+        }
+    }
+}
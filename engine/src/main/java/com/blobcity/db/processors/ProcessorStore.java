@@ -18,8 +18,8 @@ package com.blobcity.db.processors;
 
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author sanketsarang
@@ -27,7 +27,7 @@ import java.util.Map;
 @Component
 public class ProcessorStore {
 
-    private final Map<String, Processor> map = new HashMap<>();
+    private final Map<String, Processor> map = new ConcurrentHashMap<>();
 
     public void register(final String requestId, final Processor processor) {
         map.put(requestId, processor);
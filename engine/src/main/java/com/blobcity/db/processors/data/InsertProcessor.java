@@ -18,6 +18,7 @@ package com.blobcity.db.processors.data;
 
 import com.blobcity.db.bsql.BSqlCollectionManager;
 import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.cluster.replication.ReplicaCatchUp;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.memory.records.*;
 import com.blobcity.db.processors.AbstractCommitProcessor;
@@ -64,17 +65,7 @@ public class InsertProcessor extends AbstractCommitProcessor implements Processo
             return;
         }
 
-        //up to this point, the operation performed will not reflect in commit logs for the table
-
-        CollectionCommitLogWriter commitLogWriter = super.getBean(CollectionCommitLogWriter.class);
-        try {
-            commitLogWriter.write(this.ds, this.collection, query);
-        } catch (OperationException e) {
-            logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
-            sendSoftCommitFailure();
-            return;
-        }
-
+        /* Records are created before logging, so that ids assigned to records are part of the commit log entry */
         final JSONObject payloadJson = super.query.getJSONObject(QueryParams.PAYLOAD);
         final JSONArray recordsArray = payloadJson.getJSONArray(QueryParams.DATA.getParam());
         final List<JsonRecord> records = new ArrayList<>();
@@ -83,24 +74,61 @@ public class InsertProcessor extends AbstractCommitProcessor implements Processo
             records.add(new JsonRecord(recordsArray.getJSONObject(i)));
         }
 
+        //up to this point, the operation performed will not reflect in commit logs for the table
+
+        /* The request must be durable before any record is written. A batch may already have logged it ahead */
+        long lsn = super.getLoggedAheadLsn();
+        if(lsn < 0) {
+            try {
+                lsn = super.getBean(CollectionCommitLogWriter.class).write(this.ds, this.collection, query);
+            } catch (OperationException e) {
+                logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
+                sendSoftCommitFailure();
+                return;
+            }
+        }
+
+        /* Owners of the records that could not be reached are caught up from this commit log entry onwards */
+        if(payloadJson.has(QueryParams.MISSED_NODES.getParam())) {
+            final JSONArray missedArray = payloadJson.getJSONArray(QueryParams.MISSED_NODES.getParam());
+            final List<String> missedNodes = new ArrayList<>();
+            for(int i = 0; i < missedArray.length(); i++) {
+                missedNodes.add(missedArray.getString(i));
+            }
+            try {
+                super.getBean(ReplicaCatchUp.class).markMissed(this.ds, this.collection, missedNodes, lsn);
+            } catch (OperationException e) {
+                logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
+                sendSoftCommitFailure();
+                return;
+            }
+        }
+
         BSqlDataManager dataManager = super.getBean(BSqlDataManager.class);
 
-        records.parallelStream().forEach(record -> {
+        /* Records for which a permit is acquired are inserted as a single batch */
+        final List<JSONObject> permitted = new ArrayList<>();
+        final List<Integer> permittedPositions = new ArrayList<>();
+        for(JsonRecord record : records) {
             pkList.add(record.getId());
+            if(super.transientStore.acquireRecordPermit(ds, collection, record.getId())) {
+                permittedPositions.add(statusList.size());
+                permitted.add(record.asJson());
+            }
+            statusList.add(0);
+        }
 
-            try {
-                if(super.transientStore.acquireRecordPermit(ds, collection, record.getId())) {
-                    dataManager.insert(this.ds, this.collection, record);
-                    statusList.add(1);
+        try {
+            final List<JSONObject> inserted = dataManager.insertBatch(this.ds, this.collection, permitted);
+            for(int i = 0; i < inserted.size(); i++) {
+                if(inserted.get(i) != null) {
+                    statusList.set(permittedPositions.get(i), 1);
                     super.setRollbackNeedsAction();
-                } else {
-                    statusList.add(0);
                 }
-            } catch (OperationException e) {
-                logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
-                statusList.add(0);
             }
-        });
+        } catch (OperationException e) {
+            logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
+        }
 
         /* Original non-parallel implementation */
 //        for(com.blobcity.lib.data.Record record : records) {
@@ -123,8 +151,8 @@ public class InsertProcessor extends AbstractCommitProcessor implements Processo
         responseQuery = new Query().requestId(query.getRequestId()).softCommitSuccessQuery().ackSuccess();
         responseQuery.put(QueryParams.STATUS, statusList);
         try {
-            commitLogWriter.write(ds, collection, responseQuery);
-            super.getClusterMessagingBean().sendMessage(responseQuery, query.getMasterNodeId());
+            super.writeCommitLog(ds, collection, responseQuery);
+            super.respond(responseQuery);
         } catch (OperationException e) {
             logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
             sendSoftCommitFailure();
@@ -146,8 +174,8 @@ public class InsertProcessor extends AbstractCommitProcessor implements Processo
 
         try {
             Query responseQuery = new Query().requestId(query.getRequestId()).commitSuccessQuery().ack("1");
-            super.getBean(CollectionCommitLogWriter.class).write(this.ds, this.collection, responseQuery);
-            super.getClusterMessagingBean().sendMessage(responseQuery, query.getMasterNodeId());
+            super.writeCommitLog(this.ds, this.collection, responseQuery);
+            super.respond(responseQuery);
         } catch (OperationException e) {
             logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
             sendCommitFailure();
@@ -176,25 +204,21 @@ public class InsertProcessor extends AbstractCommitProcessor implements Processo
         }
 
         try {
-            super.getBean(CollectionCommitLogWriter.class).write(this.ds, this.collection, responseQuery);
+            super.writeCommitLog(this.ds, this.collection, responseQuery);
         } catch (OperationException e) {
             //do nothing, as the rollback should auto execute at sometime in the future
             logger.debug(query.getRequestId() + " : " + e.getErrorCode().getErrorCode() + " - " + e.getErrorCode().getErrorMessage());
         }
 
-        super.getClusterMessagingBean().sendMessage(responseQuery, query.getMasterNodeId());
+        super.respond(responseQuery);
     }
 
     private void sendSoftCommitFailure() {
-        super.getClusterMessagingBean().sendMessage(
-                new Query().requestId(query.getRequestId()).softCommitSuccessQuery().ackFailure(),
-                query.getMasterNodeId());
+        super.respond(new Query().requestId(query.getRequestId()).softCommitSuccessQuery().ackFailure());
     }
 
     private void sendCommitFailure() {
-        super.getClusterMessagingBean().sendMessage(
-                new Query().requestId(query.getRequestId()).commitSuccessQuery().ackFailure(),
-                query.getMasterNodeId());
+        super.respond(new Query().requestId(query.getRequestId()).commitSuccessQuery().ackFailure());
     }
 
 }
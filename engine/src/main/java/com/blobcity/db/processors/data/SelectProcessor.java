@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.processors.data;
+
+import com.blobcity.db.cache.StatementCache;
+import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.cluster.messaging.ClusterMessaging;
+import com.blobcity.db.cluster.partition.PartitionStore;
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.master.MasterExecutable;
+import com.blobcity.db.master.MasterStore;
+import com.blobcity.db.master.executors.data.SelectMaster;
+import com.blobcity.db.processors.AbstractReadProcessor;
+import com.blobcity.db.processors.Processor;
+import com.blobcity.db.processors.ProcessorStore;
+import com.blobcity.db.sql.execution.Operator;
+import com.blobcity.db.sql.execution.QueryContext;
+import com.blobcity.db.sql.execution.QueryMemory;
+import com.blobcity.db.sql.execution.QueryMemoryManager;
+import com.blobcity.db.sql.execution.QueryScheduler;
+import com.blobcity.db.sql.execution.SelectPlanner;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.foundationdb.sql.StandardException;
+import com.foundationdb.sql.parser.CursorNode;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the local part of a distributed SQL SELECT, as planned by {@link SelectPlanner#planFragment}, and streams the
+ * rows produced to the master in batches of at most {@link ClusterConstants#SELECT_RESULT_BATCH} rows and about
+ * {@link ClusterConstants#SELECT_RESULT_BATCH_BYTES} bytes. Rows waiting to be sent are held against the memory budget
+ * of the query, and a batch is sent early once the budget is used up. Each batch is acknowledged by the master before
+ * the next is produced, and the final response is sent once all batches are acknowledged.
+ *
+ * <p>
+ * The node answers only for the records it is the first live owner of on the partition ring, and refuses the query
+ * if the master planned it on another version of the ring. A rollback from the master, or a batch refused by it,
+ * stops the query at the next row it reads.
+ *
+ * @author sanketsarang
+ */
+public class SelectProcessor extends AbstractReadProcessor implements Processor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SelectProcessor.class.getName());
+
+    private volatile QueryContext context;
+    private volatile boolean rolledBack = false;
+
+    public SelectProcessor(final Query query) {
+        super(query);
+    }
+
+    @Override
+    public void softCommit() {
+        Query responseQuery;
+        try {
+            final long rows = select();
+            logger.debug("{} : sent {} rows to node {}", new Object[]{query.getRequestId(), rows, query.getMasterNodeId()});
+            responseQuery = new Query().requestId(query.getRequestId()).responseQuery().ackSuccess();
+        } catch (OperationException ex) {
+            logger.debug(query.getRequestId() + " : " + ex.getErrorCode().getErrorCode() + " - " + ex.getMessage());
+            responseQuery = new Query().requestId(query.getRequestId()).responseQuery().ackFailure()
+                    .errorCode(ex.getErrorCode().getErrorCode()).message(ex.getMessage() == null ? "" : ex.getMessage());
+        } finally {
+            super.getBean(ProcessorStore.class).unRegister(query.getRequestId());
+        }
+        super.getClusterMessagingBean().sendMessage(responseQuery, query.getMasterNodeId());
+    }
+
+    private long select() throws OperationException {
+        final String ds = query.getDs();
+        final String collection = query.getCollection();
+        final JSONObject payloadJson = query.getJSONObject(QueryParams.PAYLOAD);
+
+        final PartitionStore partitionStore = super.getBean(PartitionStore.class);
+        final long version = payloadJson.getLong(QueryParams.VERSION.getParam());
+        if (partitionStore.getRing().getVersion() != version) {
+            throw new OperationException(ErrorCode.CLUSTER_REBALANCE_ERROR, "Node is on partition ring version "
+                    + partitionStore.getRing().getVersion() + " while the query was planned on version " + version + ". Retry the query");
+        }
+
+        final JSONArray nodesArray = payloadJson.getJSONArray(QueryParams.NODES.getParam());
+        final Set<String> nodes = new HashSet<>();
+        for (int i = 0; i < nodesArray.length(); i++) {
+            nodes.add(nodesArray.getString(i));
+        }
+
+        final String sql = payloadJson.getString(QueryParams.SQL.getParam());
+        final QueryScheduler queryScheduler = super.getBean(QueryScheduler.class);
+        final QueryMemoryManager queryMemoryManager = super.getBean(QueryMemoryManager.class);
+        final QueryMemory memory = queryMemoryManager.newQueryMemory(ds);
+        final List<JSONObject> batch = new ArrayList<>();
+        long batchBytes = 0;
+        long reservedBytes = 0;
+        long rows = 0;
+        try {
+            final CursorNode node = (CursorNode) super.getBean(StatementCache.class).get(ds, sql).getNode();
+            context = queryScheduler.attach(ds, query.getRequestId(), sql, QueryScheduler.classify(node));
+            if (rolledBack) {
+                context.cancel();
+            }
+
+            try (Operator pipeline = super.getBean(SelectPlanner.class).planFragment(ds, collection, node,
+                    partitionStore.getAnswerableKeys(ds, collection, nodes), memory)) {
+                pipeline.open();
+                JSONObject row;
+                while ((row = pipeline.next()) != null) {
+                    final long size = QueryMemory.estimate(row);
+                    final boolean reserved = memory.reserve(size);
+                    batch.add(row);
+                    batchBytes += size;
+                    reservedBytes += reserved ? size : 0;
+                    if (!reserved || batch.size() >= ClusterConstants.SELECT_RESULT_BATCH || batchBytes >= ClusterConstants.SELECT_RESULT_BATCH_BYTES) {
+                        rows += send(batch);
+                        memory.release(reservedBytes);
+                        batchBytes = 0;
+                        reservedBytes = 0;
+                    }
+                }
+            }
+            rows += send(batch);
+        } catch (StandardException ex) {
+            throw new OperationException(ErrorCode.SELECT_ERROR, ex.getMessage());
+        } finally {
+            memory.release(reservedBytes);
+            if (context != null) {
+                queryScheduler.detach(context);
+            }
+            queryMemoryManager.record(ds, memory);
+        }
+        return rows;
+    }
+
+    /**
+     * Sends a batch of rows to the master and waits for it to accept them. Rows of the node the master runs on are
+     * handed to the master directly.
+     *
+     * @param batch the rows, cleared once sent
+     * @return the number of rows sent
+     * @throws OperationException if the master could not be reached, or no longer accepts rows as the query completed
+     * or was cancelled
+     */
+    private long send(final List<JSONObject> batch) throws OperationException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        final String masterNodeId = query.getMasterNodeId();
+        final String selfId = super.getBean(ClusterNodesStore.class).getSelfId();
+        if (masterNodeId.equals(selfId)) {
+            final MasterExecutable masterExecutable = super.getBean(MasterStore.class).get(query.getRequestId());
+            if (!(masterExecutable instanceof SelectMaster) || !((SelectMaster) masterExecutable).addRows(selfId, new ArrayList<>(batch))) {
+                throw new OperationException(ErrorCode.QUERY_CANCELLED, "Select " + query.getRequestId() + " is no longer running");
+            }
+        } else {
+            final ClusterMessaging clusterMessaging = super.getClusterMessagingBean();
+            clusterMessaging.awaitResponse(clusterMessaging.request(new Query().requestId(query.getRequestId()).selectRowsQuery(batch), masterNodeId),
+                    masterNodeId, 0); //the master holds back its response while it is consuming rows of other nodes
+        }
+
+        final long count = batch.size();
+        batch.clear();
+        return count;
+    }
+
+    @Override
+    public void commit() {
+        throw new IllegalStateException("Commit should not be called for read-only process operations");
+    }
+
+    /**
+     * Cancels the query, which stops at the next row it reads
+     */
+    @Override
+    public void rollback() {
+        rolledBack = true;
+        final QueryContext queryContext = context;
+        if (queryContext != null) {
+            queryContext.cancel();
+        }
+    }
+}
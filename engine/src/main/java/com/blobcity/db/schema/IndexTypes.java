@@ -32,7 +32,8 @@ public enum IndexTypes {
     BITMAP("bitmap"),
     ARRAY("array"),
     TIMESERIES("timeseries"),
-    GEO("geo");
+    GEO("geo"),
+    PACKED("packed");
     private String text;
 
     IndexTypes(final String text) {
@@ -124,6 +124,39 @@ public class SchemaManager {
         return viewableJson;
     }
 
+    /**
+     * Converts only the specified columns of a record from internal to viewable key names. Columns not in the schema
+     * are ignored and selected columns not present in the internal JSON are added as blank values. Unlike
+     * {@link #internalToViewable(java.lang.String, java.lang.String, org.json.JSONObject)}, no work is done for columns
+     * that are not selected.
+     *
+     * @param appId
+     * @param table
+     * @param jsonObject the record, or the selected columns of the record, in internal form
+     * @param columns viewable names of the columns to retain
+     * @return viewable JSON containing only the selected columns
+     * @throws OperationException
+     */
+    public JSONObject internalToViewable(final String appId, final String table, JSONObject jsonObject, final Set<String> columns) throws OperationException {
+        JSONObject viewableJson = new JSONObject();
+        Schema schema = SchemaStore.getInstance().getSchema(appId, table);
+        ColumnMapping mapping = SchemaStore.getInstance().getColumnMapping(appId, table);
+
+        for (String columnName : columns) {
+            if (schema.getColumn(columnName) == null) {
+                continue;
+            }
+            try {
+                final Object value = jsonObject.opt(mapping.getInternalName(columnName));
+                viewableJson.put(columnName, value == null ? "" : value);
+            } catch (JSONException ex) {
+                logger.error(null, ex);
+            }
+        }
+
+        return viewableJson;
+    }
+
     public JSONObject viewableToInternal(final String appId, final String table, JSONObject jsonObject) throws OperationException {
         JSONObject internalJson = new JSONObject();
         Schema schema = SchemaStore.getInstance().getSchema(appId, table);
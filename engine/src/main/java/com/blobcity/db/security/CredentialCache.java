@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers recently verified credentials, so that end points that send the username and password with every request
+ * do not pay for a PBKDF2 validation on each one. Only a salted SHA-256 digest of the password is kept, and an entry
+ * is trusted for {@link #TTL} milliseconds after the password was last verified against its hash. Entries of a user
+ * are dropped when the password of the user is changed or the user is deleted. Failed verifications are never cached.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class CredentialCache {
+
+    public static final long TTL = TimeUnit.MINUTES.toMillis(5);
+
+    /* random per process, so that digests are of no use outside this cache */
+    private final byte[] salt = new byte[16];
+    private final Map<String, Entry> map = new ConcurrentHashMap<>();
+
+    public CredentialCache() {
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * Checks if the credentials were verified recently
+     *
+     * @param username the username
+     * @param password the password
+     * @return <code>true</code> if the same password was verified for the user within the last {@link #TTL}
+     * milliseconds; <code>false</code> otherwise
+     */
+    public boolean isVerified(final String username, final String password) {
+        if (username == null || password == null) {
+            return false;
+        }
+        final Entry entry = map.get(username);
+        if (entry == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - entry.verifiedAt > TTL) {
+            map.remove(username, entry);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.digest, digest(password));
+    }
+
+    /**
+     * Records credentials that were just verified against the stored password hash
+     *
+     * @param username the username
+     * @param password the verified password
+     */
+    public void put(final String username, final String password) {
+        map.put(username, new Entry(digest(password), System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops the cached credentials of a user
+     *
+     * @param username the username
+     */
+    public void invalidate(final String username) {
+        map.remove(username);
+    }
+
+    @Scheduled(fixedRate = 60000)
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        map.values().removeIf(entry -> now - entry.verifiedAt > TTL);
+    }
+
+    private byte[] digest(final String password) {
+        try {
+            final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(salt);
+            return messageDigest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static class Entry {
+
+        private final byte[] digest;
+        private final long verifiedAt;
+
+        private Entry(final byte[] digest, final long verifiedAt) {
+            this.digest = digest;
+            this.verifiedAt = verifiedAt;
+        }
+    }
+}
@@ -40,9 +40,14 @@ public class SecurityManagerBean implements SecurityManager {
  
     @Autowired
     private UserManager userManager;
+    @Autowired
+    private CredentialCache credentialCache;
+    @Autowired
+    private SessionStore sessionStore;
 
     /**
-     * Verifies whether the password of the specified user
+     * Verifies whether the password of the specified user. Credentials verified within the last
+     * {@link CredentialCache#TTL} milliseconds are accepted without validating the password hash again.
      *
      * @param username The username of the user
      * @param password The user's password
@@ -50,14 +55,54 @@ public class SecurityManagerBean implements SecurityManager {
      */
     @Override
     public boolean verifyCredentials(final String username, final String password) {
+        if (credentialCache.isVerified(username, password)) {
+            return true;
+        }
         Optional<User> user = userManager.fetchUser(username);
-        if (user.isPresent()) {
-            return PasswordHash.validatePassword(password, user.get().getPassword());
+        if (user.isPresent() && PasswordHash.validatePassword(password, user.get().getPassword())) {
+            credentialCache.put(username, password);
+            return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Verifies the credentials of a user and opens a session for the user
+     *
+     * @param username The username of the user
+     * @param password The user's password
+     * @return the session token if the credentials are valid, <code>null</code> otherwise
+     */
+    @Override
+    public String login(final String username, final String password) {
+        if (!verifyCredentials(username, password)) {
+            return null;
+        }
+        return sessionStore.create(username);
+    }
+
+    /**
+     * Gets the user of an active session
+     *
+     * @param sessionToken The session token
+     * @return the username of the session user, <code>null</code> if the token is invalid or the session has expired
+     */
+    @Override
+    public String getSessionUser(final String sessionToken) {
+        return sessionStore.getUser(sessionToken);
+    }
+
+    /**
+     * Closes a session
+     *
+     * @param sessionToken The session token
+     */
+    @Override
+    public void logout(final String sessionToken) {
+        sessionStore.invalidate(sessionToken);
+    }
+
     /**
      * Changes the password of the specified user after verifying the current password. (TODO Add support for superuser
      * changing user's password without verifying current password)
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the authenticated sessions of users. A session is opened once the password of a user is verified, and its
+ * token is then used to authenticate each request without hashing the password again.
+ *
+ * <p>
+ * A token is formed as <code>{id}.{secret}</code>. The id locates the session and the secret is compared in constant
+ * time. Sessions expire after {@link #IDLE_TIMEOUT} milliseconds without use, and all sessions of a user are closed
+ * when the password of the user is changed or the user is deleted.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class SessionStore {
+
+    public static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    private static final int ID_BYTES = 16;
+    private static final int SECRET_BYTES = 32;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Opens a session for a user whose credentials are already verified
+     *
+     * @param username the username of the authenticated user
+     * @return the token of the new session
+     */
+    public String create(final String username) {
+        final byte[] secret = randomBytes(SECRET_BYTES);
+        String id;
+        do {
+            id = encode(randomBytes(ID_BYTES));
+        } while (sessions.putIfAbsent(id, new Session(username, secret)) != null);
+        return id + "." + encode(secret);
+    }
+
+    /**
+     * Gets the user of an active session. Using a session extends its expiry.
+     *
+     * @param token the session token
+     * @return the username of the session user; <code>null</code> if the token is invalid or the session has expired
+     */
+    public String getUser(final String token) {
+        if (token == null) {
+            return null;
+        }
+        final int separator = token.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+        final Session session = sessions.get(token.substring(0, separator));
+        if (session == null) {
+            return null;
+        }
+        final byte[] secret = token.substring(separator + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(session.encodedSecret, secret)) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - session.lastAccess > IDLE_TIMEOUT) {
+            sessions.remove(token.substring(0, separator), session);
+            return null;
+        }
+        session.lastAccess = now;
+        return session.username;
+    }
+
+    /**
+     * Closes a session. Closing an inexistent session has no effect.
+     *
+     * @param token the session token
+     */
+    public void invalidate(final String token) {
+        if (token == null) {
+            return;
+        }
+        final int separator = token.indexOf('.');
+        if (separator >= 0 && getUser(token) != null) {
+            sessions.remove(token.substring(0, separator));
+        }
+    }
+
+    /**
+     * Closes all sessions of a user
+     *
+     * @param username the username of the user
+     */
+    public void invalidateUser(final String username) {
+        sessions.values().removeIf(session -> session.username.equals(username));
+    }
+
+    @Scheduled(fixedRate = 60000)
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> now - session.lastAccess > IDLE_TIMEOUT);
+    }
+
+    private byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String encode(final byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static class Session {
+
+        private final String username;
+        private final byte[] encodedSecret;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Session(final String username, final byte[] secret) {
+            this.username = username;
+            this.encodedSecret = encode(secret).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
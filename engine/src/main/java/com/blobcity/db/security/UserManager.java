@@ -51,6 +51,10 @@ public class UserManager {
     private BSqlDataManager dataManager;
     @Autowired @Lazy
     private SQLExecutorBean sqlExecutor;
+    @Autowired
+    private CredentialCache credentialCache;
+    @Autowired
+    private SessionStore sessionStore;
     
     /**
      * Adds a user to the systemdb.User table
@@ -91,6 +95,7 @@ public class UserManager {
             throw new IllegalArgumentException("Username must not be null");
         }
         dataManager.remove(BSql.SYSTEM_DB, "user", username);
+        invalidateSessions(username);
     }
     
     /**
@@ -122,6 +127,18 @@ public class UserManager {
         json.put("password", PasswordHash.createHash(newPassword));
         json.put("defaultRole", user.getDefaultRole());
         dataManager.save(BSql.SYSTEM_DB, "user", json);
+        invalidateSessions(username);
+    }
+
+    /**
+     * Closes all sessions of a user and forgets the verified credentials of the user. Must be invoked whenever the
+     * password of the user changes or the user is removed.
+     *
+     * @param username the username of the user
+     */
+    private void invalidateSessions(final String username) {
+        credentialCache.invalidate(username);
+        sessionStore.invalidateUser(username);
     }
     
     /**
@@ -0,0 +1,746 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.constants.Governor;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.parser.AggregateNode;
+import com.foundationdb.sql.parser.ColumnReference;
+import com.foundationdb.sql.parser.ValueNode;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Groups the rows of its child on the GROUP BY columns and computes the aggregates of every group in a single pass.
+ * Only one row and one set of running aggregates is held per group, irrespective of the number of input rows. Without
+ * GROUP BY columns all rows form a single group, which is produced even when there are no input rows.
+ *
+ * <p>
+ * Large inputs are aggregated in parallel. Rows are handed out in batches to fork-join workers, each of which
+ * aggregates into a partial table of its own, and the partial tables are merged once all rows are consumed. The
+ * number of batches in flight is bounded, so memory stays proportional to the number of groups.
+ *
+ * <p>
+ * Each output row holds the columns of the first input row of its group, along with the aggregate values. Groups are
+ * produced in the order of their first input row, whether or not the rows were aggregated in parallel.
+ *
+ * <p>
+ * When given a query memory budget, a partial table holds groups only while the budget allows. Once a reservation is
+ * refused the table writes its groups, with their running aggregates, to hash partitions on disk and starts afresh.
+ * If any table spilled, all remaining groups are spilled too, and every partition is then merged on its own, so only
+ * the groups of one partition are held at a time. The output of the partitions is merged back in group order.
+ *
+ * <p>
+ * Aggregation may be split across nodes. In {@link Mode#PARTIAL} each output row carries the running state of every
+ * aggregate in place of its value, with AVG kept as a sum and a count, and in {@link Mode#MERGE} such rows from any
+ * number of nodes are combined into the final values.
+ *
+ * @author sanketsarang
+ */
+public class AggregateOperator implements Operator {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final String SEQUENCE = "s";
+    private static final String ROW = "r";
+    private static final String ACCUMULATORS = "a";
+
+    private final Operator child;
+    private final List<String> groupColumns;
+    private final List<AggregateColumn> aggregates;
+    private final int parallelism;
+    private final QueryMemory memory;
+    private final Mode mode;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private SpillFile[] partitions;
+    private Operator groups;
+
+    /**
+     * Creates an aggregate operator that aggregates on the common fork-join pool
+     *
+     * @param child the operator producing the rows to aggregate
+     * @param groupColumns the GROUP BY columns; an empty list to aggregate all rows together
+     * @param aggregates the aggregates to compute for each group
+     */
+    public AggregateOperator(final Operator child, final List<String> groupColumns, final List<AggregateColumn> aggregates) {
+        this(child, groupColumns, aggregates, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Creates an aggregate operator
+     *
+     * @param child the operator producing the rows to aggregate
+     * @param groupColumns the GROUP BY columns; an empty list to aggregate all rows together
+     * @param aggregates the aggregates to compute for each group
+     * @param parallelism the maximum number of workers aggregating at a time; 1 to aggregate on the calling thread
+     */
+    public AggregateOperator(final Operator child, final List<String> groupColumns, final List<AggregateColumn> aggregates, final int parallelism) {
+        this(child, groupColumns, aggregates, parallelism, null);
+    }
+
+    /**
+     * Creates an aggregate operator that spills to disk once its groups exceed the memory budget of the query
+     *
+     * @param child the operator producing the rows to aggregate
+     * @param groupColumns the GROUP BY columns; an empty list to aggregate all rows together
+     * @param aggregates the aggregates to compute for each group
+     * @param parallelism the maximum number of workers aggregating at a time; 1 to aggregate on the calling thread
+     * @param memory the memory budget of the query; <code>null</code> to hold all groups in memory
+     */
+    public AggregateOperator(final Operator child, final List<String> groupColumns, final List<AggregateColumn> aggregates, final int parallelism,
+            final QueryMemory memory) {
+        this(child, groupColumns, aggregates, parallelism, memory, Mode.COMPLETE);
+    }
+
+    /**
+     * Creates an aggregate operator computing one side of an aggregation split across nodes
+     *
+     * @param child the operator producing the rows to aggregate, or the partial rows to merge
+     * @param groupColumns the GROUP BY columns; an empty list to aggregate all rows together
+     * @param aggregates the aggregates to compute for each group
+     * @param parallelism the maximum number of workers aggregating at a time; 1 to aggregate on the calling thread
+     * @param memory the memory budget of the query; <code>null</code> to hold all groups in memory
+     * @param mode what the operator takes in and produces
+     */
+    public AggregateOperator(final Operator child, final List<String> groupColumns, final List<AggregateColumn> aggregates, final int parallelism,
+            final QueryMemory memory, final Mode mode) {
+        this.child = child;
+        this.groupColumns = groupColumns;
+        this.aggregates = aggregates;
+        this.parallelism = parallelism;
+        this.memory = memory;
+        this.mode = mode;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        close();
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        if (groups == null) {
+            groups = aggregate();
+            groups.open();
+        }
+        return groups.next();
+    }
+
+    @Override
+    public void close() {
+        if (groups != null) {
+            groups.close();
+            groups = null;
+        }
+        for (SpillFile spillFile : spillFiles) {
+            spillFile.close();
+        }
+        spillFiles.clear();
+        partitions = null;
+        child.close();
+    }
+
+    private Operator aggregate() throws OperationException {
+        final List<PartialTable> tables;
+        try {
+            List<JSONObject> batch = readBatch();
+            if (batch.size() < BATCH_SIZE || parallelism <= 1) {
+                final PartialTable table = new PartialTable(true);
+                long sequence = 0;
+                while (!batch.isEmpty()) {
+                    table.addAll(batch, sequence);
+                    sequence += batch.size();
+                    batch = readBatch();
+                }
+                tables = Collections.singletonList(table);
+            } else {
+                tables = aggregateInParallel(batch);
+            }
+        } finally {
+            child.close();
+        }
+
+        if (partitions != null) {
+            for (PartialTable partial : tables) {
+                partial.spill();
+            }
+            return mergePartitions();
+        }
+
+        final PartialTable table = new PartialTable(false);
+        for (PartialTable partial : tables) {
+            table.merge(partial);
+            partial.release();
+        }
+        if (table.groups.isEmpty() && groupColumns.isEmpty()) {
+            table.groups.put(new ArrayList<>(), new Group(new JSONObject(), 0));
+        }
+        return MergeOperator.inMemory(table.toRows());
+    }
+
+    private List<PartialTable> aggregateInParallel(List<JSONObject> batch) throws OperationException {
+        final Map<Thread, PartialTable> partials = new ConcurrentHashMap<>();
+        final Deque<Future<Void>> inFlight = new ArrayDeque<>();
+        long sequence = 0;
+        while (!batch.isEmpty()) {
+            final List<JSONObject> rows = batch;
+            final long firstSequence = sequence;
+            inFlight.add(ForkJoinPool.commonPool().submit(() -> {
+                partials.computeIfAbsent(Thread.currentThread(), thread -> new PartialTable(true)).addAll(rows, firstSequence);
+                return null;
+            }));
+            sequence += rows.size();
+
+            if (inFlight.size() >= parallelism * 2) {
+                await(inFlight.poll());
+            }
+            batch = readBatch();
+        }
+        while (!inFlight.isEmpty()) {
+            await(inFlight.poll());
+        }
+        return new ArrayList<>(partials.values());
+    }
+
+    /**
+     * Merges the groups spilled to every partition, one partition at a time. The groups of a partition are written
+     * out in group order as a run, and the runs of all partitions are merged back in group order.
+     *
+     * @return an operator producing the aggregated rows
+     */
+    private Operator mergePartitions() throws OperationException {
+        final List<Operator> runs = new ArrayList<>();
+        for (SpillFile partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+
+            final PartialTable table = new PartialTable(false);
+            final Operator reader = partition.reader();
+            try {
+                reader.open();
+                JSONObject record;
+                while ((record = reader.next()) != null) {
+                    final Group group = new Group(record);
+                    table.merge(groupKey(group.firstRow), group);
+                }
+            } finally {
+                reader.close();
+            }
+            spillFiles.remove(partition);
+            partition.close();
+
+            final SpillFile run = memory.newSpillFile();
+            spillFiles.add(run);
+            for (Group group : table.ordered()) {
+                run.write(MergeOperator.sequenced(group.firstSequence, group.toRow()));
+            }
+            runs.add(run.reader());
+        }
+        return MergeOperator.bySequence(runs);
+    }
+
+    /**
+     * Writes a group to the partition of its key. Called by the workers of all partial tables.
+     */
+    private synchronized void spill(final List<Object> groupKey, final Group group) throws OperationException {
+        if (partitions == null) {
+            partitions = new SpillFile[Governor.SPILL_PARTITIONS];
+        }
+        final int partition = Math.floorMod(groupKey.hashCode(), partitions.length);
+        if (partitions[partition] == null) {
+            partitions[partition] = memory.newSpillFile();
+            spillFiles.add(partitions[partition]);
+        }
+        partitions[partition].write(group.toRecord());
+    }
+
+    private List<Object> groupKey(final JSONObject row) {
+        final List<Object> groupKey = new ArrayList<>(groupColumns.size());
+        for (String groupColumn : groupColumns) {
+            groupKey.add(RowValues.normalize(RowValues.get(row, groupColumn)));
+        }
+        return groupKey;
+    }
+
+    private void await(final Future<Void> future) throws OperationException {
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof OperationException) {
+                throw (OperationException) ex.getCause();
+            }
+            throw new OperationException(ErrorCode.SELECT_ERROR, "Aggregation failed: " + ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OperationException(ErrorCode.SELECT_ERROR, "Aggregation interrupted");
+        }
+    }
+
+    private List<JSONObject> readBatch() throws OperationException {
+        final List<JSONObject> batch = new ArrayList<>(BATCH_SIZE);
+        JSONObject row;
+        while (batch.size() < BATCH_SIZE && (row = child.next()) != null) {
+            batch.add(row);
+        }
+        return batch;
+    }
+
+    /**
+     * The groups and running aggregates of the rows seen by one worker
+     */
+    private class PartialTable {
+
+        private final Map<List<Object>, Group> groups = new HashMap<>();
+        private final boolean budgeted;
+        private long reserved = 0;
+
+        /**
+         * @param budgeted <code>true</code> to reserve memory for the groups held, and spill once refused
+         */
+        private PartialTable(final boolean budgeted) {
+            this.budgeted = budgeted && memory != null;
+        }
+
+        private void addAll(final List<JSONObject> rows, final long firstSequence) throws OperationException {
+            long sequence = firstSequence;
+            for (JSONObject row : rows) {
+                final List<Object> groupKey = groupKey(row);
+                Group group = groups.get(groupKey);
+                if (group == null) {
+                    if (budgeted && !reserve(row) && !groups.isEmpty()) {
+                        spill();
+                        reserve(row);
+                    }
+                    group = new Group(row, sequence);
+                    groups.put(groupKey, group);
+                }
+                group.add(row);
+                sequence++;
+            }
+        }
+
+        private boolean reserve(final JSONObject row) {
+            final long bytes = QueryMemory.estimate(row) + 64L * aggregates.size();
+            if (memory.reserve(bytes)) {
+                reserved += bytes;
+                return true;
+            }
+            return false;
+        }
+
+        private void release() {
+            if (reserved > 0) {
+                memory.release(reserved);
+                reserved = 0;
+            }
+        }
+
+        private void spill() throws OperationException {
+            for (Map.Entry<List<Object>, Group> entry : groups.entrySet()) {
+                AggregateOperator.this.spill(entry.getKey(), entry.getValue());
+            }
+            groups.clear();
+            release();
+        }
+
+        private void merge(final PartialTable other) {
+            other.groups.forEach(this::merge);
+        }
+
+        private void merge(final List<Object> groupKey, final Group otherGroup) {
+            final Group group = groups.get(groupKey);
+            if (group == null) {
+                groups.put(groupKey, otherGroup);
+            } else {
+                group.merge(otherGroup);
+            }
+        }
+
+        private List<Group> ordered() {
+            final List<Group> ordered = new ArrayList<>(groups.values());
+            ordered.sort((group1, group2) -> Long.compare(group1.firstSequence, group2.firstSequence));
+            return ordered;
+        }
+
+        private List<JSONObject> toRows() throws OperationException {
+            final List<JSONObject> rows = new ArrayList<>(groups.size());
+            for (Group group : ordered()) {
+                rows.add(group.toRow());
+            }
+            return rows;
+        }
+    }
+
+    private class Group {
+
+        private JSONObject firstRow;
+        private long firstSequence;
+        private final Accumulator[] accumulators;
+
+        private Group(final JSONObject firstRow, final long firstSequence) {
+            this.firstRow = firstRow;
+            this.firstSequence = firstSequence;
+            this.accumulators = new Accumulator[aggregates.size()];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = new Accumulator(aggregates.get(i), aggregates.get(i).isDistinct());
+            }
+        }
+
+        /**
+         * Restores a group spilled through {@link #toRecord()}
+         */
+        private Group(final JSONObject record) {
+            this(record.getJSONObject(ROW), record.getLong(SEQUENCE));
+            final JSONArray states = record.getJSONArray(ACCUMULATORS);
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i].restore(states.getJSONObject(i));
+            }
+        }
+
+        private JSONObject toRecord() {
+            final JSONObject record = new JSONObject();
+            record.put(SEQUENCE, firstSequence);
+            record.put(ROW, firstRow);
+            final JSONArray states = new JSONArray();
+            for (Accumulator accumulator : accumulators) {
+                states.put(accumulator.toState());
+            }
+            record.put(ACCUMULATORS, states);
+            return record;
+        }
+
+        private void add(final JSONObject row) throws OperationException {
+            if (mode == Mode.MERGE) {
+                for (Accumulator accumulator : accumulators) {
+                    final Accumulator partial = new Accumulator(accumulator.aggregate, accumulator.aggregate.isDistinct());
+                    partial.restore(row.getJSONObject(accumulator.aggregate.getOutputName()));
+                    accumulator.merge(partial);
+                }
+                return;
+            }
+            for (Accumulator accumulator : accumulators) {
+                accumulator.add(row);
+            }
+        }
+
+        private void merge(final Group other) {
+            if (other.firstSequence < firstSequence) {
+                firstRow = other.firstRow;
+                firstSequence = other.firstSequence;
+            }
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i].merge(other.accumulators[i]);
+            }
+        }
+
+        private JSONObject toRow() throws OperationException {
+            final JSONObject row = new JSONObject();
+            for (Object key : firstRow.keySet()) {
+                row.put((String) key, firstRow.get((String) key));
+            }
+            for (Accumulator accumulator : accumulators) {
+                row.put(accumulator.aggregate.getOutputName(), mode == Mode.PARTIAL ? accumulator.toState() : accumulator.result());
+            }
+            return row;
+        }
+    }
+
+    /**
+     * The running state of one aggregate of one group. Accumulators of the same aggregate can be merged. A DISTINCT
+     * aggregate only collects the distinct values, and computes the aggregate over them when the result is requested.
+     */
+    private static class Accumulator {
+
+        private final AggregateColumn aggregate;
+        private final Map<Object, Object> distinctValues;
+        private long count = 0;
+        private long longSum = 0;
+        private BigDecimal decimalSum = null;
+        private Object extreme = null;
+
+        private Accumulator(final AggregateColumn aggregate, final boolean distinct) {
+            this.aggregate = aggregate;
+            this.distinctValues = distinct ? new HashMap<>() : null;
+        }
+
+        private void add(final JSONObject row) throws OperationException {
+            if (aggregate.getColumnName() == null) {
+                count++;
+                return;
+            }
+
+            final Object value = RowValues.get(row, aggregate.getColumnName());
+            if (value == null) {
+                return;
+            }
+            if (distinctValues != null) {
+                distinctValues.putIfAbsent(RowValues.normalize(value), value);
+                return;
+            }
+            accumulate(value);
+        }
+
+        private void accumulate(final Object value) throws OperationException {
+            count++;
+            switch (aggregate.getFunction()) {
+                case "SUM":
+                case "AVG":
+                    addToSum(value);
+                    break;
+                case "MIN":
+                case "MAX":
+                    keepExtreme(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void merge(final Accumulator other) {
+            if (distinctValues != null) {
+                other.distinctValues.forEach(distinctValues::putIfAbsent);
+                return;
+            }
+
+            count += other.count;
+            if (other.decimalSum != null) {
+                decimalSum = (decimalSum == null ? BigDecimal.valueOf(longSum) : decimalSum).add(other.decimalSum);
+            } else if (!addToLongSum(other.longSum)) {
+                decimalSum = (decimalSum == null ? BigDecimal.valueOf(longSum) : decimalSum).add(BigDecimal.valueOf(other.longSum));
+            }
+            if (other.extreme != null) {
+                keepExtreme(other.extreme);
+            }
+        }
+
+        private JSONObject toState() {
+            final JSONObject state = new JSONObject();
+            if (distinctValues != null) {
+                state.put("v", new JSONArray(distinctValues.values()));
+                return state;
+            }
+
+            state.put("c", count);
+            state.put("l", longSum);
+            if (decimalSum != null) {
+                state.put("d", decimalSum.toString());
+            }
+            if (extreme != null) {
+                state.put("e", extreme);
+            }
+            return state;
+        }
+
+        private void restore(final JSONObject state) {
+            if (distinctValues != null) {
+                final JSONArray values = state.getJSONArray("v");
+                for (int i = 0; i < values.length(); i++) {
+                    distinctValues.putIfAbsent(RowValues.normalize(values.get(i)), values.get(i));
+                }
+                return;
+            }
+
+            count = state.getLong("c");
+            longSum = state.getLong("l");
+            decimalSum = state.has("d") ? new BigDecimal(state.getString("d")) : null;
+            extreme = state.opt("e");
+        }
+
+        private void keepExtreme(final Object value) {
+            if (extreme == null) {
+                extreme = value;
+            } else if (aggregate.getFunction().equals("MIN") ? RowValues.compare(value, extreme) < 0 : RowValues.compare(value, extreme) > 0) {
+                extreme = value;
+            }
+        }
+
+        private void addToSum(final Object value) throws OperationException {
+            if ((value instanceof Integer || value instanceof Long) && addToLongSum(((Number) value).longValue())) {
+                return;
+            }
+
+            final BigDecimal decimal = value instanceof Number ? RowValues.toDecimal(value) : null;
+            if (decimal == null) {
+                throw new OperationException(ErrorCode.SELECT_ERROR, "Attempting to execute aggregate operation on a non-numeric column");
+            }
+            if (decimalSum == null) {
+                decimalSum = BigDecimal.valueOf(longSum);
+            }
+            decimalSum = decimalSum.add(decimal);
+        }
+
+        /**
+         * Adds to the integral sum if the sum is still integral and does not overflow
+         *
+         * @return <code>true</code> if the value was added; <code>false</code> if it is to be added as a decimal
+         */
+        private boolean addToLongSum(final long value) {
+            if (decimalSum != null) {
+                return false;
+            }
+            final long result = longSum + value;
+            if (((longSum ^ result) & (value ^ result)) < 0) {
+                return false;
+            }
+            longSum = result;
+            return true;
+        }
+
+        private Object result() throws OperationException {
+            if (distinctValues != null) {
+                final Accumulator total = new Accumulator(aggregate, false);
+                for (Object value : distinctValues.values()) {
+                    total.accumulate(value);
+                }
+                return total.result();
+            }
+
+            switch (aggregate.getFunction()) {
+                case "COUNT":
+                case "COUNT(*)":
+                    return count;
+                case "SUM":
+                    if (count == 0) {
+                        return JSONObject.NULL;
+                    }
+                    return decimalSum == null ? (Object) longSum : (Object) decimalSum.doubleValue();
+                case "AVG":
+                    if (count == 0) {
+                        return JSONObject.NULL;
+                    }
+                    return (decimalSum == null ? longSum : decimalSum.doubleValue()) / (double) count;
+                default:
+                    return extreme == null ? JSONObject.NULL : extreme;
+            }
+        }
+    }
+
+    /**
+     * What an aggregate operator takes in and produces
+     */
+    public enum Mode {
+
+        /* aggregates rows into the final aggregate values */
+        COMPLETE,
+        /* aggregates rows into the running state of each aggregate, for merging on another node */
+        PARTIAL,
+        /* merges the rows produced in PARTIAL mode into the final aggregate values */
+        MERGE
+    }
+
+    /**
+     * An aggregate function to compute over a column
+     */
+    public static class AggregateColumn {
+
+        private final String function;
+        private final String columnName;
+        private final boolean distinct;
+        private final String outputName;
+
+        /**
+         * Creates an aggregate column
+         *
+         * @param function the upper case aggregate function name, one of COUNT, COUNT(*), SUM, AVG, MIN or MAX
+         * @param columnName the column to aggregate; <code>null</code> for COUNT(*)
+         * @param distinct <code>true</code> to aggregate only the distinct values of the column
+         * @param outputName name of the column holding the aggregate value in the output row
+         * @throws OperationException if the aggregate function is not supported
+         */
+        public AggregateColumn(final String function, final String columnName, final boolean distinct, final String outputName) throws OperationException {
+            switch (function) {
+                case "COUNT":
+                case "COUNT(*)":
+                case "SUM":
+                case "AVG":
+                case "MIN":
+                case "MAX":
+                    break;
+                default:
+                    throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Aggregate function " + function + " not supported");
+            }
+            this.function = function;
+            this.columnName = columnName;
+            this.distinct = distinct;
+            this.outputName = outputName;
+        }
+
+        /**
+         * Creates an aggregate column for an aggregate of a query, named after the aggregate as written, such as
+         * <code>SUM(col)</code>, <code>COUNT(DISTINCT col)</code> or <code>COUNT(*)</code>
+         *
+         * @param aggregateNode the aggregate
+         * @return the aggregate column
+         * @throws OperationException if the aggregate function is not supported, or is over an expression other than
+         * a column
+         */
+        public static AggregateColumn of(final AggregateNode aggregateNode) throws OperationException {
+            final String function = aggregateNode.getAggregateName().toUpperCase();
+            final ValueNode operand = aggregateNode.getOperand();
+            if (operand != null && !(operand instanceof ColumnReference)) {
+                throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Aggregate on " + operand.toString() + " not supported");
+            }
+
+            final String columnName = operand == null ? null : operand.getColumnName();
+            return new AggregateColumn(function, columnName, aggregateNode.isDistinct(), nameOf(aggregateNode));
+        }
+
+        /**
+         * Gets the name of the column holding the value of an aggregate that is not given an alias
+         *
+         * @param aggregateNode the aggregate
+         * @return the name of the aggregate as written, such as <code>SUM(col)</code>
+         */
+        public static String nameOf(final AggregateNode aggregateNode) {
+            final String function = aggregateNode.getAggregateName().toUpperCase();
+            if (aggregateNode.getOperand() == null) {
+                return function;
+            }
+            return function + "(" + (aggregateNode.isDistinct() ? "DISTINCT " : "") + aggregateNode.getOperand().getColumnName() + ")";
+        }
+
+        public String getFunction() {
+            return function;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public boolean isDistinct() {
+            return distinct;
+        }
+
+        public String getOutputName() {
+            return outputName;
+        }
+    }
+}
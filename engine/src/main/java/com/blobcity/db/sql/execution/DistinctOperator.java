@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.constants.Governor;
+import com.blobcity.db.exceptions.OperationException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * Drops rows that are identical to a row already produced. Rows are produced in the order of their first occurrence,
+ * and only the distinct rows seen so far are held in memory.
+ *
+ * <p>
+ * When given a query memory budget, the distinct rows are held only while the budget allows. Once a reservation is
+ * refused the rows seen so far are written to hash partitions on disk, and all further rows are written to the same
+ * partitions instead of being produced. When the input is exhausted each partition is deduplicated on its own, and the
+ * surviving rows of all partitions are merged back in input order.
+ *
+ * @author sanketsarang
+ */
+public class DistinctOperator implements Operator {
+
+    private static final String KEY = "k";
+    private static final String PRODUCED = "p";
+
+    private final Operator child;
+    private final QueryMemory memory;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private Set<String> seen;
+    private SpillFile[] partitions;
+    private Operator spilled;
+    private long sequence;
+    private long reserved;
+
+    public DistinctOperator(final Operator child) {
+        this(child, null);
+    }
+
+    /**
+     * Creates a distinct operator that spills to disk once its distinct rows exceed the memory budget of the query
+     *
+     * @param child the operator producing the rows
+     * @param memory the memory budget of the query; <code>null</code> to hold all distinct rows in memory
+     */
+    public DistinctOperator(final Operator child, final QueryMemory memory) {
+        this.child = child;
+        this.memory = memory;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        close();
+        seen = new HashSet<>();
+        sequence = 0;
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        if (spilled != null) {
+            return spilled.next();
+        }
+
+        JSONObject row;
+        while ((row = child.next()) != null) {
+            final String key = row.toString();
+            if (partitions == null) {
+                if (seen.contains(key)) {
+                    continue;
+                }
+                if (memory == null || reserve(QueryMemory.estimateValue(key)) || seen.isEmpty()) {
+                    seen.add(key);
+                    return row;
+                }
+                spillSeen();
+            }
+
+            final JSONObject candidate = MergeOperator.sequenced(sequence++, row);
+            candidate.put(KEY, key);
+            partitionOf(key).write(candidate);
+        }
+        child.close();
+
+        if (partitions == null) {
+            return null;
+        }
+        spilled = deduplicatePartitions();
+        spilled.open();
+        return spilled.next();
+    }
+
+    @Override
+    public void close() {
+        if (spilled != null) {
+            spilled.close();
+            spilled = null;
+        }
+        for (SpillFile spillFile : spillFiles) {
+            spillFile.close();
+        }
+        spillFiles.clear();
+        partitions = null;
+        seen = null;
+        if (reserved > 0) {
+            memory.release(reserved);
+            reserved = 0;
+        }
+        child.close();
+    }
+
+    private boolean reserve(final long bytes) {
+        if (memory.reserve(bytes)) {
+            reserved += bytes;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the rows produced so far to the partitions, so that later duplicates of them are recognised
+     */
+    private void spillSeen() throws OperationException {
+        partitions = new SpillFile[Governor.SPILL_PARTITIONS];
+        for (String key : seen) {
+            final JSONObject produced = new JSONObject();
+            produced.put(PRODUCED, key);
+            partitionOf(key).write(produced);
+        }
+        seen = null;
+        memory.release(reserved);
+        reserved = 0;
+    }
+
+    private SpillFile partitionOf(final String key) throws OperationException {
+        final int partition = Math.floorMod(key.hashCode(), partitions.length);
+        if (partitions[partition] == null) {
+            partitions[partition] = memory.newSpillFile();
+            spillFiles.add(partitions[partition]);
+        }
+        return partitions[partition];
+    }
+
+    /**
+     * Deduplicates every partition on its own. A partition holds the rows produced before spilling followed by the
+     * later rows in input order, so the first occurrence of every row not already produced survives.
+     *
+     * @return an operator producing the surviving rows in input order
+     */
+    private Operator deduplicatePartitions() throws OperationException {
+        final List<Operator> runs = new ArrayList<>();
+        for (SpillFile partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+
+            final SpillFile survivors = memory.newSpillFile();
+            spillFiles.add(survivors);
+            final Set<String> keys = new HashSet<>();
+            final Operator reader = partition.reader();
+            try {
+                reader.open();
+                JSONObject record;
+                while ((record = reader.next()) != null) {
+                    if (record.has(PRODUCED)) {
+                        keys.add(record.getString(PRODUCED));
+                    } else if (keys.add((String) record.remove(KEY))) {
+                        survivors.write(record);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            spillFiles.remove(partition);
+            partition.close();
+            runs.add(survivors.reader());
+        }
+        return MergeOperator.bySequence(runs);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.function.Predicate;
+import org.json.JSONObject;
+
+/**
+ * Passes through only the rows of its child that satisfy a predicate
+ *
+ * @author sanketsarang
+ */
+public class FilterOperator implements Operator {
+
+    private final Operator child;
+    private final Predicate<JSONObject> predicate;
+
+    public FilterOperator(final Operator child, final Predicate<JSONObject> predicate) {
+        this.child = child;
+        this.predicate = predicate;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        JSONObject row;
+        while ((row = child.next()) != null) {
+            if (predicate.test(row)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
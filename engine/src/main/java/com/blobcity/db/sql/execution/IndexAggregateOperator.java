@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Answers COUNT, MIN and MAX over a single indexed column, grouped on the column or not, and DISTINCT values of the
+ * column, from the per value record counts held by the column index. No record is read. The rows produced are those
+ * that {@link AggregateOperator} would produce for the same aggregates, with groups in the order of the column values.
+ *
+ * <p>
+ * The caller reads the index values matching the query and their counts, and is responsible for ensuring that the
+ * index holds every record that could match, as an index leaves out records with null or empty values.
+ *
+ * @author sanketsarang
+ */
+public class IndexAggregateOperator implements Operator {
+
+    private final String columnName;
+    private final List<Map.Entry<Object, Long>> valueCounts;
+    private final boolean grouped;
+    private final List<AggregateOperator.AggregateColumn> aggregates;
+    private Iterator<JSONObject> rows;
+
+    /**
+     * Creates an index aggregate operator
+     *
+     * @param columnName the indexed column
+     * @param valueCounts the column values matching the query in ascending order, each with its number of records
+     * @param grouped <code>true</code> to produce a row per value, as for a GROUP BY on the column or a DISTINCT on it;
+     * <code>false</code> to produce a single row aggregating all values
+     * @param aggregates the aggregates to compute, each of which is COUNT(*), or COUNT, MIN or MAX of the column
+     */
+    public IndexAggregateOperator(final String columnName, final List<Map.Entry<Object, Long>> valueCounts, final boolean grouped,
+            final List<AggregateOperator.AggregateColumn> aggregates) {
+        this.columnName = columnName;
+        this.valueCounts = valueCounts;
+        this.grouped = grouped;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Checks if an aggregate can be computed from the value counts of an index on a column
+     *
+     * @param aggregate the aggregate
+     * @param columnName the indexed column
+     * @return <code>true</code> if the aggregate is COUNT(*), or COUNT, MIN or MAX of the column
+     */
+    public static boolean isAnswerable(final AggregateOperator.AggregateColumn aggregate, final String columnName) {
+        switch (aggregate.getFunction()) {
+            case "COUNT(*)":
+                return true;
+            case "COUNT":
+            case "MIN":
+            case "MAX":
+                return columnName.equals(aggregate.getColumnName());
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void open() {
+        final List<JSONObject> result = new ArrayList<>();
+        if (grouped) {
+            for (Map.Entry<Object, Long> valueCount : valueCounts) {
+                final JSONObject row = new JSONObject();
+                row.put(columnName, valueCount.getKey());
+                for (AggregateOperator.AggregateColumn aggregate : aggregates) {
+                    row.put(aggregate.getOutputName(), aggregate.isDistinct() && aggregate.getFunction().equals("COUNT")
+                            ? 1L : value(aggregate, valueCount.getValue(), valueCount.getKey(), valueCount.getKey()));
+                }
+                result.add(row);
+            }
+        } else {
+            long count = 0;
+            for (Map.Entry<Object, Long> valueCount : valueCounts) {
+                count += valueCount.getValue();
+            }
+            final Object min = valueCounts.isEmpty() ? JSONObject.NULL : valueCounts.get(0).getKey();
+            final Object max = valueCounts.isEmpty() ? JSONObject.NULL : valueCounts.get(valueCounts.size() - 1).getKey();
+
+            final JSONObject row = new JSONObject();
+            for (AggregateOperator.AggregateColumn aggregate : aggregates) {
+                row.put(aggregate.getOutputName(), aggregate.isDistinct() && aggregate.getFunction().equals("COUNT")
+                        ? (long) valueCounts.size() : value(aggregate, count, min, max));
+            }
+            result.add(row);
+        }
+        rows = result.iterator();
+    }
+
+    @Override
+    public JSONObject next() {
+        return rows != null && rows.hasNext() ? rows.next() : null;
+    }
+
+    @Override
+    public void close() {
+        rows = null;
+    }
+
+    private Object value(final AggregateOperator.AggregateColumn aggregate, final long count, final Object min, final Object max) {
+        switch (aggregate.getFunction()) {
+            case "MIN":
+                return min;
+            case "MAX":
+                return max;
+            default:
+                return count;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * Produces the records for a stream of primary keys, such as the keys read from a column index. Keys are consumed
+ * one at a time, so only the records actually pulled are ever read. Keys may be checked by {@link KeyFilter}s, such
+ * as column index probes, before their record is read. Records deleted after their key was produced are skipped.
+ *
+ * @author sanketsarang
+ */
+public class KeyLookupOperator implements Operator {
+
+    private final BSqlDataManager dataManager;
+    private final String ds;
+    private final String collection;
+    private final KeySource keySource;
+    private final List<KeyFilter> keyFilters;
+    private final Set<String> columns;
+    private Iterator<String> keys;
+
+    /**
+     * Creates a key lookup operator
+     *
+     * @param dataManager the data manager used to read records
+     * @param ds the datastore
+     * @param collection the collection
+     * @param keySource provides the primary keys of the records to produce when the operator is opened
+     * @param columns the columns to read from each record; <code>null</code> to read complete records
+     */
+    public KeyLookupOperator(final BSqlDataManager dataManager, final String ds, final String collection, final KeySource keySource, final Set<String> columns) {
+        this(dataManager, ds, collection, keySource, Collections.emptyList(), columns);
+    }
+
+    /**
+     * Creates a key lookup operator that reads only the records whose keys are accepted by all key filters
+     *
+     * @param dataManager the data manager used to read records
+     * @param ds the datastore
+     * @param collection the collection
+     * @param keySource provides the primary keys of the records to produce when the operator is opened
+     * @param keyFilters the filters to check each key against, in the order they are to be checked
+     * @param columns the columns to read from each record; <code>null</code> to read complete records
+     */
+    public KeyLookupOperator(final BSqlDataManager dataManager, final String ds, final String collection, final KeySource keySource, final List<KeyFilter> keyFilters, final Set<String> columns) {
+        this.dataManager = dataManager;
+        this.ds = ds;
+        this.collection = collection;
+        this.keySource = keySource;
+        this.keyFilters = keyFilters;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        keys = keySource.keys();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        while (keys != null && keys.hasNext()) {
+            final String key = keys.next();
+            if (!accept(key)) {
+                continue;
+            }
+            try {
+                return columns == null ? dataManager.select(ds, collection, key) : dataManager.select(ds, collection, key, columns);
+            } catch (OperationException ex) {
+                if (ex.getErrorCode() != ErrorCode.PRIMARY_KEY_INEXISTENT) {
+                    throw ex;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        keys = null;
+    }
+
+    private boolean accept(final String key) throws OperationException {
+        for (KeyFilter keyFilter : keyFilters) {
+            if (!keyFilter.accept(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Provides the primary keys read by a {@link KeyLookupOperator}
+     */
+    @FunctionalInterface
+    public interface KeySource {
+
+        public Iterator<String> keys() throws OperationException;
+    }
+
+    /**
+     * Checks a primary key against a condition without reading its record
+     */
+    @FunctionalInterface
+    public interface KeyFilter {
+
+        public boolean accept(String key) throws OperationException;
+    }
+}
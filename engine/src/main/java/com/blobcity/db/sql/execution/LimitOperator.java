@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.parser.CursorNode;
+import com.foundationdb.sql.parser.NumericConstantNode;
+import com.foundationdb.sql.parser.ValueNode;
+import org.json.JSONObject;
+
+/**
+ * Skips the first <code>offset</code> rows of its child and then produces at most <code>limit</code> rows. The child
+ * is closed as soon as the limit is reached, so no rows beyond the limit are ever read.
+ *
+ * @author sanketsarang
+ */
+public class LimitOperator implements Operator {
+
+    private final Operator child;
+    private final long offset;
+    private final long limit;
+    private long skipped = 0;
+    private long produced = 0;
+    private boolean exhausted = false;
+
+    /**
+     * Creates a limit operator
+     *
+     * @param child the operator producing the rows to limit
+     * @param offset the number of rows to skip
+     * @param limit the maximum number of rows to produce; <code>-1</code> for no limit
+     */
+    public LimitOperator(final Operator child, final long offset, final long limit) {
+        this.child = child;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        if (exhausted) {
+            return null;
+        }
+
+        if (limit != -1 && produced >= limit) {
+            exhausted = true;
+            child.close();
+            return null;
+        }
+
+        while (skipped < offset) {
+            if (child.next() == null) {
+                exhausted = true;
+                return null;
+            }
+            skipped++;
+        }
+
+        final JSONObject row = child.next();
+        if (row == null) {
+            exhausted = true;
+            return null;
+        }
+        produced++;
+        return row;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+
+    /**
+     * Gets the maximum number of rows requested by a statement through its LIMIT or FETCH FIRST clause
+     *
+     * @param node the parsed SELECT statement
+     * @return the maximum number of rows to produce; <code>-1</code> if the number of rows is not limited
+     * @throws OperationException if the limit is not a numeric constant
+     */
+    public static int limit(final CursorNode node) throws OperationException {
+        return node.getFetchFirstClause() == null ? -1 : intValue(node.getFetchFirstClause(), "LIMIT");
+    }
+
+    /**
+     * Gets the number of rows to skip as requested by a statement through its OFFSET clause
+     *
+     * @param node the parsed SELECT statement
+     * @return the number of rows to skip
+     * @throws OperationException if the offset is not a numeric constant
+     */
+    public static int offset(final CursorNode node) throws OperationException {
+        return node.getOffsetClause() == null ? 0 : intValue(node.getOffsetClause(), "OFFSET");
+    }
+
+    private static int intValue(final ValueNode valueNode, final String clause) throws OperationException {
+        if (!(valueNode instanceof NumericConstantNode) || ((Number) ((NumericConstantNode) valueNode).getValue()).intValue() < 0) {
+            throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, clause + " must be a non negative number");
+        }
+        return ((Number) ((NumericConstantNode) valueNode).getValue()).intValue();
+    }
+}
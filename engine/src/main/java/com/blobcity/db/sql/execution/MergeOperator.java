@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.json.JSONObject;
+
+/**
+ * Merges runs of rows, each already ordered on the same comparator, into a single ordered stream. Only the head row of
+ * every run is held. Rows that compare equal are produced in the order of their runs, so merging the sorted runs of
+ * consecutive input rows is stable.
+ *
+ * <p>
+ * Operators that spill write rows tagged with the sequence of their input row, and merge them back in input order
+ * through {@link #bySequence(List)}.
+ *
+ * @author sanketsarang
+ */
+public class MergeOperator implements Operator {
+
+    private static final String SEQUENCE = "s";
+    private static final String ROW = "r";
+
+    private final List<Operator> runs;
+    private final Comparator<JSONObject> comparator;
+    private PriorityQueue<Head> heads;
+
+    /**
+     * Creates a merge operator
+     *
+     * @param runs the ordered runs to merge, in input order
+     * @param comparator the order of the rows within each run
+     */
+    public MergeOperator(final List<Operator> runs, final Comparator<JSONObject> comparator) {
+        this.runs = runs;
+        this.comparator = comparator;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        final Comparator<Head> order = (head1, head2) -> {
+            final int result = comparator.compare(head1.row, head2.row);
+            return result != 0 ? result : Integer.compare(head1.run, head2.run);
+        };
+        heads = new PriorityQueue<>(Math.max(1, runs.size()), order);
+        for (int i = 0; i < runs.size(); i++) {
+            runs.get(i).open();
+            final JSONObject row = runs.get(i).next();
+            if (row != null) {
+                heads.add(new Head(row, i));
+            }
+        }
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        final Head head = heads == null ? null : heads.poll();
+        if (head == null) {
+            return null;
+        }
+
+        final JSONObject row = head.row;
+        final JSONObject following = runs.get(head.run).next();
+        if (following != null) {
+            heads.add(new Head(following, head.run));
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        heads = null;
+        for (Operator run : runs) {
+            run.close();
+        }
+    }
+
+    /**
+     * Wraps a row with the sequence of the input row it stands for, for merging back through
+     * {@link #bySequence(List)}
+     *
+     * @param sequence the sequence of the input row
+     * @param row the row
+     * @return the sequenced row
+     */
+    public static JSONObject sequenced(final long sequence, final JSONObject row) {
+        final JSONObject sequenced = new JSONObject();
+        sequenced.put(SEQUENCE, sequence);
+        sequenced.put(ROW, row);
+        return sequenced;
+    }
+
+    /**
+     * Merges runs of sequenced rows, each ordered on sequence, and produces the rows in sequence order without their
+     * sequence
+     *
+     * @param runs the runs of rows created through {@link #sequenced(long, JSONObject)}
+     * @return an operator producing the unwrapped rows
+     */
+    public static Operator bySequence(final List<Operator> runs) {
+        final MergeOperator merge = new MergeOperator(runs, Comparator.comparingLong(row -> row.getLong(SEQUENCE)));
+        return new Operator() {
+            @Override
+            public void open() throws OperationException {
+                merge.open();
+            }
+
+            @Override
+            public JSONObject next() throws OperationException {
+                final JSONObject sequenced = merge.next();
+                return sequenced == null ? null : sequenced.getJSONObject(ROW);
+            }
+
+            @Override
+            public void close() {
+                merge.close();
+            }
+        };
+    }
+
+    /**
+     * Produces the rows of runs one run after another, for runs that need not be merged in order
+     *
+     * @param runs the runs, in the order to produce them
+     * @return an operator producing the rows of all runs
+     */
+    public static Operator concat(final List<Operator> runs) {
+        return new Operator() {
+            private int run = -1;
+
+            @Override
+            public void open() throws OperationException {
+                close();
+                run = 0;
+                if (!runs.isEmpty()) {
+                    runs.get(0).open();
+                }
+            }
+
+            @Override
+            public JSONObject next() throws OperationException {
+                while (run >= 0 && run < runs.size()) {
+                    final JSONObject row = runs.get(run).next();
+                    if (row != null) {
+                        return row;
+                    }
+                    runs.get(run).close();
+                    if (++run < runs.size()) {
+                        runs.get(run).open();
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public void close() {
+                for (Operator operator : runs) {
+                    operator.close();
+                }
+                run = -1;
+            }
+        };
+    }
+
+    /**
+     * Creates a run from rows held in memory
+     *
+     * @param rows the rows, in run order
+     * @return an operator producing the rows
+     */
+    public static Operator inMemory(final List<JSONObject> rows) {
+        return new Operator() {
+            private Iterator<JSONObject> iterator;
+
+            @Override
+            public void open() {
+                iterator = rows.iterator();
+            }
+
+            @Override
+            public JSONObject next() {
+                return iterator != null && iterator.hasNext() ? iterator.next() : null;
+            }
+
+            @Override
+            public void close() {
+                iterator = null;
+            }
+        };
+    }
+
+    private static class Head {
+
+        private final JSONObject row;
+        private final int run;
+
+        private Head(final JSONObject row, final int run) {
+            this.row = row;
+            this.run = run;
+        }
+    }
+}
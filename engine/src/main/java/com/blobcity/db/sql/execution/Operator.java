@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.OperationException;
+import org.json.JSONObject;
+
+/**
+ * A single stage of a pull based SELECT execution pipeline. The consumer calls {@link #open()} once, then pulls rows
+ * by calling {@link #next()} until it returns <code>null</code>, and finally calls {@link #close()}. An operator pulls
+ * from its child only as many rows as it needs to produce the next row, so a consumer that stops pulling early stops
+ * all work below it.
+ *
+ * @author sanketsarang
+ */
+public interface Operator extends AutoCloseable {
+
+    /**
+     * Prepares the operator and its children for producing rows
+     *
+     * @throws OperationException if the operator fails to initialise
+     */
+    public void open() throws OperationException;
+
+    /**
+     * Produces the next row of this operator
+     *
+     * @return the next row; <code>null</code> if no further rows are available
+     * @throws OperationException if an error occurs in producing the row
+     */
+    public JSONObject next() throws OperationException;
+
+    /**
+     * Releases any resources held by the operator and its children. Safe to call more than once, and before all rows
+     * are consumed.
+     */
+    @Override
+    public void close();
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.cluster.partition.PartitionManager;
+import com.blobcity.db.exceptions.OperationException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * Produces the records for a set of primary keys of a partitioned collection, reading each record from a node owning
+ * it. All records are read when the operator is opened, with the reads to different nodes running in parallel.
+ *
+ * @author sanketsarang
+ */
+public class PartitionLookupOperator implements Operator {
+
+    private final PartitionManager partitionManager;
+    private final String ds;
+    private final String collection;
+    private final Collection<String> keys;
+    private final Set<String> columns;
+    private Iterator<JSONObject> records;
+
+    /**
+     * Creates a partition lookup operator
+     *
+     * @param partitionManager the partition manager used to read records from their owners
+     * @param ds the datastore
+     * @param collection the partitioned collection
+     * @param keys the primary keys of the records to produce
+     * @param columns the columns to read from each record; <code>null</code> to read complete records
+     */
+    public PartitionLookupOperator(final PartitionManager partitionManager, final String ds, final String collection, final Collection<String> keys, final Set<String> columns) {
+        this.partitionManager = partitionManager;
+        this.ds = ds;
+        this.collection = collection;
+        this.keys = keys;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        records = partitionManager.select(ds, collection, keys, columns).iterator();
+    }
+
+    @Override
+    public JSONObject next() {
+        return records != null && records.hasNext() ? records.next() : null;
+    }
+
+    @Override
+    public void close() {
+        records = null;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Reduces each row of its child to the selected columns, renaming columns that are selected under an alias
+ *
+ * @author sanketsarang
+ */
+public class ProjectOperator implements Operator {
+
+    private final Operator child;
+    private final Map<String, String> columns;
+
+    /**
+     * Creates a project operator
+     *
+     * @param child the operator producing the rows to project
+     * @param columns the selected columns in select list order, mapped from the column name in the input row to the
+     * column name in the output row
+     */
+    public ProjectOperator(final Operator child, final Map<String, String> columns) {
+        this.child = child;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        final JSONObject row = child.next();
+        if (row == null) {
+            return null;
+        }
+
+        final JSONObject projected = new JSONObject();
+        columns.forEach((inputName, outputName) -> {
+            if (row.has(inputName)) {
+                projected.put(outputName, row.get(inputName));
+            }
+        });
+        return projected;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import org.json.JSONObject;
+
+/**
+ * A query admitted by the {@link QueryScheduler}, carrying its cancellation flag and deadline. The context is bound to
+ * the thread running the query, and the scan loops of query execution call {@link #checkCancelled()} between rows, so
+ * a killed or timed out query stops at the next row it reads.
+ *
+ * @author sanketsarang
+ */
+public class QueryContext {
+
+    private static final ThreadLocal<QueryContext> current = new ThreadLocal<>();
+
+    private final String requestId;
+    private final String ds;
+    private final String query;
+    private final QueryPriority priority;
+    private final long submitTime;
+    private volatile long startTime = -1;
+    private volatile long deadline = Long.MAX_VALUE;
+    private volatile ErrorCode cancelled;
+    private int nesting = 0;
+
+    QueryContext(final String requestId, final String ds, final String query, final QueryPriority priority) {
+        this.requestId = requestId;
+        this.ds = ds;
+        this.query = query;
+        this.priority = priority;
+        this.submitTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the query bound to the calling thread
+     *
+     * @return the context of the query; <code>null</code> if the thread is not running an admitted query
+     */
+    public static QueryContext current() {
+        return current.get();
+    }
+
+    /**
+     * Stops the query running on the calling thread if it has been killed or has run past its deadline. Does nothing
+     * on a thread not running an admitted query.
+     *
+     * @throws OperationException with {@link ErrorCode#QUERY_CANCELLED} or {@link ErrorCode#QUERY_TIMEOUT} if the
+     * query must stop
+     */
+    public static void checkCancelled() throws OperationException {
+        final QueryContext context = current.get();
+        if (context != null) {
+            context.check();
+        }
+    }
+
+    /**
+     * Stops the query if it has been killed or has run past its deadline
+     *
+     * @throws OperationException with {@link ErrorCode#QUERY_CANCELLED} or {@link ErrorCode#QUERY_TIMEOUT} if the
+     * query must stop
+     */
+    public void check() throws OperationException {
+        if (cancelled == null && System.currentTimeMillis() > deadline) {
+            cancelled = ErrorCode.QUERY_TIMEOUT;
+        }
+        if (cancelled != null) {
+            throw new OperationException(cancelled, cancelled.getErrorMessage() + ": " + requestId);
+        }
+    }
+
+    /**
+     * Flags the query for cancellation. The query stops at the next row it reads, or leaves the admission queue if it
+     * has not started yet.
+     */
+    public void cancel() {
+        if (cancelled == null) {
+            cancelled = ErrorCode.QUERY_CANCELLED;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled != null;
+    }
+
+    void start(final long timeout) {
+        startTime = System.currentTimeMillis();
+        deadline = timeout > 0 ? startTime + timeout : Long.MAX_VALUE;
+        current.set(this);
+    }
+
+    /* nesting is only changed by the thread running the query */
+    void nest() {
+        nesting++;
+    }
+
+    boolean unnest() {
+        if (nesting == 0) {
+            return false;
+        }
+        nesting--;
+        return true;
+    }
+
+    void finish() {
+        if (current.get() == this) {
+            current.remove();
+        }
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getDs() {
+        return ds;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public QueryPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return <code>true</code> if the query has been admitted; <code>false</code> if it is waiting for admission
+     */
+    public boolean isRunning() {
+        return startTime >= 0;
+    }
+
+    public JSONObject toJson() {
+        final long currentTime = System.currentTimeMillis();
+        final JSONObject jsonObject = new JSONObject();
+        jsonObject.put("id", requestId);
+        jsonObject.put("q", query);
+        jsonObject.put("priority", priority.name().toLowerCase());
+        jsonObject.put("state", cancelled != null ? "cancelling" : isRunning() ? "running" : "queued");
+        jsonObject.put("queued", (isRunning() ? startTime : currentTime) - submitTime);
+        jsonObject.put("tm", isRunning() ? currentTime - startTime : 0);
+        return jsonObject;
+    }
+}
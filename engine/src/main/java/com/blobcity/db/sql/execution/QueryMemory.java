@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * The heap budget of a single query, shared by all of its memory hungry operators. Operators reserve the approximate
+ * size of the rows they hold, and spill to temporary files once a reservation is refused. Sizes are estimates; the
+ * budget bounds the rows held by operators, not the total heap used by the query.
+ *
+ * <p>
+ * Also records how much a query spilled, for reporting in the query response and query stats.
+ *
+ * @author sanketsarang
+ */
+public class QueryMemory {
+
+    /* approximate heap size of a row object and of each of its entries, excluding strings */
+    private static final long ROW_OVERHEAD = 64;
+    private static final long ENTRY_OVERHEAD = 48;
+
+    private final long budget;
+    private final Path spillFolder;
+    private final AtomicLong reserved = new AtomicLong();
+    private final AtomicLong spilledRows = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private final AtomicLong spillFiles = new AtomicLong();
+    private final AtomicLong spillNanos = new AtomicLong();
+
+    /**
+     * Creates the budget of a query
+     *
+     * @param budget the number of bytes operators may hold before spilling
+     * @param spillFolder the folder to create spill files in
+     */
+    public QueryMemory(final long budget, final Path spillFolder) {
+        this.budget = budget;
+        this.spillFolder = spillFolder;
+    }
+
+    /**
+     * Reserves heap for holding data. Nothing is reserved if the reservation would exceed the budget.
+     *
+     * @param bytes the number of bytes to reserve
+     * @return <code>true</code> if reserved; <code>false</code> if the caller must spill
+     */
+    public boolean reserve(final long bytes) {
+        while (true) {
+            final long current = reserved.get();
+            if (current + bytes > budget && current > 0) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases heap reserved through {@link #reserve(long)}
+     *
+     * @param bytes the number of bytes to release
+     */
+    public void release(final long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    /**
+     * Creates a new spill file. The caller must close the file when done with it, which deletes the file.
+     *
+     * @return the spill file, open for writing
+     * @throws OperationException if the file cannot be created
+     */
+    public SpillFile newSpillFile() throws OperationException {
+        try {
+            Files.createDirectories(spillFolder);
+            spillFiles.incrementAndGet();
+            return new SpillFile(Files.createTempFile(spillFolder, "spill", ".tmp"), this);
+        } catch (IOException ex) {
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not create spill file in " + spillFolder + ": " + ex.getMessage());
+        }
+    }
+
+    void recordSpill(final long rows, final long bytes, final long nanos) {
+        spilledRows.addAndGet(rows);
+        spilledBytes.addAndGet(bytes);
+        spillNanos.addAndGet(nanos);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getSpilledRows() {
+        return spilledRows.get();
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    public long getSpillFiles() {
+        return spillFiles.get();
+    }
+
+    /**
+     * @return time spent writing and reading back spill files, in milliseconds
+     */
+    public long getSpillTime() {
+        return spillNanos.get() / 1000000;
+    }
+
+    public JSONObject getStats() {
+        final JSONObject jsonObject = new JSONObject();
+        jsonObject.put("rows", getSpilledRows());
+        jsonObject.put("bytes", getSpilledBytes());
+        jsonObject.put("files", getSpillFiles());
+        jsonObject.put("time", getSpillTime());
+        return jsonObject;
+    }
+
+    /**
+     * Estimates the heap size of a row
+     *
+     * @param row the row
+     * @return the approximate size in bytes
+     */
+    public static long estimate(final JSONObject row) {
+        long size = ROW_OVERHEAD;
+        for (Object key : row.keySet()) {
+            size += ENTRY_OVERHEAD + 2L * ((String) key).length() + estimateValue(row.opt((String) key));
+        }
+        return size;
+    }
+
+    static long estimateValue(final Object value) {
+        return value instanceof String ? 40 + 2L * ((String) value).length() : 24;
+    }
+}
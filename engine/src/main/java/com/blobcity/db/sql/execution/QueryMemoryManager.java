@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.bsql.BSqlDatastoreManager;
+import com.blobcity.db.constants.Governor;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.sql.util.PathUtil;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Hands out the memory budget of every SELECT query. Sorting, grouping and DISTINCT hold rows in memory only up to the
+ * budget of their query, and spill the rest to temporary files in the spill folder of the datastore.</p>
+ *
+ * <p>
+ * The budget defaults to {@link Governor#QUERY_MEMORY_BUDGET} and may be set per datastore. A budget set on a datastore
+ * is saved in the config file of the datastore, and loaded again on boot. Spill volumes are totalled per datastore for
+ * query stats.</p>
+ *
+ * @author sanketsarang
+ */
+@Component
+public class QueryMemoryManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryMemoryManager.class.getName());
+    private static final String BUDGET = "query-memory-budget";
+
+    private final Map<String, Long> budgets = new ConcurrentHashMap<>();
+
+    private final Map<String, SpillTotals> spillTotals = new ConcurrentHashMap<>();
+
+    @Autowired @Lazy
+    private BSqlDatastoreManager datastoreManager;
+
+    /**
+     * Loads the memory budgets saved in the config files of all datastores. Must be called on boot.
+     */
+    public void init() {
+        datastoreManager.listDatabases().forEach(ds -> {
+            if (!Files.exists(Paths.get(PathUtil.datastoreConfigFile(ds)))) {
+                return;
+            }
+            try {
+                final JSONObject config = readConfig(ds);
+                if (config.has(BUDGET)) {
+                    budgets.put(ds, config.getLong(BUDGET));
+                }
+            } catch (IOException | JSONException ex) {
+                logger.error("Could not read config of datastore " + ds + ", queries will use the default memory budget", ex);
+            }
+        });
+    }
+
+    /**
+     * Creates the memory budget for a query
+     *
+     * @param ds the datastore queried
+     * @return the budget of the query
+     */
+    public QueryMemory newQueryMemory(final String ds) {
+        return new QueryMemory(getBudget(ds), Paths.get(PathUtil.spillFolder(ds)));
+    }
+
+    /**
+     * Sets the memory budget of every query on a datastore, and saves it in the config file of the datastore
+     *
+     * @param ds the datastore
+     * @param bytes the budget in bytes; 0 to use the default budget
+     * @throws OperationException if the config file of the datastore could not be written
+     */
+    public synchronized void setBudget(final String ds, final long bytes) throws OperationException {
+        try {
+            final JSONObject config = Files.exists(Paths.get(PathUtil.datastoreConfigFile(ds))) ? readConfig(ds) : new JSONObject();
+            if (bytes <= 0) {
+                config.remove(BUDGET);
+            } else {
+                config.put(BUDGET, bytes);
+            }
+            Files.write(Paths.get(PathUtil.datastoreConfigFile(ds)), config.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | JSONException ex) {
+            logger.error("Could not write config of datastore " + ds, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not save the query memory budget of datastore " + ds);
+        }
+
+        if (bytes <= 0) {
+            budgets.remove(ds);
+        } else {
+            budgets.put(ds, bytes);
+        }
+    }
+
+    public long getBudget(final String ds) {
+        return budgets.getOrDefault(ds, Governor.QUERY_MEMORY_BUDGET);
+    }
+
+    /**
+     * Discards the budget and spill totals of a datastore. Must be called when the datastore is dropped.
+     *
+     * @param ds the datastore
+     */
+    public void evictDatastore(final String ds) {
+        budgets.remove(ds);
+        spillTotals.remove(ds);
+    }
+
+    /**
+     * Adds the spill volume of a completed query to the totals of its datastore
+     *
+     * @param ds the datastore queried
+     * @param memory the budget of the query
+     */
+    public void record(final String ds, final QueryMemory memory) {
+        if (memory.getSpillFiles() == 0) {
+            return;
+        }
+
+        final SpillTotals totals = spillTotals.computeIfAbsent(ds, key -> new SpillTotals());
+        totals.queries.incrementAndGet();
+        totals.rows.addAndGet(memory.getSpilledRows());
+        totals.bytes.addAndGet(memory.getSpilledBytes());
+        totals.time.addAndGet(memory.getSpillTime());
+    }
+
+    /**
+     * Gets the memory budget and spill totals of a datastore
+     *
+     * @param ds the datastore
+     * @return the stats as JSON
+     */
+    public JSONObject getStats(final String ds) {
+        final JSONObject jsonObject = new JSONObject();
+        jsonObject.put("budget", getBudget(ds));
+        final SpillTotals totals = spillTotals.getOrDefault(ds, new SpillTotals());
+        jsonObject.put("spilled-queries", totals.queries.get());
+        jsonObject.put("spilled-rows", totals.rows.get());
+        jsonObject.put("spilled-bytes", totals.bytes.get());
+        jsonObject.put("spill-time", totals.time.get());
+        return jsonObject;
+    }
+
+    private JSONObject readConfig(final String ds) throws IOException {
+        final Path path = Paths.get(PathUtil.datastoreConfigFile(ds));
+        return new JSONObject(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+
+    private static class SpillTotals {
+
+        private final AtomicLong queries = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong time = new AtomicLong();
+    }
+}
@@ -14,33 +14,22 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package com.blobcity.db.cluster.connection;
-
-import com.blobcity.db.constants.Ports;
-import java.net.Socket;
-import javax.annotation.PostConstruct;
-import org.springframework.stereotype.Component;
+package com.blobcity.db.sql.execution;
 
 /**
+ * Admission class of a query. Short queries are admitted ahead of heavy ones, and only a limited number of heavy
+ * queries run at a time, so that reports scanning whole collections cannot hold up point lookups.
  *
  * @author sanketsarang
  */
-@Component
-public class ClusterConnectionListener extends ConnectionEndpoint {
-
-    public ClusterConnectionListener() {
-        super(Ports.CLUSTER_PORT);
-    }
-
-    @PostConstruct
-    private void init() {
-
-        /* Starts a thread that listens to incoming TCP connections for inter node connection on cluster */
-        start();
-    }
+public enum QueryPriority {
 
-    @Override
-    protected void processNewClient(Socket socket) {
-        //TODO: Start a new ClusterConnection and add it to the ClusterStore
-    }
+    /**
+     * Lookups on equality or IN conditions, and statements that do not read data
+     */
+    SHORT,
+    /**
+     * Scans, aggregates, sorts and every other query that may read a whole collection
+     */
+    HEAVY
 }
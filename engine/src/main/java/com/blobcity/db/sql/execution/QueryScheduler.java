@@ -0,0 +1,415 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.constants.Governor;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.parser.AggregateNode;
+import com.foundationdb.sql.parser.AndNode;
+import com.foundationdb.sql.parser.BinaryRelationalOperatorNode;
+import com.foundationdb.sql.parser.ColumnReference;
+import com.foundationdb.sql.parser.ConstantNode;
+import com.foundationdb.sql.parser.CursorNode;
+import com.foundationdb.sql.parser.DMLStatementNode;
+import com.foundationdb.sql.parser.InListOperatorNode;
+import com.foundationdb.sql.parser.NodeTypes;
+import com.foundationdb.sql.parser.OrNode;
+import com.foundationdb.sql.parser.ResultColumn;
+import com.foundationdb.sql.parser.SelectNode;
+import com.foundationdb.sql.parser.StatementNode;
+import com.foundationdb.sql.parser.ValueNode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Admits SQL queries for execution. A query runs only while the number of running queries is within the global limit
+ * and the limit of its datastore; beyond that it waits in a queue where {@link QueryPriority#SHORT} queries are
+ * admitted ahead of {@link QueryPriority#HEAVY} ones. Heavy queries are further limited to
+ * {@link Governor#MAX_CONCURRENT_HEAVY_QUERIES} at a time, keeping the remaining slots free for short queries.</p>
+ *
+ * <p>
+ * Every admitted query is given a {@link QueryContext} with a deadline, and can be killed by its request id. A query
+ * waiting longer than {@link Governor#QUERY_QUEUE_TIMEOUT} for admission, or arriving when
+ * {@link Governor#MAX_QUEUED_QUERIES} are waiting, is rejected.</p>
+ *
+ * <p>
+ * A query issued by a thread that is already running an admitted query, such as one run from stored code, runs under
+ * the context of the outer query without being admitted again.</p>
+ *
+ * @author sanketsarang
+ */
+@Component
+public class QueryScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryScheduler.class.getName());
+
+    private final Object lock = new Object();
+    private final TreeSet<Waiter> queue = new TreeSet<>();
+    private final Map<String, Integer> runningPerDs = new HashMap<>();
+    private final Map<String, QueryContext> queries = new ConcurrentHashMap<>();
+    private final Map<String, Integer> dsLimits = new ConcurrentHashMap<>();
+    private final Map<String, Long> timeouts = new ConcurrentHashMap<>();
+    private long sequence = 0;
+    private int running = 0;
+    private int heavyRunning = 0;
+    private long rejected = 0;
+    private long cancelled = 0;
+
+    /**
+     * Admits a query, waiting until it may run. The returned context is bound to the calling thread, and must be
+     * handed to {@link #release(QueryContext)} once the query completes.
+     *
+     * @param ds the datastore queried
+     * @param requestId the id by which the query can be killed
+     * @param query the query, for display
+     * @param priority the admission class of the query
+     * @return the context of the query
+     * @throws OperationException with {@link ErrorCode#QUERY_REJECTED} if the query cannot be admitted in time, or
+     * {@link ErrorCode#QUERY_CANCELLED} if it is killed while waiting
+     */
+    public QueryContext admit(final String ds, final String requestId, final String query, final QueryPriority priority) throws OperationException {
+        final QueryContext outer = QueryContext.current();
+        if (outer != null) {
+            outer.nest();
+            return outer;
+        }
+
+        final QueryContext context = new QueryContext(requestId, ds, query, priority);
+        synchronized (lock) {
+            if (queue.size() >= Governor.MAX_QUEUED_QUERIES) {
+                rejected++;
+                throw new OperationException(ErrorCode.QUERY_REJECTED, "Query rejected as " + queue.size() + " queries are waiting to run");
+            }
+
+            final Waiter waiter = new Waiter(context, sequence++);
+            queries.put(requestId, context);
+            queue.add(waiter);
+            dispatch();
+
+            final long admitBy = System.currentTimeMillis() + Governor.QUERY_QUEUE_TIMEOUT;
+            try {
+                while (!waiter.admitted) {
+                    final long remaining = admitBy - System.currentTimeMillis();
+                    if (context.isCancelled() || remaining <= 0) {
+                        queue.remove(waiter);
+                        queries.remove(requestId);
+                        if (context.isCancelled()) {
+                            cancelled++;
+                            throw new OperationException(ErrorCode.QUERY_CANCELLED, "Query " + requestId + " was killed before it started");
+                        }
+                        rejected++;
+                        throw new OperationException(ErrorCode.QUERY_REJECTED, "Query waited " + Governor.QUERY_QUEUE_TIMEOUT + " ms without being admitted");
+                    }
+                    lock.wait(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                queue.remove(waiter);
+                if (waiter.admitted) {
+                    finish(context);
+                } else {
+                    queries.remove(requestId);
+                }
+                throw new OperationException(ErrorCode.QUERY_CANCELLED, "Interrupted while waiting for admission");
+            }
+        }
+
+        context.start(getTimeout(ds));
+        logger.trace("Admitted {} query {} on {}", new Object[]{priority, requestId, ds});
+        return context;
+    }
+
+    /**
+     * Releases the slot of a completed query, admitting waiting queries in its place
+     *
+     * @param context the context returned by {@link #admit(String, String, String, QueryPriority)}
+     */
+    public void release(final QueryContext context) {
+        if (context.unnest()) {
+            return;
+        }
+
+        context.finish();
+        synchronized (lock) {
+            finish(context);
+        }
+    }
+
+    /**
+     * Binds a context to the calling thread for the part of a query that another node admitted and sent to this node,
+     * such as the fragment of a distributed SELECT. The part is not admitted again, so that it never waits behind the
+     * query it belongs to, but runs under the timeout of its datastore and can be killed by its request id. The
+     * returned context must be handed to {@link #detach(QueryContext)} once the part completes.
+     *
+     * @param ds the datastore queried
+     * @param requestId the id by which the part can be killed
+     * @param query the query, for display
+     * @param priority the admission class of the query
+     * @return the context of the part
+     */
+    public QueryContext attach(final String ds, final String requestId, final String query, final QueryPriority priority) {
+        final QueryContext context = new QueryContext(requestId, ds, query, priority);
+        queries.put(requestId, context);
+        context.start(getTimeout(ds));
+        return context;
+    }
+
+    /**
+     * Unbinds the context of a completed part of a query
+     *
+     * @param context the context returned by {@link #attach(String, String, String, QueryPriority)}
+     */
+    public void detach(final QueryContext context) {
+        context.finish();
+        queries.remove(context.getRequestId(), context);
+    }
+
+    /**
+     * Kills a queued or running query. A running query stops at the next row it reads.
+     *
+     * @param requestId the request id of the query
+     * @return <code>true</code> if the query was found; <code>false</code> otherwise
+     */
+    public boolean kill(final String requestId) {
+        final QueryContext context = queries.get(requestId);
+        if (context == null) {
+            return false;
+        }
+
+        logger.info("Killing query {}: {}", requestId, context.getQuery());
+        context.cancel();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Classifies a statement for admission. SELECT, UPDATE and DELETE statements whose WHERE clause is answered by
+     * equality or IN lookups, and which neither sort, group nor aggregate, are short; all other reads are heavy.
+     * Statements that do not read data are short.
+     *
+     * @param stmt the parsed statement
+     * @return the admission class of the statement
+     */
+    public static QueryPriority classify(final StatementNode stmt) {
+        switch (stmt.getNodeType()) {
+            case NodeTypes.CURSOR_NODE:
+                final CursorNode cursorNode = (CursorNode) stmt;
+                if (cursorNode.getOrderByList() != null || !(cursorNode.getResultSetNode() instanceof SelectNode)) {
+                    return QueryPriority.HEAVY;
+                }
+                final SelectNode selectNode = (SelectNode) cursorNode.getResultSetNode();
+                if (selectNode.isDistinct() || selectNode.getGroupByList() != null || hasAggregates(selectNode)) {
+                    return QueryPriority.HEAVY;
+                }
+                return isLookup(selectNode.getWhereClause()) ? QueryPriority.SHORT : QueryPriority.HEAVY;
+            case NodeTypes.UPDATE_NODE:
+            case NodeTypes.DELETE_NODE:
+                final DMLStatementNode dmlNode = (DMLStatementNode) stmt;
+                return dmlNode.getResultSetNode() instanceof SelectNode && isLookup(((SelectNode) dmlNode.getResultSetNode()).getWhereClause())
+                        ? QueryPriority.SHORT : QueryPriority.HEAVY;
+            default:
+                return QueryPriority.SHORT;
+        }
+    }
+
+    /**
+     * Sets the number of queries that may run at a time on a datastore
+     *
+     * @param ds the datastore
+     * @param limit the number of queries; 0 to be limited only by {@link Governor#MAX_CONCURRENT_QUERIES}
+     */
+    public void setLimit(final String ds, final int limit) {
+        if (limit <= 0) {
+            dsLimits.remove(ds);
+        } else {
+            dsLimits.put(ds, limit);
+        }
+        synchronized (lock) {
+            dispatch();
+        }
+    }
+
+    public int getLimit(final String ds) {
+        return dsLimits.getOrDefault(ds, Governor.MAX_CONCURRENT_QUERIES);
+    }
+
+    /**
+     * Sets the time queries on a datastore may run before they are cancelled. Applies to queries admitted from now on.
+     *
+     * @param ds the datastore
+     * @param millis the time in milliseconds; 0 to use {@link Governor#QUERY_TIMEOUT}
+     */
+    public void setTimeout(final String ds, final long millis) {
+        if (millis <= 0) {
+            timeouts.remove(ds);
+        } else {
+            timeouts.put(ds, millis);
+        }
+    }
+
+    public long getTimeout(final String ds) {
+        return timeouts.getOrDefault(ds, Governor.QUERY_TIMEOUT);
+    }
+
+    /**
+     * Gets the queued and running queries of a datastore
+     *
+     * @param ds the datastore
+     * @return the queries in no particular order
+     */
+    public List<QueryContext> getQueries(final String ds) {
+        final List<QueryContext> list = new ArrayList<>();
+        for (QueryContext context : queries.values()) {
+            if (context.getDs().equals(ds)) {
+                list.add(context);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gets the admission limits and load of a datastore
+     *
+     * @param ds the datastore
+     * @return the stats as JSON
+     */
+    public JSONObject getStats(final String ds) {
+        final JSONObject jsonObject = new JSONObject();
+        jsonObject.put("limit", getLimit(ds));
+        jsonObject.put("timeout", getTimeout(ds));
+        synchronized (lock) {
+            jsonObject.put("running", runningPerDs.getOrDefault(ds, 0));
+            jsonObject.put("running-all", running);
+            jsonObject.put("running-heavy", heavyRunning);
+            jsonObject.put("queued-all", queue.size());
+            jsonObject.put("rejected-all", rejected);
+            jsonObject.put("cancelled-all", cancelled);
+        }
+        final JSONArray queued = new JSONArray();
+        for (QueryContext context : getQueries(ds)) {
+            if (!context.isRunning()) {
+                queued.put(context.getRequestId());
+            }
+        }
+        jsonObject.put("queued", queued);
+        return jsonObject;
+    }
+
+    /* must hold lock */
+    private void finish(final QueryContext context) {
+        queries.remove(context.getRequestId());
+        running--;
+        if (context.getPriority() == QueryPriority.HEAVY) {
+            heavyRunning--;
+        }
+        runningPerDs.merge(context.getDs(), -1, Integer::sum);
+        if (context.isCancelled()) {
+            cancelled++;
+        }
+        dispatch();
+    }
+
+    /* must hold lock. Admits waiting queries in priority order, skipping those that do not fit their limits */
+    private void dispatch() {
+        boolean admitted = false;
+        final Iterator<Waiter> iterator = queue.iterator();
+        while (iterator.hasNext() && running < Governor.MAX_CONCURRENT_QUERIES) {
+            final Waiter waiter = iterator.next();
+            final QueryContext context = waiter.context;
+            final boolean heavy = context.getPriority() == QueryPriority.HEAVY;
+            if (context.isCancelled()
+                    || (heavy && heavyRunning >= Governor.MAX_CONCURRENT_HEAVY_QUERIES)
+                    || runningPerDs.getOrDefault(context.getDs(), 0) >= getLimit(context.getDs())) {
+                continue;
+            }
+
+            iterator.remove();
+            waiter.admitted = true;
+            admitted = true;
+            running++;
+            if (heavy) {
+                heavyRunning++;
+            }
+            runningPerDs.merge(context.getDs(), 1, Integer::sum);
+        }
+        if (admitted) {
+            lock.notifyAll();
+        }
+    }
+
+    private static boolean hasAggregates(final SelectNode selectNode) {
+        for (ResultColumn resultColumn : selectNode.getResultColumns()) {
+            if (resultColumn.getExpression() instanceof AggregateNode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLookup(final ValueNode condition) {
+        if (condition == null) {
+            return false;
+        }
+        if (condition instanceof AndNode) {
+            return isLookup(((AndNode) condition).getLeftOperand()) || isLookup(((AndNode) condition).getRightOperand());
+        }
+        if (condition instanceof OrNode) {
+            return isLookup(((OrNode) condition).getLeftOperand()) && isLookup(((OrNode) condition).getRightOperand());
+        }
+        if (condition instanceof InListOperatorNode) {
+            return true;
+        }
+        if (condition.getNodeType() == NodeTypes.BINARY_EQUALS_OPERATOR_NODE) {
+            final BinaryRelationalOperatorNode equalsNode = (BinaryRelationalOperatorNode) condition;
+            return (equalsNode.getLeftOperand() instanceof ColumnReference && equalsNode.getRightOperand() instanceof ConstantNode)
+                    || (equalsNode.getLeftOperand() instanceof ConstantNode && equalsNode.getRightOperand() instanceof ColumnReference);
+        }
+        return false;
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+
+        private final QueryContext context;
+        private final long sequence;
+        private boolean admitted = false;
+
+        private Waiter(final QueryContext context, final long sequence) {
+            this.context = context;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final Waiter other) {
+            final int result = context.getPriority().compareTo(other.context.getPriority());
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
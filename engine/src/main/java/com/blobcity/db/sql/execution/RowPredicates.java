@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.parser.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import org.json.JSONObject;
+
+/**
+ * Compiles a WHERE clause into a predicate that is evaluated directly on viewable records. Comparisons involving a
+ * null value do not match, as per SQL semantics. A HAVING clause is compiled the same way, and is evaluated on the rows
+ * produced by {@link AggregateOperator}, where each aggregate is read from the column named after it.
+ *
+ * @author sanketsarang
+ */
+public final class RowPredicates {
+
+    private RowPredicates() {
+    }
+
+    /**
+     * Compiles a condition into a row predicate
+     *
+     * @param condition the condition as present in a WHERE clause
+     * @return a predicate that matches the rows satisfying the condition
+     * @throws OperationException if the condition contains an unsupported construct
+     */
+    public static Predicate<JSONObject> compile(final ValueNode condition) throws OperationException {
+        switch (condition.getNodeType()) {
+            case NodeTypes.AND_NODE: {
+                final Predicate<JSONObject> left = compile(((AndNode) condition).getLeftOperand());
+                final Predicate<JSONObject> right = compile(((AndNode) condition).getRightOperand());
+                return left.and(right);
+            }
+            case NodeTypes.OR_NODE: {
+                final Predicate<JSONObject> left = compile(((OrNode) condition).getLeftOperand());
+                final Predicate<JSONObject> right = compile(((OrNode) condition).getRightOperand());
+                return left.or(right);
+            }
+            case NodeTypes.NOT_NODE:
+                return compile(((NotNode) condition).getOperand()).negate();
+            case NodeTypes.BINARY_EQUALS_OPERATOR_NODE:
+            case NodeTypes.BINARY_NOT_EQUALS_OPERATOR_NODE:
+            case NodeTypes.BINARY_LESS_THAN_OPERATOR_NODE:
+            case NodeTypes.BINARY_LESS_EQUALS_OPERATOR_NODE:
+            case NodeTypes.BINARY_GREATER_THAN_OPERATOR_NODE:
+            case NodeTypes.BINARY_GREATER_EQUALS_OPERATOR_NODE:
+                return comparison((BinaryRelationalOperatorNode) condition);
+            case NodeTypes.IN_LIST_OPERATOR_NODE:
+                return in((InListOperatorNode) condition);
+            case NodeTypes.BETWEEN_OPERATOR_NODE:
+                return between((BetweenOperatorNode) condition);
+            case NodeTypes.LIKE_OPERATOR_NODE:
+                return like((LikeEscapeOperatorNode) condition);
+            case NodeTypes.IS_NULL_NODE: {
+                final Function<JSONObject, Object> operand = operand(((IsNullNode) condition).getOperand());
+                return row -> operand.apply(row) == null;
+            }
+            case NodeTypes.IS_NOT_NULL_NODE: {
+                final Function<JSONObject, Object> operand = operand(((IsNullNode) condition).getOperand());
+                return row -> operand.apply(row) != null;
+            }
+            default:
+                throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Unsupported clause : " + condition.toString());
+        }
+    }
+
+    private static Predicate<JSONObject> comparison(final BinaryRelationalOperatorNode node) throws OperationException {
+        final Function<JSONObject, Object> left = operand(node.getLeftOperand());
+        final Function<JSONObject, Object> right = operand(node.getRightOperand());
+        final int nodeType = node.getNodeType();
+        return row -> {
+            final Object leftValue = left.apply(row);
+            final Object rightValue = right.apply(row);
+            if (leftValue == null || rightValue == null) {
+                return false;
+            }
+
+            final int result = RowValues.compare(leftValue, rightValue);
+            switch (nodeType) {
+                case NodeTypes.BINARY_EQUALS_OPERATOR_NODE:
+                    return result == 0;
+                case NodeTypes.BINARY_NOT_EQUALS_OPERATOR_NODE:
+                    return result != 0;
+                case NodeTypes.BINARY_LESS_THAN_OPERATOR_NODE:
+                    return result < 0;
+                case NodeTypes.BINARY_LESS_EQUALS_OPERATOR_NODE:
+                    return result <= 0;
+                case NodeTypes.BINARY_GREATER_THAN_OPERATOR_NODE:
+                    return result > 0;
+                default:
+                    return result >= 0;
+            }
+        };
+    }
+
+    private static Predicate<JSONObject> in(final InListOperatorNode node) throws OperationException {
+        final Function<JSONObject, Object> left = operand(node.getLeftOperand().getNodeList().get(0));
+        final List<Object> values = new ArrayList<>();
+        for (ValueNode valueNode : node.getRightOperandList().getNodeList()) {
+            values.add(constant(valueNode));
+        }
+        final boolean negated = node.isNegated();
+        return row -> {
+            final Object value = left.apply(row);
+            if (value == null) {
+                return false;
+            }
+            for (Object inValue : values) {
+                if (inValue != null && RowValues.compare(value, inValue) == 0) {
+                    return !negated;
+                }
+            }
+            return negated;
+        };
+    }
+
+    private static Predicate<JSONObject> between(final BetweenOperatorNode node) throws OperationException {
+        final Function<JSONObject, Object> operand = operand(node.getLeftOperand());
+        final Function<JSONObject, Object> lower = operand(node.getRightOperandList().get(0));
+        final Function<JSONObject, Object> upper = operand(node.getRightOperandList().get(1));
+        return row -> {
+            final Object value = operand.apply(row);
+            final Object lowerValue = lower.apply(row);
+            final Object upperValue = upper.apply(row);
+            return value != null && lowerValue != null && upperValue != null
+                    && RowValues.compare(value, lowerValue) >= 0 && RowValues.compare(value, upperValue) <= 0;
+        };
+    }
+
+    private static Predicate<JSONObject> like(final LikeEscapeOperatorNode node) throws OperationException {
+        if (node.getRightOperand() != null) {
+            throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "LIKE with ESCAPE is not supported at present");
+        }
+        final Function<JSONObject, Object> receiver = operand(node.getReceiver());
+        final Object pattern = constant(node.getLeftOperand());
+        if (pattern == null) {
+            return row -> false;
+        }
+
+        final Pattern regex = likePattern(pattern.toString());
+        return row -> {
+            final Object value = receiver.apply(row);
+            return value != null && regex.matcher(value.toString()).matches();
+        };
+    }
+
+    /**
+     * Converts an SQL LIKE pattern to a regular expression
+     *
+     * @param likePattern the LIKE pattern, using <code>%</code> and <code>_</code> as wildcards
+     * @return the equivalent compiled regular expression
+     */
+    static Pattern likePattern(final String likePattern) {
+        final StringBuilder sb = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (char c : likePattern.toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    sb.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                sb.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    private static Function<JSONObject, Object> operand(final ValueNode node) throws OperationException {
+        if (node instanceof ColumnReference) {
+            final String column = node.getColumnName();
+            return row -> RowValues.get(row, column);
+        }
+        if (node instanceof AggregateNode) {
+            final String column = AggregateOperator.AggregateColumn.nameOf((AggregateNode) node);
+            return row -> RowValues.get(row, column);
+        }
+        final Object value = constant(node);
+        return row -> value;
+    }
+
+    private static Object constant(final ValueNode node) throws OperationException {
+        if (!(node instanceof ConstantNode)) {
+            throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Unsupported operand : " + node.toString());
+        }
+        return ((ConstantNode) node).getValue();
+    }
+}
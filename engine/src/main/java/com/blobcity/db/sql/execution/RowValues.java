@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import org.json.JSONObject;
+
+/**
+ * Comparison of column values as held inside viewable records. Numbers compare by numeric value irrespective of their
+ * Java type, and a string compares numerically against a number if it holds a number. All other values compare by
+ * their string form.
+ *
+ * @author sanketsarang
+ */
+public final class RowValues {
+
+    private RowValues() {
+    }
+
+    /**
+     * Gets the value of a column in a row
+     *
+     * @param row the row
+     * @param column name of the column
+     * @return the column value; <code>null</code> if the row does not have the column or holds a null value for it
+     */
+    public static Object get(final JSONObject row, final String column) {
+        final Object value = row.opt(column);
+        return value == JSONObject.NULL ? null : value;
+    }
+
+    /**
+     * Compares two non null column values
+     *
+     * @param value1 the first value
+     * @param value2 the second value
+     * @return a negative integer, zero, or a positive integer as the first value is less than, equal to, or greater
+     * than the second
+     */
+    public static int compare(final Object value1, final Object value2) {
+        if (isIntegral(value1) && isIntegral(value2)) {
+            return Long.compare(((Number) value1).longValue(), ((Number) value2).longValue());
+        }
+
+        if (value1 instanceof Number || value2 instanceof Number) {
+            final BigDecimal decimal1 = toDecimal(value1);
+            final BigDecimal decimal2 = toDecimal(value2);
+            if (decimal1 != null && decimal2 != null) {
+                return decimal1.compareTo(decimal2);
+            }
+        }
+
+        if (value1 instanceof Boolean && value2 instanceof Boolean) {
+            return Boolean.compare((Boolean) value1, (Boolean) value2);
+        }
+
+        return value1.toString().compareTo(value2.toString());
+    }
+
+    /**
+     * Compares two column values that may be null. Null values are ordered before all other values.
+     *
+     * @param value1 the first value
+     * @param value2 the second value
+     * @return a negative integer, zero, or a positive integer as the first value is less than, equal to, or greater
+     * than the second
+     */
+    public static int compareNullable(final Object value1, final Object value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == null ? (value2 == null ? 0 : -1) : 1;
+        }
+        return compare(value1, value2);
+    }
+
+    /**
+     * Normalises a column value for use as a hash key, so that values comparing equal have equal keys irrespective of
+     * their Java type
+     *
+     * @param value the column value
+     * @return the value to use as hash key
+     */
+    public static Object normalize(final Object value) {
+        if (value instanceof Number) {
+            final BigDecimal decimal = toDecimal(value);
+            return decimal == null ? value : decimal.stripTrailingZeros();
+        }
+        return value;
+    }
+
+    /**
+     * Converts a column value to a decimal
+     *
+     * @param value the column value
+     * @return the decimal form of the value; <code>null</code> if the value is not numeric
+     */
+    public static BigDecimal toDecimal(final Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        } else if (isIntegral(value)) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            final double doubleValue = ((Number) value).doubleValue();
+            return Double.isNaN(doubleValue) || Double.isInfinite(doubleValue) ? null : BigDecimal.valueOf(doubleValue);
+        } else if (value instanceof String) {
+            try {
+                return new BigDecimal(((String) value).trim());
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIntegral(final Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.exceptions.OperationException;
+import java.util.Iterator;
+import org.json.JSONObject;
+
+/**
+ * Produces every record of an on-disk table by streaming the table in its on-disk order
+ *
+ * @author sanketsarang
+ */
+public class ScanOperator implements Operator {
+
+    private final BSqlDataManager dataManager;
+    private final String ds;
+    private final String collection;
+    private Iterator<JSONObject> iterator;
+
+    public ScanOperator(final BSqlDataManager dataManager, final String ds, final String collection) {
+        this.dataManager = dataManager;
+        this.ds = ds;
+        this.collection = collection;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        iterator = dataManager.selectAllAsStream(ds, collection);
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        return iterator != null && iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public void close() {
+        iterator = null;
+    }
+}
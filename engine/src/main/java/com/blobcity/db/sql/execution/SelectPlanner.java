@@ -0,0 +1,812 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.bsql.BSqlIndexManager;
+import com.blobcity.db.cluster.partition.PartitionManager;
+import com.blobcity.db.cluster.partition.PartitionStore;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.exceptions.DbRuntimeException;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.schema.Column;
+import com.blobcity.db.schema.IndexTypes;
+import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.processing.OnDiskWhereHandling;
+import com.blobcity.db.sql.processing.WherePlanner;
+import com.blobcity.db.sql.util.OperatorMapper;
+import com.blobcity.db.storage.BSqlFileManager;
+import com.foundationdb.sql.StandardException;
+import com.foundationdb.sql.parser.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Builds the {@link Operator} pipeline that executes a SELECT statement on an on-disk table. Operators are stacked in
+ * the order: source, filter, aggregate, sort, project, distinct and limit. An ORDER BY with a LIMIT keeps only the top
+ * rows while sorting, and an ORDER BY on a single BTREE indexed column of a query without WHERE, GROUP BY or
+ * aggregates reads the records in index order, without sorting. COUNT, MIN and MAX of a BTREE indexed column,
+ * grouped on the column or not, and DISTINCT values of the column are answered from the index alone through
+ * {@link IndexAggregateOperator}, when the WHERE clause is only on that column.
+ *
+ * <p>
+ * The source is chosen from the WHERE clause. Without a WHERE clause the table is scanned. Otherwise the top level
+ * conjunct on existing indexes that is estimated by {@link WherePlanner} to match the fewest records drives the
+ * query: its keys are read from the indexes, the remaining equality and IN conjuncts that are selective are checked on
+ * each key with index probes, and all other conjuncts are evaluated on the records read. If no conjunct is selective
+ * enough the table is scanned instead. When no conjunct is on an existing index, the column of the first index
+ * answerable conjunct is indexed and used to drive the query, as is a WHERE clause consisting only of index
+ * answerable conditions joined by OR. Any other WHERE clause is evaluated on a table scan.
+ *
+ * <p>
+ * On a collection partitioned across the cluster, a conjunct of <code>_id</code> equal to or IN a list of constants
+ * reads the records straight from the nodes owning the keys through {@link PartitionLookupOperator}, and all other
+ * conjuncts are evaluated on the records read. Other SELECTs on a partitioned collection run on every node holding the
+ * collection, through {@link #planFragment} and {@link #planMerge}.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class SelectPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SelectPlanner.class.getName());
+    private static final String PRIMARY_KEY = "_id";
+
+    @Autowired
+    private BSqlDataManager dataManager;
+    @Autowired
+    private OnDiskWhereHandling onDiskWhereHandling;
+    @Autowired
+    private WherePlanner wherePlanner;
+    @Autowired
+    @Lazy
+    private BSqlIndexManager indexManager;
+    @Autowired
+    @Lazy
+    private SchemaStore schemaStore;
+    @Autowired
+    @Lazy
+    private RowCountStore rowCountStore;
+    @Autowired
+    @Lazy
+    private BSqlFileManager fileManager;
+    @Autowired
+    @Lazy
+    private PartitionStore partitionStore;
+    @Autowired
+    @Lazy
+    private PartitionManager partitionManager;
+
+    /**
+     * Builds the execution pipeline for a SELECT statement
+     *
+     * @param ds the datastore
+     * @param collection the on-disk collection being selected from
+     * @param node the parsed SELECT statement
+     * @param memory the memory budget of the query, that sorting, grouping and DISTINCT spill to disk beyond;
+     * <code>null</code> to run the query entirely in memory
+     * @return the root operator of the pipeline, that produces the result rows in order
+     * @throws OperationException if the statement uses an unsupported construct
+     * @throws StandardException if the statement tree cannot be traversed
+     */
+    public Operator plan(final String ds, final String collection, final CursorNode node, final QueryMemory memory)
+            throws OperationException, StandardException {
+        final Select select = new Select(node);
+
+        Operator operator = null;
+        if (!select.selectAll) {
+            operator = indexAggregateSource(ds, collection, select.distinct, !select.aliases.isEmpty(), select.aggregates, select.groupColumns,
+                    select.columns, select.whereClause);
+        }
+        final boolean aggregated = operator != null;
+        if (!aggregated && select.whereClause == null && !select.isAggregate() && select.sortColumns.size() == 1) {
+            operator = indexOrderedSource(ds, collection, select.sortColumns.get(0), select.selectAll ? null : select.columns);
+        }
+        final boolean ordered = !aggregated && operator != null;
+        if (operator == null) {
+            operator = source(ds, collection, select.resultColumns, select.whereClause, select.selectAll ? null : select.columns);
+        }
+        if (!aggregated && select.isAggregate()) {
+            operator = new AggregateOperator(operator, select.groupColumns, select.aggregates, ForkJoinPool.getCommonPoolParallelism(), memory);
+        }
+        return finish(select, operator, ordered, memory);
+    }
+
+    /**
+     * Checks if a SELECT is to be executed across all nodes holding the collection, through {@link #planFragment} on
+     * each node and {@link #planMerge} on the node the query was sent to. Applies to SELECTs on a partitioned
+     * collection, other than lookups on <code>_id</code> that {@link #plan} reads straight from the owning nodes.
+     *
+     * @param ds the datastore
+     * @param collection the on-disk collection being selected from
+     * @param node the parsed SELECT statement
+     * @return <code>true</code> if the query is to be distributed; <code>false</code> to plan it with {@link #plan}
+     * @throws OperationException if the schema of the collection cannot be read
+     */
+    public boolean isDistributed(final String ds, final String collection, final CursorNode node) throws OperationException {
+        if (!partitionStore.isPartitioned(ds, collection)) {
+            return false;
+        }
+
+        final ValueNode whereClause = ((SelectNode) node.getResultSetNode()).getWhereClause();
+        if (whereClause != null) {
+            final List<ValueNode> conjuncts = new ArrayList<>();
+            flattenAnd(whereClause, conjuncts);
+            for (ValueNode conjunct : conjuncts) {
+                if (primaryKeys(conjunct) != null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the part of a distributed SELECT that runs on every node holding the collection, over the local records
+     * whose key is accepted by the key filter. The WHERE clause is evaluated on the node. Aggregates are computed up to
+     * their running state in {@link AggregateOperator.Mode#PARTIAL}. Rows of other queries are reduced to the columns
+     * the query refers to, ordered on the ORDER BY columns, cut to the first OFFSET + LIMIT rows, and rid of
+     * duplicates for a DISTINCT, so that only rows that can make it to the result leave the node.
+     *
+     * @param ds the datastore
+     * @param collection the on-disk collection being selected from
+     * @param node the parsed SELECT statement
+     * @param keyFilter accepts the primary keys of the local records this node answers for
+     * @param memory the memory budget of the query; <code>null</code> to run the query entirely in memory
+     * @return the root operator of the fragment
+     * @throws OperationException if the statement uses an unsupported construct
+     * @throws StandardException if the statement tree cannot be traversed
+     */
+    public Operator planFragment(final String ds, final String collection, final CursorNode node, final Predicate<String> keyFilter,
+            final QueryMemory memory) throws OperationException, StandardException {
+        final Select select = new Select(node);
+        final Set<String> columns = select.selectAll ? null : new HashSet<>(select.columns);
+        if (columns != null) {
+            columns.add(PRIMARY_KEY);
+        }
+
+        Operator operator = null;
+        if (select.whereClause == null && !select.isAggregate() && select.sortColumns.size() == 1) {
+            operator = indexOrderedSource(ds, collection, select.sortColumns.get(0), columns);
+        }
+        final boolean ordered = operator != null;
+        if (operator == null) {
+            operator = source(ds, collection, select.resultColumns, select.whereClause, columns);
+        }
+        operator = new FilterOperator(operator, row -> keyFilter.test(String.valueOf(row.opt(PRIMARY_KEY))));
+
+        if (select.isAggregate()) {
+            return new AggregateOperator(operator, select.groupColumns, select.aggregates, ForkJoinPool.getCommonPoolParallelism(), memory,
+                    AggregateOperator.Mode.PARTIAL);
+        }
+        if (!select.sortColumns.isEmpty() && !ordered) {
+            operator = select.limit != -1 && !select.distinct ? new TopNOperator(operator, select.sortColumns, (long) select.offset + select.limit)
+                    : new SortOperator(operator, select.sortColumns, memory);
+        }
+        if (!select.selectAll) {
+            final Map<String, String> referenced = new LinkedHashMap<>();
+            select.columns.forEach(column -> referenced.put(column, column));
+            operator = new ProjectOperator(operator, referenced);
+        }
+        if (select.distinct) {
+            operator = new DistinctOperator(operator, memory);
+        } else if (select.limit != -1) {
+            operator = new LimitOperator(operator, 0, (long) select.offset + select.limit);
+        }
+        return operator;
+    }
+
+    /**
+     * Builds the part of a distributed SELECT that runs on the node the query was sent to, over the rows produced by
+     * the fragments of all nodes. Partial aggregates are merged in {@link AggregateOperator.Mode#MERGE}, and ordered
+     * fragments are merged through {@link MergeOperator} without sorting again. HAVING, projection, DISTINCT, OFFSET
+     * and LIMIT are then applied as by {@link #plan}.
+     *
+     * @param node the parsed SELECT statement
+     * @param fragments the rows produced by the fragment of each node, as planned by {@link #planFragment}
+     * @param memory the memory budget of the query; <code>null</code> to run the query entirely in memory
+     * @return the root operator of the pipeline, that produces the result rows in order
+     * @throws OperationException if the statement uses an unsupported construct
+     * @throws StandardException if the statement tree cannot be traversed
+     */
+    public Operator planMerge(final CursorNode node, final List<Operator> fragments, final QueryMemory memory)
+            throws OperationException, StandardException {
+        final Select select = new Select(node);
+        if (select.isAggregate()) {
+            final Operator operator = new AggregateOperator(MergeOperator.concat(fragments), select.groupColumns, select.aggregates,
+                    ForkJoinPool.getCommonPoolParallelism(), memory, AggregateOperator.Mode.MERGE);
+            return finish(select, operator, false, memory);
+        }
+
+        final boolean ordered = !select.sortColumns.isEmpty();
+        final Operator operator = ordered ? new MergeOperator(fragments, SortOperator.comparator(select.sortColumns)) : MergeOperator.concat(fragments);
+        return finish(select, operator, ordered, memory);
+    }
+
+    /**
+     * Stacks the operators that follow aggregation: HAVING, ORDER BY unless the rows are already ordered, projection,
+     * DISTINCT and LIMIT
+     */
+    private Operator finish(final Select select, Operator operator, final boolean ordered, final QueryMemory memory) throws OperationException {
+        if (select.havingClause != null) {
+            operator = new FilterOperator(operator, RowPredicates.compile(select.havingClause));
+        }
+        if (!select.sortColumns.isEmpty() && !ordered) {
+            operator = select.limit != -1 && !select.distinct ? new TopNOperator(operator, select.sortColumns, (long) select.offset + select.limit)
+                    : new SortOperator(operator, select.sortColumns, memory);
+        }
+        if (!select.selectAll) {
+            operator = new ProjectOperator(operator, select.projection);
+        }
+        if (select.distinct) {
+            operator = new DistinctOperator(operator, memory);
+        }
+
+        if (select.offset > 0 || select.limit != -1) {
+            operator = new LimitOperator(operator, select.offset, select.limit);
+        }
+        return operator;
+    }
+
+    /**
+     * Creates a source that answers the aggregates of a query from the value counts of the BTREE index on a column,
+     * without reading any record. Applies to COUNT(*), and COUNT, MIN and MAX of the column, over all records or
+     * grouped on the column, and to SELECT DISTINCT of the column, where the WHERE clause if any consists only of
+     * conditions on the column that indexes can answer.
+     *
+     * <p>
+     * The index leaves out records with null or empty values. Unless the WHERE clause restricts the column to a set of
+     * values, the index must therefore hold every record of the collection.
+     *
+     * @return the source, producing the rows the aggregate operator would; <code>null</code> if the query is not of
+     * this form, or the index cannot answer it
+     */
+    private Operator indexAggregateSource(final String ds, final String collection, final boolean distinct, final boolean selectsColumns,
+            final List<AggregateOperator.AggregateColumn> aggregates, final List<String> groupColumns, final Set<String> columns,
+            final ValueNode whereClause) throws OperationException {
+        final boolean grouped = !groupColumns.isEmpty() || distinct && aggregates.isEmpty();
+        if (aggregates.isEmpty() && !grouped || !grouped && selectsColumns || groupColumns.size() > 1) {
+            return null;
+        }
+
+        final Set<String> referenced = new HashSet<>(columns);
+        for (AggregateOperator.AggregateColumn aggregate : aggregates) {
+            referenced.remove(aggregate.getOutputName());
+        }
+        if (referenced.size() != 1 || !groupColumns.isEmpty() && !referenced.contains(groupColumns.get(0))) {
+            return null;
+        }
+        final String columnName = referenced.iterator().next();
+        for (AggregateOperator.AggregateColumn aggregate : aggregates) {
+            if (!IndexAggregateOperator.isAnswerable(aggregate, columnName)) {
+                return null;
+            }
+        }
+
+        final Column column = schemaStore.getSchema(ds, collection).getColumn(columnName);
+        if (column == null || column.getIndexType() != IndexTypes.BTREE || whereClause != null && !isIndexAnswerable(whereClause)) {
+            return null;
+        }
+
+        final Set<String> restricted = whereClause == null ? null : wherePlanner.cardinals(ds, collection, columnName, whereClause);
+        final Iterator<String> cardinals = restricted != null ? restricted.iterator() : indexManager.getCardinals(ds, collection, columnName);
+        final Predicate<JSONObject> predicate = whereClause == null ? null : RowPredicates.compile(whereClause);
+        final List<Map.Entry<Object, Long>> valueCounts = new ArrayList<>();
+        long indexed = 0;
+        while (cardinals.hasNext()) {
+            final String cardinal = cardinals.next();
+            final Object value;
+            try {
+                value = column.getFieldType().convert(cardinal);
+            } catch (OperationException ex) {
+                return null;
+            }
+            if (!(value instanceof Number || value instanceof String)) {
+                return null;
+            }
+
+            final long count = indexManager.getIndexCount(ds, collection, columnName, cardinal);
+            indexed += count;
+            if (count > 0 && (predicate == null || predicate.test(new JSONObject().put(columnName, value)))) {
+                valueCounts.add(new AbstractMap.SimpleImmutableEntry<>(value, count));
+            }
+        }
+
+        if (restricted == null && !holdsAllRecords(ds, collection, indexed)) {
+            logger.debug("Index on {} holds {} records, not all records of {}.{}. Aggregating records instead", columnName, indexed, ds, collection);
+            return null;
+        }
+
+        valueCounts.sort((entry1, entry2) -> RowValues.compare(entry1.getKey(), entry2.getKey()));
+        logger.debug("Answering aggregates from the index on {} over {} values", columnName, valueCounts.size());
+        return new IndexAggregateOperator(columnName, valueCounts, grouped, aggregates);
+    }
+
+    /**
+     * Checks if an index holding the given number of records holds every record of a collection. A row count that
+     * differs from the number is confirmed by counting the records, so that a row count not in step with the records
+     * does not turn the index away.
+     */
+    private boolean holdsAllRecords(final String ds, final String collection, final long indexed) throws OperationException {
+        return indexed == rowCountStore.getRowCount(ds, collection) || indexed == fileManager.count(ds, collection);
+    }
+
+    /**
+     * Creates a source that reads records in the order of a column, by walking the sorted cardinals of the BTREE index
+     * on the column. Only the records actually pulled are read, so with a LIMIT the first rows come straight off the
+     * index.
+     *
+     * @return the source; <code>null</code> if the column has no BTREE index, its values are not numbers or strings,
+     * or the index does not hold every record, as is the case when some records hold null or empty values
+     */
+    private Operator indexOrderedSource(final String ds, final String collection, final SortOperator.SortColumn sortColumn, final Set<String> columns) throws OperationException {
+        final Column column = schemaStore.getSchema(ds, collection).getColumn(sortColumn.getColumnName());
+        if (column == null || column.getIndexType() != IndexTypes.BTREE) {
+            return null;
+        }
+
+        final List<Map.Entry<Object, String>> cardinals = new ArrayList<>();
+        long indexed = 0;
+        final Iterator<String> iterator = indexManager.getCardinals(ds, collection, column.getName());
+        while (iterator.hasNext()) {
+            final String cardinal = iterator.next();
+            final Object value;
+            try {
+                value = column.getFieldType().convert(cardinal);
+            } catch (OperationException ex) {
+                return null;
+            }
+            if (!(value instanceof Number || value instanceof String)) {
+                return null;
+            }
+            cardinals.add(new AbstractMap.SimpleImmutableEntry<>(value, cardinal));
+            indexed += indexManager.getIndexCount(ds, collection, column.getName(), cardinal);
+        }
+
+        if (!holdsAllRecords(ds, collection, indexed)) {
+            logger.debug("Index on {} holds {} records, not all records of {}.{}. Sorting records instead", column.getName(), indexed, ds, collection);
+            return null;
+        }
+
+        final Comparator<Map.Entry<Object, String>> order = (entry1, entry2) -> RowValues.compare(entry1.getKey(), entry2.getKey());
+        cardinals.sort(sortColumn.isAscending() ? order : order.reversed());
+        logger.debug("Reading records in order of the index on {}", column.getName());
+
+        return new KeyLookupOperator(dataManager, ds, collection, () -> new Iterator<String>() {
+            private final Iterator<Map.Entry<Object, String>> cardinalIterator = cardinals.iterator();
+            private Iterator<String> keys = null;
+
+            @Override
+            public boolean hasNext() {
+                while (keys == null || !keys.hasNext()) {
+                    if (!cardinalIterator.hasNext()) {
+                        return false;
+                    }
+                    try {
+                        keys = indexManager.readIndexStream(ds, collection, column.getName(), cardinalIterator.next().getValue());
+                    } catch (OperationException ex) {
+                        throw new DbRuntimeException(ex);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keys.next();
+            }
+        }, columns);
+    }
+
+    private Operator source(final String ds, final String collection, final ResultColumnList resultColumns, final ValueNode whereClause, final Set<String> columns) throws OperationException, StandardException {
+        if (whereClause == null) {
+            return new ScanOperator(dataManager, ds, collection);
+        }
+
+        final List<ValueNode> conjuncts = new ArrayList<>();
+        flattenAnd(whereClause, conjuncts);
+
+        if (partitionStore.isPartitioned(ds, collection)) {
+            for (ValueNode conjunct : conjuncts) {
+                final Set<String> keys = primaryKeys(conjunct);
+                if (keys != null) {
+                    logger.debug("Reading {} keys of partitioned collection {}.{} from their owners", keys.size(), ds, collection);
+                    return partitionLookup(ds, collection, conjuncts, conjunct, keys, columns);
+                }
+            }
+        }
+
+        ValueNode driver = null;
+        long driverEstimate = Long.MAX_VALUE;
+        for (ValueNode conjunct : conjuncts) {
+            if (isIndexAnswerable(conjunct) && isOnIndexedColumns(ds, collection, conjunct)) {
+                final long estimate = wherePlanner.estimate(ds, collection, conjunct);
+                if (estimate < driverEstimate) {
+                    driver = conjunct;
+                    driverEstimate = estimate;
+                }
+            }
+        }
+
+        if (driver != null) {
+            if (wherePlanner.isSelective(ds, collection, driverEstimate)) {
+                logger.debug("Driving from {} with an estimate of {} records", driver, driverEstimate);
+                return drive(ds, collection, resultColumns, conjuncts, driver, columns);
+            }
+            logger.debug("No selective index condition, the least estimate being {} records. Scanning table", driverEstimate);
+            return new FilterOperator(new ScanOperator(dataManager, ds, collection), RowPredicates.compile(whereClause));
+        }
+
+        for (ValueNode conjunct : conjuncts) {
+            if (isIndexLookup(conjunct)) {
+                logger.debug("Streaming keys from index for {} and filtering records on remaining conditions", conjunct);
+                return drive(ds, collection, resultColumns, conjuncts, conjunct, columns);
+            }
+        }
+
+        if (isIndexAnswerable(whereClause)) {
+            return new KeyLookupOperator(dataManager, ds, collection, () -> whereKeys(ds, collection, resultColumns, whereClause), columns);
+        }
+
+        return new FilterOperator(new ScanOperator(dataManager, ds, collection), RowPredicates.compile(whereClause));
+    }
+
+    /**
+     * Reads the keys matching the driving conjunct from the indexes. Every other conjunct is checked with an index probe
+     * if it is a selective equality or IN condition on an indexed column, or else is evaluated on the records read.
+     */
+    private Operator drive(final String ds, final String collection, final ResultColumnList resultColumns, final List<ValueNode> conjuncts, final ValueNode driver, final Set<String> columns) throws OperationException {
+        final List<ValueNode> others = new ArrayList<>(conjuncts);
+        others.remove(driver);
+
+        final List<KeyLookupOperator.KeyFilter> probes = new ArrayList<>();
+        Predicate<JSONObject> remaining = null;
+        for (ValueNode other : wherePlanner.order(ds, collection, others)) {
+            final KeyLookupOperator.KeyFilter probe = wherePlanner.probe(ds, collection, other);
+            if (probe != null && wherePlanner.isSelective(ds, collection, wherePlanner.estimate(ds, collection, other))) {
+                probes.add(probe);
+            } else {
+                remaining = remaining == null ? RowPredicates.compile(other) : remaining.and(RowPredicates.compile(other));
+            }
+        }
+
+        final List<String> colsToSelect = columns == null ? new ArrayList<>() : new ArrayList<>(columns);
+        final KeyLookupOperator.KeySource keySource = isIndexLookup(driver)
+                ? () -> indexKeys(ds, collection, colsToSelect, driver)
+                : () -> whereKeys(ds, collection, resultColumns, driver);
+        final Operator lookup = new KeyLookupOperator(dataManager, ds, collection, keySource, probes, columns);
+        return remaining == null ? lookup : new FilterOperator(lookup, remaining);
+    }
+
+    private Operator partitionLookup(final String ds, final String collection, final List<ValueNode> conjuncts, final ValueNode driver,
+            final Set<String> keys, final Set<String> columns) throws OperationException {
+        Predicate<JSONObject> remaining = null;
+        for (ValueNode other : conjuncts) {
+            if (other != driver) {
+                remaining = remaining == null ? RowPredicates.compile(other) : remaining.and(RowPredicates.compile(other));
+            }
+        }
+
+        final Operator lookup = new PartitionLookupOperator(partitionManager, ds, collection, keys, columns);
+        return remaining == null ? lookup : new FilterOperator(lookup, remaining);
+    }
+
+    /**
+     * Gets the primary keys a condition of <code>_id</code> equal to or IN a list of constants matches
+     *
+     * @return the keys, in the order listed; <code>null</code> if the condition is not such a condition
+     */
+    private Set<String> primaryKeys(final ValueNode condition) {
+        if (condition.getNodeType() == NodeTypes.BINARY_EQUALS_OPERATOR_NODE) {
+            final BinaryRelationalOperatorNode relationalNode = (BinaryRelationalOperatorNode) condition;
+            if (isPrimaryKey(relationalNode.getLeftOperand()) && relationalNode.getRightOperand() instanceof ConstantNode) {
+                final Set<String> keys = new LinkedHashSet<>();
+                keys.add(String.valueOf(((ConstantNode) relationalNode.getRightOperand()).getValue()));
+                return keys;
+            }
+        } else if (condition.getNodeType() == NodeTypes.IN_LIST_OPERATOR_NODE) {
+            final InListOperatorNode inListOperatorNode = (InListOperatorNode) condition;
+            if (inListOperatorNode.isNegated() || !isPrimaryKey(inListOperatorNode.getLeftOperand().getNodeList().get(0))) {
+                return null;
+            }
+            final Set<String> keys = new LinkedHashSet<>();
+            for (ValueNode valueNode : inListOperatorNode.getRightOperandList().getNodeList()) {
+                if (!(valueNode instanceof ConstantNode)) {
+                    return null;
+                }
+                keys.add(String.valueOf(((ConstantNode) valueNode).getValue()));
+            }
+            return keys;
+        }
+        return null;
+    }
+
+    private boolean isPrimaryKey(final ValueNode valueNode) {
+        return valueNode instanceof ColumnReference && PRIMARY_KEY.equals(valueNode.getColumnName());
+    }
+
+    private Iterator<String> whereKeys(final String ds, final String collection, final ResultColumnList resultColumns, final ValueNode condition) throws OperationException {
+        try {
+            return onDiskWhereHandling.executeWhereAsStream(ds, collection, resultColumns, condition);
+        } catch (StandardException ex) {
+            throw new OperationException(ErrorCode.SELECT_ERROR, ex.getMessage());
+        }
+    }
+
+    private Iterator<String> indexKeys(final String ds, final String collection, final List<String> colsToSelect, final ValueNode condition) throws OperationException {
+        if (condition instanceof InListOperatorNode) {
+            final InListOperatorNode inListOperatorNode = (InListOperatorNode) condition;
+            final Set<Object> inValues = new HashSet<>();
+            for (ValueNode valueNode : inListOperatorNode.getRightOperandList().getNodeList()) {
+                inValues.add(((ConstantNode) valueNode).getValue());
+            }
+            return dataManager.selectKeysWithPattern(ds, collection, colsToSelect, inListOperatorNode.getLeftOperand().getNodeList().get(0).getColumnName(),
+                    inValues, OperatorMapper.map("IN"));
+        }
+
+        final BinaryRelationalOperatorNode relationalNode = (BinaryRelationalOperatorNode) condition;
+        return dataManager.selectKeysWithPattern(ds, collection, colsToSelect, relationalNode.getLeftOperand().getColumnName(),
+                ((ConstantNode) relationalNode.getRightOperand()).getValue(), OperatorMapper.map(relationalNode.getOperator()));
+    }
+
+    /**
+     * Checks if a condition is a single column condition whose matching keys can be streamed from the column index
+     */
+    private boolean isIndexLookup(final ValueNode condition) {
+        switch (condition.getNodeType()) {
+            case NodeTypes.BINARY_EQUALS_OPERATOR_NODE:
+            case NodeTypes.BINARY_LESS_THAN_OPERATOR_NODE:
+            case NodeTypes.BINARY_LESS_EQUALS_OPERATOR_NODE:
+            case NodeTypes.BINARY_GREATER_THAN_OPERATOR_NODE:
+            case NodeTypes.BINARY_GREATER_EQUALS_OPERATOR_NODE:
+                final BinaryRelationalOperatorNode relationalNode = (BinaryRelationalOperatorNode) condition;
+                return relationalNode.getLeftOperand() instanceof ColumnReference && (relationalNode.getRightOperand() instanceof NumericConstantNode || relationalNode.getRightOperand() instanceof CharConstantNode);
+            case NodeTypes.IN_LIST_OPERATOR_NODE:
+                final InListOperatorNode inListOperatorNode = (InListOperatorNode) condition;
+                if (inListOperatorNode.isNegated() || !(inListOperatorNode.getLeftOperand().getNodeList().get(0) instanceof ColumnReference)) {
+                    return false;
+                }
+                for (ValueNode valueNode : inListOperatorNode.getRightOperandList().getNodeList()) {
+                    if (!(valueNode instanceof CharConstantNode)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks if a condition can be executed entirely on column indexes by {@link OnDiskWhereHandling}
+     */
+    private boolean isIndexAnswerable(final ValueNode condition) {
+        if (condition instanceof AndNode) {
+            return isIndexAnswerable(((AndNode) condition).getLeftOperand()) && isIndexAnswerable(((AndNode) condition).getRightOperand());
+        } else if (condition instanceof OrNode) {
+            return isIndexAnswerable(((OrNode) condition).getLeftOperand()) && isIndexAnswerable(((OrNode) condition).getRightOperand());
+        }
+        return isIndexLookup(condition);
+    }
+
+    /**
+     * Checks if all columns of an index answerable condition are the primary key or indexed, so that the condition can
+     * be answered without indexing any column
+     */
+    private boolean isOnIndexedColumns(final String ds, final String collection, final ValueNode condition) throws OperationException {
+        if (condition instanceof AndNode) {
+            return isOnIndexedColumns(ds, collection, ((AndNode) condition).getLeftOperand()) && isOnIndexedColumns(ds, collection, ((AndNode) condition).getRightOperand());
+        } else if (condition instanceof OrNode) {
+            return isOnIndexedColumns(ds, collection, ((OrNode) condition).getLeftOperand()) && isOnIndexedColumns(ds, collection, ((OrNode) condition).getRightOperand());
+        } else if (condition instanceof InListOperatorNode) {
+            return wherePlanner.isIndexed(ds, collection, ((InListOperatorNode) condition).getLeftOperand().getNodeList().get(0).getColumnName());
+        }
+        return wherePlanner.isIndexed(ds, collection, ((BinaryRelationalOperatorNode) condition).getLeftOperand().getColumnName());
+    }
+
+    private void flattenAnd(final ValueNode condition, final List<ValueNode> conjuncts) {
+        if (condition instanceof AndNode) {
+            flattenAnd(((AndNode) condition).getLeftOperand(), conjuncts);
+            flattenAnd(((AndNode) condition).getRightOperand(), conjuncts);
+        } else {
+            conjuncts.add(condition);
+        }
+    }
+
+    /**
+     * Adds the aggregates referred to in a HAVING clause that are not already computed for the select list. The HAVING
+     * clause refers to each aggregate by its unaliased name, so an aggregate in the select list that carries an alias
+     * is computed once more under its unaliased name.
+     */
+    private void addHavingAggregates(final ValueNode havingClause, final List<AggregateOperator.AggregateColumn> aggregates,
+            final Set<String> columns) throws OperationException, StandardException {
+        final List<AggregateNode> aggregateNodes = new ArrayList<>();
+        havingClause.accept(new Visitor() {
+            @Override
+            public Visitable visit(final Visitable visitable) {
+                if (visitable instanceof AggregateNode) {
+                    aggregateNodes.add((AggregateNode) visitable);
+                }
+                return visitable;
+            }
+
+            @Override
+            public boolean visitChildrenFirst(final Visitable visitable) {
+                return false;
+            }
+
+            @Override
+            public boolean stopTraversal() {
+                return false;
+            }
+
+            @Override
+            public boolean skipChildren(final Visitable visitable) {
+                return visitable instanceof AggregateNode;
+            }
+        });
+
+        final Set<String> outputNames = new HashSet<>();
+        for (AggregateOperator.AggregateColumn aggregate : aggregates) {
+            outputNames.add(aggregate.getOutputName());
+        }
+        for (AggregateNode aggregateNode : aggregateNodes) {
+            final AggregateOperator.AggregateColumn aggregate = AggregateOperator.AggregateColumn.of(aggregateNode);
+            if (outputNames.add(aggregate.getOutputName())) {
+                aggregates.add(aggregate);
+                if (aggregate.getColumnName() != null) {
+                    columns.add(aggregate.getColumnName());
+                }
+            }
+        }
+    }
+
+    private void collectColumns(final QueryTreeNode node, final Set<String> columns) throws StandardException {
+        node.accept(new Visitor() {
+            @Override
+            public Visitable visit(final Visitable visitable) {
+                if (visitable instanceof ColumnReference) {
+                    columns.add(((ColumnReference) visitable).getColumnName());
+                }
+                return visitable;
+            }
+
+            @Override
+            public boolean visitChildrenFirst(final Visitable visitable) {
+                return false;
+            }
+
+            @Override
+            public boolean stopTraversal() {
+                return false;
+            }
+
+            @Override
+            public boolean skipChildren(final Visitable visitable) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * The parts of a SELECT statement that the pipeline is built from
+     */
+    private class Select {
+
+        private final ResultColumnList resultColumns;
+        private final ValueNode whereClause;
+        private final ValueNode havingClause;
+        private final boolean distinct;
+        private boolean selectAll = false;
+        private final Map<String, String> projection = new LinkedHashMap<>();
+        private final Map<String, String> aliases = new HashMap<>();
+        private final List<AggregateOperator.AggregateColumn> aggregates = new ArrayList<>();
+        private final Set<String> columns = new HashSet<>();
+        private final List<String> groupColumns = new ArrayList<>();
+        private final List<SortOperator.SortColumn> sortColumns = new ArrayList<>();
+        private final int offset;
+        private final int limit;
+
+        private Select(final CursorNode node) throws OperationException, StandardException {
+            final SelectNode selectNode = (SelectNode) node.getResultSetNode();
+            resultColumns = selectNode.getResultColumns();
+            distinct = selectNode.isDistinct();
+
+            for (ResultColumn resultColumn : resultColumns) {
+                final ValueNode expression = resultColumn.getExpression();
+                if (resultColumn instanceof AllResultColumn) {
+                    selectAll = true;
+                } else if (expression instanceof ColumnReference) {
+                    final String columnName = expression.getColumnName();
+                    final String outputName = resultColumn.getName() != null ? resultColumn.getName() : columnName;
+                    projection.put(columnName, outputName);
+                    aliases.put(outputName, columnName);
+                    columns.add(columnName);
+                } else if (expression instanceof AggregateNode) {
+                    final AggregateOperator.AggregateColumn aggregate = AggregateOperator.AggregateColumn.of((AggregateNode) expression);
+                    final String outputName = resultColumn.getName() != null ? resultColumn.getName() : aggregate.getOutputName();
+                    aggregates.add(new AggregateOperator.AggregateColumn(aggregate.getFunction(), aggregate.getColumnName(), aggregate.isDistinct(), outputName));
+                    projection.put(outputName, outputName);
+                    if (aggregate.getColumnName() != null) {
+                        columns.add(aggregate.getColumnName());
+                    }
+                } else {
+                    throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Unsupported select expression : " + expression.toString());
+                }
+            }
+
+            if (selectNode.getGroupByList() != null) {
+                for (GroupByColumn groupByColumn : selectNode.getGroupByList()) {
+                    groupColumns.add(groupByColumn.getColumnName());
+                }
+            }
+            columns.addAll(groupColumns);
+
+            havingClause = selectNode.getHavingClause();
+            if (havingClause != null) {
+                addHavingAggregates(havingClause, aggregates, columns);
+                collectColumns(havingClause, columns);
+            }
+
+            if (node.getOrderByList() != null) {
+                for (OrderByColumn orderByColumn : node.getOrderByList()) {
+                    if (!(orderByColumn.getExpression() instanceof ColumnReference)) {
+                        throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "ORDER BY is supported only on columns");
+                    }
+                    final String name = orderByColumn.getExpression().getColumnName();
+                    final String columnName = aliases.containsKey(name) ? aliases.get(name) : name;
+                    sortColumns.add(new SortOperator.SortColumn(columnName, orderByColumn.isAscending()));
+                    columns.add(columnName);
+                }
+            }
+
+            whereClause = selectNode.getWhereClause();
+            if (whereClause != null) {
+                collectColumns(whereClause, columns);
+            }
+
+            offset = LimitOperator.offset(node);
+            limit = LimitOperator.limit(node);
+        }
+
+        private boolean isAggregate() {
+            return !aggregates.isEmpty() || !groupColumns.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * Orders the rows of its child on one or more columns. Sorting needs every input row, so the child is drained when
+ * the first row is requested.
+ *
+ * <p>
+ * When given a query memory budget, rows are held only while the budget allows. Once a reservation is refused the
+ * rows held are sorted and written out as a run to a spill file, and the runs are merged back when rows are produced.
+ * Rows that compare equal are produced in their input order, whether or not the sort spilled.
+ *
+ * @author sanketsarang
+ */
+public class SortOperator implements Operator {
+
+    private final Operator child;
+    private final Comparator<JSONObject> comparator;
+    private final QueryMemory memory;
+    private final List<SpillFile> spillFiles = new ArrayList<>();
+    private Operator sorted;
+    private long reserved = 0;
+
+    /**
+     * Creates a sort operator
+     *
+     * @param child the operator producing the rows to sort
+     * @param sortColumns the columns to order on, in order of precedence
+     */
+    public SortOperator(final Operator child, final List<SortColumn> sortColumns) {
+        this(child, sortColumns, null);
+    }
+
+    /**
+     * Creates a sort operator that spills to disk once its rows exceed the memory budget of the query
+     *
+     * @param child the operator producing the rows to sort
+     * @param sortColumns the columns to order on, in order of precedence
+     * @param memory the memory budget of the query; <code>null</code> to hold all rows in memory
+     */
+    public SortOperator(final Operator child, final List<SortColumn> sortColumns, final QueryMemory memory) {
+        this.child = child;
+        this.comparator = comparator(sortColumns);
+        this.memory = memory;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        close();
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        if (sorted == null) {
+            sorted = sort();
+            sorted.open();
+        }
+        return sorted.next();
+    }
+
+    @Override
+    public void close() {
+        if (sorted != null) {
+            sorted.close();
+            sorted = null;
+        }
+        for (SpillFile spillFile : spillFiles) {
+            spillFile.close();
+        }
+        spillFiles.clear();
+        release();
+        child.close();
+    }
+
+    private Operator sort() throws OperationException {
+        List<JSONObject> rows = new ArrayList<>();
+        try {
+            JSONObject row;
+            while ((row = child.next()) != null) {
+                if (memory != null && !reserve(QueryMemory.estimate(row)) && !rows.isEmpty()) {
+                    spill(rows);
+                    rows = new ArrayList<>();
+                    reserve(QueryMemory.estimate(row));
+                }
+                rows.add(row);
+            }
+        } finally {
+            child.close();
+        }
+        rows.sort(comparator);
+        if (spillFiles.isEmpty()) {
+            return MergeOperator.inMemory(rows);
+        }
+
+        final List<Operator> runs = new ArrayList<>(spillFiles.size() + 1);
+        for (SpillFile spillFile : spillFiles) {
+            runs.add(spillFile.reader());
+        }
+        runs.add(MergeOperator.inMemory(rows));
+        return new MergeOperator(runs, comparator);
+    }
+
+    private void spill(final List<JSONObject> rows) throws OperationException {
+        rows.sort(comparator);
+        final SpillFile spillFile = memory.newSpillFile();
+        spillFiles.add(spillFile);
+        for (JSONObject row : rows) {
+            spillFile.write(row);
+        }
+        release();
+    }
+
+    private boolean reserve(final long bytes) {
+        if (memory.reserve(bytes)) {
+            reserved += bytes;
+            return true;
+        }
+        return false;
+    }
+
+    private void release() {
+        if (reserved > 0) {
+            memory.release(reserved);
+            reserved = 0;
+        }
+    }
+
+    /**
+     * Creates a comparator that orders rows on the specified columns. Null values are ordered lowest.
+     *
+     * @param sortColumns the columns to order on, in order of precedence
+     * @return the row comparator
+     */
+    public static Comparator<JSONObject> comparator(final List<SortColumn> sortColumns) {
+        return (row1, row2) -> {
+            for (SortColumn sortColumn : sortColumns) {
+                final int result = RowValues.compareNullable(RowValues.get(row1, sortColumn.getColumnName()), RowValues.get(row2, sortColumn.getColumnName()));
+                if (result != 0) {
+                    return sortColumn.isAscending() ? result : -result;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * A column to order on along with its direction
+     */
+    public static class SortColumn {
+
+        private final String columnName;
+        private final boolean ascending;
+
+        public SortColumn(final String columnName, final boolean ascending) {
+            this.columnName = columnName;
+            this.ascending = ascending;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+    }
+}
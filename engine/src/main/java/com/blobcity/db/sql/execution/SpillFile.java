@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A temporary file holding rows that an operator could not keep in memory. Rows are written one JSON object per line,
+ * and read back in the order written. Closing the file deletes it.
+ *
+ * <p>
+ * Every value is written as a pair of a type tag and the value, so that a row is read back with the same value types it
+ * was written with. An int is not read back as a long, nor a float or decimal as a double, which would otherwise change
+ * how the row compares, groups and is returned.
+ *
+ * @author sanketsarang
+ */
+public class SpillFile implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillFile.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final QueryMemory memory;
+    private BufferedWriter writer;
+    private long rows = 0;
+    private long bytes = 0;
+
+    SpillFile(final Path path, final QueryMemory memory) throws IOException {
+        this.path = path;
+        this.memory = memory;
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a row to the file
+     *
+     * @param row the row
+     * @throws OperationException if the file cannot be written, or is no longer open for writing
+     */
+    public void write(final JSONObject row) throws OperationException {
+        if (writer == null) {
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Spill file " + path + " is not open for writing");
+        }
+
+        final long startTime = System.nanoTime();
+        final String line = encode(row).toString();
+        try {
+            writer.write(line);
+            writer.newLine();
+        } catch (IOException ex) {
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not write spill file " + path + ": " + ex.getMessage());
+        }
+        rows++;
+        bytes += line.length() + 1;
+        memory.recordSpill(1, line.length() + 1, System.nanoTime() - startTime);
+    }
+
+    /**
+     * @return the number of rows written
+     */
+    public long size() {
+        return rows;
+    }
+
+    /**
+     * Finishes writing and creates a reader over the rows written. The file may be read any number of times.
+     *
+     * @return an operator producing the rows in the order written
+     * @throws OperationException if the file cannot be flushed
+     */
+    public Operator reader() throws OperationException {
+        finishWriting();
+        return new Operator() {
+            private BufferedReader reader;
+
+            @Override
+            public void open() throws OperationException {
+                close();
+                try {
+                    reader = new BufferedReader(Files.newBufferedReader(path, StandardCharsets.UTF_8), BUFFER_SIZE);
+                } catch (IOException ex) {
+                    throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not read spill file " + path + ": " + ex.getMessage());
+                }
+            }
+
+            @Override
+            public JSONObject next() throws OperationException {
+                if (reader == null) {
+                    return null;
+                }
+
+                final long startTime = System.nanoTime();
+                try {
+                    final String line = reader.readLine();
+                    if (line == null) {
+                        close();
+                        return null;
+                    }
+                    return decode(new JSONObject(line));
+                } catch (IOException | JSONException | NumberFormatException ex) {
+                    throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not read spill file " + path + ": " + ex.getMessage());
+                } finally {
+                    memory.recordSpill(0, 0, System.nanoTime() - startTime);
+                }
+            }
+
+            @Override
+            public void close() {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException ex) {
+                        logger.warn("Could not close spill file " + path, ex);
+                    }
+                    reader = null;
+                }
+            }
+        };
+    }
+
+    private static JSONObject encode(final JSONObject row) {
+        final JSONObject encoded = new JSONObject();
+        final Iterator<String> keys = row.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            encoded.put(key, encodeValue(row.get(key)));
+        }
+        return encoded;
+    }
+
+    private static JSONArray encodeValue(final Object value) {
+        final JSONArray pair = new JSONArray();
+        if (value instanceof JSONObject) {
+            return pair.put("o").put(encode((JSONObject) value));
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            final JSONArray encoded = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                encoded.put(encodeValue(array.get(i)));
+            }
+            return pair.put("a").put(encoded);
+        } else if (value == null || JSONObject.NULL.equals(value)) {
+            return pair.put("n");
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return pair.put("i").put(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            return pair.put("l").put(value);
+        } else if (value instanceof Float) {
+            return pair.put("f").put(value.toString());
+        } else if (value instanceof Double) {
+            return pair.put("d").put(value.toString());
+        } else if (value instanceof BigDecimal) {
+            return pair.put("b").put(((BigDecimal) value).toString());
+        } else if (value instanceof BigInteger) {
+            return pair.put("g").put(value.toString());
+        } else if (value instanceof Boolean) {
+            return pair.put("z").put(value);
+        }
+        return pair.put("s").put(value.toString());
+    }
+
+    private static JSONObject decode(final JSONObject encoded) {
+        final JSONObject row = new JSONObject();
+        final Iterator<String> keys = encoded.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            row.put(key, decodeValue(encoded.getJSONArray(key)));
+        }
+        return row;
+    }
+
+    private static Object decodeValue(final JSONArray pair) {
+        switch (pair.getString(0)) {
+            case "o":
+                return decode(pair.getJSONObject(1));
+            case "a":
+                final JSONArray encoded = pair.getJSONArray(1);
+                final JSONArray array = new JSONArray();
+                for (int i = 0; i < encoded.length(); i++) {
+                    array.put(decodeValue(encoded.getJSONArray(i)));
+                }
+                return array;
+            case "n":
+                return JSONObject.NULL;
+            case "i":
+                return pair.getInt(1);
+            case "l":
+                return pair.getLong(1);
+            case "f":
+                return Float.valueOf(pair.getString(1));
+            case "d":
+                return Double.valueOf(pair.getString(1));
+            case "b":
+                return new BigDecimal(pair.getString(1));
+            case "g":
+                return new BigInteger(pair.getString(1));
+            case "z":
+                return pair.getBoolean(1);
+            default:
+                return pair.getString(1);
+        }
+    }
+
+    private void finishWriting() throws OperationException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not write spill file " + path + ": " + ex.getMessage());
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            finishWriting();
+        } catch (OperationException ex) {
+            logger.warn(ex.getMessage());
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.warn("Could not delete spill file " + path, ex);
+        }
+    }
+}
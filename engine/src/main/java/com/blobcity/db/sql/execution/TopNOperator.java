@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.json.JSONObject;
+
+/**
+ * Produces the first <code>n</code> rows of its child in the order of one or more columns, as an ORDER BY with a
+ * LIMIT would. Only the best <code>n</code> rows seen so far are held, in a heap whose head is the worst of them, so
+ * memory is bounded by <code>n</code> irrespective of the number of input rows. Rows that compare equal are produced
+ * in their input order, as with {@link SortOperator}.
+ *
+ * @author sanketsarang
+ */
+public class TopNOperator implements Operator {
+
+    private final Operator child;
+    private final Comparator<JSONObject> comparator;
+    private final long n;
+    private Iterator<JSONObject> top;
+
+    /**
+     * Creates a top-N operator
+     *
+     * @param child the operator producing the rows to order
+     * @param sortColumns the columns to order on, in order of precedence
+     * @param n the number of rows to produce, which is the sum of the offset and limit of the query
+     */
+    public TopNOperator(final Operator child, final List<SortOperator.SortColumn> sortColumns, final long n) {
+        this.child = child;
+        this.comparator = SortOperator.comparator(sortColumns);
+        this.n = n;
+    }
+
+    @Override
+    public void open() throws OperationException {
+        top = null;
+        child.open();
+    }
+
+    @Override
+    public JSONObject next() throws OperationException {
+        if (top == null) {
+            top = selectTop().iterator();
+        }
+        return top.hasNext() ? top.next() : null;
+    }
+
+    @Override
+    public void close() {
+        top = null;
+        child.close();
+    }
+
+    private List<JSONObject> selectTop() throws OperationException {
+        final Comparator<Entry> order = (entry1, entry2) -> {
+            final int result = comparator.compare(entry1.row, entry2.row);
+            return result != 0 ? result : Long.compare(entry1.sequence, entry2.sequence);
+        };
+        final PriorityQueue<Entry> heap = new PriorityQueue<>((int) Math.min(n, 1024) + 1, order.reversed());
+
+        long sequence = 0;
+        JSONObject row;
+        while (n > 0 && (row = child.next()) != null) {
+            final Entry entry = new Entry(row, sequence++);
+            if (heap.size() < n) {
+                heap.add(entry);
+            } else if (order.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        child.close();
+
+        final List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(order);
+        final List<JSONObject> rows = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            rows.add(entry.row);
+        }
+        return rows;
+    }
+
+    private static class Entry {
+
+        private final JSONObject row;
+        private final long sequence;
+
+        private Entry(final JSONObject row, final long sequence) {
+            this.row = row;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -18,8 +18,12 @@ package com.blobcity.db.sql.processing;
 
 import com.blobcity.db.bsql.BSqlCollectionManager;
 import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.data.RowIdBitmap;
+import com.blobcity.db.data.RowIdStore;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.sql.execution.KeyLookupOperator;
+import com.blobcity.db.sql.execution.QueryContext;
 import com.blobcity.db.sql.util.OperatorMapper;
 import com.foundationdb.sql.StandardException;
 import com.foundationdb.sql.parser.*;
@@ -41,24 +45,48 @@ public class OnDiskWhereHandling {
     private BSqlDataManager dataManager;
     @Autowired
     private BSqlCollectionManager tableManager;
+    @Autowired
+    private WherePlanner wherePlanner;
+    @Autowired
+    private RowIdStore rowIdStore;
 
     private static final Logger logger = LoggerFactory.getLogger(OnDiskWhereHandling.class.getName());
 
     /**
-     * Executes the complete where clause and returns the keys qualified keys
+     * Executes the complete where clause and streams the qualified keys. Keys are held as row ids while the where
+     * clause is executed, and are mapped back to primary keys only as they are consumed.
      * @param ds the datastore
      * @param collection the collection
      * @param columns {@link ResultColumnList} for the specific columns expected in the select result. Could be <code>select *</code>
      * @param whereClause the complete WHERE clause to be executed
-     * @return A set of primary keys that qualify the requested WHERE clause
+     * @return An iterator over the primary keys that qualify the requested WHERE clause
      * @throws OperationException
      * @throws StandardException
      */
-    public Set<String> executeWhere(final String ds, final String collection, final ResultColumnList columns, ValueNode whereClause) throws OperationException, StandardException {
+    public Iterator<String> executeWhereAsStream(final String ds, final String collection, final ResultColumnList columns, ValueNode whereClause) throws OperationException, StandardException {
+        return rowIdStore.toKeys(ds, collection, executeWhere(ds, collection, columns, whereClause));
+    }
+
+    /**
+     * Executes the complete where clause and returns the row ids of the qualified keys, as assigned by
+     * {@link RowIdStore}. AND, OR and NOT are computed as operations on the row id bitmaps of their operands. The
+     * conditions of an AND are executed in order of their estimated selectivity, starting with the most selective one.
+     * Each following condition is checked on the keys qualified so far with index probes where it is cheaper than
+     * loading all keys matching the condition.
+     * @param ds the datastore
+     * @param collection the collection
+     * @param columns {@link ResultColumnList} for the specific columns expected in the select result. Could be <code>select *</code>
+     * @param whereClause the complete WHERE clause to be executed
+     * @return A bitmap of the row ids of the records that qualify the requested WHERE clause
+     * @throws OperationException
+     * @throws StandardException
+     */
+    public RowIdBitmap executeWhere(final String ds, final String collection, final ResultColumnList columns, ValueNode whereClause) throws OperationException, StandardException {
         logger.debug("executeWhere({}, {}, {}, {})", new Object[]{ds, collection, columns.toString(), new NodeToString().toString(whereClause)});
+        QueryContext.checkCancelled();
 
-        Set<String> leftResult;
-        Set<String> rightResult;
+        RowIdBitmap leftResult;
+        RowIdBitmap rightResult;
         ValueNode leftOperand;
         ValueNode rightOperand;
         boolean leftSupported;
@@ -66,15 +94,15 @@ public class OnDiskWhereHandling {
         String column;
         switch (whereClause.getNodeType()) {
             case NodeTypes.AND_NODE:
-                AndNode andNode = (AndNode) whereClause;
-                leftResult = executeWhere(ds, collection, columns, andNode.getLeftOperand());
-                rightResult = executeWhere(ds, collection, columns, andNode.getRightOperand());
-                return intersect(leftResult, rightResult);
+                return executeAnd(ds, collection, columns, whereClause);
             case NodeTypes.OR_NODE:
                 OrNode orNode = (OrNode) whereClause;
                 leftResult = executeWhere(ds, collection, columns, orNode.getLeftOperand());
                 rightResult = executeWhere(ds, collection, columns, orNode.getRightOperand());
-                return union(leftResult, rightResult);
+                return leftResult.or(rightResult);
+            case NodeTypes.NOT_NODE:
+                return rowIdStore.toBitmap(ds, collection, dataManager.selectAllKeysAsStream(ds, collection))
+                        .andNot(executeWhere(ds, collection, columns, ((NotNode) whereClause).getOperand()));
             case NodeTypes.BINARY_LESS_EQUALS_OPERATOR_NODE:
             case NodeTypes.BINARY_LESS_THAN_OPERATOR_NODE:
             case NodeTypes.BINARY_GREATER_EQUALS_OPERATOR_NODE:
@@ -120,7 +148,7 @@ public class OnDiskWhereHandling {
                 Iterator<String> keys = dataManager.selectKeysWithPattern(ds, collection, resultColList, column, refValue,
                         OperatorMapper.map(binaryRelationalOperatorNode.getOperator()));
 
-                return toSet(keys);
+                return rowIdStore.toBitmap(ds, collection, keys);
             case NodeTypes.IN_LIST_OPERATOR_NODE:
                 return processIn(ds, collection, columns, whereClause);
             default:
@@ -128,26 +156,49 @@ public class OnDiskWhereHandling {
         }
     }
 
-    private Set<String> intersect(Set<String> resultSet1, Set<String> resultSet2) {
-        resultSet1.retainAll(resultSet2);
-        return resultSet1;
-    }
+    private RowIdBitmap executeAnd(final String ds, final String collection, final ResultColumnList columns, ValueNode andClause) throws OperationException, StandardException {
+        final List<ValueNode> conjuncts = new ArrayList<>();
+        flattenAnd(andClause, conjuncts);
+        final List<ValueNode> ordered = wherePlanner.order(ds, collection, conjuncts);
 
-    private Set<String> union(Set<String> resultSet1, Set<String> resultSet2) {
-        resultSet1.addAll(resultSet2);
-        return resultSet1;
+        RowIdBitmap result = executeWhere(ds, collection, columns, ordered.get(0));
+        for (ValueNode conjunct : ordered.subList(1, ordered.size())) {
+            if (result.isEmpty()) {
+                break;
+            }
+
+            final KeyLookupOperator.KeyFilter probe = wherePlanner.probe(ds, collection, conjunct);
+            final long cardinality = result.cardinality();
+            if (probe != null && cardinality <= wherePlanner.estimate(ds, collection, conjunct)) {
+                logger.debug("Probing {} keys for {}", cardinality, conjunct);
+                final RowIdBitmap accepted = new RowIdBitmap();
+                final PrimitiveIterator.OfInt iterator = result.iterator();
+                while (iterator.hasNext()) {
+                    QueryContext.checkCancelled();
+                    final int rowId = iterator.nextInt();
+                    final String key = rowIdStore.getKey(ds, collection, rowId);
+                    if (key != null && probe.accept(key)) {
+                        accepted.add(rowId);
+                    }
+                }
+                result = accepted;
+            } else {
+                result = result.and(executeWhere(ds, collection, columns, conjunct));
+            }
+        }
+        return result;
     }
 
-    private Set<String> toSet(Iterator<String> iterator) {
-        if (iterator == null) {
-            return Collections.EMPTY_SET;
+    private void flattenAnd(final ValueNode condition, final List<ValueNode> conjuncts) {
+        if (condition instanceof AndNode) {
+            flattenAnd(((AndNode) condition).getLeftOperand(), conjuncts);
+            flattenAnd(((AndNode) condition).getRightOperand(), conjuncts);
+        } else {
+            conjuncts.add(condition);
         }
-        Set<String> set = new HashSet<>();
-        iterator.forEachRemaining(item -> set.add(item));
-        return set;
     }
 
-    private Set<String> processIn(final String appId, final String tableName, final ResultColumnList columns, ValueNode whereClause) throws OperationException {
+    private RowIdBitmap processIn(final String appId, final String tableName, final ResultColumnList columns, ValueNode whereClause) throws OperationException {
         InListOperatorNode inListOperatorNode = (InListOperatorNode) whereClause;
         RowConstructorNode leftOperand = inListOperatorNode.getLeftOperand();
         ValueNodeList valueNodeList = inListOperatorNode.getRightOperandList().getNodeList();
@@ -164,6 +215,6 @@ public class OnDiskWhereHandling {
             resultColList.add(colName);
             logger.debug("resultCol: " + colName);
         }
-        return toSet(dataManager.selectKeysWithPattern(appId, tableName, resultColList, column, inValues, OperatorMapper.map("IN")));
+        return rowIdStore.toBitmap(appId, tableName, dataManager.selectKeysWithPattern(appId, tableName, resultColList, column, inValues, OperatorMapper.map("IN")));
     }
 }
@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.processing;
+
+import com.blobcity.db.bsql.BSqlIndexManager;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.lang.datatypes.converters.TypeConverter;
+import com.blobcity.db.lang.datatypes.converters.TypeConverterFactory;
+import com.blobcity.db.schema.Column;
+import com.blobcity.db.schema.IndexTypes;
+import com.blobcity.db.schema.Schema;
+import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.execution.KeyLookupOperator;
+import com.blobcity.db.storage.BSqlFileManager;
+import com.foundationdb.sql.parser.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Estimates the number of records matching the conditions of a WHERE clause, so that a WHERE clause can be driven from
+ * its most selective condition. Equality and IN conditions are estimated from the per value counts kept by the column
+ * indexes, and all other conditions from the row count of the collection.
+ *
+ * <p>
+ * A row count of zero, or one below the number of records an index holds for a condition, is not in step with the
+ * records of the collection, and the records are counted instead. Otherwise such a count would make every indexed
+ * condition look as unselective as a scan of the collection.
+ *
+ * <p>
+ * Equality and IN conditions on indexed columns can also be turned into key probes, which check a primary key
+ * against the column index with {@link BSqlIndexManager#contains(String, String, String, Object, Object)} instead of
+ * loading every key matching the condition.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class WherePlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(WherePlanner.class.getName());
+
+    /* Fraction of records assumed to match a range condition, as indexes keep no distribution of values */
+    private static final double RANGE_SELECTIVITY = 0.25;
+    /* Fraction of records beyond which reading records through an index is costlier than scanning the collection */
+    private static final double SCAN_SELECTIVITY = 0.3;
+
+    @Autowired
+    @Lazy
+    private SchemaStore schemaStore;
+    @Autowired
+    @Lazy
+    private BSqlIndexManager indexManager;
+    @Autowired
+    @Lazy
+    private RowCountStore rowCountStore;
+    @Autowired
+    @Lazy
+    private BSqlFileManager fileManager;
+    @Autowired
+    private TypeConverterFactory typeConverterFactory;
+
+    /**
+     * Estimates the number of records matching a condition
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param condition the condition, which may be a complete WHERE clause
+     * @return the estimated number of matching records
+     * @throws OperationException if the collection does not exist or an index count cannot be read
+     */
+    public long estimate(final String ds, final String collection, final ValueNode condition) throws OperationException {
+        return estimate(ds, collection, schemaStore.getSchema(ds, collection), condition, rowCount(ds, collection, 1));
+    }
+
+    /**
+     * Checks if reading the records matching a condition through a column index is cheaper than scanning the
+     * collection
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param estimate the estimated number of records matching the condition
+     * @return <code>true</code> if the condition should be driven from an index; <code>false</code> if the collection
+     * should be scanned
+     * @throws OperationException if the collection does not exist or its records cannot be counted
+     */
+    public boolean isSelective(final String ds, final String collection, final long estimate) throws OperationException {
+        return estimate <= Math.max(1, rowCount(ds, collection, estimate) * SCAN_SELECTIVITY);
+    }
+
+    /**
+     * Checks if a column is the primary key or has an index, so that conditions on it can be answered without
+     * indexing the column first
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param columnName name of the column
+     * @return <code>true</code> if the column is the primary key or is indexed; <code>false</code> otherwise
+     * @throws OperationException if the collection does not exist
+     */
+    public boolean isIndexed(final String ds, final String collection, final String columnName) throws OperationException {
+        return isIndexed(schemaStore.getSchema(ds, collection), columnName);
+    }
+
+    /**
+     * Orders conditions by their estimated number of matching records, most selective first
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param conditions the conditions to order
+     * @return a new list holding the conditions in order of selectivity
+     * @throws OperationException if the collection does not exist or an index count cannot be read
+     */
+    public List<ValueNode> order(final String ds, final String collection, final List<ValueNode> conditions) throws OperationException {
+        final Schema schema = schemaStore.getSchema(ds, collection);
+        final long rowCount = rowCount(ds, collection, 1);
+        final Map<ValueNode, Long> estimates = new IdentityHashMap<>();
+        for (ValueNode condition : conditions) {
+            estimates.put(condition, estimate(ds, collection, schema, condition, rowCount));
+        }
+
+        final List<ValueNode> ordered = new ArrayList<>(conditions);
+        ordered.sort(Comparator.comparing(estimates::get));
+        logger.debug("Conditions ordered by selectivity: {}", estimates);
+        return ordered;
+    }
+
+    /**
+     * Creates a key filter that checks a primary key against an equality or IN condition by probing the index of the
+     * condition column, without reading the record or the keys matching the condition
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param condition the condition
+     * @return the key filter; <code>null</code> if the condition is not an equality or IN condition on the primary key
+     * or an indexed column
+     * @throws OperationException if the collection does not exist
+     */
+    public KeyLookupOperator.KeyFilter probe(final String ds, final String collection, final ValueNode condition) throws OperationException {
+        final String columnName = column(condition);
+        final List<Object> values = values(condition);
+        if (columnName == null || values == null || condition.getNodeType() != NodeTypes.BINARY_EQUALS_OPERATOR_NODE
+                && condition.getNodeType() != NodeTypes.IN_LIST_OPERATOR_NODE) {
+            return null;
+        }
+
+        final Schema schema = schemaStore.getSchema(ds, collection);
+        final Column column = schema.getColumn(columnName);
+        if (column == null) {
+            return null;
+        }
+
+        final Set<String> cardinals = new HashSet<>();
+        for (Object value : values) {
+            final String cardinal = toIndexValue(column, value);
+            if (cardinal == null) {
+                return null;
+            }
+            cardinals.add(cardinal);
+        }
+
+        if (columnName.equals(schema.getPrimary())) {
+            return cardinals::contains;
+        } else if (column.getIndexType() == IndexTypes.NONE) {
+            return null;
+        }
+
+        return key -> {
+            for (String cardinal : cardinals) {
+                if (indexManager.contains(ds, collection, columnName, cardinal, key)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Gets the index cardinals that a record must hold in a column to match a condition built of equality and IN
+     * conditions on the column. Conditions joined by OR contribute the union of their cardinals, and of conditions
+     * joined by AND the first that has cardinals is used, so records holding the cardinals may still fail the
+     * condition.
+     *
+     * @param ds the datastore
+     * @param collection the collection
+     * @param columnName name of the column
+     * @param condition the condition, which may be a complete WHERE clause
+     * @return the cardinals; <code>null</code> if the condition does not restrict the column to a set of values that
+     * the index holds
+     * @throws OperationException if the collection does not exist
+     */
+    public Set<String> cardinals(final String ds, final String collection, final String columnName, final ValueNode condition) throws OperationException {
+        final Column column = schemaStore.getSchema(ds, collection).getColumn(columnName);
+        return column == null ? null : cardinals(column, condition);
+    }
+
+    private Set<String> cardinals(final Column column, final ValueNode condition) {
+        switch (condition.getNodeType()) {
+            case NodeTypes.AND_NODE:
+                final AndNode andNode = (AndNode) condition;
+                final Set<String> left = cardinals(column, andNode.getLeftOperand());
+                return left != null ? left : cardinals(column, andNode.getRightOperand());
+            case NodeTypes.OR_NODE:
+                final OrNode orNode = (OrNode) condition;
+                final Set<String> union = cardinals(column, orNode.getLeftOperand());
+                final Set<String> right = cardinals(column, orNode.getRightOperand());
+                if (union == null || right == null) {
+                    return null;
+                }
+                union.addAll(right);
+                return union;
+            case NodeTypes.BINARY_EQUALS_OPERATOR_NODE:
+            case NodeTypes.IN_LIST_OPERATOR_NODE:
+                final List<Object> values = values(condition);
+                if (!column.getName().equals(column(condition)) || values == null) {
+                    return null;
+                }
+                final Set<String> cardinals = new HashSet<>();
+                for (Object value : values) {
+                    final String cardinal = toIndexValue(column, value);
+                    if (cardinal == null || cardinal.isEmpty()) {
+                        return null;
+                    }
+                    cardinals.add(cardinal);
+                }
+                return cardinals;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the number of records of a collection that estimates are made against. The row count of the collection is
+     * used if it is at least the given number of records, and the records are counted otherwise.
+     *
+     * @param atLeast the number of records the collection is known to hold, such as the number an index holds for a
+     * condition
+     * @return the number of records
+     */
+    private long rowCount(final String ds, final String collection, final long atLeast) throws OperationException {
+        final long rowCount = rowCountStore.getRowCount(ds, collection);
+        if (rowCount > 0 && rowCount >= atLeast) {
+            return rowCount;
+        }
+
+        final long counted = fileManager.count(ds, collection);
+        logger.debug("Row count {} of {}.{} is below {} records. Counted {} records instead", rowCount, ds, collection, atLeast, counted);
+        return counted;
+    }
+
+    private long estimate(final String ds, final String collection, final Schema schema, final ValueNode condition, final long rowCount) throws OperationException {
+        switch (condition.getNodeType()) {
+            case NodeTypes.AND_NODE:
+                final AndNode andNode = (AndNode) condition;
+                return Math.min(estimate(ds, collection, schema, andNode.getLeftOperand(), rowCount),
+                        estimate(ds, collection, schema, andNode.getRightOperand(), rowCount));
+            case NodeTypes.OR_NODE:
+                final OrNode orNode = (OrNode) condition;
+                return Math.min(rowCount, estimate(ds, collection, schema, orNode.getLeftOperand(), rowCount)
+                        + estimate(ds, collection, schema, orNode.getRightOperand(), rowCount));
+            case NodeTypes.BINARY_EQUALS_OPERATOR_NODE:
+            case NodeTypes.IN_LIST_OPERATOR_NODE:
+                final String columnName = column(condition);
+                final List<Object> values = values(condition);
+                if (columnName == null || values == null) {
+                    return rowCount;
+                }
+                /* not capped at the row count, so that isSelective can tell a row count below the index counts */
+                long count = 0;
+                for (Object value : new HashSet<>(values)) {
+                    count += valueCount(ds, collection, schema, columnName, value, rowCount);
+                }
+                return count;
+            case NodeTypes.BINARY_LESS_THAN_OPERATOR_NODE:
+            case NodeTypes.BINARY_LESS_EQUALS_OPERATOR_NODE:
+            case NodeTypes.BINARY_GREATER_THAN_OPERATOR_NODE:
+            case NodeTypes.BINARY_GREATER_EQUALS_OPERATOR_NODE:
+                final String rangeColumn = column(condition);
+                if (rangeColumn == null || !isIndexed(schema, rangeColumn)) {
+                    return rowCount;
+                }
+                return (long) (rowCount * RANGE_SELECTIVITY);
+            default:
+                return rowCount;
+        }
+    }
+
+    private long valueCount(final String ds, final String collection, final Schema schema, final String columnName, final Object value, final long rowCount) throws OperationException {
+        final Column column = schema.getColumn(columnName);
+        if (column == null) {
+            return 0;
+        } else if (columnName.equals(schema.getPrimary())) {
+            return 1;
+        } else if (column.getIndexType() == IndexTypes.NONE) {
+            return rowCount;
+        }
+
+        final String cardinal = toIndexValue(column, value);
+        if (cardinal == null) {
+            return rowCount;
+        }
+        final long count = indexManager.getIndexCount(ds, collection, columnName, cardinal);
+        return count < 0 ? rowCount : count;
+    }
+
+    private boolean isIndexed(final Schema schema, final String columnName) {
+        final Column column = schema.getColumn(columnName);
+        return column != null && (columnName.equals(schema.getPrimary()) || column.getIndexType() != IndexTypes.NONE);
+    }
+
+    /**
+     * Converts a value to the form in which it is held as a cardinal of the column index
+     *
+     * @return the cardinal; <code>null</code> if the value cannot be converted to the column type
+     */
+    private String toIndexValue(final Column column, final Object value) {
+        final TypeConverter typeConverter = typeConverterFactory.getTypeConverter(column.getFieldType().getType());
+        if (typeConverter == null || value == null) {
+            return null;
+        }
+
+        try {
+            final Object converted = typeConverter.getValue(value.toString());
+            return converted == null ? null : converted.toString();
+        } catch (OperationException | NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the column of a single column condition having the column on the left and constants on the right
+     *
+     * @return the column name; <code>null</code> if the condition is not of this form
+     */
+    private String column(final ValueNode condition) {
+        if (condition instanceof BinaryRelationalOperatorNode) {
+            final BinaryRelationalOperatorNode relationalNode = (BinaryRelationalOperatorNode) condition;
+            return relationalNode.getLeftOperand() instanceof ColumnReference && relationalNode.getRightOperand() instanceof ConstantNode
+                    ? relationalNode.getLeftOperand().getColumnName() : null;
+        } else if (condition instanceof InListOperatorNode) {
+            final InListOperatorNode inListOperatorNode = (InListOperatorNode) condition;
+            final ValueNode leftOperand = inListOperatorNode.getLeftOperand().getNodeList().get(0);
+            return !inListOperatorNode.isNegated() && leftOperand instanceof ColumnReference ? leftOperand.getColumnName() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the constant values compared by an equality or IN condition
+     *
+     * @return the values; <code>null</code> if any of the values is not a constant
+     */
+    private List<Object> values(final ValueNode condition) {
+        final List<Object> values = new ArrayList<>();
+        if (condition instanceof BinaryRelationalOperatorNode) {
+            final ValueNode rightOperand = ((BinaryRelationalOperatorNode) condition).getRightOperand();
+            if (!(rightOperand instanceof ConstantNode)) {
+                return null;
+            }
+            values.add(((ConstantNode) rightOperand).getValue());
+        } else if (condition instanceof InListOperatorNode) {
+            for (ValueNode valueNode : ((InListOperatorNode) condition).getRightOperandList().getNodeList()) {
+                if (!(valueNode instanceof ConstantNode)) {
+                    return null;
+                }
+                values.add(((ConstantNode) valueNode).getValue());
+            }
+        } else {
+            return null;
+        }
+        return values;
+    }
+}
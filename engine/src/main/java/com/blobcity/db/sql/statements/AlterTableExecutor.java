@@ -18,6 +18,7 @@ package com.blobcity.db.sql.statements;
 
 import com.blobcity.db.bsql.BSqlIndexManager;
 import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.cache.StatementCache;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.lang.columntypes.FieldType;
@@ -43,6 +44,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 /**
@@ -58,6 +60,9 @@ public class AlterTableExecutor {
     private BSqlCollectionManager tableManager;
     @Autowired
     private BSqlIndexManager indexManager;
+    @Autowired
+    @Lazy
+    private StatementCache statementCache;
 
     public String execute(final String appId, final StatementNode stmt) throws OperationException {
         logger.trace("executing alterTable({}, {})", new Object[]{appId, stmt});
@@ -65,6 +70,19 @@ public class AlterTableExecutor {
         AlterTableNode node = (AlterTableNode) stmt;
         //Schema name will be ignored
         final String tableName = node.getObjectName().getTableName();
+        try {
+            alterTable(appId, tableName, node, warnings);
+        } finally {
+            statementCache.invalidate(appId, tableName);
+        }
+        if (warnings.isEmpty()) {
+            return JsonMessages.SUCCESS_ACKNOWLEDGEMENT;
+        } else {
+            return JsonMessages.successWithWarnings(warnings).toString();
+        }
+    }
+
+    private void alterTable(final String appId, final String tableName, final AlterTableNode node, final List<String> warnings) throws OperationException {
         TableElementList tableElementList = node.tableElementList;
         if (tableElementList.size() >= 2) {
             addColumn(appId, tableName, tableElementList, warnings);
@@ -97,11 +115,6 @@ public class AlterTableExecutor {
             logger.error("unsupported tableElementList");
             throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Statement not supported");
         }
-        if (warnings.isEmpty()) {
-            return JsonMessages.SUCCESS_ACKNOWLEDGEMENT;
-        } else {
-            return JsonMessages.successWithWarnings(warnings).toString();
-        }
     }
 
     private void modifyConstraint(final String appId, final String tableName, final ModifyColumnNode node) throws OperationException {
@@ -217,4 +230,8 @@ public class AlterTableExecutor {
         this.indexManager = indexManager;
     }
 
+    public void setStatementCache(final StatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
 }
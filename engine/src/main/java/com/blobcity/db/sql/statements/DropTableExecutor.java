@@ -17,6 +17,7 @@
 package com.blobcity.db.sql.statements;
 
 import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.cache.StatementCache;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.util.json.JsonMessages;
@@ -25,6 +26,7 @@ import com.foundationdb.sql.parser.ExistenceCheck;
 import com.foundationdb.sql.parser.StatementNode;
 import com.foundationdb.sql.parser.StatementType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 /**
@@ -36,6 +38,9 @@ public class DropTableExecutor {
 
     @Autowired
     private BSqlCollectionManager tableManager;
+    @Autowired
+    @Lazy
+    private StatementCache statementCache;
 
     public String execute(final String appId, final StatementNode stmt) throws OperationException {
         final DropTableNode node = (DropTableNode) stmt;
@@ -48,7 +53,11 @@ public class DropTableExecutor {
             throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, 
                     "Cascade/Restrict is not supported on DROP TABLE");
         }
-        tableManager.dropTable(appId, tableName);
+        try {
+            tableManager.dropTable(appId, tableName);
+        } finally {
+            statementCache.invalidate(appId, tableName);
+        }
         return JsonMessages.SUCCESS_ACKNOWLEDGEMENT;
     }
 
@@ -60,4 +69,8 @@ public class DropTableExecutor {
         this.tableManager = tableManager;
     }
 
+    public void setStatementCache(final StatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
 }
@@ -20,11 +20,27 @@ import com.blobcity.db.bsql.BSqlDataManager;
 import com.blobcity.db.bsql.BSqlCollectionManager;
 import com.blobcity.db.bsql.BSqlIndexManager;
 import com.blobcity.db.cache.QueryResultCache;
+import com.blobcity.db.cluster.ClusterNodesStore;
+import com.blobcity.db.cluster.connection.ConnectionStore;
+import com.blobcity.db.cluster.partition.HashRing;
+import com.blobcity.db.cluster.partition.PartitionStore;
+import com.blobcity.db.cluster.transport.ClusterTransport;
 import com.blobcity.db.lang.columntypes.FieldType;
 import com.blobcity.db.license.LicenseBean;
 import com.blobcity.db.license.LicenseRules;
+import com.blobcity.db.master.MasterExecutable;
+import com.blobcity.db.master.MasterExecutorService;
+import com.blobcity.db.master.MasterStore;
+import com.blobcity.db.master.executors.data.SelectMaster;
 import com.blobcity.db.schema.beans.SchemaManager;
 import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.execution.LimitOperator;
+import com.blobcity.db.sql.execution.MergeOperator;
+import com.blobcity.db.sql.execution.Operator;
+import com.blobcity.db.sql.execution.QueryContext;
+import com.blobcity.db.sql.execution.QueryMemory;
+import com.blobcity.db.sql.execution.QueryMemoryManager;
+import com.blobcity.db.sql.execution.SelectPlanner;
 import com.blobcity.db.sql.lang.Aggregate;
 import com.blobcity.db.sql.processing.OnDiskAggregateHandling;
 import com.blobcity.db.sql.processing.OnDiskGroupByHandling;
@@ -33,19 +49,24 @@ import com.blobcity.db.sql.processing.OnDiskWhereHandling;
 import com.blobcity.db.storage.BSqlFileManager;
 import com.blobcity.db.storage.BSqlMemoryManagerOld;
 import com.blobcity.db.constants.BQueryParameters;
+import com.blobcity.db.exceptions.DbRuntimeException;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.sql.util.OperatorMapper;
 import com.blobcity.db.util.ConsumerUtil;
+import com.blobcity.db.util.JSONOperationException;
+import com.blobcity.lib.database.bean.manager.interfaces.engine.ResultWriter;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.blobcity.lib.query.QueryType;
 import com.foundationdb.sql.StandardException;
 import com.foundationdb.sql.parser.*;
 import com.foundationdb.sql.unparser.NodeToString;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
-import org.apache.mina.util.ConcurrentHashSet;
 import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -105,28 +126,71 @@ public class SelectExecutor {
     @Autowired
     @Lazy
     private QueryResultCache queryResultCache;
+    @Autowired
+    @Lazy
+    private SelectPlanner selectPlanner;
+    @Autowired
+    @Lazy
+    private QueryMemoryManager queryMemoryManager;
+    @Autowired
+    @Lazy
+    private PartitionStore partitionStore;
+    @Autowired
+    @Lazy
+    private ClusterNodesStore clusterNodesStore;
+    @Autowired
+    @Lazy
+    private ConnectionStore connectionStore;
+    @Autowired
+    @Lazy
+    private MasterStore masterStore;
+    @Autowired
+    @Lazy
+    private ClusterTransport clusterTransport;
 
     private boolean inMemory = false;
 
+    /**
+     * Registers the handler receiving the rows that nodes produce for distributed SELECTs run by this node. Must be
+     * called before the cluster transport starts accepting connections.
+     */
+    public void init() {
+        clusterTransport.registerRequestHandler(QueryType.SELECT_ROWS, this::handleRows);
+    }
+
     public String execute(final String appId, final StatementNode stmt, final String sqlString) throws OperationException {
         return execute(appId, stmt, false, sqlString);
     }
 
     public String execute(final String appId, final StatementNode stmt, boolean inMemory, final String sqlString) throws OperationException {
         this.inMemory = inMemory;
-        return select(appId, (CursorNode) stmt, sqlString);
+        return select(appId, (CursorNode) stmt, sqlString, null);
     }
 
-    private String select(final String appId, CursorNode node, final String sqlString) throws OperationException {
+    /**
+     * Executes a SELECT, streaming the result rows to a writer as the execution pipeline produces them. Results that
+     * are not produced by the pipeline, such as cached results, are returned whole instead.
+     *
+     * @param appId the datastore
+     * @param stmt the parsed SELECT statement
+     * @param sqlString the SQL of the statement, for logging
+     * @param resultWriter receives the streamed response
+     * @return the complete response if it was not streamed; <code>null</code> if it was written to the writer
+     * @throws OperationException if the query fails before any row is written
+     */
+    public String stream(final String appId, final StatementNode stmt, final String sqlString, final ResultWriter resultWriter) throws OperationException {
+        this.inMemory = false;
+        return select(appId, (CursorNode) stmt, sqlString, resultWriter);
+    }
+
+    private String select(final String appId, CursorNode node, final String sqlString, final ResultWriter resultWriter) throws OperationException {
         final long startTime = System.currentTimeMillis();
         try {
             SelectNode selectNode = (SelectNode) node.getResultSetNode();
             ResultColumnList resultColumns = selectNode.getResultColumns();
 
-            int limit = -1;
-            if(sqlString.contains("limit")) {
-                limit = Integer.parseInt(sqlString.substring(sqlString.indexOf("limit") + 6));
-            }
+            final int limit = LimitOperator.limit(node);
+            final int offset = LimitOperator.offset(node);
 
             //Supporting only a single table
             if (selectNode.getFromList().size() > 1) {
@@ -137,9 +201,15 @@ public class SelectExecutor {
                 inMemory = true;
             }
 
+            /* Partitioned collections are queried on all nodes. Not cached, as writes on other nodes do not invalidate the cache */
+            if (!inMemory && selectPlanner.isDistributed(appId, tableName, node)) {
+                return distributedSelect(appId, tableName, node, resultWriter, startTime);
+            }
+
             /* Load query result from cache if present in cache */
-            if(LicenseRules.QUERY_RESULT_CACHING) {
-                final String result = queryResultCache.get(sqlString);
+            final QueryResultCache.Key cacheKey = LicenseRules.QUERY_RESULT_CACHING ? queryResultCache.newKey(appId, tableName, node) : null;
+            if(cacheKey != null) {
+                final String result = queryResultCache.get(cacheKey);
                 if(result != null) {
                     logger.trace("Returning cached response for SQL query: " + sqlString);
                     return result;
@@ -150,7 +220,6 @@ public class SelectExecutor {
 
             ValueNode whereClause = selectNode.getWhereClause();
             GroupByList groupByList = selectNode.getGroupByList();
-            ValueNode havingClause = selectNode.getHavingClause();
             OrderByList orderByList = node.getOrderByList();
 
             /**
@@ -170,7 +239,9 @@ public class SelectExecutor {
              * 2. SELECT Col1 without a WHERE or GROUP BY clause is fetched from column index
              * 3. SELECT SUM(Col1), AVG(Col1) is processed using Index instead of Records
              * 4. SELECT MAX(Col1), MIN(Col1) are extracted from max and min from index cardinals
-             * 5. SELECT _ from table limit 10
+             *
+             * All other queries are executed by a pull based operator pipeline, that reads only as many records as are
+             * needed to produce the requested number of rows
              */
 
             /* Populate group by columns */
@@ -189,20 +260,6 @@ public class SelectExecutor {
                 }
             });
 
-            final Set<String> columnNames = new HashSet<>(); //names of columns selected. Only these columns to be included in result
-            final Map<ValueNode, String> columnMap = new HashMap<>(); //ResultColumn object to column mapping
-            Iterator<ResultColumn> iterator = resultColumns.iterator();
-            resultColumns.forEach(resultColumn -> {
-                if (resultColumn.getExpression() instanceof ColumnReference) {
-                    columnNames.add((resultColumn.getExpression()).getColumnName());
-                    columnMap.put(resultColumn.getExpression(), resultColumn.getExpression().getColumnName());
-                } else if (resultColumn.getExpression() instanceof AggregateNode) {
-                    columnNames.add((resultColumn.getExpression()).getColumnName());
-                    columnMap.put(resultColumn.getExpression(), resultColumn.getExpression().getColumnName());
-                }
-            });
-
-            final Map<AggregateNode, Object> aggregateMap = new HashMap<>();
             final Map<String, List<JSONObject>> resultMap = new HashMap<>();
 
             if (schema == null) {
@@ -220,28 +277,14 @@ public class SelectExecutor {
                     if(orderByList != null) {
                         orderResult(appId, tableName, orderByList, resultMap);
                     }
-                    return produceResult(appId, tableName, sqlString, resultMap, limit, startTime);
+                    return produceResult(cacheKey, resultMap, offset, limit, startTime);
                 }
 
                 /* SELECT col1 FROM table */
                 if (!selectNode.isDistinct() && whereClause == null && aggOperations.size() == 0 && resultColumns.size() == 1
-                        && resultColumns.getColumnNames()[0] != null && groupByColumns.size() == 0) {
-                    populateSingleColumn(appId, tableName, resultColumns.getColumnNames()[0], resultMap, limit);
-                    if(orderByList != null) {
-                        orderResult(appId, tableName, orderByList, resultMap);
-                    }
-                    return produceResult(appId, tableName, sqlString, resultMap, limit, startTime);
-                }
-
-                /* SELECT DISTINCT * FROM table */
-                /* SELECT * FROM table */
-                else if (whereClause == null && aggOperations.size() == 0 && resultColumns.size() == 1
-                        && resultColumns.getColumnNames()[0] == null && groupByColumns.size() == 0) {
-                    populateSelectAll(appId, tableName, resultMap, limit);
-                    if(orderByList != null) {
-                        orderResult(appId, tableName, orderByList, resultMap);
-                    }
-                    return produceResult(appId, tableName, sqlString, resultMap, limit, startTime);
+                        && resultColumns.getColumnNames()[0] != null && groupByColumns.size() == 0 && orderByList == null) {
+                    populateSingleColumn(appId, tableName, resultColumns.getColumnNames()[0], resultMap, limit != -1 ? offset + limit : -1);
+                    return produceResult(cacheKey, resultMap, offset, limit, startTime);
                 }
 
                 /* SELECT SUM(col1) from table */
@@ -249,8 +292,12 @@ public class SelectExecutor {
                 /* SELECT SUM(col1),MIN(col2) from table */
                 /* Only aggregates combinations thereof */
                 else if (whereClause == null && aggOperations.size() > 0 && resultColumns.size() == aggOperations.size()
-                        && groupByColumns.size() == 0) {
-                    return produceOnlyAggregateResult(computeFullColumnAggregates(appId, tableName, aggOperations), startTime).toString();
+                        && groupByColumns.size() == 0 && selectNode.getHavingClause() == null) {
+                    final String resultString = produceOnlyAggregateResult(computeFullColumnAggregates(appId, tableName, aggOperations), startTime).toString();
+                    if(cacheKey != null) {
+                        queryResultCache.cache(cacheKey, resultString);
+                    }
+                    return resultString;
                 }
 
                 /* SELECT col2 FROM table GROUP BY col2 */
@@ -259,49 +306,22 @@ public class SelectExecutor {
                 /* SELECT SUM(col2) FROM table WHERE col1 > 10 GROUP BY col2 */
                 //TODO: Implement this
 
-
-                /* SELECT col1, col2, coln FROM table -> will use only column index */
-                else if(whereClause == null && aggOperations.isEmpty() && resultColumns.size() > 1 && groupByColumns.size() == 0) {
-                    populateOnlyColumnsResult(appId, tableName, columnNames, resultMap);
-                    return produceResult(appId, tableName, sqlString, resultMap, limit, startTime);
-                }
-
             } else {
                 /* InMemory special case handling */
             }
 
             if(!inMemory) {
-                Set<String> keys = whereClause == null ? new HashSet<>(dataManager.selectAllKeys(appId, tableName)) : onDiskWhereHandling.executeWhere(appId, tableName, resultColumns, whereClause);
-                List<JSONObject> filteredData = loadData(appId, tableName, keys);
-
-                if(groupByList != null) {
-                    resultMap.putAll(groupBy(filteredData, groupByList));
-                    resultMap.remove(""); //remove empty group
-                } else {
-                    resultMap.put("_master_", filteredData);
-                }
-
-                runAggregates(appId, tableName, aggOperations, resultMap);
-
-                /* Keep only single result per group if results is a grouped by result */
-                if(groupByList != null) {
-                    if(havingClause != null) {
-//                        runHaving()
+                final QueryMemory memory = queryMemoryManager.newQueryMemory(appId);
+                try {
+                    final Operator pipeline = selectPlanner.plan(appId, tableName, node, memory);
+                    if (resultWriter != null) {
+                        streamResult(pipeline, memory, resultWriter, startTime);
+                        return null;
                     }
-                    keepSingleRecordsPerGroup(resultMap);
-                } else if(resultColumns.size() == aggOperations.size()) {
-                    keepSingleRecordsPerGroup(resultMap);
+                    return produceResult(cacheKey, pipeline, memory, startTime);
+                } finally {
+                    queryMemoryManager.record(appId, memory);
                 }
-
-                if(orderByList != null) {
-                    orderResult(appId, tableName, orderByList, resultMap);
-                }
-
-                /* Keeps only the requested columns and does not touch if * is present */
-                controlColumns(resultColumns, resultMap);
-
-                return produceResult(appId, tableName, sqlString, resultMap, limit, startTime);
-
             } else {
                 throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "In-memory operations temporarily suspended");
             }
@@ -311,42 +331,175 @@ public class SelectExecutor {
         }
     }
 
-    private List<JSONObject> loadData(final String ds, final String collection, final Set<String> keys) throws OperationException {
-        final List<JSONObject> list = Collections.synchronizedList(new ArrayList<>());
-        keys.parallelStream().forEach(ConsumerUtil.throwsException(_id -> list.add(dataManager.select(ds, collection, _id)), OperationException.class));
-        return list;
+    /**
+     * Executes a SELECT on a partitioned collection. The fragment of the query planned by
+     * {@link SelectPlanner#planFragment} runs on every live node of the partition ring, which evaluates the WHERE
+     * clause, partial aggregates, ordering and limit over the records it answers for. The nodes stream their rows back
+     * in batches, which are merged on this node through {@link SelectPlanner#planMerge} as they arrive.
+     *
+     * @param ds the datastore
+     * @param collection the partitioned collection
+     * @param node the parsed SELECT statement
+     * @param resultWriter receives the streamed response; <code>null</code> to return the response
+     * @param startTime time at which query execution started
+     * @return the complete response if it was not streamed; <code>null</code> if it was written to the writer
+     * @throws OperationException if the live nodes do not hold a copy of every record, or any node fails the query
+     * @throws StandardException if the statement tree cannot be traversed
+     */
+    private String distributedSelect(final String ds, final String collection, final CursorNode node, final ResultWriter resultWriter,
+            final long startTime) throws OperationException, StandardException {
+        final HashRing ring = partitionStore.getRing();
+        final Set<String> liveNodes = new HashSet<>();
+        for (String nodeId : ring.getNodes()) {
+            if (nodeId.equals(clusterNodesStore.getSelfId()) || connectionStore.getConnection(nodeId) != null) {
+                liveNodes.add(nodeId);
+            }
+        }
+        if (!ring.covers(liveNodes, partitionStore.getReplicas(ds, collection))) {
+            throw new OperationException(ErrorCode.CLUSTER_CONNECTION_ERROR, "Not enough nodes of the cluster are reachable to read every record of "
+                    + ds + "." + collection);
+        }
+
+        final Query query = new Query().requestId(UUID.randomUUID().toString()).masterNodeId(clusterNodesStore.getSelfId())
+                .selectQuery(ds, collection, new NodeToString().toString(node), liveNodes, ring.getVersion());
+        final SelectMaster selectMaster = new SelectMaster(query, liveNodes);
+        masterStore.register(query.getRequestId(), selectMaster);
+        final QueryMemory memory = queryMemoryManager.newQueryMemory(ds);
+        try {
+            final Operator pipeline = selectPlanner.planMerge(node, selectMaster.getRuns(), memory);
+            MasterExecutorService.getInstance().submit(selectMaster);
+            if (resultWriter != null) {
+                streamResult(pipeline, memory, resultWriter, startTime);
+                return null;
+            }
+            return produceResult(null, pipeline, memory, startTime);
+        } finally {
+            selectMaster.rollback(); //stops nodes still running the query once the pipeline stopped early or failed
+            masterStore.unregister(query.getRequestId());
+            queryMemoryManager.record(ds, memory);
+        }
     }
 
-    private String produceResult(final String ds, final String collection, final String sqlQuery, final Map<String, List<JSONObject>> resultMap, final int limit, final long startTime) throws OperationException {
-        final JSONObject responseJson = new JSONObject();
+    private Query handleRows(final String nodeId, final Query request) throws OperationException {
+        final JSONArray rowsArray = request.getJSONObject(QueryParams.PAYLOAD).getJSONArray(QueryParams.DATA.getParam());
+        final List<JSONObject> rows = new ArrayList<>(rowsArray.length());
+        for (int i = 0; i < rowsArray.length(); i++) {
+            rows.add(rowsArray.getJSONObject(i));
+        }
+
+        final MasterExecutable masterExecutable = masterStore.get(request.getRequestId());
+        if (!(masterExecutable instanceof SelectMaster) || !((SelectMaster) masterExecutable).addRows(nodeId, rows)) {
+            throw new OperationException(ErrorCode.QUERY_CANCELLED, "Select " + request.getRequestId() + " is no longer running");
+        }
+        return new Query().requestId(request.getRequestId()).ackSuccess();
+    }
+
+    private String produceResult(final QueryResultCache.Key cacheKey, final Map<String, List<JSONObject>> resultMap, final int offset, final int limit, final long startTime) throws OperationException {
         final List<JSONObject> resultList = new ArrayList<>();
         resultMap.forEach((key, value) -> resultList.addAll(value));
 
-        List<JSONObject> result = resultList;
-        if(limit != -1){
-            result = result.subList(0, limit);
+        final int fromIndex = Math.min(offset, resultList.size());
+        final int toIndex = limit == -1 ? resultList.size() : Math.min(fromIndex + limit, resultList.size());
+        return produceResult(cacheKey, resultList.subList(fromIndex, toIndex), startTime);
+    }
+
+    /**
+     * Produces the query response by pulling all rows from the root operator of an execution pipeline
+     *
+     * @param cacheKey key to cache the response against; <code>null</code> if the response is not to be cached
+     * @param operator the root operator of the execution pipeline
+     * @param memory the memory budget of the pipeline, whose spill volume is reported in the response if it spilled
+     * @param startTime time at which query execution started
+     * @return the query response
+     * @throws OperationException if an error occurs in executing the pipeline
+     */
+    private String produceResult(final QueryResultCache.Key cacheKey, final Operator operator, final QueryMemory memory, final long startTime)
+            throws OperationException {
+        final List<JSONObject> result = new ArrayList<>();
+        try (Operator pipeline = operator) {
+            pipeline.open();
+            JSONObject row;
+            while ((row = pipeline.next()) != null) {
+                QueryContext.checkCancelled();
+                result.add(row);
+            }
         }
+        return produceResult(cacheKey, result, memory.getSpillFiles() > 0 ? memory.getStats() : null, startTime);
+    }
 
-        final long executionTime = System.currentTimeMillis() - startTime;
-        final String resultString = responseJson.put(BQueryParameters.ACK, "1").put(BQueryParameters.TIME, executionTime).put(BQueryParameters.PAYLOAD, result).toString();
-        if(LicenseRules.QUERY_RESULT_CACHING) {
-            queryResultCache.cache(ds, collection, sqlQuery, resultString);
+    /**
+     * Streams the response by writing rows to the writer as they are pulled from the root operator of an execution
+     * pipeline. Streamed responses are not cached. A failure after rows were written is reported in the status that
+     * ends the response.
+     *
+     * @param operator the root operator of the execution pipeline
+     * @param memory the memory budget of the pipeline, whose spill volume is reported in the response if it spilled
+     * @param resultWriter receives the response
+     * @param startTime time at which query execution started
+     * @throws OperationException if the pipeline fails before any row is written, or the writer fails
+     */
+    private void streamResult(final Operator operator, final QueryMemory memory, final ResultWriter resultWriter, final long startTime)
+            throws OperationException {
+        long rows = 0;
+        final JSONObject status;
+        try (Operator pipeline = operator) {
+            pipeline.open();
+            JSONObject row;
+            while ((row = pipeline.next()) != null) {
+                QueryContext.checkCancelled();
+                resultWriter.writeRow(row);
+                rows++;
+            }
+            status = new JSONObject().put(BQueryParameters.ACK, "1").put(BQueryParameters.TIME, System.currentTimeMillis() - startTime);
+            if (memory.getSpillFiles() > 0) {
+                status.put("spill", memory.getStats());
+            }
+        } catch (OperationException ex) {
+            failStream(resultWriter, rows, ex);
+            return;
+        } catch (DbRuntimeException ex) {
+            if (!(ex.getCause() instanceof OperationException)) {
+                throw ex;
+            }
+            failStream(resultWriter, rows, (OperationException) ex.getCause());
+            return;
+        } catch (IOException ex) {
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Result stream closed after " + rows + " rows: " + ex.getMessage());
         }
-        return resultString;
+        endStream(resultWriter, status);
     }
 
-    private void runAggregates(final String ds, final String collection, final List<AggregateNode> aggregateNodes, final Map<String, List<JSONObject>> resultMap) {
-        aggregateNodes.forEach(ConsumerUtil.throwsException(aggregateNode -> onDiskAggregateHandling.computeAggOnResult(ds, collection, aggregateNode, resultMap), OperationException.class));
+    private void failStream(final ResultWriter resultWriter, final long rows, final OperationException ex) throws OperationException {
+        if (rows == 0) {
+            throw ex;
+        }
+        logger.warn("Query failed after streaming " + rows + " rows: " + ex.getMessage());
+        endStream(resultWriter, JSONOperationException.create(ex));
     }
 
-    private void keepSingleRecordsPerGroup(final Map<String, List<JSONObject>> resultMap) {
-        resultMap.forEach((key, value) -> {
-            if(!value.isEmpty()) {
-                JSONObject jsonObject = value.get(0);
-                value.clear();
-                value.add(jsonObject);
-            }
-        });
+    private void endStream(final ResultWriter resultWriter, final JSONObject status) throws OperationException {
+        try {
+            resultWriter.end(status);
+        } catch (IOException ex) {
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Result stream closed before its end: " + ex.getMessage());
+        }
+    }
+
+    private String produceResult(final QueryResultCache.Key cacheKey, final List<JSONObject> result, final long startTime) {
+        return produceResult(cacheKey, result, null, startTime);
+    }
+
+    private String produceResult(final QueryResultCache.Key cacheKey, final List<JSONObject> result, final JSONObject spillStats, final long startTime) {
+        final JSONObject responseJson = new JSONObject();
+        final long executionTime = System.currentTimeMillis() - startTime;
+        if (spillStats != null) {
+            responseJson.put("spill", spillStats);
+        }
+        final String resultString = responseJson.put(BQueryParameters.ACK, "1").put(BQueryParameters.TIME, executionTime).put(BQueryParameters.PAYLOAD, result).toString();
+        if(cacheKey != null) {
+            queryResultCache.cache(cacheKey, resultString);
+        }
+        return resultString;
     }
 
     private void orderResult(final String ds, final String collection, final OrderByList orderByList, final Map<String, List<JSONObject>> resultMap) throws OperationException {
@@ -381,39 +534,6 @@ public class SelectExecutor {
         resultMap.put("_ordered_", Arrays.asList(jsonArr));
     }
 
-    /**
-     * Of the whole result, removes the unwanted columns to keep only those columns requested in the search result
-     * @param resultColumns the columns requested in the select query
-     * @param resultMap records inside this result map are updated to keep on requested columns
-     */
-    private void controlColumns(final ResultColumnList resultColumns, final Map<String, List<JSONObject>> resultMap) {
-        final Set<String> displayNames = new HashSet<>();
-
-        for (ResultColumn resultColumn : resultColumns) {
-            if (resultColumn.getExpression() instanceof ColumnReference) {
-                final String columnName = (resultColumn.getExpression()).getColumnName();
-                if(columnName != null) {
-                    displayNames.add(columnName);
-                }
-            } else if (resultColumn.getExpression() instanceof AggregateNode) {
-                AggregateNode aggNode = (AggregateNode) resultColumn.getExpression();
-                displayNames.add(aggNode.getAggregateName() + "(" + ((ColumnReference) aggNode.getOperand()).getColumnName() + ")");
-            }
-        }
-
-        /* Either only * present or * found in the column list, so ignore filtering */
-        if(displayNames.isEmpty() || displayNames.size() != resultColumns.getColumnNames().length) {
-            return;
-        }
-
-        resultMap.forEach((key, records) ->
-                records.parallelStream().forEach(record -> {
-                            if(record != null) {
-                                record.keySet().retainAll(displayNames);
-                            }
-                        }));
-    }
-
     private Map<AggregateNode, Object> computeFullColumnAggregates(final String ds, final String collection, final List<AggregateNode> aggOperations) throws OperationException {
         Map<AggregateNode, Object> aggregateMap = new HashMap<>();
         aggOperations.parallelStream().forEach(aggNode -> {
@@ -467,9 +587,11 @@ public class SelectExecutor {
             while(count < limit && cardinals.hasNext()) {
                 final String cardinal = cardinals.next();
                 final Iterator<String> keyIterator = indexManager.readIndexStream(ds, collection, columnName, cardinal);
-                while(count++ < limit && keyIterator.hasNext()) {
+                while(count < limit && keyIterator.hasNext()) {
+                    QueryContext.checkCancelled();
                     keyIterator.next();
                     jsonList.add(new JSONObject().put(columnName, fieldType.convert(cardinal)));
+                    count++;
                 }
             }
         }
@@ -477,48 +599,6 @@ public class SelectExecutor {
         resultMap.put("_master_", jsonList);
     }
 
-    private void populateOnlyColumnsResult(final String ds, final String collection, final Set<String> columnNames, final Map<String, List<JSONObject>> resultMap) throws OperationException {
-        if (resultMap.containsKey("_master_")) {
-            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "SELECT query execution encountered an internal error. SelectExecutor.populateSingleColumnDistinct() wrongly invoked");
-        }
-
-        final Map<String, Map<String, String>> columnResultMap = new HashMap<>();
-        final Set<String> keysSet = new ConcurrentHashSet<>();
-        final Map<String, FieldType> fieldTypeMap = new HashMap<>();
-        final List<JSONObject> jsonList = new ArrayList<>();
-
-        columnNames.parallelStream().forEach(ConsumerUtil.throwsException(columnName -> {
-            Map<String, String> keyValueMap = new HashMap<>();
-            Set<String> internalKeysSet = new HashSet<>();
-            fieldTypeMap.put(columnName, schemaStore.getSchema(ds, collection).getColumn(columnName).getFieldType());
-
-            indexManager.getCardinals(ds, collection, columnName).forEachRemaining(ConsumerUtil.throwsException(cardinal -> {
-                indexManager.readIndexStream(ds, collection, columnName, cardinal).forEachRemaining(ConsumerUtil.throwsException(_id -> {
-                    keyValueMap.put(_id, cardinal);
-                    keysSet.add(_id);
-                }, OperationException.class));
-            }, OperationException.class));
-            columnResultMap.put(columnName, keyValueMap);
-            keysSet.addAll(internalKeysSet);
-        }, OperationException.class));
-
-        keysSet.parallelStream().forEach(_id -> {
-            JSONObject jsonObject = new JSONObject();
-            columnResultMap.forEach((columnName, map) -> {
-                try {
-                    if(map.containsKey(_id)) {
-                        jsonObject.put(columnName, fieldTypeMap.get(columnName).convert(map.get(_id)));
-                    }
-                } catch (OperationException e) {
-                    e.printStackTrace();
-                }
-            });
-            jsonList.add(jsonObject);
-        });
-
-        resultMap.put("_master_", jsonList);
-    }
-
     private Set<String> filter(final String appId, final String tableName, final ResultColumnList columns, ValueNode whereClause) throws OperationException, StandardException {
         logger.debug("filter({}, {}, {}, {})", new Object[]{appId, tableName, columns.toString(), new NodeToString().toString(whereClause)});
 
@@ -872,52 +952,6 @@ public class SelectExecutor {
         return jsonObject.put(BQueryParameters.ACK, "1").put(BQueryParameters.PAYLOAD, jsonArray).toString();
     }
 
-    private void populateSelectAll(final String ds, final String collection, final Map<String, List<JSONObject>> resultMap, final int limit) throws OperationException {
-        if(resultMap.containsKey("_master_")) {
-            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "SelectExecutor.populateSelectAll incorrectly invoked");
-        }
-
-        if(limit == -1) {
-            resultMap.put("_master_", dataManager.selectAll(ds, collection));
-        }else {
-            resultMap.put("_master_", dataManager.selectAll(ds, collection, limit));
-        }
-    }
-
-    /**
-     * Used to group select or select with where data into the specified groups. GROUP BY is run immediately
-     * after the WHERE clause. Data must be selected for the GROUP BY to execute.
-     *
-     * @param data        the data from SELECT * or SELECT * with WHERE
-     * @param groupByList the list of columns to group on. Cannot be null or empty list
-     * @return data grouped by the column values
-     */
-    private Map<String, List<JSONObject>> groupBy(final List<JSONObject> data, GroupByList groupByList) {
-        final List<String> groupByColumns = new ArrayList<>();
-        groupByList.forEach(groupByColumn -> groupByColumns.add(groupByColumn.getColumnName()));
-
-        final Map<String, List<JSONObject>> groupedMap = new ConcurrentHashMap<>();
-
-        logger.trace("groupBy - started processing individual data records");
-        data.parallelStream().forEach(jsonObject -> {
-            if(jsonObject != null) {
-                StringBuilder sb = new StringBuilder();
-                groupByColumns.forEach(columnName -> {
-                    if (!jsonObject.has(columnName)) sb.append("-");
-                    else sb.append(jsonObject.get(columnName));
-                });
-
-                String key = sb.toString();
-                if (!groupedMap.containsKey(key)) {
-                    groupedMap.put(key, Collections.synchronizedList(new ArrayList<>()));
-                }
-                groupedMap.get(key).add(jsonObject);
-            }
-        });
-
-        return groupedMap;
-    }
-
     /**
      * Creates a new JSONObject with ack:1 as the only parameter in it
      *
@@ -47,6 +47,29 @@ public class PathUtil {
         return path.toString();
     }
 
+    public static String segmentsFolderPath(final String appId, final String table) {
+        StringBuilder path = new StringBuilder(BSql.BSQL_BASE_FOLDER);
+        path.append(appId);
+        path.append(BSql.SEPERATOR);
+        path.append(BSql.DATABASE_FOLDER_NAME);
+        path.append(BSql.SEPERATOR);
+        path.append(table);
+        path.append(BSql.SEGMENTS_FOLDER);
+        return path.toString();
+    }
+
+    public static String commitLogsFolderPath(final String appId, final String table) {
+        StringBuilder path = new StringBuilder(BSql.BSQL_BASE_FOLDER);
+        path.append(appId);
+        path.append(BSql.SEPERATOR);
+        path.append(BSql.DATABASE_FOLDER_NAME);
+        path.append(BSql.SEPERATOR);
+        path.append(table);
+        path.append(BSql.SEPERATOR);
+        path.append(BSql.COMMIT_LOGS_FOLDER_NAME);
+        return path.toString();
+    }
+
     public static String schemaFilePath(final String appId, final String table) {
         StringBuilder path = new StringBuilder(BSql.BSQL_BASE_FOLDER);
         path.append(appId);
@@ -246,6 +269,20 @@ public class PathUtil {
         return path.toString();
     }
 
+    public static String spillFolder(final String appId) {
+        StringBuilder path = new StringBuilder(BSql.BSQL_BASE_FOLDER);
+        path.append(appId);
+        path.append(BSql.SPILL_FOLDER);
+        return path.toString();
+    }
+
+    public static String datastoreConfigFile(final String appId) {
+        StringBuilder path = new StringBuilder(BSql.BSQL_BASE_FOLDER);
+        path.append(appId);
+        path.append(BSql.DATASTORE_CONFIG_FILE);
+        return path.toString();
+    }
+
     public static String globalLiveFile(final String fileName) {
         StringBuilder path = new StringBuilder(BSql.GLOBAL_LIVE_FOLDER);
         path.append(fileName);
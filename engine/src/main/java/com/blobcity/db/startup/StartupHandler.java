@@ -17,6 +17,9 @@
 package com.blobcity.db.startup;
 
 import com.blobcity.db.cluster.nodes.NodeManager;
+import com.blobcity.db.cluster.partition.PartitionManager;
+import com.blobcity.db.cluster.replication.ReplicaCatchUp;
+import com.blobcity.db.cluster.transport.ClusterTransport;
 import com.blobcity.db.config.ConfigBean;
 import com.blobcity.db.config.ConfigProperties;
 import com.blobcity.db.constants.BSql;
@@ -24,7 +27,10 @@ import com.blobcity.db.constants.License;
 import com.blobcity.db.global.live.GlobalLiveStore;
 import com.blobcity.db.home.HomeReportingBean;
 import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.execution.QueryMemoryManager;
+import com.blobcity.db.sql.statements.SelectExecutor;
 import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.transaction.CommitLogReader;
 import com.blobcity.db.util.SystemInputUtil;
 import com.blobcity.db.versioning.VersionUpgradeFactory;
 import com.blobcity.db.versioning.VersionUpgrader;
@@ -60,9 +66,21 @@ public class StartupHandler {
     @Autowired
     private NodeManager nodeManager;
     @Autowired
+    private ClusterTransport clusterTransport;
+    @Autowired
+    private PartitionManager partitionManager;
+    @Autowired
+    private ReplicaCatchUp replicaCatchUp;
+    @Autowired
+    private SelectExecutor selectExecutor;
+    @Autowired
     private VersionUpgradeFactory versionUpgradeFactory;
     @Autowired
     private HomeReportingBean homeReportingBean;
+    @Autowired
+    private CommitLogReader commitLogReader;
+    @Autowired
+    private QueryMemoryManager queryMemoryManager;
     
     /* For Singleton initialization purpose on startup */
     @Autowired
@@ -112,7 +130,8 @@ public class StartupHandler {
             case RUNNING:
                 logger.debug("Old DB status was running. Starting with recovery");
 
-                //TODO: Execute any uncompleted tasks that need to be completed before a startup
+                commitLogReader.replayLogs();
+                logger.info("Recovery from commit logs complete");
                 writeStatus(RUNNING);
                 ready = true;
                 logger.debug("DB status set to RUNNING");
@@ -126,6 +145,11 @@ public class StartupHandler {
          */
         /* Start long running tasks and load caches */
         globalLiveStore.init();
+        partitionManager.init();
+        replicaCatchUp.init();
+        selectExecutor.init();
+        queryMemoryManager.init();
+        clusterTransport.start();
     }
 
     @PreDestroy
@@ -174,7 +198,7 @@ public class StartupHandler {
             configBean.updateConfig();
         // this will let us know that database has been upgraded to v4 and 
         // you can create the default tables now
-            if(currentVersion == License.RELEASE_NUMBER ){
+            if(currentVersion == 4){
                 configBean.setVersionUpgradedTo4(true);
             }
         }
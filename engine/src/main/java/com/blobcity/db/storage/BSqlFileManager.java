@@ -29,19 +29,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Level;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -50,7 +55,10 @@ import org.springframework.stereotype.Component;
 /**
  * This class is responsible for reading and writing files. This class operates on files in the .bdb format at a low
  * level to directly modify the contents of the file.<br/><br/> This class supports thread safe and transacted
- * operations.
+ * operations.<br/><br/> Collections created on storage version 5 and above keep their records in append only segment
+ * files managed by {@link SegmentStore}. Collections in the older one file per record format continue to be served
+ * from their data folder until they are migrated.<br/><br/> Records are written in the binary form of
+ * {@link RecordCodec}. Records written as JSON text by earlier versions are still readable.
  *
  * @author sanketsarang
  */
@@ -63,6 +71,8 @@ public class BSqlFileManager {
     private DataCache dataCache;
     @Autowired
     private CacheRules cacheRules;
+    @Autowired
+    private SegmentStore segmentStore;
 
     /**
      * <p>
@@ -72,11 +82,47 @@ public class BSqlFileManager {
      * @param app the application id of the BlobCity application
      * @param table the table within the specified application
      * @param key the key of the record to select
-     * @return selected record
-     * @throws com.blobcity.db.exceptions.OperationException
+     * @return selected record in its internal JSON form
+     * @throws com.blobcity.db.exceptions.OperationException if the record is not found
+     * @throws org.json.JSONException if the stored record is corrupted
+     */
+    public JSONObject select(final String app, final String table, final String key) throws OperationException {
+        return RecordCodec.decode(selectBytes(app, table, key));
+    }
+
+    /**
+     * Selects only the specified columns of the record matching the key. Values of other columns are skipped over
+     * while decoding the stored record.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table the table within the specified application
+     * @param key the key of the record to select
+     * @param columns internal names of the columns to select
+     * @return JSON in internal form containing the selected columns present in the record
+     * @throws com.blobcity.db.exceptions.OperationException if the record is not found
+     * @throws org.json.JSONException if the stored record is corrupted
+     */
+    public JSONObject select(final String app, final String table, final String key, final Set<String> columns) throws OperationException {
+        return RecordCodec.decode(selectBytes(app, table, key), columns);
+    }
+
+    /**
+     * Selects the value of a single column of the record matching the key, without decoding the other columns
+     *
+     * @param app the application id of the BlobCity application
+     * @param table the table within the specified application
+     * @param key the key of the record to select
+     * @param column internal name of the column
+     * @return value of the column; <code>null</code> if the record does not contain the column
+     * @throws com.blobcity.db.exceptions.OperationException if the record is not found
+     * @throws org.json.JSONException if the stored record is corrupted
      */
-    public String select(final String app, final String table, final String key) throws OperationException {
-        String result = null;
+    public Object selectColumn(final String app, final String table, final String key, final String column) throws OperationException {
+        return RecordCodec.decodeColumn(selectBytes(app, table, key), column);
+    }
+
+    private byte[] selectBytes(final String app, final String table, final String key) throws OperationException {
+        byte[] result;
         if (LicenseRules.DATA_CACHING && cacheRules.shouldCache(app, table)) {
             result = dataCache.load(app, table, key);
             if (result != null) {
@@ -84,9 +130,9 @@ public class BSqlFileManager {
             }
         }
 
-        Path path = Paths.get(PathUtil.dataFile(app, table, key));
         try {
-            result = new String(Files.readAllBytes(path), "UTF-8");
+            result = segmentStore.isSegmented(app, table) ? selectFromSegments(app, table, key)
+                    : Files.readAllBytes(Paths.get(PathUtil.dataFile(app, table, key)));
             if (LicenseRules.DATA_CACHING && cacheRules.shouldCache(app, table)) {
                 dataCache.cache(app, table, key, result);
             }
@@ -94,24 +140,22 @@ public class BSqlFileManager {
         } catch (IOException e) {
             throw new OperationException(ErrorCode.PRIMARY_KEY_INEXISTENT, "A record with the given primary key: " + key + " could not be found in table: " + table);
         }
+    }
 
-        /* Old and stable implementation. Was not working for special characters */
-//        try (BufferedReader reader = new BufferedReader(new FileReader(PathUtil.dataFile(app, table, key)))) {
-//            result = reader.readLine();
-//
-//            if (LicenseRules.DATA_CACHING && cacheRules.shouldCache(app, table)) {
-//                dataCache.cache(app, table, key, result);
-//            }
-//            return result;
-//        } catch (FileNotFoundException ex) {
-//            throw new OperationException(ErrorCode.PRIMARY_KEY_INEXISTENT, "A record with the given primary key: " + key + " could not be found in table: " + table);
-//        } catch (IOException ex) {
-//            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occured. Could not select record for table: " + table);
-//        }
+    private byte[] selectFromSegments(final String app, final String table, final String key) throws OperationException, IOException {
+        final byte[] bytes = segmentStore.get(app, table).get(key);
+        if (bytes == null) {
+            throw new OperationException(ErrorCode.PRIMARY_KEY_INEXISTENT, "A record with the given primary key: " + key + " could not be found in table: " + table);
+        }
+        return bytes;
     }
 
     public List<String> selectAll(final String app, final String table) throws OperationException {
         List<String> list = new ArrayList<>();
+        if (segmentStore.isSegmented(app, table)) {
+            segmentStore.get(app, table).keys().forEachRemaining(list::add);
+            return list;
+        }
         try (DirectoryStream directoryStream = Files.newDirectoryStream(FileSystems.getDefault().getPath(PathUtil.dataFolderPath(app, table)))) {
             Iterator<Path> iterator = directoryStream.iterator();
 
@@ -132,6 +176,30 @@ public class BSqlFileManager {
         }
     }
 
+    /**
+     * Counts the records present within the specified table
+     *
+     * @param app The application id of the application
+     * @param table The table name of the table who's records are to be counted
+     * @return the number of records in the table
+     * @throws OperationException if an i/o error occurs
+     */
+    public long count(final String app, final String table) throws OperationException {
+        if (segmentStore.isSegmented(app, table)) {
+            return segmentStore.get(app, table).size();
+        }
+        long count = 0;
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(FileSystems.getDefault().getPath(PathUtil.dataFolderPath(app, table)))) {
+            for (Path path : directoryStream) {
+                count++;
+            }
+            return count;
+        } catch (IOException ex) {
+            logger.trace(null, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR);
+        }
+    }
+
     /**
      * Gets all primary keys within the specified table in the form of an iterator. Only one key is loaded at any point
      * in this. No select governor limits apply on this function.
@@ -142,6 +210,14 @@ public class BSqlFileManager {
      * @throws IOException If an i/o error occurs
      */
     public Iterator<String> selectAllKeysAsStream(final String app, final String table) throws IOException {
+        if (segmentStore.isSegmented(app, table)) {
+            try {
+                return segmentStore.get(app, table).keys();
+            } catch (OperationException ex) {
+                throw new IOException(ex);
+            }
+        }
+
         DirectoryStream ds = Files.newDirectoryStream(FileSystems.getDefault().getPath(PathUtil.dataFolderPath(app, table)));
         final Iterator<Path> pathIterator = ds.iterator();
 
@@ -177,6 +253,69 @@ public class BSqlFileManager {
         };
     }
 
+    /**
+     * Gets an iterator over all records within the specified table, in their internal JSON form. For segmented tables
+     * the records are read in the order in which they are laid out on disk, making this a sequential read of the
+     * segment files. Records are decoded as the iterator advances. No select governor limits apply on this function.
+     *
+     * @param app The application id of the application
+     * @param table The table name of the table who's records are to be selected
+     * @return An <code>Iterator</code> of primary key and internal JSON pairs of all records in the table
+     * @throws IOException If an i/o error occurs
+     */
+    public Iterator<Map.Entry<String, JSONObject>> selectAllAsStream(final String app, final String table) throws IOException {
+        if (segmentStore.isSegmented(app, table)) {
+            final Iterator<Map.Entry<String, byte[]>> iterator;
+            try {
+                iterator = segmentStore.get(app, table).scan();
+            } catch (OperationException ex) {
+                throw new IOException(ex);
+            }
+            return new Iterator<Map.Entry<String, JSONObject>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, JSONObject> next() {
+                    Map.Entry<String, byte[]> entry = iterator.next();
+                    try {
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), RecordCodec.decode(entry.getValue()));
+                    } catch (JSONException ex) {
+                        throw corrupted(table, entry.getKey(), ex);
+                    }
+                }
+            };
+        }
+
+        final Iterator<String> keyIterator = selectAllKeysAsStream(app, table);
+        return new Iterator<Map.Entry<String, JSONObject>>() {
+            @Override
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, JSONObject> next() {
+                String key = keyIterator.next();
+                try {
+                    return new AbstractMap.SimpleImmutableEntry<>(key, select(app, table, key));
+                } catch (JSONException ex) {
+                    throw corrupted(table, key, ex);
+                } catch (OperationException ex) {
+                    throw new DbRuntimeException(ex);
+                }
+            }
+        };
+    }
+
+    private DbRuntimeException corrupted(final String table, final String key, final JSONException ex) {
+        logger.error("Data for record with primary key: " + key + " in collection: " + table + " seems to be corrupted", ex);
+        return new DbRuntimeException(new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred. "
+                + "Data for record with primary key: " + key + " in collection: " + table + " seems to be corrupted."));
+    }
+
     /**
      * Gets an iterator over primary keys for all key records that match the filter condition. The filter condition
      * should ideally apply only on values of the primary keys and not values of other columns, for which functions
@@ -190,6 +329,38 @@ public class BSqlFileManager {
      * system read permissions on non existence of required data storage or corrupt data.
      */
     public Iterator<String> selectWithFilterAsStream(final String app, final String table, final Filter filter) throws IOException {
+        if (segmentStore.isSegmented(app, table)) {
+            final Iterator<String> keys = selectAllKeysAsStream(app, table);
+            return new Iterator<String>() {
+                private String next = null;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && keys.hasNext()) {
+                        String key = keys.next();
+                        try {
+                            if (filter.accept(Paths.get(FileNameEncoding.encode(key)))) {
+                                next = key;
+                            }
+                        } catch (IOException | OperationException ex) {
+                            logger.error("Failed to apply filter on key: " + key, ex);
+                            throw new DbRuntimeException(ex);
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    String result = next;
+                    next = null;
+                    return result;
+                }
+            };
+        }
 
         DirectoryStream ds = Files.newDirectoryStream(FileSystems.getDefault().getPath(PathUtil.dataFolderPath(app, table)), filter);
         final Iterator<Path> pathIterator = ds.iterator();
@@ -259,6 +430,9 @@ public class BSqlFileManager {
      * @throws com.blobcity.db.exceptions.OperationException for internal decoding error
      */
     public boolean exists(final String app, final String table, final String key) throws OperationException {
+        if (segmentStore.isSegmented(app, table)) {
+            return segmentStore.get(app, table).contains(key);
+        }
         return new File(PathUtil.dataFile(app, table, key)).exists();
     }
 
@@ -271,6 +445,21 @@ public class BSqlFileManager {
      * @param key The row mapped to the key to delete
      */
     public void remove(final String app, final String table, String key) throws OperationException {
+        if (segmentStore.isSegmented(app, table)) {
+            try {
+                if (!segmentStore.get(app, table).delete(key)) {
+                    throw new OperationException(ErrorCode.PRIMARY_KEY_INEXISTENT, "A record with the given primary key: " + key + " could not be found in table: " + table);
+                }
+                if (LicenseRules.DATA_CACHING) {
+                    dataCache.invalidate(app, table, key);
+                }
+                return;
+            } catch (IOException ex) {
+                logger.error("Delete failed for key " + key + " in " + app + "." + table, ex);
+                throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occured. Could not delete record in table: " + table);
+            }
+        }
+
         Path path = Paths.get(PathUtil.dataFile(app, table, key));
         if (!Files.exists(path)) {
             throw new OperationException(ErrorCode.PRIMARY_KEY_INEXISTENT, "A record with the given primary key: " + key + " could not be found in table: " + table);
@@ -287,20 +476,25 @@ public class BSqlFileManager {
     }
 
     /**
-     * DOCUMENT ME
+     * Writes the record against the key, replacing any existing record with the same key. The record is stored in the
+     * binary form of {@link RecordCodec}.
      *
-     * @param app
-     * @param table
-     * @param key
-     * @param jsonString
-     * @throws com.blobcity.db.exceptions.OperationException
+     * @param app the application id of the BlobCity application
+     * @param table the table within the specified application
+     * @param key the primary key of the record
+     * @param record the record in its internal JSON form
+     * @throws com.blobcity.db.exceptions.OperationException if the record could not be written
      */
-    public void save(final String app, final String table, final String key, final String jsonString) throws OperationException {
-        Path path = Paths.get(PathUtil.dataFile(app, table, key));
+    public void save(final String app, final String table, final String key, final JSONObject record) throws OperationException {
+        final byte[] bytes = RecordCodec.encode(record);
         try {
-            Files.write(path, jsonString.getBytes("UTF-8"));
+            if (segmentStore.isSegmented(app, table)) {
+                segmentStore.get(app, table).put(key, bytes);
+            } else {
+                Files.write(Paths.get(PathUtil.dataFile(app, table, key)), bytes);
+            }
             if (LicenseRules.DATA_CACHING && cacheRules.shouldCache(app, table)) {
-                dataCache.cache(app, table, key, jsonString);
+                dataCache.cache(app, table, key, bytes);
             }
         } catch (IOException ex) {
 
@@ -309,15 +503,33 @@ public class BSqlFileManager {
         }
     }
 
-    public void insert(final String app, final String table, final String key, final String jsonString) throws OperationException {
-        Path path = Paths.get(PathUtil.dataFile(app, table, key));
-        if (Files.exists(path)) {
+    /**
+     * Inserts a new record against the key. The record is stored in the binary form of {@link RecordCodec}.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table the table within the specified application
+     * @param key the primary key of the record
+     * @param record the record in its internal JSON form
+     * @throws com.blobcity.db.exceptions.OperationException if a record with the key already exists or if the record
+     * could not be written
+     */
+    public void insert(final String app, final String table, final String key, final JSONObject record) throws OperationException {
+        final boolean segmented = segmentStore.isSegmented(app, table);
+        Path path = segmented ? null : Paths.get(PathUtil.dataFile(app, table, key));
+        if (!segmented && Files.exists(path)) {
             throw new OperationException(ErrorCode.PRIMARY_KEY_CONFLICT, "A record with the given primary key: " + key + " already isPresent in table: " + table);
         }
+        final byte[] bytes = RecordCodec.encode(record);
         try {
-            Files.write(path, jsonString.getBytes("UTF-8"));
+            if (segmented) {
+                if (!segmentStore.get(app, table).insert(key, bytes)) {
+                    throw new OperationException(ErrorCode.PRIMARY_KEY_CONFLICT, "A record with the given primary key: " + key + " already isPresent in table: " + table);
+                }
+            } else {
+                Files.write(path, bytes);
+            }
             if (LicenseRules.DATA_CACHING && LicenseRules.CACHE_INSERTS && cacheRules.shouldCache(app, table))  {
-                dataCache.cache(app, table, key, jsonString);
+                dataCache.cache(app, table, key, bytes);
             }
         } catch (IOException ex) {
             //TODO: Notify admin
@@ -325,7 +537,73 @@ public class BSqlFileManager {
         }
     }
 
+    /**
+     * Inserts a batch of new records. Records of segmented tables are appended to the segment files in one pass.
+     * Records whose key is already present are not inserted.
+     *
+     * @param app the application id of the BlobCity application
+     * @param table the table within the specified application
+     * @param records the records in their internal JSON form, mapped by primary key
+     * @return primary keys of the records that were not inserted as a record with the same key already exists
+     * @throws com.blobcity.db.exceptions.OperationException if the records could not be written
+     */
+    public Set<String> insertAll(final String app, final String table, final Map<String, JSONObject> records) throws OperationException {
+        if (!segmentStore.isSegmented(app, table)) {
+            final Set<String> conflicts = new HashSet<>();
+            for (Map.Entry<String, JSONObject> entry : records.entrySet()) {
+                try {
+                    insert(app, table, entry.getKey(), entry.getValue());
+                } catch (OperationException ex) {
+                    if (ex.getErrorCode() != ErrorCode.PRIMARY_KEY_CONFLICT) {
+                        throw ex;
+                    }
+                    conflicts.add(entry.getKey());
+                }
+            }
+            return conflicts;
+        }
+
+        final Map<String, byte[]> encoded = new LinkedHashMap<>();
+        records.forEach((key, record) -> encoded.put(key, RecordCodec.encode(record)));
+        final Set<String> conflicts;
+        try {
+            conflicts = segmentStore.get(app, table).insertAll(encoded);
+        } catch (IOException ex) {
+            logger.error("Batch insert failed for " + app + "." + table, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occured. Could not commit insert operation to file system for table: " + table);
+        }
+
+        if (LicenseRules.DATA_CACHING && LicenseRules.CACHE_INSERTS && cacheRules.shouldCache(app, table)) {
+            encoded.forEach((key, bytes) -> {
+                if (!conflicts.contains(key)) {
+                    dataCache.cache(app, table, key, bytes);
+                }
+            });
+        }
+        return conflicts;
+    }
+
     public boolean rename(final String app, final String table, final String existingKey, final String newKey) throws OperationException {
+        if (segmentStore.isSegmented(app, table)) {
+            try {
+                if (!segmentStore.get(app, table).rename(existingKey, newKey)) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                logger.error("Rename failed: " + existingKey + " to " + newKey + " failed for appId:" + app + ", table:" + table, ex);
+                throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "An internal operation error occurred. Failed to rename record");
+            }
+
+            if (LicenseRules.DATA_CACHING && cacheRules.shouldCache(app, table)) {
+                byte[] cachedValue = dataCache.load(app, table, existingKey);
+                dataCache.invalidate(app, table, existingKey);
+                if (cachedValue != null) {
+                    dataCache.cache(app, table, newKey, cachedValue);
+                }
+            }
+            return true;
+        }
+
         try {
             File file = new File(PathUtil.dataFile(app, table, existingKey));
             File newFile = new File(PathUtil.dataFile(app, table, newKey));
@@ -340,9 +618,11 @@ public class BSqlFileManager {
                 
                 /* Update cache */
                 if (LicenseRules.DATA_CACHING && cacheRules.shouldCache(app, table)) {
-                    String cachedValue = dataCache.load(app, table, existingKey);
+                    byte[] cachedValue = dataCache.load(app, table, existingKey);
                     dataCache.invalidate(app, table, existingKey);
-                    dataCache.cache(app, table, newKey, cachedValue);
+                    if (cachedValue != null) {
+                        dataCache.cache(app, table, newKey, cachedValue);
+                    }
                 }
                 return true;
             }
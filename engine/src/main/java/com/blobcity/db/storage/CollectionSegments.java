@@ -0,0 +1,668 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Log structured storage of all records of a single on-disk collection. Records are appended to segment files inside
+ * the segments folder of the collection, and an in-memory map of primary key to {@link RecordPointer} points to the
+ * latest version of every record. Updates and deletes append a new version (or a tombstone) and leave the older
+ * version as garbage, which is reclaimed by {@link #compact(double)}.</p>
+ *
+ * <p>
+ * Every record is stored as a frame of the form
+ * <code>[crc32 (int)][key length (int)][value length (int), -1 for tombstone][key bytes][value bytes]</code>. The
+ * checksum covers everything after itself, and is used on load to discard a partially written frame at the tail of
+ * the last segment. Only the last segment is ever being appended to, so a bad frame in any earlier, sealed segment is
+ * corruption rather than an interrupted write, and fails the load.</p>
+ *
+ * <p>
+ * Appends are serialised on a single write lock. Reads are lock free against appends and only take a shared lock that
+ * prevents a segment from being deleted by compaction while it is being read.</p>
+ *
+ * @author sanketsarang
+ */
+public class CollectionSegments implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionSegments.class.getName());
+
+    public static final String SEGMENT_EXTENSION = ".seg";
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int HEADER_LENGTH = 12;
+    private static final int TOMBSTONE = -1;
+    private static final int SCAN_READ_AHEAD = 1024 * 1024;
+
+    private final Path folder;
+    private final long maxSegmentSize;
+    private final Map<String, RecordPointer> pointers = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> channels = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> garbageBytes = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> segmentBytes = new ConcurrentHashMap<>();
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    private final Object writeLock = new Object();
+    private final Object compactionLock = new Object();
+    private int activeSegment = 0;
+    private long activePosition = 0;
+    private volatile boolean dirty = false;
+    private volatile boolean closed = false;
+
+    public CollectionSegments(final Path folder) throws IOException {
+        this(folder, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    public CollectionSegments(final Path folder, final long maxSegmentSize) throws IOException {
+        this.folder = folder;
+        this.maxSegmentSize = maxSegmentSize;
+        Files.createDirectories(folder);
+        load();
+    }
+
+    /**
+     * Gets the latest value stored against the key
+     *
+     * @param key the primary key of the record
+     * @return the value bytes of the record; <code>null</code> if no record is present against the key
+     * @throws IOException if an I/O error occurs in reading the segment file
+     */
+    public byte[] get(final String key) throws IOException {
+        segmentLock.readLock().lock();
+        try {
+            final RecordPointer pointer = pointers.get(key);
+            if (pointer == null) {
+                return null;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(pointer.getValueLength());
+            readFully(channels.get(pointer.getSegment()), buffer, pointer.getValueOffset());
+            return buffer.array();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(final String key) {
+        return pointers.containsKey(key);
+    }
+
+    public int size() {
+        return pointers.size();
+    }
+
+    /**
+     * Stores the value against the key only if no record is currently present against the key.
+     *
+     * @param key the primary key of the record
+     * @param value the value bytes of the record
+     * @return <code>true</code> if the record was inserted, <code>false</code> if a record with the same key is
+     * already present
+     * @throws IOException if an I/O error occurs in writing to the segment file
+     */
+    public boolean insert(final String key, final byte[] value) throws IOException {
+        synchronized (writeLock) {
+            if (pointers.containsKey(key)) {
+                return false;
+            }
+            append(key, value);
+            return true;
+        }
+    }
+
+    /**
+     * Stores a batch of new records, appending them in one pass under the write lock. Records whose key is already
+     * present are skipped.
+     *
+     * @param records value bytes of the records mapped by primary key
+     * @return keys of the records that were not stored as their key is already present
+     * @throws IOException if an I/O error occurs in writing to the segment file
+     */
+    public Set<String> insertAll(final Map<String, byte[]> records) throws IOException {
+        final Set<String> conflicts = new HashSet<>();
+        synchronized (writeLock) {
+            for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+                if (pointers.containsKey(entry.getKey())) {
+                    conflicts.add(entry.getKey());
+                } else {
+                    append(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Stores the value against the key, replacing any previous version of the record
+     *
+     * @param key the primary key of the record
+     * @param value the value bytes of the record
+     * @throws IOException if an I/O error occurs in writing to the segment file
+     */
+    public void put(final String key, final byte[] value) throws IOException {
+        synchronized (writeLock) {
+            append(key, value);
+        }
+    }
+
+    /**
+     * Deletes the record stored against the key by appending a tombstone for it
+     *
+     * @param key the primary key of the record
+     * @return <code>true</code> if a record was deleted, <code>false</code> if no record was present against the key
+     * @throws IOException if an I/O error occurs in writing to the segment file
+     */
+    public boolean delete(final String key) throws IOException {
+        synchronized (writeLock) {
+            if (!pointers.containsKey(key)) {
+                return false;
+            }
+            append(key, null);
+            return true;
+        }
+    }
+
+    /**
+     * Moves the record stored against <code>existingKey</code> to <code>newKey</code>
+     *
+     * @param existingKey the current primary key of the record
+     * @param newKey the new primary key of the record
+     * @return <code>true</code> if the record was renamed, <code>false</code> if no record is present against the
+     * existing key
+     * @throws IOException if an I/O error occurs in reading or writing the segment file
+     */
+    public boolean rename(final String existingKey, final String newKey) throws IOException {
+        synchronized (writeLock) {
+            final byte[] value = get(existingKey);
+            if (value == null) {
+                return false;
+            }
+            append(newKey, value);
+            append(existingKey, null);
+            return true;
+        }
+    }
+
+    /**
+     * Gets an iterator over the primary keys of all records. The iterator is weakly consistent and does not fail on
+     * concurrent modifications.
+     *
+     * @return an <code>Iterator<String></code> over all primary keys
+     */
+    public Iterator<String> keys() {
+        return pointers.keySet().iterator();
+    }
+
+    /**
+     * Gets an iterator over all records in the order in which they are laid out on disk, so that a full scan is
+     * served by sequential reads of the segment files. Records written after the scan has started may or may not be
+     * seen by the scan.
+     *
+     * @return an <code>Iterator</code> of primary key and value bytes pairs
+     */
+    public Iterator<Map.Entry<String, byte[]>> scan() {
+        final List<Map.Entry<String, RecordPointer>> snapshot = new ArrayList<>(pointers.entrySet());
+        Collections.sort(snapshot, (a, b) -> {
+            int result = Integer.compare(a.getValue().getSegment(), b.getValue().getSegment());
+            return result != 0 ? result : Long.compare(a.getValue().getOffset(), b.getValue().getOffset());
+        });
+
+        return new Iterator<Map.Entry<String, byte[]>>() {
+            private final Iterator<Map.Entry<String, RecordPointer>> iterator = snapshot.iterator();
+            private Map.Entry<String, byte[]> next = null;
+            private ByteBuffer window = null;
+            private int windowSegment = -1;
+            private long windowStart = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && iterator.hasNext()) {
+                    final Map.Entry<String, RecordPointer> entry = iterator.next();
+                    try {
+                        final byte[] value = read(entry.getKey(), entry.getValue());
+                        if (value != null) {
+                            next = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value);
+                        }
+                    } catch (IOException ex) {
+                        logger.error("Failed to read record " + entry.getKey() + " from segments at " + folder, ex);
+                        throw new IllegalStateException(ex);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Map.Entry<String, byte[]> result = next;
+                next = null;
+                return result;
+            }
+
+            /**
+             * Reads the value of the snapshot pointer through a read ahead window. If the record has since been moved
+             * or deleted the current version is read instead, and null is returned for a deleted record
+             */
+            private byte[] read(final String key, final RecordPointer pointer) throws IOException {
+                segmentLock.readLock().lock();
+                try {
+                    if (!pointer.equals(pointers.get(key))) {
+                        return get(key);
+                    }
+
+                    final FileChannel channel = channels.get(pointer.getSegment());
+                    if (pointer.getValueLength() > SCAN_READ_AHEAD) {
+                        final ByteBuffer buffer = ByteBuffer.allocate(pointer.getValueLength());
+                        readFully(channel, buffer, pointer.getValueOffset());
+                        return buffer.array();
+                    }
+
+                    final long valueOffset = pointer.getValueOffset();
+                    if (window == null || windowSegment != pointer.getSegment() || valueOffset < windowStart
+                            || valueOffset + pointer.getValueLength() > windowStart + window.limit()) {
+                        if (window == null) {
+                            window = ByteBuffer.allocate(SCAN_READ_AHEAD);
+                        }
+                        window.clear();
+                        final long remaining = channel.size() - valueOffset;
+                        window.limit((int) Math.min(SCAN_READ_AHEAD, remaining));
+                        readFully(channel, window, valueOffset);
+                        windowSegment = pointer.getSegment();
+                        windowStart = valueOffset;
+                    }
+
+                    final byte[] value = new byte[pointer.getValueLength()];
+                    System.arraycopy(window.array(), (int) (valueOffset - windowStart), value, 0, value.length);
+                    return value;
+                } finally {
+                    segmentLock.readLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Rewrites the live records of every sealed segment whose ratio of dead bytes to total bytes is at least the
+     * specified threshold into the active segment, and deletes the compacted segment.
+     *
+     * @param garbageThreshold minimum ratio of dead bytes in a segment for it to be compacted, between 0 and 1
+     * @return number of segments that were compacted
+     * @throws IOException if an I/O error occurs in reading or writing the segment files
+     */
+    public int compact(final double garbageThreshold) throws IOException {
+        synchronized (compactionLock) {
+            final List<Integer> candidates = new ArrayList<>();
+            synchronized (writeLock) {
+                for (Integer segment : new TreeMap<>(segmentBytes).keySet()) {
+                    if (segment == activeSegment) {
+                        continue;
+                    }
+                    final long total = segmentBytes.get(segment).get();
+                    final long garbage = garbageBytes.get(segment).get();
+                    if (total == 0 || (double) garbage / total >= garbageThreshold) {
+                        candidates.add(segment);
+                    }
+                }
+            }
+
+            for (Integer segment : candidates) {
+                compactSegment(segment);
+            }
+            return candidates.size();
+        }
+    }
+
+    /**
+     * Finds the keys that have at least one version stored in the segments, including deleted versions and
+     * tombstones. Used during crash recovery to tell a record whose write never reached the disk from one that was
+     * written and later deleted or renamed. All segment headers are read, so the call is expensive.
+     *
+     * @param keys the keys to look for
+     * @return the subset of keys that have been written to the segments
+     * @throws IOException if an I/O error occurs in reading the segment files
+     */
+    public Set<String> writtenKeys(final Set<String> keys) throws IOException {
+        final Set<String> written = new HashSet<>();
+        if (keys.isEmpty()) {
+            return written;
+        }
+
+        synchronized (compactionLock) {
+            segmentLock.readLock().lock();
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                for (Integer segment : new TreeMap<>(channels).keySet()) {
+                    final FileChannel channel = channels.get(segment);
+                    final long size = channel.size();
+                    long position = 0;
+                    while (position + HEADER_LENGTH <= size) {
+                        header.clear();
+                        readFully(channel, header, position);
+                        header.flip();
+                        header.getInt();
+                        final int keyLength = header.getInt();
+                        final int valueLength = header.getInt();
+                        if (keyLength < 0 || valueLength < TOMBSTONE || position + HEADER_LENGTH + keyLength > size) {
+                            break;
+                        }
+
+                        final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+                        readFully(channel, keyBuffer, position + HEADER_LENGTH);
+                        final String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+                        if (keys.contains(key)) {
+                            written.add(key);
+                        }
+                        position += HEADER_LENGTH + keyLength + Math.max(valueLength, 0);
+                    }
+                }
+            } finally {
+                segmentLock.readLock().unlock();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Forces all appended data to the storage device
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void sync() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        synchronized (writeLock) {
+            final FileChannel channel = channels.get(activeSegment);
+            if (channel != null) {
+                channel.force(false);
+            }
+            dirty = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            sync();
+            closed = true;
+            segmentLock.writeLock().lock();
+            try {
+                for (FileChannel channel : channels.values()) {
+                    channel.close();
+                }
+                channels.clear();
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void compactSegment(final int segment) throws IOException {
+        final FileChannel channel = channels.get(segment);
+        final boolean hasOlderSegments = segmentBytes.keySet().stream().anyMatch(id -> id < segment);
+        final long size = channel.size();
+        long position = 0;
+        while (position + HEADER_LENGTH <= size) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(channel, header, position);
+            header.flip();
+            header.getInt();
+            final int keyLength = header.getInt();
+            final int valueLength = header.getInt();
+            final int frameLength = HEADER_LENGTH + keyLength + Math.max(valueLength, 0);
+            final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+            readFully(channel, keyBuffer, position + HEADER_LENGTH);
+            final String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+            final RecordPointer pointer = new RecordPointer(segment, position, frameLength, valueLength);
+
+            synchronized (writeLock) {
+                if (valueLength == TOMBSTONE) {
+
+                    /* tombstone must be carried forward while an older segment may still hold a version of the key */
+                    if (hasOlderSegments && !pointers.containsKey(key)) {
+                        append(key, null);
+                    }
+                } else if (pointer.equals(pointers.get(key))) {
+                    final ByteBuffer value = ByteBuffer.allocate(valueLength);
+                    readFully(channel, value, pointer.getValueOffset());
+                    append(key, value.array());
+                }
+            }
+            position += frameLength;
+        }
+
+        synchronized (writeLock) {
+            channels.get(activeSegment).force(false);
+            segmentLock.writeLock().lock();
+            try {
+                channels.remove(segment).close();
+                segmentBytes.remove(segment);
+                garbageBytes.remove(segment);
+                Files.deleteIfExists(segmentPath(segment));
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+        logger.debug("Compacted segment {} at {}", segment, folder);
+    }
+
+    /**
+     * Appends a frame to the active segment and updates the pointer map. Must be called holding the write lock.
+     *
+     * @param key the primary key of the record
+     * @param value the value bytes, or <code>null</code> to append a tombstone
+     */
+    private void append(final String key, final byte[] value) throws IOException {
+        if (closed) {
+            throw new IOException("Segments at " + folder + " are closed");
+        }
+
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int valueLength = value == null ? TOMBSTONE : value.length;
+        final int frameLength = HEADER_LENGTH + keyBytes.length + (value == null ? 0 : value.length);
+        final ByteBuffer frame = ByteBuffer.allocate(frameLength);
+        frame.putInt(0);
+        frame.putInt(keyBytes.length);
+        frame.putInt(valueLength);
+        frame.put(keyBytes);
+        if (value != null) {
+            frame.put(value);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(frame.array(), 4, frameLength - 4);
+        frame.putInt(0, (int) crc.getValue());
+        frame.flip();
+
+        if (activePosition > 0 && activePosition + frameLength > maxSegmentSize) {
+            rollSegment();
+        }
+
+        final FileChannel channel = channels.get(activeSegment);
+        long position = activePosition;
+        while (frame.hasRemaining()) {
+            position += channel.write(frame, position);
+        }
+
+        final RecordPointer pointer = new RecordPointer(activeSegment, activePosition, frameLength, valueLength);
+        activePosition = position;
+        segmentBytes.get(activeSegment).addAndGet(frameLength);
+        dirty = true;
+        apply(key, pointer);
+    }
+
+    /**
+     * Applies a frame to the pointer map and accounts for the bytes that it makes dead
+     */
+    private void apply(final String key, final RecordPointer pointer) {
+        final RecordPointer previous = pointer.getValueLength() == TOMBSTONE ? pointers.remove(key) : pointers.put(key, pointer);
+        if (previous != null) {
+            addGarbage(previous.getSegment(), previous.getFrameLength());
+        }
+        if (pointer.getValueLength() == TOMBSTONE) {
+            addGarbage(pointer.getSegment(), pointer.getFrameLength());
+        }
+    }
+
+    private void addGarbage(final int segment, final long bytes) {
+        final AtomicLong garbage = garbageBytes.get(segment);
+        if (garbage != null) {
+            garbage.addAndGet(bytes);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        channels.get(activeSegment).force(false);
+        openSegment(activeSegment + 1);
+        activeSegment = activeSegment + 1;
+        activePosition = 0;
+    }
+
+    private FileChannel openSegment(final int segment) throws IOException {
+        final FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channels.put(segment, channel);
+        segmentBytes.putIfAbsent(segment, new AtomicLong());
+        garbageBytes.putIfAbsent(segment, new AtomicLong());
+        return channel;
+    }
+
+    private Path segmentPath(final int segment) {
+        return folder.resolve(segment + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Rebuilds the in-memory pointer map by replaying all segments in the order in which they were written. A
+     * partially written or corrupt frame at the tail of the last segment is truncated away.
+     *
+     * @throws IOException if a segment cannot be read, or a sealed segment holds an incomplete or corrupt frame
+     */
+    private void load() throws IOException {
+        final List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + SEGMENT_EXTENSION)) {
+            for (Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    segments.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+                } catch (NumberFormatException ex) {
+                    logger.warn("Ignoring unrecognised file {} in segments folder {}", name, folder);
+                }
+            }
+        }
+        Collections.sort(segments);
+
+        for (Integer segment : segments) {
+            final FileChannel channel = openSegment(segment);
+            final long validLength = replay(segment, channel);
+            if (validLength < channel.size() && segment != segments.get(segments.size() - 1).intValue()) {
+                logger.error("Sealed segment {} at {} holds an incomplete or corrupt record at {} of {} bytes",
+                        segment, folder, validLength, channel.size());
+                for (FileChannel openChannel : channels.values()) {
+                    openChannel.close();
+                }
+                channels.clear();
+                throw new IOException("Segment " + segment + " at " + folder + " is corrupt at position " + validLength);
+            }
+            if (validLength < channel.size()) {
+                logger.warn("Truncating segment {} at {} from {} to {} bytes due to an incomplete or corrupt record",
+                        segment, folder, channel.size(), validLength);
+                channel.truncate(validLength);
+            }
+            activeSegment = segment;
+            activePosition = validLength;
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(0);
+            activeSegment = 0;
+            activePosition = 0;
+        }
+    }
+
+    private long replay(final int segment, final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        long position = 0;
+        while (position + HEADER_LENGTH <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            final int checksum = header.getInt();
+            final int keyLength = header.getInt();
+            final int valueLength = header.getInt();
+            if (keyLength < 0 || valueLength < TOMBSTONE) {
+                return position;
+            }
+
+            final int frameLength = HEADER_LENGTH + keyLength + Math.max(valueLength, 0);
+            if (position + frameLength > size) {
+                return position;
+            }
+
+            final ByteBuffer body = ByteBuffer.allocate(frameLength - 4);
+            readFully(channel, body, position + 4);
+            final CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, body.capacity());
+            if ((int) crc.getValue() != checksum) {
+                return position;
+            }
+
+            final String key = new String(body.array(), 8, keyLength, StandardCharsets.UTF_8);
+            segmentBytes.get(segment).addAndGet(frameLength);
+            apply(key, new RecordPointer(segment, position, frameLength, valueLength));
+            position += frameLength;
+        }
+        return position;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment file");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.storage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * <p>
+ * Encodes records of on-disk collections into a compact binary form and decodes them back. Records are encoded in
+ * their internal form, where column names are the numeric ids assigned by {@link com.blobcity.db.schema.ColumnMapping}.
+ * </p>
+ *
+ * <p>
+ * An encoded record starts with a format byte followed by one entry per column. Each entry is the column id as a
+ * varint, a type tag and the value. Numbers are stored as zig-zag varints or fixed width IEEE values, booleans, nulls
+ * and empty strings within the tag itself, and strings as length prefixed UTF-8. Every value carries its own tag, so
+ * records written before a column type was altered remain readable. Entries of variable size are length prefixed,
+ * which allows a single column to be read by skipping over the entries before it, without decoding them.</p>
+ *
+ * <p>
+ * Records stored as JSON text by earlier versions are recognised by their first byte and are parsed as JSON, so the
+ * two forms can co-exist within a collection. When only some columns are required, values of the other columns of
+ * such records are scanned over without being parsed.</p>
+ *
+ * @author sanketsarang
+ */
+public final class RecordCodec {
+
+    private static final byte FORMAT_V1 = 0x01;
+
+    /* a column key of 0 is followed by the column name, for names that are not numeric ids */
+    private static final int NAMED_COLUMN = 0;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_BIG_INTEGER = 7;
+    private static final byte TAG_BIG_DECIMAL = 8;
+    private static final byte TAG_EMPTY_STRING = 9;
+    private static final byte TAG_STRING = 10;
+    private static final byte TAG_OBJECT = 11;
+    private static final byte TAG_ARRAY = 12;
+
+    private RecordCodec() {
+        //do nothing
+    }
+
+    /**
+     * Encodes a record into its binary form
+     *
+     * @param record the record in its internal JSON form
+     * @return the encoded record
+     */
+    public static byte[] encode(final JSONObject record) {
+        final Writer writer = new Writer(64 + record.length() * 16);
+        writer.writeByte(FORMAT_V1);
+        for (Object key : record.keySet()) {
+            final String column = (String) key;
+            final int id = columnId(column);
+            if (id >= 0) {
+                writer.writeVarint(id + 1);
+            } else {
+                writer.writeVarint(NAMED_COLUMN);
+                writer.writeBytes(column.getBytes(StandardCharsets.UTF_8));
+            }
+            writeValue(writer, record.opt(column));
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Checks whether the bytes are a binary encoded record, as opposed to a record stored as JSON text
+     *
+     * @param bytes the stored record
+     * @return <code>true</code> if the record is binary encoded; <code>false</code> otherwise
+     */
+    public static boolean isEncoded(final byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == FORMAT_V1;
+    }
+
+    /**
+     * Decodes all columns of a stored record
+     *
+     * @param bytes the stored record, in binary or JSON text form
+     * @return the record in its internal JSON form
+     * @throws JSONException if the record is malformed
+     */
+    public static JSONObject decode(final byte[] bytes) {
+        return decode(bytes, null);
+    }
+
+    /**
+     * Decodes only the given columns of a stored record. Values of all other columns are skipped over without being
+     * decoded.
+     *
+     * @param bytes the stored record, in binary or JSON text form
+     * @param columns internal names of the columns to decode; <code>null</code> to decode all columns
+     * @return JSON containing the requested columns that are present within the record
+     * @throws JSONException if the record is malformed
+     */
+    public static JSONObject decode(final byte[] bytes, final Set<String> columns) {
+        if (!isEncoded(bytes)) {
+            return decodeJson(new JSONTokener(new String(bytes, StandardCharsets.UTF_8)), columns);
+        }
+
+        final JSONObject jsonObject = new JSONObject();
+        final Reader reader = new Reader(bytes);
+        while (reader.hasRemaining()) {
+            final String column = reader.readColumn();
+            if (columns == null || columns.contains(column)) {
+                jsonObject.put(column, readValue(reader));
+            } else {
+                skipValue(reader);
+            }
+        }
+        return jsonObject;
+    }
+
+    /**
+     * Decodes the value of a single column of a stored record, skipping over all other columns
+     *
+     * @param bytes the stored record, in binary or JSON text form
+     * @param column internal name of the column
+     * @return the value of the column; <code>null</code> if the record does not contain the column
+     * @throws JSONException if the record is malformed
+     */
+    public static Object decodeColumn(final byte[] bytes, final String column) {
+        if (!isEncoded(bytes)) {
+            return decodeJson(new JSONTokener(new String(bytes, StandardCharsets.UTF_8)), Collections.singleton(column)).opt(column);
+        }
+
+        final int id = columnId(column);
+        final byte[] name = id < 0 ? column.getBytes(StandardCharsets.UTF_8) : null;
+        final Reader reader = new Reader(bytes);
+        while (reader.hasRemaining()) {
+            final int key = reader.readVarint();
+            final boolean matches;
+            if (key == NAMED_COLUMN) {
+                final int length = reader.readVarint();
+                matches = name != null && reader.matches(name, length);
+                reader.skip(length);
+            } else {
+                matches = key - 1 == id;
+            }
+
+            if (matches) {
+                return readValue(reader);
+            }
+            skipValue(reader);
+        }
+        return null;
+    }
+
+    /* parses a record stored as JSON text, skipping over the values of columns that are not required */
+    private static JSONObject decodeJson(final JSONTokener tokener, final Set<String> columns) {
+        if (columns == null) {
+            return new JSONObject(tokener);
+        }
+
+        final JSONObject jsonObject = new JSONObject();
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("A JSONObject text must begin with '{'");
+        }
+        char c = tokener.nextClean();
+        while (c != '}') {
+            if (c != '"') {
+                throw tokener.syntaxError("Expected a quoted key");
+            }
+            final String column = tokener.nextString('"');
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            if (columns.contains(column)) {
+                jsonObject.put(column, tokener.nextValue());
+            } else {
+                skipJsonValue(tokener);
+            }
+
+            c = tokener.nextClean();
+            if (c == ',') {
+                c = tokener.nextClean();
+            } else if (c != '}') {
+                throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+        return jsonObject;
+    }
+
+    /* advances the tokener past a JSON value, only tracking nesting and string boundaries */
+    private static void skipJsonValue(final JSONTokener tokener) {
+        int depth = 0;
+        while (true) {
+            final char c = tokener.next();
+            switch (c) {
+                case 0:
+                    throw tokener.syntaxError("Unterminated value");
+                case '"':
+                case '\'':
+                    tokener.nextString(c);
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        tokener.back();
+                        return;
+                    }
+                    depth--;
+                    break;
+                case ',':
+                    if (depth == 0) {
+                        tokener.back();
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /* numeric id of an internal column name; -1 if the name is not in the canonical form of a non negative int */
+    private static int columnId(final String column) {
+        final int length = column.length();
+        if (length == 0 || length > 9 || (length > 1 && column.charAt(0) == '0')) {
+            return -1;
+        }
+        int id = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = column.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    private static void writeValue(final Writer writer, final Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            writer.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            final String string = (String) value;
+            if (string.isEmpty()) {
+                writer.writeByte(TAG_EMPTY_STRING);
+            } else {
+                writer.writeByte(TAG_STRING);
+                writer.writeBytes(string.getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (value instanceof Boolean) {
+            writer.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.writeByte(TAG_INT);
+            writer.writeVarlong(zigZag(((Number) value).longValue()));
+        } else if (value instanceof Long) {
+            writer.writeByte(TAG_LONG);
+            writer.writeVarlong(zigZag((Long) value));
+        } else if (value instanceof Double) {
+            writer.writeByte(TAG_DOUBLE);
+            writer.writeFixed(Double.doubleToRawLongBits((Double) value), 8);
+        } else if (value instanceof Float) {
+            writer.writeByte(TAG_FLOAT);
+            writer.writeFixed(Float.floatToRawIntBits((Float) value), 4);
+        } else if (value instanceof BigInteger) {
+            writer.writeByte(TAG_BIG_INTEGER);
+            writer.writeBytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof BigDecimal) {
+            final BigDecimal decimal = (BigDecimal) value;
+            writer.writeByte(TAG_BIG_DECIMAL);
+            writer.writeVarlong(zigZag(decimal.scale()));
+            writer.writeBytes(decimal.unscaledValue().toByteArray());
+        } else if (value instanceof Number) {
+            writeValue(writer, new BigDecimal(value.toString()));
+        } else if (value instanceof JSONObject) {
+            writer.writeByte(TAG_OBJECT);
+            writer.writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof JSONArray) {
+            writer.writeByte(TAG_ARRAY);
+            writer.writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            final Object wrapped = JSONObject.wrap(value);
+            writeValue(writer, wrapped instanceof JSONObject || wrapped instanceof JSONArray ? wrapped : value.toString());
+        }
+    }
+
+    private static Object readValue(final Reader reader) {
+        final byte tag = reader.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return JSONObject.NULL;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INT:
+                return (int) unZigZag(reader.readVarlong());
+            case TAG_LONG:
+                return unZigZag(reader.readVarlong());
+            case TAG_FLOAT:
+                return Float.intBitsToFloat((int) reader.readFixed(4));
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(reader.readFixed(8));
+            case TAG_BIG_INTEGER:
+                return new BigInteger(reader.readBytes());
+            case TAG_BIG_DECIMAL:
+                final int scale = (int) unZigZag(reader.readVarlong());
+                return new BigDecimal(new BigInteger(reader.readBytes()), scale);
+            case TAG_EMPTY_STRING:
+                return "";
+            case TAG_STRING:
+                return reader.readString();
+            case TAG_OBJECT:
+                return new JSONObject(reader.readString());
+            case TAG_ARRAY:
+                return new JSONArray(reader.readString());
+            default:
+                throw new JSONException("Malformed record, unknown value type " + tag);
+        }
+    }
+
+    private static void skipValue(final Reader reader) {
+        final byte tag = reader.readByte();
+        switch (tag) {
+            case TAG_NULL:
+            case TAG_FALSE:
+            case TAG_TRUE:
+            case TAG_EMPTY_STRING:
+                break;
+            case TAG_INT:
+            case TAG_LONG:
+                reader.readVarlong();
+                break;
+            case TAG_FLOAT:
+                reader.skip(4);
+                break;
+            case TAG_DOUBLE:
+                reader.skip(8);
+                break;
+            case TAG_BIG_DECIMAL:
+                reader.readVarlong();
+                reader.skip(reader.readVarint());
+                break;
+            case TAG_BIG_INTEGER:
+            case TAG_STRING:
+            case TAG_OBJECT:
+            case TAG_ARRAY:
+                reader.skip(reader.readVarint());
+                break;
+            default:
+                throw new JSONException("Malformed record, unknown value type " + tag);
+        }
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Writer {
+
+        private byte[] buffer;
+        private int size;
+
+        private Writer(final int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+
+        private void writeByte(final int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeVarint(final int value) {
+            writeVarlong(value & 0xffffffffL);
+        }
+
+        private void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeFixed(final long value, final int width) {
+            ensureCapacity(width);
+            for (int i = width - 1; i >= 0; i--) {
+                buffer[size++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        /* length prefixed */
+        private void writeBytes(final byte[] bytes) {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] bytes;
+        private int position = 1; //skips the format byte
+
+        private Reader(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private boolean hasRemaining() {
+            return position < bytes.length;
+        }
+
+        private byte readByte() {
+            if (position >= bytes.length) {
+                throw new JSONException("Malformed record, unexpected end of data");
+            }
+            return bytes[position++];
+        }
+
+        private int readVarint() {
+            final long value = readVarlong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new JSONException("Malformed record, invalid length " + value);
+            }
+            return (int) value;
+        }
+
+        private long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JSONException("Malformed record, varint too long");
+        }
+
+        private long readFixed(final int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (readByte() & 0xff);
+            }
+            return value;
+        }
+
+        private void skip(final int length) {
+            if (length > bytes.length - position) {
+                throw new JSONException("Malformed record, unexpected end of data");
+            }
+            position += length;
+        }
+
+        private byte[] readBytes() {
+            final int length = readVarint();
+            skip(length);
+            return Arrays.copyOfRange(bytes, position - length, position);
+        }
+
+        private String readString() {
+            final int length = readVarint();
+            skip(length);
+            return new String(bytes, position - length, length, StandardCharsets.UTF_8);
+        }
+
+        private String readColumn() {
+            final int key = readVarint();
+            return key == NAMED_COLUMN ? readString() : Integer.toString(key - 1);
+        }
+
+        /* checks if the next length bytes equal the given bytes, without consuming them */
+        private boolean matches(final byte[] expected, final int length) {
+            if (expected.length != length || length > bytes.length - position) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[position + i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
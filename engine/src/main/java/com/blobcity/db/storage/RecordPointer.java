@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.storage;
+
+/**
+ * Immutable location of the latest version of a record inside the segment files of a collection. Instances are held
+ * in the in-memory primary key map of {@link CollectionSegments}.
+ *
+ * @author sanketsarang
+ */
+public final class RecordPointer {
+
+    private final int segment;
+    private final long offset;
+    private final int frameLength;
+    private final int valueLength;
+
+    /**
+     * @param segment id of the segment file holding the record
+     * @param offset position of the start of the record frame within the segment file
+     * @param frameLength total length of the frame including header, key and value
+     * @param valueLength length of the value bytes; -1 for a tombstone
+     */
+    public RecordPointer(final int segment, final long offset, final int frameLength, final int valueLength) {
+        this.segment = segment;
+        this.offset = offset;
+        this.frameLength = frameLength;
+        this.valueLength = valueLength;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    /**
+     * Position of the first value byte inside the segment file
+     *
+     * @return absolute position within the segment file at which the value bytes start
+     */
+    public long getValueOffset() {
+        return offset + frameLength - valueLength;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RecordPointer)) {
+            return false;
+        }
+        final RecordPointer other = (RecordPointer) obj;
+        return segment == other.segment && offset == other.offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * segment + (int) (offset ^ (offset >>> 32));
+    }
+}
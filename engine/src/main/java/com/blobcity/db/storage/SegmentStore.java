@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.storage;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.sql.util.PathUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the open {@link CollectionSegments} of every on-disk collection stored in the segmented format. Segments of
+ * a collection are loaded lazily on first access, synced to disk periodically and compacted in the background.
+ *
+ * @author sanketsarang
+ */
+@Component
+public class SegmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentStore.class.getName());
+
+    /* a sealed segment is compacted once at least this fraction of its bytes belong to dead record versions */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private final Map<String, CollectionSegments> segmentsMap = new ConcurrentHashMap<>();
+
+    /**
+     * Checks if the collection stores its records in the segmented format
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @return <code>true</code> if the collection has a segments folder; <code>false</code> if it uses the older one
+     * file per record format
+     */
+    public boolean isSegmented(final String ds, final String collection) {
+        return segmentsMap.containsKey(key(ds, collection)) || Files.isDirectory(Paths.get(PathUtil.segmentsFolderPath(ds, collection)));
+    }
+
+    /**
+     * Gets the segments of the collection, loading them from disk if not already loaded
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @return the {@link CollectionSegments} of the collection
+     * @throws OperationException if the segments of the collection could not be loaded
+     */
+    public CollectionSegments get(final String ds, final String collection) throws OperationException {
+        final String key = key(ds, collection);
+        CollectionSegments segments = segmentsMap.get(key);
+        if (segments != null) {
+            return segments;
+        }
+
+        synchronized (segmentsMap) {
+            segments = segmentsMap.get(key);
+            if (segments == null) {
+                try {
+                    segments = new CollectionSegments(Paths.get(PathUtil.segmentsFolderPath(ds, collection)));
+                } catch (IOException ex) {
+                    logger.error("Failed to load segments of collection " + key, ex);
+                    throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Could not load data of collection: " + collection);
+                }
+                segmentsMap.put(key, segments);
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Closes and removes the loaded segments of a collection. Must be invoked whenever the folder of a collection is
+     * moved or deleted, such as on drop, truncate and rename of the collection.
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     */
+    public void evict(final String ds, final String collection) {
+        final CollectionSegments segments;
+        synchronized (segmentsMap) {
+            segments = segmentsMap.remove(key(ds, collection));
+        }
+        if (segments == null) {
+            return;
+        }
+        try {
+            segments.close();
+        } catch (IOException ex) {
+            logger.error("Failed to close segments of collection " + ds + "." + collection, ex);
+        }
+    }
+
+    /**
+     * Evicts the loaded segments of all collections within a datastore
+     *
+     * @param ds the datastore
+     */
+    public void evictDatastore(final String ds) {
+        final String prefix = ds + ".";
+        final List<String> keys = new ArrayList<>();
+        segmentsMap.keySet().stream().filter(key -> key.startsWith(prefix)).forEach(keys::add);
+        keys.forEach(key -> evict(ds, key.substring(prefix.length())));
+    }
+
+    /**
+     * Forces the appended data of the collection to disk, if its segments are loaded
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @throws IOException if an I/O error occurs while syncing the segments
+     */
+    public void sync(final String ds, final String collection) throws IOException {
+        final CollectionSegments segments = segmentsMap.get(key(ds, collection));
+        if (segments != null) {
+            segments.sync();
+        }
+    }
+
+    @Scheduled(fixedRate = 1000)
+    private void sync() {
+        segmentsMap.forEach((key, segments) -> {
+            try {
+                segments.sync();
+            } catch (IOException ex) {
+                logger.error("Failed to sync segments of collection " + key, ex);
+            }
+        });
+    }
+
+    @Scheduled(fixedRate = 60000)
+    private void compact() {
+        segmentsMap.forEach((key, segments) -> {
+            try {
+                final int compacted = segments.compact(COMPACTION_THRESHOLD);
+                if (compacted > 0) {
+                    logger.debug("Compacted {} segments of collection {}", compacted, key);
+                }
+            } catch (IOException ex) {
+                logger.error("Compaction of segments failed for collection " + key, ex);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        synchronized (segmentsMap) {
+            segmentsMap.forEach((key, segments) -> {
+                try {
+                    segments.close();
+                } catch (IOException ex) {
+                    logger.error("Failed to close segments of collection " + key, ex);
+                }
+            });
+            segmentsMap.clear();
+        }
+    }
+
+    private String key(final String ds, final String collection) {
+        return ds + "." + collection;
+    }
+}
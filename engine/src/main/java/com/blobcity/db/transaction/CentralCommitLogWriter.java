@@ -16,40 +16,95 @@
 
 package com.blobcity.db.transaction;
 
+import com.blobcity.db.config.ConfigBean;
 import com.blobcity.db.constants.BSql;
-import com.blobcity.db.locks.LockType;
 import com.blobcity.lib.query.Query;
+import java.io.IOException;
+import java.nio.file.Paths;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.io.*;
-import java.util.concurrent.locks.Lock;
-
 /**
+ * Writer to the database wide commit log, that records datastore and collection level operations. The log is stored
+ * in binary {@link CommitLog} format inside <code>{data_folder}/commit-logs/</code>.
+ *
  * @author sanketsarang
  */
 @Component //singleton
 public class CentralCommitLogWriter {
-    private BufferedWriter writer;
 
-    public CentralCommitLogWriter() {
+    private static final Logger logger = LoggerFactory.getLogger(CentralCommitLogWriter.class.getName());
+
+    @Autowired
+    private ConfigBean configBean;
+    private QueryCommitLog log;
+
+    @PostConstruct
+    private void init() {
         try {
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(BSql.CURRENT_COMMIT_LOG_FILE)));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            log = QueryCommitLog.open(Paths.get(BSql.COMMIT_LOGS_FOLDER), configBean);
+        } catch (IOException ex) {
+            logger.error("Unable to open central commit log at " + BSql.COMMIT_LOGS_FOLDER, ex);
 
             //TODO: Figure out how to handle this. Maybe product boot should be failed
         }
     }
 
     public void write(Query query) {
+        if (log == null) {
+            logger.error("Central commit log is not available. Query {} was not logged", query.toJsonString());
+            return;
+        }
+
         try {
-            writer.write(System.currentTimeMillis() + "|" + query.toJsonString());
-            writer.newLine();
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            log.write(query);
+        } catch (IOException ex) {
+            logger.error("Failed to write to central commit log", ex);
 
             //TODO: Figure out how to handle this. Maybe commits should be rolled back if failure happens here
         }
     }
+
+    /**
+     * Gets the central commit log
+     *
+     * @return the central {@link CommitLog}; <code>null</code> if the log could not be opened on boot
+     */
+    public CommitLog getCommitLog() {
+        return log == null ? null : log.getCommitLog();
+    }
+
+    /**
+     * Checkpoints the central commit log up to the latest entry that does not belong to an incomplete request.
+     * Datastore and collection operations are applied to the file system before they complete, so no other sync is
+     * required.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void checkpoint() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.getCommitLog().checkpoint(log.checkpointableLsn());
+        } catch (IOException ex) {
+            logger.error("Failed to checkpoint central commit log", ex);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException ex) {
+            logger.error("Failed to close central commit log", ex);
+        }
+    }
 }
@@ -16,59 +16,275 @@
 
 package com.blobcity.db.transaction;
 
-import com.blobcity.db.bsql.BSqlCollectionManager;
-import com.blobcity.db.constants.BSql;
+import com.blobcity.db.config.ConfigBean;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
-import com.blobcity.lib.database.bean.manager.common.Constants;
+import com.blobcity.db.indexing.IndexSyncStore;
+import com.blobcity.db.indexing.PackedIndexStore;
+import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.storage.SegmentStore;
 import com.blobcity.lib.query.Query;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.expression.Operation;
-import org.springframework.stereotype.Component;
-
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
+import com.blobcity.lib.query.QueryType;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
 
 /**
- * Holds writers to commit log files for each collection in the database
+ * Holds writers to commit log files for each collection in the database. Logs are stored in binary
+ * {@link CommitLog} format inside <code>{data_folder}/{ds}/db/{collection}/commit-logs/</code>.
+ *
+ * <p>
+ * Only inserts and the outcomes of requests are logged, as only inserts can be replayed by {@link CommitLogReader}.
+ * Updates, saves and deletes are not recoverable from a collection log, and logging them is rejected.</p>
+ *
+ * <p>
+ * Each log is checkpointed every second, right after the data and all indexes of the collection have been synced
+ * to disk, so that a replay only has to go over changes that may not have reached the disk.</p>
+ *
  * @author sanketsarang
  */
 @Component //singleton
 public class CollectionCommitLogWriter {
-    private Map<String, BufferedWriter> writerMap = new HashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(CollectionCommitLogWriter.class.getName());
+
+    private final Map<String, CollectionLog> logMap = new ConcurrentHashMap<>();
 
     @Autowired
-    private BSqlCollectionManager collectionManager;
+    private ConfigBean configBean;
+    @Autowired @Lazy
+    private SegmentStore segmentStore;
+    @Autowired @Lazy
+    private PackedIndexStore packedIndexStore;
+    @Autowired @Lazy
+    private IndexSyncStore indexSyncStore;
 
-    public void write(final String ds, final String collection, final Query query) throws OperationException {
-        final String key = ds + "." + collection;
+    /**
+     * Writes a query to the commit log of the collection and waits until it is durable
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @param query the query to log
+     * @return the LSN of the entry
+     * @throws OperationException if the query cannot be replayed from the log, or the commit log could not be written
+     */
+    public long write(final String ds, final String collection, final Query query) throws OperationException {
+        ensureReplayable(ds, collection, query);
+        try {
+            return getLog(ds, collection).log.write(query);
+        } catch (IOException ex) {
+            logger.error("Failed to write to commit logs of collection: " + ds + "." + collection, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Failed to write to commit logs of collection: " + ds + "." + collection);
+        }
+    }
 
-        if(!writerMap.containsKey(key)) {
+    /**
+     * Appends a query to the commit log of the collection without waiting for it to be durable. Entries of several
+     * requests appended this way are made durable by a single force through {@link #awaitDurable(String, String, long)}.
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @param query the query to log
+     * @return the LSN of the entry
+     * @throws OperationException if the query cannot be replayed from the log, or the commit log could not be written
+     */
+    public long append(final String ds, final String collection, final Query query) throws OperationException {
+        ensureReplayable(ds, collection, query);
+        try {
+            return getLog(ds, collection).log.append(query);
+        } catch (IOException ex) {
+            logger.error("Failed to write to commit logs of collection: " + ds + "." + collection, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Failed to write to commit logs of collection: " + ds + "." + collection);
+        }
+    }
+
+    /**
+     * Waits until all entries of the commit log of the collection up to the LSN are durable
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @param lsn the LSN returned by {@link #append(String, String, Query)}
+     * @throws OperationException if the commit log could not be forced to disk
+     */
+    public void awaitDurable(final String ds, final String collection, final long lsn) throws OperationException {
+        try {
+            getLog(ds, collection).log.getCommitLog().awaitDurable(lsn);
+        } catch (IOException ex) {
+            logger.error("Failed to write to commit logs of collection: " + ds + "." + collection, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Failed to write to commit logs of collection: " + ds + "." + collection);
+        }
+    }
+
+    /**
+     * Gets the commit log of the collection, opening it if not already open
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @return the {@link CommitLog} of the collection
+     * @throws OperationException if the collection does not exist or its commit log could not be opened
+     */
+    public CommitLog getCommitLog(final String ds, final String collection) throws OperationException {
+        return getLog(ds, collection).log.getCommitLog();
+    }
 
-            //{data_folder}/{ds}/db/{collection}/commit-logs/commit.log
-            final String filePath = BSql.BSQL_BASE_FOLDER + ds + BSql.SEPERATOR + BSql.DATABASE_FOLDER_NAME
-                    + BSql.SEPERATOR + collection + BSql.SEPERATOR + BSql.COMMIT_LOGS_FOLDER_NAME
-                    + BSql.CURRENT_COMMIT_LOG_FILENAME;
+    /**
+     * Gets the highest LSN of the commit log of the collection at or below which every request has completed with a
+     * commit or rollback
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @return the LSN
+     * @throws OperationException if the collection does not exist or its commit log could not be opened
+     */
+    public long getCompletedLsn(final String ds, final String collection) throws OperationException {
+        return getLog(ds, collection).log.checkpointableLsn();
+    }
 
+    /**
+     * Syncs the data and all indexes of the collection to disk, and then checkpoints its commit log up to the
+     * latest entry that does not belong to an incomplete request
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     * @throws OperationException if the sync or the checkpoint fails
+     */
+    public void checkpoint(final String ds, final String collection) throws OperationException {
+        try {
+            checkpoint(getLog(ds, collection));
+        } catch (IOException ex) {
+            logger.error("Failed to checkpoint commit logs of collection: " + ds + "." + collection, ex);
+            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Failed to checkpoint commit logs of collection: " + ds + "." + collection);
+        }
+    }
+
+    /**
+     * Closes the commit log of a collection. Must be invoked before the folder of the collection is moved or deleted.
+     *
+     * @param ds the datastore
+     * @param collection name of the collection
+     */
+    public void evict(final String ds, final String collection) {
+        final CollectionLog collectionLog;
+        synchronized (logMap) {
+            collectionLog = logMap.remove(key(ds, collection));
+        }
+        close(collectionLog);
+    }
+
+    /**
+     * Closes the commit logs of all collections within a datastore
+     *
+     * @param ds the datastore
+     */
+    public void evictDatastore(final String ds) {
+        final List<CollectionLog> logs = new ArrayList<>();
+        logMap.values().stream().filter(collectionLog -> collectionLog.ds.equals(ds)).forEach(logs::add);
+        logs.forEach(collectionLog -> evict(collectionLog.ds, collectionLog.collection));
+    }
+
+    @Scheduled(fixedRate = 1000)
+    private void checkpoint() {
+        logMap.values().forEach(collectionLog -> {
             try {
-                writerMap.put(key, new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath))));
-            } catch(IOException ex) {
-                throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Cannot open commit log writer to path: " + filePath);
+                checkpoint(collectionLog);
+            } catch (IOException ex) {
+                logger.error("Failed to checkpoint commit logs of collection: " + collectionLog.ds + "." + collectionLog.collection, ex);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        synchronized (logMap) {
+            logMap.values().forEach(this::close);
+            logMap.clear();
+        }
+    }
+
+    private void checkpoint(final CollectionLog collectionLog) throws IOException {
+        final long lsn = collectionLog.log.checkpointableLsn();
+        if (lsn <= collectionLog.log.getCommitLog().getCheckpointLsn()) {
+            return;
+        }
+        segmentStore.sync(collectionLog.ds, collectionLog.collection);
+        packedIndexStore.sync(collectionLog.ds, collectionLog.collection);
+        indexSyncStore.sync(collectionLog.ds, collectionLog.collection);
+        collectionLog.log.getCommitLog().checkpoint(lsn);
+    }
+
+    private void ensureReplayable(final String ds, final String collection, final Query query) throws OperationException {
+        final QueryType queryType = query.getQueryType();
+        if (queryType != QueryType.INSERT && queryType != QueryType.SOFT_COMMIT_SUCCESS
+                && queryType != QueryType.COMMIT_SUCCESS && queryType != QueryType.ROLLBACK_SUCCESS) {
+            throw new OperationException(ErrorCode.OPERATION_NOT_SUPPORTED, "Queries of type " + queryType
+                    + " cannot be recovered from the commit logs of collection: " + ds + "." + collection);
+        }
+    }
+
+    private CollectionLog getLog(final String ds, final String collection) throws OperationException {
+        final String key = key(ds, collection);
+        CollectionLog collectionLog = logMap.get(key);
+        if (collectionLog != null) {
+            return collectionLog;
+        }
+
+        synchronized (logMap) {
+            collectionLog = logMap.get(key);
+            if (collectionLog == null) {
+
+                /* never recreate the folder of a collection that has been dropped */
+                if (!Files.isDirectory(Paths.get(PathUtil.tableFolderPath(ds, collection)))) {
+                    throw new OperationException(ErrorCode.COLLECTION_INVALID, "No collection found with name " + key);
+                }
+
+                try {
+                    collectionLog = new CollectionLog(ds, collection, QueryCommitLog.open(Paths.get(PathUtil.commitLogsFolderPath(ds, collection)), configBean));
+                } catch (IOException ex) {
+                    logger.error("Cannot open commit log of collection " + key, ex);
+                    throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Cannot open commit log writer to path: " + PathUtil.commitLogsFolderPath(ds, collection));
+                }
+                logMap.put(key, collectionLog);
             }
+            return collectionLog;
         }
+    }
 
-        BufferedWriter writer = writerMap.get(key);
+    private void close(final CollectionLog collectionLog) {
+        if (collectionLog == null) {
+            return;
+        }
         try {
-            writer.write(System.currentTimeMillis() + "|" + query.toJsonString());
-            writer.newLine();
-            writer.flush();
-        } catch (IOException e) {
-            throw new OperationException(ErrorCode.INTERNAL_OPERATION_ERROR, "Failed to write to commit logs of collection: " + key);
+            collectionLog.log.close();
+        } catch (IOException ex) {
+            logger.error("Failed to close commit log of collection " + collectionLog.ds + "." + collectionLog.collection, ex);
+        }
+    }
+
+    private String key(final String ds, final String collection) {
+        return ds + "." + collection;
+    }
+
+    private static class CollectionLog {
+
+        private final String ds;
+        private final String collection;
+        private final QueryCommitLog log;
+
+        private CollectionLog(final String ds, final String collection, final QueryCommitLog log) {
+            this.ds = ds;
+            this.collection = collection;
+            this.log = log;
         }
     }
 }
@@ -0,0 +1,609 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.transaction;
+
+import com.blobcity.db.exceptions.DbRuntimeException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Binary write ahead log stored as a sequence of segment files inside a folder. Every entry is assigned a log sequence
+ * number (LSN) and stored as a checksummed frame of the form
+ * <code>[payload length (int)][crc32 (int)][lsn (long)][time (long)][payload bytes]</code>. Segment files are named
+ * after the LSN of their first entry and a new segment is started once the current one exceeds the maximum segment
+ * size.</p>
+ *
+ * <p>
+ * Writes are group committed. Appended entries are collected in memory, and the first writer waiting for durability
+ * becomes the leader that writes and forces all collected entries to disk in a single <code>force()</code>. The leader
+ * waits up to the group commit window, or until the group commit size is collected, before forcing so that concurrent
+ * writers can share the same force.</p>
+ *
+ * <p>
+ * A checkpoint records the LSN up to which the effect of all entries is known to be durable elsewhere. Segments
+ * holding only entries at or below the checkpoint are deleted, and {@link #entries()} returns only entries above the
+ * checkpoint. On open a partially written tail left behind by a crash is truncated.</p>
+ *
+ * <p>
+ * Segments can be kept beyond the checkpoint through {@link #retainAfter(long)}, so that entries not yet shipped to
+ * a replica remain readable through {@link #entries(long)}.</p>
+ *
+ * @author sanketsarang
+ */
+public class CommitLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommitLog.class.getName());
+
+    public static final String SEGMENT_EXTENSION = ".wal";
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String CHECKPOINT_TEMP_FILE = "checkpoint.tmp";
+    private static final int HEADER_LENGTH = 24;
+    private static final int MAX_PAYLOAD_LENGTH = 256 * 1024 * 1024;
+
+    private final Path folder;
+    private final long maxSegmentSize;
+    private final long groupCommitWindowNanos;
+    private final int groupCommitBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final Condition windowFull = lock.newCondition();
+    private final Object checkpointLock = new Object();
+
+    /* guarded by lock */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean flushing = false;
+    private IOException failure = null;
+    private boolean closed = false;
+
+    /* owned by the flushing leader */
+    private FileChannel channel;
+    private long segmentSize;
+
+    private volatile long checkpointLsn;
+    private volatile long retainedLsn = Long.MAX_VALUE;
+
+    public CommitLog(final Path folder) throws IOException {
+        this(folder, DEFAULT_MAX_SEGMENT_SIZE, TimeUnit.MICROSECONDS.toNanos(500), 1024 * 1024);
+    }
+
+    /**
+     * Opens the commit log inside the folder, creating the folder if required
+     *
+     * @param folder the folder holding the log segments
+     * @param maxSegmentSize size in bytes after which a new segment is started
+     * @param groupCommitWindowNanos maximum time a flush waits for more entries to join it
+     * @param groupCommitBytes number of pending bytes that triggers a flush without waiting for the window to end
+     * @throws IOException if the log could not be opened
+     */
+    public CommitLog(final Path folder, final long maxSegmentSize, final long groupCommitWindowNanos, final int groupCommitBytes) throws IOException {
+        this.folder = folder;
+        this.maxSegmentSize = maxSegmentSize;
+        this.groupCommitWindowNanos = groupCommitWindowNanos;
+        this.groupCommitBytes = groupCommitBytes;
+        Files.createDirectories(folder);
+        open();
+    }
+
+    /**
+     * Appends the payload to the log and waits until it is durable
+     *
+     * @param payload bytes of the entry
+     * @return the LSN assigned to the entry
+     * @throws IOException if the log could not be forced to disk
+     */
+    public long write(final byte[] payload) throws IOException {
+        final long lsn = append(payload);
+        awaitDurable(lsn);
+        return lsn;
+    }
+
+    /**
+     * Appends the payload to the log without waiting for it to become durable. The entry becomes durable with the next
+     * call to {@link #awaitDurable(long)} for the same or a higher LSN.
+     *
+     * @param payload bytes of the entry
+     * @return the LSN assigned to the entry
+     * @throws IOException if the log is closed or has previously failed
+     */
+    public long append(final byte[] payload) throws IOException {
+        final long time = System.currentTimeMillis();
+        lock.lock();
+        try {
+            ensureWritable();
+            final long lsn = appendedLsn + 1;
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(payload.length);
+            header.putInt(checksum(lsn, time, payload));
+            header.putLong(lsn);
+            header.putLong(time);
+            pending.write(header.array(), 0, HEADER_LENGTH);
+            pending.write(payload, 0, payload.length);
+            appendedLsn = lsn;
+            if (pending.size() >= groupCommitBytes) {
+                windowFull.signal();
+            }
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all entries up to and including the LSN are forced to disk. One of the waiting threads performs the
+     * force on behalf of all others.
+     *
+     * @param lsn the LSN to wait for
+     * @throws IOException if the log could not be written or forced to disk
+     */
+    public void awaitDurable(final long lsn) throws IOException {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flush(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces all appended entries to disk
+     *
+     * @throws IOException if the log could not be written or forced to disk
+     */
+    public void sync() throws IOException {
+        final long lsn;
+        lock.lock();
+        try {
+            lsn = appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(lsn);
+    }
+
+    /**
+     * Records that the effects of all entries up to the LSN are durable, and deletes segments holding only such
+     * entries
+     *
+     * @param lsn the checkpoint LSN. Values above the durable LSN are lowered to the durable LSN.
+     * @throws IOException if the checkpoint could not be written
+     */
+    public void checkpoint(final long lsn) throws IOException {
+        synchronized (checkpointLock) {
+            final long target = Math.min(lsn, getDurableLsn());
+            if (target <= checkpointLsn) {
+                return;
+            }
+
+            final Path temp = folder.resolve(CHECKPOINT_TEMP_FILE);
+            try (FileChannel checkpointChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(8);
+                buffer.putLong(target);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    checkpointChannel.write(buffer);
+                }
+                checkpointChannel.force(true);
+            }
+            Files.move(temp, folder.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            checkpointLsn = target;
+
+            /* a segment can be deleted once the next segment starts at or below the first LSN after the checkpoint */
+            final long deletable = Math.min(target, retainedLsn);
+            final List<Long> segments = listSegments();
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (segments.get(i + 1) - 1 <= deletable) {
+                    Files.deleteIfExists(segmentPath(segments.get(i)));
+                }
+            }
+        }
+    }
+
+    public long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    /**
+     * Keeps the segments holding entries above the LSN from being deleted by later checkpoints, even once they are
+     * checkpointed. Segments already deleted are not brought back.
+     *
+     * @param lsn the LSN after which entries must stay readable; <code>Long.MAX_VALUE</code> to retain nothing beyond
+     * the checkpoint
+     */
+    public void retainAfter(final long lsn) {
+        retainedLsn = lsn;
+    }
+
+    /**
+     * Gets the LSN of the oldest entry still held in the log. Entries from this LSN onwards can be read through
+     * {@link #entries(long)}.
+     *
+     * @return the first LSN of the oldest segment; one above the last appended LSN if the log holds no segments
+     * @throws IOException if the segments could not be listed
+     */
+    public long getFirstLsn() throws IOException {
+        final List<Long> segments = listSegments();
+        return segments.isEmpty() ? getAppendedLsn() + 1 : segments.get(0);
+    }
+
+    public long getDurableLsn() {
+        lock.lock();
+        try {
+            return durableLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAppendedLsn() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads all durable entries above the checkpoint in LSN order. Reading a segment stops at the first frame that
+     * fails its checksum.
+     *
+     * @return iterator over entries above the checkpoint, to be closed by the caller
+     * @throws IOException if the segments could not be listed
+     */
+    public EntryIterator entries() throws IOException {
+        return entries(checkpointLsn);
+    }
+
+    /**
+     * Reads all durable entries above the LSN in LSN order, skipping segments that hold only entries at or below it.
+     * Entries in segments already deleted by a checkpoint are not returned; see {@link #getFirstLsn()}.
+     *
+     * @param afterLsn the LSN after which to read
+     * @return iterator over entries above the LSN, to be closed by the caller
+     * @throws IOException if the segments could not be listed
+     */
+    public EntryIterator entries(final long afterLsn) throws IOException {
+        final long uptoLsn = getDurableLsn();
+        final List<Long> segmentList = listSegments();
+        while (segmentList.size() > 1 && segmentList.get(1) - 1 <= afterLsn) {
+            segmentList.remove(0);
+        }
+        final Iterator<Long> segments = segmentList.iterator();
+
+        return new EntryIterator() {
+            private DataInputStream in = null;
+            private Entry next = null;
+            private boolean exhausted = false;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null) {
+                        if (exhausted) {
+                            return false;
+                        }
+                        if (in == null) {
+                            if (!segments.hasNext()) {
+                                exhausted = true;
+                                return false;
+                            }
+                            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath(segments.next())), 1024 * 1024));
+                        }
+                        final Entry entry = readFrame(in);
+                        if (entry == null) {
+                            closeSegment();
+                        } else if (entry.getLsn() > uptoLsn) {
+                            close();
+                        } else if (entry.getLsn() > afterLsn) {
+                            next = entry;
+                        }
+                    }
+                    return true;
+                } catch (IOException ex) {
+                    logger.error("Failed reading commit log in " + folder, ex);
+                    close();
+                    throw new DbRuntimeException(ex);
+                }
+            }
+
+            @Override
+            public void close() {
+                exhausted = true;
+                next = null;
+                try {
+                    closeSegment();
+                } catch (IOException ex) {
+                    logger.warn("Failed to close commit log segment in " + folder, ex);
+                }
+            }
+
+            private void closeSegment() throws IOException {
+                if (in != null) {
+                    final DataInputStream segment = in;
+                    in = null;
+                    segment.close();
+                }
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Entry entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            lock.lock();
+            try {
+                closed = true;
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending entries and forces them to disk. Must be called holding the lock with no other flush in
+     * progress. The lock is released while performing I/O.
+     *
+     * @param waitForWindow whether to wait for the group commit window to collect more entries
+     */
+    private void flush(final boolean waitForWindow) throws IOException {
+        flushing = true;
+        try {
+            if (waitForWindow && groupCommitWindowNanos > 0) {
+                long remaining = groupCommitWindowNanos;
+                while (pending.size() < groupCommitBytes && remaining > 0) {
+                    try {
+                        remaining = windowFull.awaitNanos(remaining);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            final ByteArrayOutputStream batch = pending;
+            final long batchLsn = appendedLsn;
+            pending = new ByteArrayOutputStream(Math.max(32, batch.size()));
+
+            IOException error = null;
+            lock.unlock();
+            try {
+                writeBatch(batch.toByteArray(), batchLsn);
+            } catch (IOException ex) {
+                error = ex;
+            } finally {
+                lock.lock();
+            }
+            if (error != null) {
+                failure = error;
+                throw error;
+            }
+            durableLsn = batchLsn;
+        } finally {
+            flushing = false;
+            flushed.signalAll();
+        }
+    }
+
+    private void writeBatch(final byte[] batch, final long batchLsn) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        segmentSize += batch.length;
+
+        if (segmentSize >= maxSegmentSize) {
+            final FileChannel newChannel = FileChannel.open(segmentPath(batchLsn + 1), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.close();
+            channel = newChannel;
+            segmentSize = 0;
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (closed) {
+            throw new IOException("Commit log in " + folder + " is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void open() throws IOException {
+        Files.deleteIfExists(folder.resolve(CHECKPOINT_TEMP_FILE));
+        final Path checkpointPath = folder.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointPath)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpointPath))) {
+                checkpointLsn = in.readLong();
+            }
+        }
+
+        final List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            appendedLsn = checkpointLsn;
+            channel = FileChannel.open(segmentPath(appendedLsn + 1), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            segmentSize = 0;
+        } else {
+            final long firstLsn = segments.get(segments.size() - 1);
+            final Path path = segmentPath(firstLsn);
+            long lastLsn = firstLsn - 1;
+            long validLength = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1024 * 1024))) {
+                Entry entry;
+                while ((entry = readFrame(in)) != null) {
+                    lastLsn = entry.getLsn();
+                    validLength += HEADER_LENGTH + entry.getPayload().length;
+                }
+            }
+
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            if (channel.size() > validLength) {
+                logger.warn("Truncating commit log segment {} from {} to {} bytes", path, channel.size(), validLength);
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            channel.force(true);
+            segmentSize = validLength;
+            appendedLsn = Math.max(lastLsn, checkpointLsn);
+        }
+        durableLsn = appendedLsn;
+    }
+
+    /**
+     * Reads the next frame from the stream
+     *
+     * @return the entry, or <code>null</code> if the stream ends or the frame is partially written or corrupt
+     */
+    private static Entry readFrame(final DataInputStream in) throws IOException {
+        try {
+            final int length = in.readInt();
+            if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+                return null;
+            }
+            final int crc = in.readInt();
+            final long lsn = in.readLong();
+            final long time = in.readLong();
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (crc != checksum(lsn, time, payload)) {
+                return null;
+            }
+            return new Entry(lsn, time, payload);
+        } catch (EOFException ex) {
+            return null;
+        }
+    }
+
+    private static int checksum(final long lsn, final long time, final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(lsn);
+        buffer.putLong(time);
+        crc.update(buffer.array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private List<Long> listSegments() throws IOException {
+        final List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + SEGMENT_EXTENSION)) {
+            for (Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+                } catch (NumberFormatException ex) {
+                    logger.warn("Ignoring unrecognised file {} in commit log folder", path);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(final long firstLsn) {
+        return folder.resolve(String.format("%020d", firstLsn) + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Iterator over entries of the log that holds at most one segment open. Closing it releases the segment, and ends
+     * the iteration.
+     */
+    public interface EntryIterator extends Iterator<Entry>, Closeable {
+
+        @Override
+        void close();
+    }
+
+    /**
+     * A single entry read back from the commit log
+     */
+    public static class Entry {
+
+        private final long lsn;
+        private final long time;
+        private final byte[] payload;
+
+        public Entry(final long lsn, final long time, final byte[] payload) {
+            this.lsn = lsn;
+            this.time = time;
+            this.payload = payload;
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
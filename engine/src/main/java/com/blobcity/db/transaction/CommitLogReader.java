@@ -16,15 +16,239 @@
 
 package com.blobcity.db.transaction;
 
+import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.bsql.BSqlIndexManager;
+import com.blobcity.db.constants.BSql;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.sql.util.PathUtil;
+import com.blobcity.db.storage.BSqlFileManager;
+import com.blobcity.db.storage.SegmentStore;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.blobcity.lib.query.QueryType;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 /**
+ * <p>
+ * Replays commit logs on boot to bring collections back to a consistent state after a crash.</p>
+ *
+ * <p>
+ * For every collection the entries above the last checkpoint are grouped by request. Records of committed inserts
+ * that never reached the disk are inserted again, which also indexes them. A record that was written and later deleted
+ * or renamed is recognised by its versions in the collection segments and is not brought back. Missing index entries
+ * are added for all other records touched by the replayed requests, and the row count of the collection is set from
+ * its records. Requests that did not reach a commit or rollback are reported and left as they are.</p>
+ *
+ * <p>
+ * Updates, saves and deletes are not recoverable from a collection log, and {@link CollectionCommitLogWriter} refuses
+ * to log them. Entries of any such type found in a log, as written by an older version, are reported and skipped.</p>
+ *
+ * <p>
+ * Entries of the central commit log are applied to the file system before a datastore or collection operation
+ * completes, so the central log is only checked for incomplete requests.</p>
+ *
  * @author sanketsarang
  */
 @Component
 public class CommitLogReader {
 
+    private static final Logger logger = LoggerFactory.getLogger(CommitLogReader.class.getName());
+
+    @Autowired @Lazy
+    private CollectionCommitLogWriter collectionCommitLogWriter;
+    @Autowired @Lazy
+    private CentralCommitLogWriter centralCommitLogWriter;
+    @Autowired @Lazy
+    private BSqlCollectionManager collectionManager;
+    @Autowired @Lazy
+    private BSqlDataManager dataManager;
+    @Autowired @Lazy
+    private BSqlFileManager fileManager;
+    @Autowired @Lazy
+    private BSqlIndexManager indexManager;
+    @Autowired @Lazy
+    private SegmentStore segmentStore;
+    @Autowired @Lazy
+    private RowCountStore rowCountStore;
+
     public void replayLogs() {
-        //collectively reads all logs
+        replayCentralLog();
+
+        try (DirectoryStream<Path> datastores = Files.newDirectoryStream(Paths.get(BSql.BSQL_BASE_FOLDER))) {
+            for (Path datastore : datastores) {
+                final Path collectionsFolder = datastore.resolve(BSql.DATABASE_FOLDER_NAME);
+                if (!Files.isDirectory(collectionsFolder)) {
+                    continue;
+                }
+
+                try (DirectoryStream<Path> collections = Files.newDirectoryStream(collectionsFolder)) {
+                    for (Path collection : collections) {
+                        replayCollectionLog(datastore.getFileName().toString(), collection.getFileName().toString());
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.error("Failed to list collections for commit log replay", ex);
+        }
+    }
+
+    private void replayCentralLog() {
+        final CommitLog commitLog = centralCommitLogWriter.getCommitLog();
+        if (commitLog == null) {
+            return;
+        }
+
+        try {
+            final Map<String, Query> incomplete = new LinkedHashMap<>();
+            try (CommitLog.EntryIterator entries = commitLog.entries()) {
+                while (entries.hasNext()) {
+                    final Query query = toQuery(entries.next());
+                    if (query == null) {
+                        continue;
+                    }
+                    final QueryType queryType = query.getQueryType();
+                    if (queryType == QueryType.COMMIT_SUCCESS || queryType == QueryType.ROLLBACK_SUCCESS) {
+                        incomplete.remove(query.getRequestId());
+                    } else {
+                        incomplete.putIfAbsent(query.getRequestId(), query);
+                    }
+                }
+            }
+
+            incomplete.forEach((requestId, query) -> logger.warn("Request {} of type {} did not complete before shutdown and may need to be retried",
+                    requestId, query.getQueryType()));
+            centralCommitLogWriter.checkpoint();
+        } catch (IOException | RuntimeException ex) {
+            logger.error("Failed to replay central commit log", ex);
+        }
+    }
+
+    private void replayCollectionLog(final String ds, final String collection) {
+        final Path logFolder = Paths.get(PathUtil.commitLogsFolderPath(ds, collection));
+        if (!Files.isDirectory(logFolder)) {
+            return;
+        }
+
+        try {
+            if (collectionManager.isInMemory(ds, collection)) {
+                return;
+            }
+
+            /* request id -> insert query, and request id -> outcome */
+            final Map<String, Query> requests = new LinkedHashMap<>();
+            final Map<String, QueryType> outcomes = new HashMap<>();
+            final Map<QueryType, Integer> skipped = new HashMap<>();
+            try (CommitLog.EntryIterator entries = collectionCommitLogWriter.getCommitLog(ds, collection).entries()) {
+                while (entries.hasNext()) {
+                    final Query query = toQuery(entries.next());
+                    if (query == null) {
+                        continue;
+                    }
+                    final QueryType queryType = query.getQueryType();
+                    if (queryType == QueryType.INSERT) {
+                        requests.putIfAbsent(query.getRequestId(), query);
+                    } else if (queryType == QueryType.COMMIT_SUCCESS || queryType == QueryType.ROLLBACK_SUCCESS) {
+                        outcomes.put(query.getRequestId(), queryType);
+                    } else if (queryType != QueryType.SOFT_COMMIT_SUCCESS) {
+                        skipped.merge(queryType, 1, Integer::sum);
+                    }
+                }
+            }
+            skipped.forEach((queryType, count) -> logger.error("Cannot replay " + count + " entries of type " + queryType
+                    + " from commit log of collection " + ds + "." + collection + "; they are not recoverable"));
+
+            if (!requests.isEmpty()) {
+                replayInserts(ds, collection, requests, outcomes);
+                rowCountStore.setRowCount(ds, collection, fileManager.count(ds, collection));
+            }
+            collectionCommitLogWriter.checkpoint(ds, collection);
+        } catch (OperationException | IOException | RuntimeException ex) {
+            logger.error("Failed to replay commit log of collection " + ds + "." + collection, ex);
+        }
+    }
+
+    private void replayInserts(final String ds, final String collection, final Map<String, Query> requests, final Map<String, QueryType> outcomes) throws OperationException, IOException {
+        final Map<String, JSONObject> committed = new LinkedHashMap<>();
+        final Set<String> touched = new LinkedHashSet<>();
+        for (Map.Entry<String, Query> request : requests.entrySet()) {
+            final QueryType outcome = outcomes.get(request.getKey());
+            if (outcome == QueryType.ROLLBACK_SUCCESS) {
+                continue;
+            }
+            if (outcome == null) {
+                logger.warn("Insert request {} on {}.{} did not complete before shutdown. Records already written are retained",
+                        request.getKey(), ds, collection);
+            }
+
+            final JSONArray records = request.getValue().getJSONObject(QueryParams.PAYLOAD).getJSONArray(QueryParams.DATA.getParam());
+            for (int i = 0; i < records.length(); i++) {
+                final JSONObject record = records.getJSONObject(i);
+                if (!record.has("_id")) {
+                    continue;
+                }
+                final String pk = record.get("_id").toString();
+                touched.add(pk);
+                if (outcome == QueryType.COMMIT_SUCCESS) {
+                    committed.put(pk, record);
+                }
+            }
+        }
+
+        /* committed records that are absent and were never written to disk are lost writes */
+        final Set<String> missing = new HashSet<>();
+        for (String pk : committed.keySet()) {
+            if (!dataManager.exists(ds, collection, pk)) {
+                missing.add(pk);
+            }
+        }
+        if (!missing.isEmpty() && segmentStore.isSegmented(ds, collection)) {
+            missing.removeAll(segmentStore.get(ds, collection).writtenKeys(missing));
+        }
+
+        int restored = 0;
+        for (String pk : touched) {
+            if (missing.contains(pk)) {
+                dataManager.insert(ds, collection, new JSONObject(committed.get(pk).toString()));
+                restored++;
+            } else if (dataManager.exists(ds, collection, pk)) {
+                indexManager.repairIndex(ds, collection, pk, dataManager.select(ds, collection, pk));
+            }
+        }
+
+        logger.info("Replayed {} insert requests on {}.{}. {} records restored", requests.size(), ds, collection, restored);
+    }
+
+    private Query toQuery(final CommitLog.Entry entry) {
+        try {
+            final Query query = new Query(new JSONObject(new String(entry.getPayload(), StandardCharsets.UTF_8)));
+            if (!query.contains(QueryParams.REQUEST_ID) || !query.contains(QueryParams.QUERY)) {
+                return null;
+            }
+            return query;
+        } catch (JSONException ex) {
+            logger.warn("Skipping unreadable commit log entry at LSN " + entry.getLsn(), ex);
+            return null;
+        }
     }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.transaction;
+
+import com.blobcity.db.config.ConfigBean;
+import com.blobcity.db.config.ConfigProperties;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.blobcity.lib.query.QueryType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CommitLog} of queries that also tracks which requests are still awaiting their commit or rollback. Entries
+ * of a request are only allowed behind a checkpoint once the request has completed, so that an incomplete request can
+ * always be found by replay.
+ *
+ * @author sanketsarang
+ */
+class QueryCommitLog implements Closeable {
+
+    private static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 500;
+    private static final long DEFAULT_GROUP_COMMIT_BYTES = 1024 * 1024;
+
+    private final CommitLog commitLog;
+
+    /* request id -> LSN of the first entry of the request, for requests without a commit or rollback entry */
+    private final Map<String, Long> openRequests = new HashMap<>();
+
+    QueryCommitLog(final CommitLog commitLog) {
+        this.commitLog = commitLog;
+    }
+
+    /**
+     * Opens the commit log in the folder with the group commit settings from the database configuration
+     *
+     * @param folder the commit log folder
+     * @param configBean the database configuration
+     * @return the opened log
+     * @throws IOException if the log could not be opened
+     */
+    static QueryCommitLog open(final Path folder, final ConfigBean configBean) throws IOException {
+        final long windowMicros = configValue(configBean, ConfigProperties.COMMIT_LOG_GROUP_COMMIT_WINDOW, DEFAULT_GROUP_COMMIT_WINDOW_MICROS);
+        final long windowBytes = configValue(configBean, ConfigProperties.COMMIT_LOG_GROUP_COMMIT_BYTES, DEFAULT_GROUP_COMMIT_BYTES);
+        return new QueryCommitLog(new CommitLog(folder, CommitLog.DEFAULT_MAX_SEGMENT_SIZE,
+                TimeUnit.MICROSECONDS.toNanos(windowMicros), (int) windowBytes));
+    }
+
+    /**
+     * Writes the query to the log and waits until it is durable
+     *
+     * @param query the query to log
+     * @return the LSN of the entry
+     * @throws IOException if the log could not be written
+     */
+    long write(final Query query) throws IOException {
+        final long lsn = append(query);
+        commitLog.awaitDurable(lsn);
+        return lsn;
+    }
+
+    /**
+     * Appends the query to the log without waiting for it to be durable
+     *
+     * @param query the query to log
+     * @return the LSN of the entry, to wait on through {@link CommitLog#awaitDurable(long)}
+     * @throws IOException if the log could not be written
+     */
+    synchronized long append(final Query query) throws IOException {
+        final long lsn = commitLog.append(query.toJsonString().getBytes(StandardCharsets.UTF_8));
+        track(query, lsn);
+        return lsn;
+    }
+
+    /**
+     * Gets the highest LSN that can be checkpointed without hiding an entry of an incomplete request from replay
+     *
+     * @return the LSN up to which the log may be checkpointed
+     */
+    synchronized long checkpointableLsn() {
+        long lsn = commitLog.getDurableLsn();
+        for (long firstLsn : openRequests.values()) {
+            lsn = Math.min(lsn, firstLsn - 1);
+        }
+        return lsn;
+    }
+
+    CommitLog getCommitLog() {
+        return commitLog;
+    }
+
+    @Override
+    public void close() throws IOException {
+        commitLog.close();
+    }
+
+    private void track(final Query query, final long lsn) {
+        if (!query.contains(QueryParams.REQUEST_ID) || !query.contains(QueryParams.QUERY)) {
+            return;
+        }
+        final String requestId = query.getRequestId();
+        final QueryType queryType = query.getQueryType();
+        if (queryType == QueryType.COMMIT_SUCCESS || queryType == QueryType.ROLLBACK_SUCCESS) {
+            openRequests.remove(requestId);
+        } else {
+            openRequests.putIfAbsent(requestId, lsn);
+        }
+    }
+
+    private static long configValue(final ConfigBean configBean, final String key, final long defaultValue) {
+        final Object value = configBean == null ? null : configBean.getProperty(key);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+}
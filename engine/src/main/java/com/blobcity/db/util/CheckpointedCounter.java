@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.util;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A striped counter whose value is persisted periodically instead of on every update. Updates only touch the
+ * {@link LongAdder}, so concurrent writers do not contend with each other or with the disk. The owner persists the
+ * value by calling {@link #checkpoint(Writer)}.
+ *
+ * <p>
+ * A counter that has no pending changes can be retired to remove it from memory. Updates that race with the retirement
+ * are reported by {@link #add(long)} returning <code>false</code>, and must then be applied to a freshly loaded counter.
+ *
+ * @author sanketsarang
+ */
+public final class CheckpointedCounter {
+
+    private final LongAdder value = new LongAdder();
+    private volatile long checkpointed;
+    private volatile boolean retired = false;
+
+    /**
+     * Creates a counter whose value is already persisted
+     *
+     * @param value the persisted count value
+     */
+    public CheckpointedCounter(final long value) {
+        this(value, value);
+    }
+
+    /**
+     * Creates a counter whose persisted value differs from its actual value, such as a counter recomputed after a crash
+     *
+     * @param value the actual count value
+     * @param checkpointed the count value currently persisted
+     */
+    public CheckpointedCounter(final long value, final long checkpointed) {
+        this.value.add(value);
+        this.checkpointed = checkpointed;
+    }
+
+    /**
+     * Adds to the count value
+     *
+     * @param delta the value to add; negative to subtract
+     * @return <code>true</code> if the update was applied; <code>false</code> if the counter was retired and the update
+     * must be applied to a new counter
+     */
+    public boolean add(final long delta) {
+        value.add(delta);
+        return !retired;
+    }
+
+    /**
+     * Gets the current count value. The value is exact when no updates are in progress.
+     *
+     * @return the current count value
+     */
+    public long get() {
+        return value.sum();
+    }
+
+    /**
+     * Checks if the counter has changes that are not yet persisted
+     *
+     * @return <code>true</code> if the current value differs from the persisted value; <code>false</code> otherwise
+     */
+    public boolean isDirty() {
+        return value.sum() != checkpointed;
+    }
+
+    /**
+     * Persists the current value if it has changed since the last checkpoint
+     *
+     * @param writer writes the value to permanent storage
+     * @throws OperationException if the writer fails to persist the value
+     */
+    public synchronized void checkpoint(final Writer writer) throws OperationException {
+        final long current = value.sum();
+        if (current != checkpointed) {
+            writer.write(current);
+            checkpointed = current;
+        }
+    }
+
+    /**
+     * Retires the counter if it has no pending changes. A retired counter must no longer be used.
+     *
+     * @return <code>true</code> if the counter was retired; <code>false</code> if it has changes that are not yet
+     * persisted
+     */
+    public synchronized boolean retire() {
+        if (value.sum() != checkpointed) {
+            return false;
+        }
+        retired = true;
+        return true;
+    }
+
+    /**
+     * Persists a count value
+     */
+    @FunctionalInterface
+    public interface Writer {
+
+        public void write(long value) throws OperationException;
+    }
+}
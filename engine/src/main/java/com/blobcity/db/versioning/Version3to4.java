@@ -25,13 +25,13 @@ import com.blobcity.db.operations.OperationLogLevel;
 import com.blobcity.db.schema.*;
 import com.blobcity.db.schema.beans.SchemaManager;
 import com.blobcity.db.sql.util.PathUtil;
-import com.blobcity.db.storage.BSqlFileManager;
 import com.blobcity.db.util.FileNameEncoding;
 import com.blobcity.db.util.SystemInputUtil;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.logging.Level;
@@ -236,24 +236,6 @@ public class Version3to4 implements VersionUpgrader{
 
         /** Migrate all data **/
 
-        /* Create a list of all current primary keys */
-        List<String> filenames = new ArrayList<>();
-        try (DirectoryStream directoryStream = Files.newDirectoryStream(FileSystems.getDefault().getPath(PathUtil.dataFolderPath(datastoreId, collectionId)))) {
-            Iterator<Path> iterator = directoryStream.iterator();
-
-            //TODO: Manually iterator and apply governor limit if required
-            iterator.forEachRemaining(path -> {
-                String fileName = path.getFileName().toString();
-                try {
-                    filenames.add(FileNameEncoding.decode(fileName));
-                } catch (OperationException ex) {
-                    logger.error(null, ex);
-                }
-            });
-        } catch (IOException ex) {
-            logger.error(null, ex);
-        }
-
         Schema schema;
         ColumnMapping columnMapping;
         try {
@@ -273,17 +255,8 @@ public class Version3to4 implements VersionUpgrader{
         }
 
         /* Insert new record with new PK and delete the old record */
-        for (String filename : filenames) {
-
-            // load record
-            JSONObject internalJson = readRecordFile(datastoreId, collectionId, filename);
-            final String newPk = UUID.randomUUID().toString();
-            internalJson.put(columnMapping.getInternalName("_id"), newPk);
-            writeRecordFile(datastoreId, collectionId, newPk, internalJson);
-
-            // delete old record
-            deleteRecordFile(datastoreId, collectionId, filename);
-        }
+        final int migrated = migrateRecords(FileSystems.getDefault().getPath(PathUtil.dataFolderPath(datastoreId, collectionId)), columnMapping.getInternalName("_id"));
+        logger.info("Assigned new primary keys to " + migrated + " records of " + datastoreId + "." + collectionId);
 
         try {
             schema = schemaManager.readSchema(datastoreId, collectionId);
@@ -327,39 +300,67 @@ public class Version3to4 implements VersionUpgrader{
         logger.info("Upgrading data for " + ds + "." + collection);
     }
 
-    private JSONObject readRecordFile(final String ds, final String collection, final String pk) {
-        BSqlFileManager fileManager = new BSqlFileManager();
-        JSONObject fileJson;
+    /**
+     * Gives every record of a collection a new generated primary key. Record files are read and written directly in
+     * the JSON text form of this storage version, as the storage beans of later versions expect segmented collections.
+     *
+     * @param dataFolder the folder holding one file per record, named by the encoded primary key
+     * @param idColumn internal name of the <code>_id</code> column
+     * @return the number of records given a new primary key
+     */
+    int migrateRecords(final Path dataFolder, final String idColumn) {
+
+        /* Create a list of all current record files before adding new ones */
+        List<Path> recordFiles = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dataFolder)) {
+            directoryStream.forEach(recordFiles::add);
+        } catch (IOException ex) {
+            logger.error("Could not list records in " + dataFolder, ex);
+            return 0;
+        }
+
+        int migrated = 0;
+        for (Path recordFile : recordFiles) {
+            final JSONObject internalJson = readRecordFile(recordFile);
+            if (internalJson == null) {
+                continue;
+            }
+
+            final String newPk = UUID.randomUUID().toString();
+            internalJson.put(idColumn, newPk);
+            if (writeRecordFile(dataFolder, newPk, internalJson)) {
+                deleteRecordFile(recordFile);
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    private JSONObject readRecordFile(final Path recordFile) {
         try {
-            return new JSONObject(fileManager.select(ds, collection, pk));
-        } catch (JSONException ex) {
-            logger.error("Error in reading old record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
-        } catch (OperationException ex) {
-            logger.error("Error in reading old record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
+            return new JSONObject(new String(Files.readAllBytes(recordFile), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException ex) {
+            logger.error("Error in reading old record " + recordFile.getFileName() + " during version upgrade", ex);
         }
 
         return null;
     }
 
-    private void deleteRecordFile(final String ds, final String collection, final String pk) {
-        BSqlFileManager fileManager = new BSqlFileManager();
+    private void deleteRecordFile(final Path recordFile) {
         try {
-            fileManager.remove(ds, collection, pk);
-        } catch (OperationException ex) {
-            logger.error("Error in deleting old record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
+            Files.delete(recordFile);
+        } catch (IOException ex) {
+            logger.error("Error in deleting old record " + recordFile.getFileName() + " during version upgrade", ex);
         }
     }
 
-    private void writeRecordFile(final String ds, final String collection, final String pk, final JSONObject internalRecord) {
-        BSqlFileManager fileManager = new BSqlFileManager();
+    private boolean writeRecordFile(final Path dataFolder, final String pk, final JSONObject internalRecord) {
         try {
-            fileManager.insert(ds, collection, pk, internalRecord.toString());
-        } catch (OperationException ex) {
-            logger.error("Error in inserting new record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
+            Files.write(dataFolder.resolve(FileNameEncoding.encode(pk)), internalRecord.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException | OperationException ex) {
+            logger.error("Error in inserting new record with primary key " + pk + " during version upgrade", ex);
+            return false;
         }
     }
     
@@ -16,38 +16,31 @@
 
 package com.blobcity.db.versioning;
 
-import com.blobcity.db.bsql.BSqlIndexManager;
 import com.blobcity.db.constants.BSql;
 import com.blobcity.db.exceptions.OperationException;
-import com.blobcity.db.schema.*;
-import com.blobcity.db.schema.beans.SchemaManager;
 import com.blobcity.db.sql.util.PathUtil;
-import com.blobcity.db.storage.BSqlFileManager;
+import com.blobcity.db.storage.CollectionSegments;
 import com.blobcity.db.util.FileNameEncoding;
 import com.blobcity.db.util.SystemInputUtil;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.logging.Level;
 
 /**
- * //TODO: YET TO IMPLEMENT THE MIGRATION LOGIC. DO NOT INVOKE THIS UNLESS IMPLEMENTATION IS COMPLETED.
- *
  * This is used to upgrade to storage version 5 from storage version 4
  * 
  * Things to take care of in this version:
- * 1. Sets _id field to all entries in the user table to make user login password editable.
+ * 1. Moves records of every on-disk collection from one file per record inside the data folder into append only
+ * segment files inside the segments folder. The old data folder is moved to the delete folder of the datastore once
+ * the segments are fully written, so an interrupted upgrade can be safely rerun.
  *
  * @author sanketsarang
  */
@@ -58,6 +51,7 @@ public class Version4to5 implements VersionUpgrader{
     private static final String OLD_VERSION = "4";
     private static final String NEW_VERSION = "5";
     private static final String BACKUP_FILE_POSTFIX = "-v4.zip";
+    private static final String TEMP_SEGMENTS_FOLDER_NAME = "segments-upgrade";
         
     // folders to skip in upgrading.
     private final Set<String> skipAppLevelFolders = new HashSet<>(Arrays.asList(new String[]{"global-live", "global-del", "BlobCityDB"}));
@@ -116,53 +110,92 @@ public class Version4to5 implements VersionUpgrader{
     }
     
     /**
-     * NOTE:
-     * upgrade database structure
-     * create user groups table
-     * 
-     * NOTE: this can't be done as there is dependency issue if we try to autoWire bean UserGroupManager here
-     * SO this is now done, with the help of configBean now
+     * Converts the storage of every collection within every datastore into the segmented format
      */
     public void upgradeStructure(){
-        
-        //TODO: Update the Users table to include the _id primary key for each user
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(FileSystems.getDefault().getPath(BSql.BSQL_BASE_FOLDER))) {
+            ds.forEach(path -> {
+                try {
+                    if (!skipAppLevelFolders.contains(path.getFileName().toString()) && Files.isDirectory(path)) {
+                        upgradeDataStore(path.getFileName().toString());
+                    }
+                } catch (Exception ex) {
+                    logger.info("Quitting BlobCity DB as upgrade to new version failed. It is recommended that you "
+                            + "manually restore the data store from the archieve before attempting a restart.", ex);
+                    System.exit(0);
+                }
+            });
+        } catch (IOException ex) {
+            java.util.logging.Logger.getLogger(Version4to5.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
+    
+    public void upgradeDataStore(final String datastoreId) throws IOException {
+        final Path dbFolder = FileSystems.getDefault().getPath(BSql.BSQL_BASE_FOLDER + datastoreId + BSql.SEPERATOR + BSql.DATABASE_FOLDER_NAME);
+        if (!Files.isDirectory(dbFolder)) {
+            return;
+        }
 
+        logger.info("Upgrading datastore " + datastoreId);
 
-    private JSONObject readRecordFile(final String ds, final String collection, final String pk) {
-        BSqlFileManager fileManager = new BSqlFileManager();
-        JSONObject fileJson;
-        try {
-            return new JSONObject(fileManager.select(ds, collection, pk));
-        } catch (JSONException ex) {
-            logger.error("Error in reading old record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
-        } catch (OperationException ex) {
-            logger.error("Error in reading old record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
+        /* Process every collection */
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dbFolder)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) {
+                    upgradeCollection(datastoreId, path.getFileName().toString());
+                }
+            }
         }
-
-        return null;
+        logger.info("Datastore " + datastoreId + " upgraded successfully");
     }
 
-    private void deleteRecordFile(final String ds, final String collection, final String pk) {
-        BSqlFileManager fileManager = new BSqlFileManager();
-        try {
-            fileManager.remove(ds, collection, pk);
-        } catch (OperationException ex) {
-            logger.error("Error in deleting old record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
+    /**
+     * Copies every record file of the collection into a temporary segments folder which is renamed to the segments
+     * folder only after all records are written and synced. The data folder is then moved out of the collection.
+     */
+    private void upgradeCollection(final String datastoreId, final String collectionId) throws IOException {
+        final Path dataFolder = FileSystems.getDefault().getPath(PathUtil.dataFolderPath(datastoreId, collectionId));
+        final Path segmentsFolder = FileSystems.getDefault().getPath(PathUtil.segmentsFolderPath(datastoreId, collectionId));
+        final Path tempFolder = segmentsFolder.resolveSibling(TEMP_SEGMENTS_FOLDER_NAME);
+
+        if (!Files.isDirectory(dataFolder)) {
+            return;
+        }
+
+        if (!Files.isDirectory(segmentsFolder)) {
+            logger.info("Performing version upgrade of " + datastoreId + "." + collectionId);
+            deleteFolder(tempFolder);
+
+            long count = 0;
+            try (CollectionSegments segments = new CollectionSegments(tempFolder);
+                    DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolder)) {
+                for (Path recordFile : stream) {
+                    segments.put(FileNameEncoding.decode(recordFile.getFileName().toString()), Files.readAllBytes(recordFile));
+                    count++;
+                }
+                segments.sync();
+            } catch (OperationException ex) {
+                throw new IOException("Failed to decode record file name in " + datastoreId + "." + collectionId, ex);
+            }
+            Files.move(tempFolder, segmentsFolder, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Moved " + count + " records of " + datastoreId + "." + collectionId + " into segments");
         }
+
+        /* Move old data folder to the delete folder of the datastore */
+        final Path deleteFolder = FileSystems.getDefault().getPath(BSql.BSQL_BASE_FOLDER + datastoreId + BSql.DELETE_FOLDER);
+        Files.createDirectories(deleteFolder);
+        Files.move(dataFolder, deleteFolder.resolve(collectionId + ".data-v" + OLD_VERSION + "." + System.currentTimeMillis()), StandardCopyOption.ATOMIC_MOVE);
     }
 
-    private void writeRecordFile(final String ds, final String collection, final String pk, final JSONObject internalRecord) {
-        BSqlFileManager fileManager = new BSqlFileManager();
-        try {
-            fileManager.insert(ds, collection, pk, internalRecord.toString());
-        } catch (OperationException ex) {
-            logger.error("Error in inserting new record with primary key " + pk + " during version upgrade of "
-                    + ds + "." + collection);
+    private void deleteFolder(final Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return;
         }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(folder);
     }
-    
 }
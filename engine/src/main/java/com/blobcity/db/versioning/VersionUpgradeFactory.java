@@ -32,6 +32,8 @@ public class VersionUpgradeFactory {
     private Version2to3 version2to3;
     @Autowired
     private Version3to4 version3to4;
+    @Autowired
+    private Version4to5 version4to5;
 
     public VersionUpgrader getVersionUpgrader(int version) {
         switch (version) {
@@ -41,6 +43,8 @@ public class VersionUpgradeFactory {
                 return version2to3;
             case 4:
                 return version3to4;
+            case 5:
+                return version4to5;
         }
         
         return null;
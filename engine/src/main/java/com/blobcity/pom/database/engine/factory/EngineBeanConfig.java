@@ -21,6 +21,7 @@ import com.blobcity.code.WebServiceExecutor;
 import com.blobcity.db.bquery.*;
 import com.blobcity.db.bsql.*;
 import com.blobcity.db.cache.QueryResultCache;
+import com.blobcity.db.cache.StatementCache;
 import com.blobcity.db.code.webservices.WebServiceExecutorBean;
 import com.blobcity.db.export.ExportServiceRouterBean;
 import com.blobcity.db.ftp.FtpServerManager;
@@ -40,17 +41,27 @@ import com.blobcity.db.opennlp.NLPModelsStore;
 import com.blobcity.db.processors.ProcessorStore;
 import com.blobcity.db.requests.RequestHandlingBean;
 import com.blobcity.db.spamdetect.SpamDetector;
+import com.blobcity.db.sql.execution.QueryMemoryManager;
+import com.blobcity.db.sql.execution.QueryScheduler;
+import com.blobcity.db.sql.execution.SelectPlanner;
 import com.blobcity.db.sql.processing.*;
 import com.blobcity.db.sql.statements.*;
 import com.blobcity.db.storage.BSqlFileManager;
 import com.blobcity.db.storage.BSqlMemoryManager;
 import com.blobcity.db.storage.BSqlMemoryManagerOld;
+import com.blobcity.db.storage.SegmentStore;
 import com.blobcity.db.cache.CacheRules;
 import com.blobcity.db.cache.DataCache;
+import com.blobcity.db.cache.IndexCache;
 import com.blobcity.db.cli.statements.DDLStatement;
 import com.blobcity.db.cluster.ClusterNodesStore;
 import com.blobcity.db.cluster.connection.ConnectionManager;
 import com.blobcity.db.cluster.connection.ConnectionStore;
+import com.blobcity.db.cluster.partition.PartitionManager;
+import com.blobcity.db.cluster.partition.PartitionStore;
+import com.blobcity.db.cluster.replication.ReplicaCatchUp;
+import com.blobcity.db.cluster.transport.ClusterTransport;
+import com.blobcity.db.master.CommitCoordinator;
 import com.blobcity.db.master.MasterStore;
 import com.blobcity.db.cluster.messaging.ClusterMessaging;
 import com.blobcity.db.cluster.nodes.NodeDiscovery;
@@ -60,6 +71,7 @@ import com.blobcity.db.tableau.TableauPublishManager;
 import com.blobcity.db.tableau.TableauPublishStore;
 import com.blobcity.db.tableau.TableauTdeManager;
 import com.blobcity.db.transaction.CentralCommitLogWriter;
+import com.blobcity.db.transaction.CommitLogReader;
 import com.blobcity.db.transactions.TransactionStore;
 import com.blobcity.db.code.CodeExecutor;
 import com.blobcity.db.code.CodeLoader;
@@ -78,12 +90,15 @@ import com.blobcity.db.code.triggers.TriggerStoreBean;
 import com.blobcity.db.config.ConfigBean;
 import com.blobcity.db.data.RowCountManager;
 import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.data.RowIdStore;
 import com.blobcity.db.export.CsvExporter;
 import com.blobcity.db.global.live.GlobalLiveManager;
 import com.blobcity.db.global.live.GlobalLiveStore;
 import com.blobcity.db.home.HomeReportingBean;
 import com.blobcity.db.importer.CsvImporter;
 import com.blobcity.db.indexing.OnDiskBTreeIndex;
+import com.blobcity.db.indexing.OnDiskPackedIndex;
+import com.blobcity.db.indexing.PackedIndexStore;
 import com.blobcity.db.lang.datatypes.converters.DoubleConverter;
 import com.blobcity.db.lang.datatypes.converters.FloatConverter;
 import com.blobcity.db.lang.datatypes.converters.IntConverter;
@@ -116,6 +131,8 @@ import com.blobcity.db.startup.ClusterStartup;
 import com.blobcity.db.startup.StartupHandler;
 import com.blobcity.db.startup.StorageStartup;
 import com.blobcity.db.systemdb.SystemDBService;
+import com.blobcity.db.security.CredentialCache;
+import com.blobcity.db.security.SessionStore;
 import com.blobcity.db.security.UserManager;
 import com.blobcity.db.security.UserGroupManager;
 import com.blobcity.db.transaction.CollectionCommitLogWriter;
@@ -123,6 +140,7 @@ import com.blobcity.db.transientstate.TransientStore;
 import com.blobcity.db.versioning.Version1to2;
 import com.blobcity.db.versioning.Version2to3;
 import com.blobcity.db.versioning.Version3to4;
+import com.blobcity.db.versioning.Version4to5;
 import com.blobcity.db.versioning.VersionUpgradeFactory;
 import com.blobcity.db.watchservice.*;
 import com.blobcity.db.code.webservices.WebServiceStore;
@@ -298,6 +316,14 @@ public class EngineBeanConfig {
         return new RowCountStore();
     }
 
+    @Bean
+    @Lazy
+    public RowIdStore rowIdStore() { // singleton bean
+        logger.trace("Creating an instance of RowIdStore");
+
+        return new RowIdStore();
+    }
+
     @Bean
     @Lazy
     public OperationLogger operationLogger() { // singleton bean
@@ -418,6 +444,30 @@ public class EngineBeanConfig {
         return new ConnectionStore();
     }
 
+    @Bean
+    @Lazy
+    public ClusterTransport clusterTransport() { //singleton bean
+        logger.trace("Creating an instance of ClusterTransport");
+
+        return new ClusterTransport();
+    }
+
+    @Bean
+    @Lazy
+    public PartitionStore partitionStore() { //singleton bean
+        logger.trace("Creating an instance of PartitionStore");
+
+        return new PartitionStore();
+    }
+
+    @Bean
+    @Lazy
+    public PartitionManager partitionManager() { //singleton bean
+        logger.trace("Creating an instance of PartitionManager");
+
+        return new PartitionManager();
+    }
+
     @Bean
     @Lazy
     public MasterStore masterStore() { //singleton bean
@@ -426,6 +476,22 @@ public class EngineBeanConfig {
         return new MasterStore();
     }
 
+    @Bean
+    @Lazy
+    public CommitCoordinator commitCoordinator() { //singleton bean
+        logger.trace("Creating an instance of CommitCoordinator");
+
+        return new CommitCoordinator();
+    }
+
+    @Bean
+    @Lazy
+    public ReplicaCatchUp replicaCatchUp() { //singleton bean
+        logger.trace("Creating an instance of ReplicaCatchUp");
+
+        return new ReplicaCatchUp();
+    }
+
     @Bean
     @Lazy
     public QueryStore queryStore() { // singleton bean
@@ -450,6 +516,14 @@ public class EngineBeanConfig {
         return new CacheRules();
     }
 
+    @Bean
+    @Lazy
+    public IndexCache indexCache() { // singleton bean
+        logger.trace("Creating an instance of IndexCache");
+
+        return new IndexCache();
+    }
+
     @Bean
     public MemoryTableStore memoryTableStore() { // singleton bean
         logger.trace("Creating an instance of MemoryTableStore");
@@ -551,6 +625,22 @@ public class EngineBeanConfig {
         return new UserManager();
     }
 
+    @Bean
+    @Lazy
+    public SessionStore sessionStore() {
+        logger.trace("Creating an instance of " + SessionStore.class.getSimpleName());
+
+        return new SessionStore();
+    }
+
+    @Bean
+    @Lazy
+    public CredentialCache credentialCache() {
+        logger.trace("Creating an instance of " + CredentialCache.class.getSimpleName());
+
+        return new CredentialCache();
+    }
+
     @Bean
     @Lazy
     public WatchServiceManager watchServiceManager(){
@@ -591,6 +681,14 @@ public class EngineBeanConfig {
         return new CentralCommitLogWriter();
     }
 
+    @Bean
+    @Lazy
+    public CommitLogReader commitLogReader() {
+        logger.trace("Creating an instance of " + CommitLogReader.class.getSimpleName());
+
+        return new CommitLogReader();
+    }
+
     @Bean
     @Lazy
     public FtpServerManager ftpServerManager() {
@@ -631,6 +729,46 @@ public class EngineBeanConfig {
         return new QueryResultCache();
     }
 
+    @Bean
+    @Lazy
+    public StatementCache statementCache() {
+        logger.trace("Creating an instance of " + StatementCache.class.getSimpleName());
+
+        return new StatementCache();
+    }
+
+    @Bean
+    @Lazy
+    public QueryMemoryManager queryMemoryManager() {
+        logger.trace("Creating an instance of " + QueryMemoryManager.class.getSimpleName());
+
+        return new QueryMemoryManager();
+    }
+
+    @Bean
+    @Lazy
+    public QueryScheduler queryScheduler() {
+        logger.trace("Creating an instance of " + QueryScheduler.class.getSimpleName());
+
+        return new QueryScheduler();
+    }
+
+    @Bean
+    @Lazy
+    public SegmentStore segmentStore() {
+        logger.trace("Creating an instance of " + SegmentStore.class.getSimpleName());
+
+        return new SegmentStore();
+    }
+
+    @Bean
+    @Lazy
+    public PackedIndexStore packedIndexStore() {
+        logger.trace("Creating an instance of " + PackedIndexStore.class.getSimpleName());
+
+        return new PackedIndexStore();
+    }
+
     /*
      * Lazy Singletons: End
      */
@@ -1101,6 +1239,22 @@ public class EngineBeanConfig {
         return new OnDiskWhereHandling();
     }
 
+    @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    public WherePlanner wherePlanner(){
+        logger.trace("Creating an instance of " + WherePlanner.class.getSimpleName());
+
+        return new WherePlanner();
+    }
+
+    @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    public SelectPlanner selectPlanner(){
+        logger.trace("Creating an instance of " + SelectPlanner.class.getSimpleName());
+
+        return new SelectPlanner();
+    }
+
     /*
      * Prototypes: End
      */
@@ -1132,6 +1286,14 @@ public class EngineBeanConfig {
 
         return new OnDiskUniqueIndex();
     }
+
+    @Bean(name = "OnDiskPackedIndex")
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    public OnDiskPackedIndex packedIndex() { // stateless/stateful factory patterned bean
+        logger.trace("Creating an instance of OnDiskPackedIndex");
+
+        return new OnDiskPackedIndex();
+    }
     // IndexingStrategy beans: End
 
     // Operable beans: Start
@@ -1274,6 +1436,14 @@ public class EngineBeanConfig {
         return new Version3to4();
     }
 
+    @Bean(name = "Version4to5")
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    public Version4to5 version4to5() { // stateless/stateful bean
+        logger.trace("Creating an instance of " + Version4to5.class.getSimpleName());
+
+        return new Version4to5();
+    }
+
     @Bean(name = "HomeReportingBean")
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public HomeReportingBean homeReportingBean() { // stateless/stateful bean
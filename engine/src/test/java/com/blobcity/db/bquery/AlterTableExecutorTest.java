@@ -18,6 +18,7 @@ package com.blobcity.db.bquery;
 
 import com.blobcity.db.bsql.BSqlIndexManager;
 import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.cache.StatementCache;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.sql.statements.AlterTableExecutor;
@@ -51,6 +52,7 @@ public class AlterTableExecutorTest {
         //-----table manager mock
         BSqlCollectionManager tableManagerMock = mock(BSqlCollectionManager.class);
         alterTableExecutor.setTableManager(tableManagerMock);
+        alterTableExecutor.setStatementCache(mock(StatementCache.class));
         BSqlIndexManager indexManagerMock = mock(BSqlIndexManager.class);
         alterTableExecutor.setIndexManager(indexManagerMock);
     }
@@ -17,6 +17,7 @@
 package com.blobcity.db.bquery;
 
 import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.cache.StatementCache;
 import com.blobcity.db.exceptions.ErrorCode;
 import com.blobcity.db.exceptions.OperationException;
 import com.blobcity.db.sql.statements.DropTableExecutor;
@@ -49,6 +50,7 @@ public class DropTableExecutorTest {
         //-----table manager mock
         BSqlCollectionManager tableManagerMock = mock(BSqlCollectionManager.class);
         dropTableExecutor.setTableManager(tableManagerMock);
+        dropTableExecutor.setStatementCache(mock(StatementCache.class));
     }
 
     @After
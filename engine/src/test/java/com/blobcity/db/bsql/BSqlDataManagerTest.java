@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.bsql;
+
+import com.blobcity.db.cache.QueryResultCache;
+import com.blobcity.db.code.CodeExecutor;
+import com.blobcity.db.data.RowCountManager;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.data.RowIdStore;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.db.lang.columntypes.FieldTypeFactory;
+import com.blobcity.db.schema.AutoDefineTypes;
+import com.blobcity.db.schema.Column;
+import com.blobcity.db.schema.IndexTypes;
+import com.blobcity.db.schema.Schema;
+import com.blobcity.db.schema.beans.SchemaManager;
+import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.storage.BSqlFileManager;
+import com.blobcity.db.tableau.TableauPublishStore;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the row count and row id maintenance of {@link BSqlDataManager}
+ *
+ * @author sanketsarang
+ */
+public class BSqlDataManagerTest {
+
+    private static final String DS = "ds";
+    private static final String COLLECTION = "c";
+
+    @Mock
+    private BSqlCollectionManager collectionManager;
+    @Mock
+    private BSqlFileManager fileManager;
+    @Mock
+    private SchemaManager schemaManager;
+    @Mock
+    private BSqlIndexManager indexManager;
+    @Mock
+    private CodeExecutor codeExecutor;
+    @Mock
+    private TableauPublishStore tableauPublishStore;
+    @Mock
+    private QueryResultCache queryResultCache;
+    @Mock
+    private RowCountManager rowCountManager;
+    @Mock
+    private RowIdStore rowIdStore;
+    @InjectMocks
+    private BSqlDataManager dataManager;
+    private RowCountStore rowCountStore;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        final Schema schema = new Schema();
+        schema.setPrimary("_id");
+        schema.getColumnMap().put("_id", new Column("_id", FieldTypeFactory.fromString("string"), IndexTypes.NONE, AutoDefineTypes.NONE));
+        schema.getColumnMap().put("name", new Column("name", FieldTypeFactory.fromString("string"), IndexTypes.NONE, AutoDefineTypes.NONE));
+        when(schemaManager.readSchema(DS, COLLECTION)).thenReturn(schema);
+        final SchemaStore schemaStore = new SchemaStore();
+        setField(schemaStore, "schemaManager", schemaManager);
+        final Method init = SchemaStore.class.getDeclaredMethod("init");
+        init.setAccessible(true);
+        init.invoke(schemaStore);
+
+        when(collectionManager.isInMemory(DS, COLLECTION)).thenReturn(false);
+        when(rowCountManager.readCount(DS, COLLECTION)).thenReturn(0L);
+        when(fileManager.count(DS, COLLECTION)).thenReturn(0L);
+        rowCountStore = new RowCountStore();
+        setField(rowCountStore, "rowCountManager", rowCountManager);
+        setField(rowCountStore, "fileManager", fileManager);
+        setField(dataManager, "rowCountStore", rowCountStore);
+    }
+
+    @Test
+    public void testRowCountOnInsertAndRemove() throws OperationException {
+        System.out.println("row count on insert and remove");
+
+        for (int i = 0; i < 3; i++) {
+            dataManager.insert(DS, COLLECTION, new JSONObject().put("_id", "k" + i).put("name", "n" + i));
+        }
+        assertEquals(3, rowCountStore.getRowCount(DS, COLLECTION));
+
+        dataManager.remove(DS, COLLECTION, "k1");
+        assertEquals(2, rowCountStore.getRowCount(DS, COLLECTION));
+        verify(rowIdStore).release(DS, COLLECTION, "k1");
+    }
+
+    @Test
+    public void testRowCountOnSave() throws OperationException {
+        System.out.println("row count on save");
+
+        when(fileManager.exists(DS, COLLECTION, "k0")).thenReturn(false);
+        dataManager.save(DS, COLLECTION, new JSONObject().put("_id", "k0").put("name", "n0"));
+        assertEquals(1, rowCountStore.getRowCount(DS, COLLECTION));
+
+        when(fileManager.exists(DS, COLLECTION, "k0")).thenReturn(true);
+        when(fileManager.select(DS, COLLECTION, "k0")).thenReturn(new JSONObject().put("_id", "k0").put("name", "n0"));
+        when(schemaManager.internalToViewable(eq(DS), eq(COLLECTION), any(JSONObject.class)))
+                .thenReturn(new JSONObject().put("_id", "k0").put("name", "n0"));
+        dataManager.save(DS, COLLECTION, new JSONObject().put("_id", "k0").put("name", "n1"));
+        assertEquals(1, rowCountStore.getRowCount(DS, COLLECTION));
+    }
+
+    @Test
+    public void testRowCountOnInsertBatch() throws OperationException {
+        System.out.println("row count on insert batch");
+
+        final List<JSONObject> records = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            records.add(new JSONObject().put("_id", "k" + i).put("name", "n" + i));
+        }
+        records.add(new JSONObject().put("_id", "k0").put("name", "duplicate"));
+        when(fileManager.insertAll(eq(DS), eq(COLLECTION), anyMapOf(String.class, JSONObject.class))).thenReturn(Collections.singleton("k3"));
+
+        dataManager.insertBatch(DS, COLLECTION, records);
+        assertEquals(3, rowCountStore.getRowCount(DS, COLLECTION));
+    }
+
+    private static void setField(final Object target, final String name, final Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cache;
+
+import com.foundationdb.sql.parser.SQLParser;
+import com.foundationdb.sql.parser.StatementNode;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link QueryResultCache}
+ *
+ * @author sanketsarang
+ */
+public class QueryResultCacheTest {
+
+    @Test
+    public void testStaleResultsCachedUnderConcurrentWrites() throws Exception {
+        System.out.println("stale results cached under concurrent writes");
+
+        final QueryResultCache queryResultCache = new QueryResultCache();
+        queryResultCache.setStaleness("ds", 60000);
+        assertTrue(runQueries(queryResultCache, "ds") > 0);
+    }
+
+    @Test
+    public void testResultsNotCachedUnderConcurrentWritesWithoutStaleness() throws Exception {
+        System.out.println("results not cached under concurrent writes without staleness");
+
+        final QueryResultCache queryResultCache = new QueryResultCache();
+        assertEquals(0, runQueries(queryResultCache, "ds"));
+    }
+
+    /**
+     * Repeats a query that takes longer than the gap between inserts running on another thread
+     *
+     * @return the number of executions answered from the cache
+     */
+    private int runQueries(final QueryResultCache queryResultCache, final String ds) throws Exception {
+        final StatementNode statement = new SQLParser().parseStatement("select * from t");
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread writer = new Thread(() -> {
+            while (running.get()) {
+                queryResultCache.invalidate(ds, "t");
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        });
+        writer.start();
+
+        int hits = 0;
+        try {
+            for (int i = 0; i < 20; i++) {
+                final QueryResultCache.Key key = queryResultCache.newKey(ds, "t", statement);
+                if (queryResultCache.get(key) != null) {
+                    hits++;
+                    continue;
+                }
+                Thread.sleep(20);
+                queryResultCache.cache(key, "result");
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cache;
+
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.parser.CursorNode;
+import com.foundationdb.sql.parser.SelectNode;
+import com.foundationdb.sql.unparser.NodeToString;
+import java.util.Arrays;
+import java.util.Collections;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link StatementCache}
+ *
+ * @author sanketsarang
+ */
+public class StatementCacheTest {
+
+    @Test
+    public void testNormalize() {
+        System.out.println("normalize");
+
+        assertEquals("select * from t where b = 'a  b'", StatementCache.normalize("  select *\n\tfrom t   where b = 'a  b' ;"));
+        assertEquals("select 'x;'", StatementCache.normalize("select 'x;'"));
+        assertEquals("select \"A  B\" from t", StatementCache.normalize("select  \"A  B\"  from t"));
+    }
+
+    @Test
+    public void testCopiesAreIndependent() throws Exception {
+        System.out.println("copies are independent");
+
+        final StatementCache statementCache = new StatementCache();
+        final CursorNode first = (CursorNode) statementCache.get("ds", "select * from t where a = 1").getNode();
+        ((SelectNode) first.getResultSetNode()).setWhereClause(null);
+
+        final CursorNode second = (CursorNode) statementCache.get("ds", "select *  from t where a = 1;").getNode();
+        assertNotNull(((SelectNode) second.getResultSetNode()).getWhereClause());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testPrepareAndBind() throws Exception {
+        System.out.println("prepare and bind");
+
+        final StatementCache statementCache = new StatementCache();
+        final StatementCache.PreparedStatement preparedStatement = statementCache.prepare("ds",
+                "select * from t where a = ? and b in (?, ?) and c = ? and d = ? limit 5");
+        assertEquals(5, preparedStatement.getParameterCount());
+        assertEquals(5, statementCache.get("ds", "select * from t where a = ? and b in (?, ?) and c = ? and d = ? limit 5").getParameterCount());
+
+        final StatementCache.Statement statement = statementCache.bind("ds", preparedStatement.getId(),
+                Arrays.asList(5000000000L, "it's", 2.5, JSONObject.NULL, true));
+        assertEquals(0, statement.getParameterCount());
+        assertEquals("SELECT * FROM t WHERE (((a = 5000000000) AND (b IN ('it''s', 2.500000e+00))) AND (c = NULL)) AND (d = TRUE) LIMIT 5",
+                new NodeToString().toString(statement.getNode()));
+
+        try {
+            statementCache.bind("ds", preparedStatement.getId(), Collections.singletonList(1));
+            fail("Binding the wrong number of values must fail");
+        } catch (OperationException ex) {
+            // expected
+        }
+        try {
+            statementCache.bind("other", preparedStatement.getId(), Arrays.asList(1, 2, 3, 4, 5));
+            fail("Binding on another datastore must fail");
+        } catch (OperationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        System.out.println("invalidate");
+
+        final StatementCache statementCache = new StatementCache();
+        final StatementCache.PreparedStatement preparedStatement = statementCache.prepare("ds", "select * from t where a = ?");
+        statementCache.invalidate("ds", "t");
+        statementCache.invalidateDatastore("ds");
+        assertEquals("SELECT * FROM t WHERE a = 1", new NodeToString().toString(
+                statementCache.bind("ds", preparedStatement.getId(), Collections.singletonList(1)).getNode()));
+    }
+}
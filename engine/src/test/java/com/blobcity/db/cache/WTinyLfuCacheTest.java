@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link WTinyLfuCache}
+ *
+ * @author sanketsarang
+ */
+public class WTinyLfuCacheTest {
+
+    @Test
+    public void testPutGetRemove() {
+        System.out.println("put, get, remove");
+
+        WTinyLfuCache<String, String> cache = new WTinyLfuCache<>(1000, (key, value) -> value.length());
+        cache.put("k1", "v1");
+        assertEquals("v1", cache.get("k1"));
+        assertNull(cache.get("k2"));
+
+        cache.put("k1", "value");
+        assertEquals("value", cache.get("k1"));
+        assertEquals(5, cache.getWeight());
+
+        assertEquals("value", cache.remove("k1"));
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.getWeight());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testWeightBound() {
+        System.out.println("weight bound");
+
+        WTinyLfuCache<Integer, String> cache = new WTinyLfuCache<>(1000, (key, value) -> value.length());
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "0123456789");
+            assertTrue(cache.getWeight() <= 1000);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+
+        cache.put(-1, new String(new char[1001]));
+        assertNull("Entries heavier than the cache must not be cached", cache.get(-1));
+
+        cache.setMaximumWeight(500);
+        assertTrue(cache.getWeight() <= 500);
+    }
+
+    @Test
+    public void testFrequentKeysSurviveScan() {
+        System.out.println("scan resistance");
+
+        WTinyLfuCache<Integer, String> cache = new WTinyLfuCache<>(100, (key, value) -> 1);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cache.get(i) == null) {
+                    cache.put(i, "hot");
+                }
+            }
+        }
+
+        for (int i = 1000; i < 11000; i++) {
+            cache.put(i, "cold");
+        }
+
+        int hotCount = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                hotCount++;
+            }
+        }
+        assertTrue("Frequently used keys must not be flushed by a scan, found " + hotCount, hotCount >= 45);
+    }
+
+    @Test
+    public void testRemoveIf() {
+        System.out.println("remove if");
+
+        WTinyLfuCache<String, String> cache = new WTinyLfuCache<>(1000, (key, value) -> 1);
+        cache.put("a.1", "v");
+        cache.put("a.2", "v");
+        cache.put("b.1", "v");
+        cache.removeIf(key -> key.startsWith("a."));
+        assertEquals(1, cache.size());
+        assertEquals("v", cache.get("b.1"));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        System.out.println("concurrent access");
+
+        final WTinyLfuCache<Integer, Integer> cache = new WTinyLfuCache<>(500, (key, value) -> 1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 20000; i++) {
+                        final int key = ThreadLocalRandom.current().nextInt(2000);
+                        final Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.put(key, key);
+                        } else {
+                            assertEquals(key, value.intValue());
+                        }
+                        if (i % 100 == 0) {
+                            cache.remove(key);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertTrue(cache.getWeight() <= 500);
+        assertEquals(cache.size(), cache.getWeight());
+    }
+}
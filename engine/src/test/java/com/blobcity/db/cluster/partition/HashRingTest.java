@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.partition;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link HashRing}
+ *
+ * @author sanketsarang
+ */
+public class HashRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testOwners() {
+        System.out.println("owners");
+
+        final HashRing ring = new HashRing(Arrays.asList("n1", "n2", "n3"), 128, 0);
+        for (int i = 0; i < 100; i++) {
+            final List<String> owners = ring.getOwners("key" + i, 2);
+            assertEquals(2, owners.size());
+            assertEquals(2, new HashSet<>(owners).size());
+            assertEquals(ring.getOwner("key" + i), owners.get(0));
+        }
+        assertEquals(3, ring.getOwners("key", 5).size());
+        assertTrue(new HashRing(Arrays.asList(), 128, 0).getOwners("key", 1).isEmpty());
+    }
+
+    @Test
+    public void testCovers() {
+        System.out.println("covers");
+
+        final HashRing ring = new HashRing(Arrays.asList("n1", "n2", "n3"), 128, 0);
+        assertTrue(ring.covers(Arrays.asList("n1", "n2", "n3"), 1));
+        assertFalse(ring.covers(Arrays.asList("n1", "n2"), 1));
+        assertTrue(ring.covers(Arrays.asList("n1", "n2"), 2));
+        assertFalse(ring.covers(Arrays.asList("n1"), 2));
+        assertTrue(ring.covers(Arrays.asList("n1"), 3));
+    }
+
+    @Test
+    public void testBalance() {
+        System.out.println("balance");
+
+        final HashRing ring = new HashRing(Arrays.asList("n1", "n2", "n3", "n4"), 128, 0);
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.getOwner("key" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Unbalanced ring: " + counts, count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3);
+        }
+    }
+
+    @Test
+    public void testMinimalMovement() {
+        System.out.println("minimal movement");
+
+        final HashRing ring = new HashRing(Arrays.asList("n1", "n2", "n3"), 128, 0);
+        final HashRing grown = ring.withNodes(Arrays.asList("n1", "n2", "n3", "n4"));
+        assertEquals(1, grown.getVersion());
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final String before = ring.getOwner("key" + i);
+            final String after = grown.getOwner("key" + i);
+            if (!before.equals(after)) {
+                assertEquals("n4", after);
+                moved++;
+            }
+        }
+        assertTrue("Moved " + moved + " keys", moved > KEYS / 4 * 0.7 && moved < KEYS / 4 * 1.3);
+    }
+
+    @Test
+    public void testJson() {
+        System.out.println("json");
+
+        final HashRing ring = new HashRing(Arrays.asList("n2", "n1"), 16, 7);
+        final HashRing copy = HashRing.fromJson(ring.toJson());
+        assertEquals(ring.getNodes(), copy.getNodes());
+        assertEquals(16, copy.getVirtualNodes());
+        assertEquals(7, copy.getVersion());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.getOwners("key" + i, 2), copy.getOwners("key" + i, 2));
+        }
+    }
+}
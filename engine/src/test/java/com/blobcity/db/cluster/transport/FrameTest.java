@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.cluster.transport;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.math.BigDecimal;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the binary frames of the cluster transport
+ *
+ * @author sanketsarang
+ */
+public class FrameTest {
+
+    @Test
+    public void testRoundTrip() {
+        System.out.println("round trip");
+
+        final JSONObject payload = new JSONObject();
+        payload.put("s", "héllo €");
+        payload.put("i", 42);
+        payload.put("l", 5000000000L);
+        payload.put("d", 2.5);
+        payload.put("b", true);
+        payload.put("n", JSONObject.NULL);
+        payload.put("m", new BigDecimal("12345678901234567890.5"));
+        payload.put("a", new JSONArray().put(1).put("x").put(new JSONObject().put("k", false)));
+
+        final EmbeddedChannel encoder = new EmbeddedChannel(new FrameEncoder());
+        assertTrue(encoder.writeOutbound(new Frame(Frame.REQUEST, 7, payload)));
+        final ByteBuf encoded = encoder.readOutbound();
+
+        /* deliver the frame in two parts to check that partial frames are held back */
+        final EmbeddedChannel decoder = new EmbeddedChannel(new FrameDecoder(1024));
+        final int half = encoded.readableBytes() / 2;
+        assertFalse(decoder.writeInbound(encoded.readRetainedSlice(half)));
+        assertTrue(decoder.writeInbound(encoded));
+
+        final Frame frame = decoder.readInbound();
+        assertEquals(Frame.REQUEST, frame.getType());
+        assertEquals(7, frame.getStreamId());
+        final JSONObject decoded = frame.getPayload();
+        assertEquals("héllo €", decoded.getString("s"));
+        assertEquals(42, decoded.get("i"));
+        assertEquals(5000000000L, decoded.get("l"));
+        assertEquals(2.5, decoded.getDouble("d"), 0);
+        assertTrue(decoded.getBoolean("b"));
+        assertTrue(decoded.isNull("n"));
+        assertEquals(new BigDecimal("12345678901234567890.5"), decoded.get("m"));
+        assertEquals("x", decoded.getJSONArray("a").getString(1));
+        assertFalse(decoded.getJSONArray("a").getJSONObject(2).getBoolean("k"));
+        assertNull(decoder.readInbound());
+    }
+
+    @Test
+    public void testOversizedFrameRejected() {
+        System.out.println("oversized frame rejected");
+
+        final EmbeddedChannel decoder = new EmbeddedChannel(new FrameDecoder(16));
+        final ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(1024);
+        buf.writeZero(32);
+        try {
+            decoder.writeInbound(buf);
+            fail("A frame larger than the maximum frame size must be rejected");
+        } catch (Exception ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RowIdBitmap} and {@link RowIdStore}
+ *
+ * @author sanketsarang
+ */
+public class RowIdBitmapTest {
+
+    @Test
+    public void testAddAndContains() {
+        System.out.println("add and contains");
+
+        final RowIdBitmap bitmap = RowIdBitmap.of(5, 1, 70000, 5, 0);
+        assertEquals(4, bitmap.cardinality());
+        assertTrue(bitmap.contains(0));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(2));
+        assertFalse(bitmap.contains(-1));
+        assertEquals(Arrays.asList(0, 1, 5, 70000), toList(bitmap));
+        assertTrue(new RowIdBitmap().isEmpty());
+    }
+
+    @Test
+    public void testSetOperations() {
+        System.out.println("set operations");
+
+        final Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            final TreeSet<Integer> expected1 = new TreeSet<>();
+            final TreeSet<Integer> expected2 = new TreeSet<>();
+            final RowIdBitmap bitmap1 = fill(random, expected1, round);
+            final RowIdBitmap bitmap2 = fill(random, expected2, round + 1);
+
+            final TreeSet<Integer> and = new TreeSet<>(expected1);
+            and.retainAll(expected2);
+            final TreeSet<Integer> or = new TreeSet<>(expected1);
+            or.addAll(expected2);
+            final TreeSet<Integer> andNot = new TreeSet<>(expected1);
+            andNot.removeAll(expected2);
+
+            assertEquals(new ArrayList<>(expected1), toList(bitmap1));
+            assertEquals(new ArrayList<>(and), toList(bitmap1.and(bitmap2)));
+            assertEquals(new ArrayList<>(or), toList(bitmap1.or(bitmap2)));
+            assertEquals(new ArrayList<>(andNot), toList(bitmap1.andNot(bitmap2)));
+            assertEquals(or.size(), bitmap1.or(bitmap2).cardinality());
+            assertEquals(new ArrayList<>(expected1), toList(bitmap1));
+        }
+    }
+
+    @Test
+    public void testOperandsUnchanged() {
+        System.out.println("operands unchanged");
+
+        final RowIdBitmap bitmap1 = RowIdBitmap.of(1, 2);
+        final RowIdBitmap bitmap2 = RowIdBitmap.of(3);
+        final RowIdBitmap union = bitmap1.or(bitmap2);
+        union.add(4);
+        assertEquals(Arrays.asList(1, 2), toList(bitmap1));
+        assertEquals(Arrays.asList(3), toList(bitmap2));
+        assertEquals(Arrays.asList(1, 2, 3, 4), toList(union));
+    }
+
+    @Test
+    public void testRowIdStore() {
+        System.out.println("row id store");
+
+        final RowIdStore rowIdStore = new RowIdStore();
+        final RowIdBitmap bitmap = rowIdStore.toBitmap("ds", "c", Arrays.asList("k1", "k2", "k1").iterator());
+        assertEquals(2, bitmap.cardinality());
+        assertEquals(0, rowIdStore.getRowId("ds", "c", "k1"));
+        assertEquals(2, rowIdStore.getRowId("ds", "c", "k3"));
+        assertEquals(0, rowIdStore.getRowId("ds", "other", "k3"));
+        assertEquals("k3", rowIdStore.getKey("ds", "c", 2));
+        assertNull(rowIdStore.getKey("ds", "c", 3));
+
+        final Iterator<String> keys = rowIdStore.toKeys("ds", "c", bitmap.or(RowIdBitmap.of(2)));
+        final List<String> result = new ArrayList<>();
+        keys.forEachRemaining(result::add);
+        assertEquals(Arrays.asList("k1", "k2", "k3"), result);
+
+        for (int i = 0; i < 5000; i++) {
+            rowIdStore.getRowId("ds", "c", "key" + i);
+        }
+        assertEquals("key4999", rowIdStore.getKey("ds", "c", 5002));
+
+        rowIdStore.evict("ds", "c");
+        assertNull(rowIdStore.getKey("ds", "c", 0));
+    }
+
+    @Test
+    public void testRowIdRelease() {
+        System.out.println("row id release");
+
+        final RowIdStore rowIdStore = new RowIdStore();
+        final RowIdBitmap bitmap = rowIdStore.toBitmap("ds", "c", Arrays.asList("k0", "k1", "k2", "k3").iterator());
+        rowIdStore.release("ds", "c", "k1");
+        rowIdStore.release("ds", "c", "k3");
+        rowIdStore.release("ds", "c", "missing");
+        rowIdStore.release("ds", "other", "k0");
+        assertNull(rowIdStore.getKey("ds", "c", 1));
+
+        final List<String> result = new ArrayList<>();
+        rowIdStore.toKeys("ds", "c", bitmap).forEachRemaining(result::add);
+        assertEquals(Arrays.asList("k0", "k2"), result);
+
+        /* released row ids are assigned again in the order released, before any new row id */
+        assertEquals(1, rowIdStore.getRowId("ds", "c", "k4"));
+        assertEquals(3, rowIdStore.getRowId("ds", "c", "k1"));
+        assertEquals(4, rowIdStore.getRowId("ds", "c", "k5"));
+        assertEquals("k1", rowIdStore.getKey("ds", "c", 3));
+
+        /* deleting and inserting records in turns keeps the row ids within the records held at once */
+        for (int i = 0; i < 10000; i++) {
+            rowIdStore.getRowId("ds", "c", "key" + i);
+            rowIdStore.release("ds", "c", "key" + i);
+        }
+        assertTrue(rowIdStore.getRowId("ds", "c", "last") <= 5);
+
+        rowIdStore.getRowId("ds2", "c", "k0");
+        rowIdStore.evictDatastore("ds");
+        assertNull(rowIdStore.getKey("ds", "c", 0));
+        assertNull(rowIdStore.getKey("ds", "other", 0));
+        assertEquals("k0", rowIdStore.getKey("ds2", "c", 0));
+    }
+
+    /**
+     * Fills a bitmap with a mix of sparse and dense chunks
+     */
+    private RowIdBitmap fill(final Random random, final TreeSet<Integer> expected, final int seed) {
+        final RowIdBitmap bitmap = new RowIdBitmap();
+        for (int chunk = 0; chunk < 4; chunk++) {
+            final int count = (seed + chunk) % 3 == 0 ? 20000 : (seed + chunk) % 3 == 1 ? 300 : 4096;
+            for (int i = 0; i < count; i++) {
+                final int rowId = chunk * 65536 + random.nextInt(65536);
+                bitmap.add(rowId);
+                expected.add(rowId);
+            }
+        }
+        return bitmap;
+    }
+
+    private List<Integer> toList(final RowIdBitmap bitmap) {
+        final List<Integer> list = new ArrayList<>();
+        final PrimitiveIterator.OfInt iterator = bitmap.iterator();
+        while (iterator.hasNext()) {
+            list.add(iterator.nextInt());
+        }
+        return list;
+    }
+}
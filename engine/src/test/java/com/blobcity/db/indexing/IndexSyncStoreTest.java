@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.blobcity.db.indexing;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link IndexSyncStore}
+ *
+ * @author sanketsarang
+ */
+public class IndexSyncStoreTest {
+
+    private Path folder;
+    private IndexSyncStore indexSyncStore;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("index-sync-test");
+        indexSyncStore = new IndexSyncStore();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(folder.resolve("value").resolve("k1"));
+        Files.deleteIfExists(folder.resolve("value"));
+        Files.deleteIfExists(folder);
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        System.out.println("sync");
+
+        final Path valueFolder = Files.createDirectory(folder.resolve("value"));
+        final Path entry = Files.write(valueFolder.resolve("k1"), "k1".getBytes());
+        indexSyncStore.markChanged("ds", "c1", folder);
+        indexSyncStore.markChanged("ds", "c1", valueFolder);
+        indexSyncStore.markChanged("ds", "c1", entry);
+        indexSyncStore.markChanged("ds", "c2", valueFolder);
+        assertEquals(3, pending("ds", "c1").size());
+
+        indexSyncStore.sync("ds", "c1");
+        assertTrue(pending("ds", "c1").isEmpty());
+        assertEquals(1, pending("ds", "c2").size());
+
+        /* paths deleted since they changed are skipped */
+        indexSyncStore.markChanged("ds", "c1", folder.resolve("dropped"));
+        indexSyncStore.sync("ds", "c1");
+        assertTrue(pending("ds", "c1").isEmpty());
+
+        indexSyncStore.sync("ds", "c3");
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        System.out.println("evict");
+
+        indexSyncStore.markChanged("ds", "c1", folder);
+        indexSyncStore.markChanged("ds", "c2", folder);
+        indexSyncStore.markChanged("ds2", "c1", folder);
+
+        indexSyncStore.evict("ds", "c1");
+        assertNull(pending("ds", "c1"));
+        assertNotNull(pending("ds", "c2"));
+
+        indexSyncStore.evictDatastore("ds");
+        assertNull(pending("ds", "c2"));
+        assertNotNull(pending("ds2", "c1"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Path> pending(final String ds, final String collection) throws Exception {
+        final Field field = IndexSyncStore.class.getDeclaredField("map");
+        field.setAccessible(true);
+        return ((Map<String, Set<Path>>) field.get(indexSyncStore)).get(ds + "." + collection);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.indexing;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PackedColumnIndex}
+ *
+ * @author sanketsarang
+ */
+public class PackedColumnIndexTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("packed-index-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(folder);
+    }
+
+    @Test
+    public void testPostingEncoding() throws IOException {
+        System.out.println("posting encoding");
+
+        final List<String> pks = Arrays.asList("", "a", "abc", "abd", "b", "user-00001", "user-00002", "user-10000");
+        assertEquals(pks, PackedColumnIndex.decodePosting(PackedColumnIndex.encodePosting(pks), pks.size()));
+    }
+
+    @Test
+    public void testAddRemoveMerge() throws IOException {
+        System.out.println("add, remove, merge");
+
+        try (PackedColumnIndex index = new PackedColumnIndex(folder)) {
+            for (int i = 0; i < 100; i++) {
+                index.add("v" + (i % 5), "pk" + i);
+            }
+            assertEquals(20, index.count("v0"));
+            assertTrue(index.contains("v3", "pk8"));
+
+            index.merge();
+            assertEquals(0, index.bufferedChanges());
+            assertEquals(Arrays.asList("v0", "v1", "v2", "v3", "v4"), index.values());
+
+            assertTrue(index.remove("v0", "pk0"));
+            assertFalse(index.remove("v0", "pk1"));
+            index.add("v5", "pk100");
+
+            assertEquals(19, index.count("v0"));
+            assertFalse(index.get("v0").contains("pk0"));
+            assertEquals(Collections.singletonList("pk100"), index.get("v5"));
+            assertEquals(Arrays.asList("v4", "v5"), index.values(value -> value.compareTo("v4") >= 0));
+        }
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        System.out.println("reload");
+
+        try (PackedColumnIndex index = new PackedColumnIndex(folder)) {
+            index.add("a", "1");
+            index.add("a", "2");
+            index.add("b", "3");
+            index.merge();
+            index.remove("a", "1");
+            index.add("c", "4");
+        }
+
+        try (PackedColumnIndex index = new PackedColumnIndex(folder)) {
+            assertEquals(Collections.singletonList("2"), index.get("a"));
+            assertEquals(Collections.singletonList("3"), index.get("b"));
+            assertEquals(Collections.singletonList("4"), index.get("c"));
+            index.merge();
+            assertEquals(1, index.count("a"));
+        }
+    }
+
+    @Test
+    public void testAddAll() throws IOException {
+        System.out.println("add all");
+
+        try (PackedColumnIndex index = new PackedColumnIndex(folder)) {
+            index.add("a", "1");
+            index.addAll("a", Arrays.asList("2", "3"));
+            index.addAll("b", Collections.singletonList("4"));
+        }
+
+        try (PackedColumnIndex index = new PackedColumnIndex(folder)) {
+            assertEquals(new HashSet<>(Arrays.asList("1", "2", "3")), new HashSet<>(index.get("a")));
+            assertEquals(Collections.singletonList("4"), index.get("b"));
+        }
+    }
+}
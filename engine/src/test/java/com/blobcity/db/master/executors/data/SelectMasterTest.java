@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.master.executors.data;
+
+import com.blobcity.db.constants.ClusterConstants;
+import com.blobcity.db.sql.execution.MergeOperator;
+import com.blobcity.db.sql.execution.Operator;
+import com.blobcity.lib.query.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SelectMaster}
+ *
+ * @author sanketsarang
+ */
+public class SelectMasterTest {
+
+    private static final int BATCHES = 20;
+    private static final int BATCH_SIZE = 10;
+
+    @Test
+    public void testRowsMergedWhileNodesStream() throws Exception {
+        System.out.println("rows merged while nodes stream");
+
+        final Query query = new Query().requestId("select-1").masterNodeId("n1")
+                .selectQuery("ds", "c", "SELECT * FROM c ORDER BY v", Arrays.asList("n1", "n2"), 0);
+        final SelectMaster selectMaster = new SelectMaster(query, new LinkedHashSet<>(Arrays.asList("n1", "n2")));
+        final AtomicInteger refused = new AtomicInteger();
+        final List<Thread> nodes = new ArrayList<>();
+        for (final String nodeId : Arrays.asList("n1", "n2")) {
+            nodes.add(new Thread(() -> {
+                for (int batch = 0; batch < BATCHES; batch++) {
+                    final List<JSONObject> rows = new ArrayList<>();
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        rows.add(new JSONObject().put("v", 2 * (batch * BATCH_SIZE + i) + (nodeId.equals("n1") ? 0 : 1)));
+                    }
+                    if (!selectMaster.addRows(nodeId, rows)) {
+                        refused.incrementAndGet();
+                        return;
+                    }
+                }
+                selectMaster.notifyMessage(nodeId, new Query().requestId("select-1").responseQuery().ackSuccess());
+            }));
+        }
+        nodes.forEach(Thread::start);
+
+        /* more batches are sent than each run buffers, so nodes complete only because the merge consumes rows meanwhile */
+        assertTrue(BATCHES > ClusterConstants.SELECT_BUFFERED_BATCHES);
+        final List<Integer> values = new ArrayList<>();
+        try (Operator merge = new MergeOperator(selectMaster.getRuns(), Comparator.comparingInt(row -> row.getInt("v")))) {
+            merge.open();
+            JSONObject row;
+            while ((row = merge.next()) != null) {
+                values.add(row.getInt("v"));
+            }
+        }
+        for (Thread node : nodes) {
+            node.join();
+        }
+
+        assertEquals(0, refused.get());
+        assertEquals(2 * BATCHES * BATCH_SIZE, values.size());
+        final List<Integer> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        assertEquals(sorted, values);
+        assertFalse(selectMaster.addRows("n1", Arrays.asList(new JSONObject().put("v", 0))));
+        assertFalse(selectMaster.addRows("n3", Arrays.asList(new JSONObject().put("v", 0))));
+    }
+}
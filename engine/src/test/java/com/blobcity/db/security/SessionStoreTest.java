@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.security;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SessionStore} and {@link CredentialCache}
+ *
+ * @author sanketsarang
+ */
+public class SessionStoreTest {
+
+    @Test
+    public void testSessionLifecycle() {
+        System.out.println("session lifecycle");
+
+        final SessionStore sessionStore = new SessionStore();
+        final String token = sessionStore.create("alice");
+        final String other = sessionStore.create("bob");
+        assertFalse(token.equals(other));
+        assertEquals("alice", sessionStore.getUser(token));
+        assertEquals("bob", sessionStore.getUser(other));
+
+        sessionStore.invalidate(token);
+        assertNull(sessionStore.getUser(token));
+        assertEquals("bob", sessionStore.getUser(other));
+    }
+
+    @Test
+    public void testForgedTokens() {
+        System.out.println("forged tokens");
+
+        final SessionStore sessionStore = new SessionStore();
+        final String token = sessionStore.create("alice");
+        final String id = token.substring(0, token.indexOf('.'));
+        assertNull(sessionStore.getUser(null));
+        assertNull(sessionStore.getUser(""));
+        assertNull(sessionStore.getUser(id));
+        assertNull(sessionStore.getUser(id + "."));
+        assertNull(sessionStore.getUser(id + ".AAAA"));
+        assertNull(sessionStore.getUser(token + "x"));
+
+        sessionStore.invalidate(id + ".AAAA");
+        assertEquals("Closing with a wrong secret must not close the session", "alice", sessionStore.getUser(token));
+    }
+
+    @Test
+    public void testInvalidateUser() {
+        System.out.println("invalidate user");
+
+        final SessionStore sessionStore = new SessionStore();
+        final String first = sessionStore.create("alice");
+        final String second = sessionStore.create("alice");
+        final String other = sessionStore.create("bob");
+        sessionStore.invalidateUser("alice");
+        assertNull(sessionStore.getUser(first));
+        assertNull(sessionStore.getUser(second));
+        assertEquals("bob", sessionStore.getUser(other));
+    }
+
+    @Test
+    public void testCredentialCache() {
+        System.out.println("credential cache");
+
+        final CredentialCache credentialCache = new CredentialCache();
+        assertFalse(credentialCache.isVerified("alice", "secret"));
+        credentialCache.put("alice", "secret");
+        assertTrue(credentialCache.isVerified("alice", "secret"));
+        assertFalse(credentialCache.isVerified("alice", "Secret"));
+        assertFalse(credentialCache.isVerified("bob", "secret"));
+        assertFalse(credentialCache.isVerified("alice", null));
+
+        credentialCache.invalidate("alice");
+        assertFalse(credentialCache.isVerified("alice", "secret"));
+    }
+}
@@ -0,0 +1,544 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.foundationdb.sql.parser.CursorNode;
+import com.foundationdb.sql.parser.SQLParser;
+import com.foundationdb.sql.parser.SelectNode;
+import com.foundationdb.sql.parser.ValueNode;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SELECT execution operators
+ *
+ * @author sanketsarang
+ */
+public class OperatorPipelineTest {
+
+    @Test
+    public void testLimitStopsSource() throws Exception {
+        System.out.println("limit stops source");
+
+        final CountingSource source = new CountingSource(1000000);
+        final CursorNode node = parse("select * from t where b = 'even' limit 10");
+        final Operator pipeline = new LimitOperator(new FilterOperator(source, RowPredicates.compile(where(node))),
+                LimitOperator.offset(node), LimitOperator.limit(node));
+
+        final List<JSONObject> rows = drain(pipeline);
+        assertEquals(10, rows.size());
+        assertEquals(18, rows.get(9).getInt("a"));
+        assertEquals(19, source.pulled);
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void testOffset() throws Exception {
+        System.out.println("offset");
+
+        final CursorNode node = parse("select * from t limit 3 offset 5");
+        assertEquals(3, LimitOperator.limit(node));
+        assertEquals(5, LimitOperator.offset(node));
+        assertEquals(-1, LimitOperator.limit(parse("select * from t")));
+
+        List<JSONObject> rows = drain(new LimitOperator(new CountingSource(7), 5, 3));
+        assertEquals(2, rows.size());
+        assertEquals(5, rows.get(0).getInt("a"));
+    }
+
+    @Test
+    public void testPredicates() throws Exception {
+        System.out.println("predicates");
+
+        final JSONObject row = new JSONObject().put("a", 5).put("b", "blobcity").put("c", 2.5).put("d", JSONObject.NULL);
+        assertTrue(matches("a = 5 and b = 'blobcity'", row));
+        assertTrue(matches("a > 10 or c < 3", row));
+        assertTrue(matches("a = 5.0 and c >= '2.5'", row));
+        assertTrue(matches("a in (1, 5, 9) and b not in ('x', 'y')", row));
+        assertTrue(matches("a between 1 and 5 and b like 'blob%' and b like '_lobc_ty'", row));
+        assertTrue(matches("d is null and e is null and a is not null", row));
+        assertTrue(matches("not (a <> 5)", row));
+        assertFalse(matches("d = 1 or d <> 1", row));
+        assertFalse(matches("b like 'city%'", row));
+    }
+
+    @Test
+    public void testAggregateSortProject() throws Exception {
+        System.out.println("aggregate, sort, project");
+
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(new JSONObject().put("g", "g" + (i % 3)).put("v", i).put("x", i % 2 == 0 ? JSONObject.NULL : 1.5));
+        }
+
+        final List<AggregateOperator.AggregateColumn> aggregates = Arrays.asList(
+                new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                new AggregateOperator.AggregateColumn("SUM", "v", false, "SUM(v)"),
+                new AggregateOperator.AggregateColumn("MAX", "v", false, "MAX(v)"),
+                new AggregateOperator.AggregateColumn("COUNT", "x", false, "COUNT(x)"),
+                new AggregateOperator.AggregateColumn("AVG", "x", false, "AVG(x)"));
+        final Map<String, String> projection = new LinkedHashMap<>();
+        projection.put("g", "group");
+        projection.put("COUNT(*)", "COUNT(*)");
+        projection.put("SUM(v)", "SUM(v)");
+        projection.put("MAX(v)", "MAX(v)");
+        projection.put("COUNT(x)", "COUNT(x)");
+        projection.put("AVG(x)", "AVG(x)");
+
+        final Operator pipeline = new ProjectOperator(new SortOperator(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"), aggregates),
+                Collections.singletonList(new SortOperator.SortColumn("g", false))), projection);
+        final List<JSONObject> result = drain(pipeline);
+
+        assertEquals(3, result.size());
+        final JSONObject first = result.get(0);
+        assertEquals("g2", first.get("group"));
+        assertEquals(33L, first.get("COUNT(*)"));
+        assertEquals(1650L, first.get("SUM(v)"));
+        assertEquals(98, first.get("MAX(v)"));
+        assertEquals(16L, first.get("COUNT(x)"));
+        assertEquals(1.5, first.getDouble("AVG(x)"), 0);
+        assertEquals(6, first.length());
+        assertEquals("g0", result.get(2).get("group"));
+        assertEquals(34L, result.get(2).get("COUNT(*)"));
+    }
+
+    @Test
+    public void testAggregateWithoutRows() throws Exception {
+        System.out.println("aggregate without rows");
+
+        final List<JSONObject> result = drain(new AggregateOperator(new ListSource(new ArrayList<>()), new ArrayList<>(),
+                Arrays.asList(new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                        new AggregateOperator.AggregateColumn("SUM", "v", false, "SUM(v)"))));
+        assertEquals(1, result.size());
+        assertEquals(0L, result.get(0).get("COUNT(*)"));
+        assertEquals(JSONObject.NULL, result.get(0).get("SUM(v)"));
+    }
+
+    @Test
+    public void testParallelAggregate() throws Exception {
+        System.out.println("parallel aggregate");
+
+        final Random random = new Random(3);
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            final JSONObject row = new JSONObject().put("id", i).put("g", random.nextInt(200));
+            if (i % 7 != 0) {
+                row.put("v", i % 3 == 0 ? Long.MAX_VALUE / 4 : random.nextInt(1000));
+                row.put("d", random.nextInt(10));
+            }
+            rows.add(row);
+        }
+
+        final List<AggregateOperator.AggregateColumn> aggregates = Arrays.asList(
+                new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                new AggregateOperator.AggregateColumn("SUM", "v", false, "SUM(v)"),
+                new AggregateOperator.AggregateColumn("MIN", "v", false, "MIN(v)"),
+                new AggregateOperator.AggregateColumn("AVG", "d", false, "AVG(d)"),
+                new AggregateOperator.AggregateColumn("COUNT", "d", true, "COUNT(DISTINCT d)"));
+        final List<JSONObject> serial = drain(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"), aggregates, 1));
+        final List<JSONObject> parallel = drain(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"), aggregates, 4));
+
+        assertEquals(200, serial.size());
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).toString(), parallel.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testHaving() throws Exception {
+        System.out.println("having");
+
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            rows.add(new JSONObject().put("g", i % 4).put("v", i));
+        }
+        final CursorNode node = parse("select g from t group by g having count(*) > 7 and sum(v) < 115");
+        final ValueNode having = ((SelectNode) node.getResultSetNode()).getHavingClause();
+
+        final List<JSONObject> result = drain(new FilterOperator(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"),
+                Arrays.asList(new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                        new AggregateOperator.AggregateColumn("SUM", "v", false, "SUM(v)"))), RowPredicates.compile(having)));
+        assertEquals(1, result.size());
+        assertEquals(0, result.get(0).getInt("g"));
+    }
+
+    @Test
+    public void testDistinctAndSort() throws Exception {
+        System.out.println("distinct and sort");
+
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new JSONObject().put("a", i % 4).put("b", i % 2 == 0 ? "x" : "y"));
+        }
+        rows.add(new JSONObject().put("b", "z"));
+
+        final List<JSONObject> result = drain(new DistinctOperator(new SortOperator(new ListSource(rows),
+                Arrays.asList(new SortOperator.SortColumn("b", true), new SortOperator.SortColumn("a", false)))));
+        assertEquals(5, result.size());
+        assertEquals(2, result.get(0).getInt("a"));
+        assertEquals(0, result.get(1).getInt("a"));
+        assertEquals(3, result.get(2).getInt("a"));
+        assertEquals("z", result.get(4).get("b"));
+    }
+
+    @Test
+    public void testTopN() throws Exception {
+        System.out.println("top n");
+
+        final Random random = new Random(11);
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            final JSONObject row = new JSONObject().put("id", i);
+            if (i % 50 != 0) {
+                row.put("score", random.nextInt(100));
+            }
+            rows.add(row);
+        }
+
+        for (boolean ascending : new boolean[]{true, false}) {
+            final List<SortOperator.SortColumn> sortColumns = Collections.singletonList(new SortOperator.SortColumn("score", ascending));
+            final List<JSONObject> expected = drain(new LimitOperator(new SortOperator(new ListSource(rows), sortColumns), 5, 20));
+            final List<JSONObject> actual = drain(new LimitOperator(new TopNOperator(new ListSource(rows), sortColumns, 25), 5, 20));
+            assertEquals(20, actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getInt("id"), actual.get(i).getInt("id"));
+            }
+        }
+
+        assertTrue(drain(new TopNOperator(new ListSource(rows), Collections.singletonList(new SortOperator.SortColumn("score", true)), 0)).isEmpty());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        System.out.println("spill");
+
+        final Random random = new Random(5);
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            final JSONObject row = new JSONObject().put("id", i).put("g", random.nextInt(3000));
+            if (i % 9 != 0) {
+                row.put("v", i % 5 == 0 ? Long.MAX_VALUE / 4 : random.nextInt(1000));
+                row.put("d", random.nextInt(10));
+            }
+            rows.add(row);
+        }
+        final Path spillFolder = Files.createTempDirectory("spill");
+
+        final List<SortOperator.SortColumn> sortColumns = Collections.singletonList(new SortOperator.SortColumn("g", false));
+        QueryMemory memory = new QueryMemory(64 * 1024, spillFolder);
+        assertSameRows(drain(new SortOperator(new ListSource(rows), sortColumns)), drain(new SortOperator(new ListSource(rows), sortColumns, memory)));
+        assertTrue(memory.getSpillFiles() > 1);
+
+        final Map<String, String> projection = Collections.singletonMap("g", "g");
+        memory = new QueryMemory(64 * 1024, spillFolder);
+        assertSameRows(drain(new DistinctOperator(new ProjectOperator(new ListSource(rows), projection))),
+                drain(new DistinctOperator(new ProjectOperator(new ListSource(rows), projection), memory)));
+        assertTrue(memory.getSpillFiles() > 1);
+
+        final List<AggregateOperator.AggregateColumn> aggregates = Arrays.asList(
+                new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                new AggregateOperator.AggregateColumn("SUM", "v", false, "SUM(v)"),
+                new AggregateOperator.AggregateColumn("MAX", "v", false, "MAX(v)"),
+                new AggregateOperator.AggregateColumn("AVG", "d", false, "AVG(d)"),
+                new AggregateOperator.AggregateColumn("COUNT", "d", true, "COUNT(DISTINCT d)"));
+        final List<JSONObject> expected = drain(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"), aggregates, 1));
+        for (int parallelism : new int[]{1, 4}) {
+            memory = new QueryMemory(64 * 1024, spillFolder);
+            assertSameRows(expected, drain(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"), aggregates, parallelism, memory)));
+            assertTrue(memory.getSpillFiles() > 1);
+            assertTrue(memory.getSpilledRows() > 0);
+        }
+
+        try (Stream<Path> files = Files.list(spillFolder)) {
+            assertEquals(0, files.count());
+        }
+        Files.delete(spillFolder);
+    }
+
+    @Test
+    public void testSpillRoundTrip() throws Exception {
+        System.out.println("spill round trip");
+
+        final JSONObject row = new JSONObject()
+                .put("int", 7)
+                .put("long", 5L)
+                .put("float", 1.1f)
+                .put("double", 2.0d)
+                .put("decimal", new BigDecimal("12.340"))
+                .put("bool", true)
+                .put("string", "42")
+                .put("null", JSONObject.NULL)
+                .put("object", new JSONObject().put("long", 3L).put("float", 0.5f))
+                .put("array", new JSONArray().put(1).put(2L).put(3.25d).put("x"));
+        final Path spillFolder = Files.createTempDirectory("spill");
+
+        final QueryMemory memory = new QueryMemory(64 * 1024, spillFolder);
+        try (SpillFile spillFile = memory.newSpillFile()) {
+            spillFile.write(row);
+            spillFile.write(new JSONObject().put("long", Long.MAX_VALUE));
+            final List<JSONObject> read = drain(spillFile.reader());
+            assertEquals(2, read.size());
+            assertSameValue(row, read.get(0));
+            assertSameValue(Long.MAX_VALUE, read.get(1).get("long"));
+        }
+
+        try (Stream<Path> files = Files.list(spillFolder)) {
+            assertEquals(0, files.count());
+        }
+        Files.delete(spillFolder);
+    }
+
+    @Test
+    public void testIndexAggregate() throws Exception {
+        System.out.println("index aggregate");
+
+        final Random random = new Random(7);
+        final List<JSONObject> rows = new ArrayList<>();
+        final Map<Object, Long> counts = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final int g = random.nextInt(40) * 3;
+            rows.add(new JSONObject().put("id", i).put("g", g));
+            counts.merge(g, 1L, Long::sum);
+        }
+        final List<Map.Entry<Object, Long>> valueCounts = new ArrayList<>(counts.entrySet());
+
+        final List<AggregateOperator.AggregateColumn> aggregates = Arrays.asList(
+                new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                new AggregateOperator.AggregateColumn("COUNT", "g", false, "COUNT(g)"),
+                new AggregateOperator.AggregateColumn("MIN", "g", false, "MIN(g)"),
+                new AggregateOperator.AggregateColumn("MAX", "g", false, "MAX(g)"),
+                new AggregateOperator.AggregateColumn("COUNT", "g", true, "COUNT(DISTINCT g)"));
+        final Map<String, String> projection = new LinkedHashMap<>();
+        projection.put("g", "g");
+        for (AggregateOperator.AggregateColumn aggregate : aggregates) {
+            projection.put(aggregate.getOutputName(), aggregate.getOutputName());
+        }
+
+        final List<SortOperator.SortColumn> byGroup = Collections.singletonList(new SortOperator.SortColumn("g", true));
+        assertSameRows(drain(new ProjectOperator(new SortOperator(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"), aggregates), byGroup), projection)),
+                drain(new ProjectOperator(new IndexAggregateOperator("g", valueCounts, true, aggregates), projection)));
+
+        projection.remove("g");
+        assertSameRows(drain(new ProjectOperator(new AggregateOperator(new ListSource(rows), Collections.emptyList(), aggregates), projection)),
+                drain(new ProjectOperator(new IndexAggregateOperator("g", valueCounts, false, aggregates), projection)));
+        assertSameRows(drain(new ProjectOperator(new AggregateOperator(new ListSource(Collections.emptyList()), Collections.emptyList(), aggregates), projection)),
+                drain(new ProjectOperator(new IndexAggregateOperator("g", Collections.emptyList(), false, aggregates), projection)));
+
+        assertFalse(IndexAggregateOperator.isAnswerable(new AggregateOperator.AggregateColumn("SUM", "g", false, "SUM(g)"), "g"));
+        assertFalse(IndexAggregateOperator.isAnswerable(new AggregateOperator.AggregateColumn("MIN", "v", false, "MIN(v)"), "g"));
+    }
+
+    @Test
+    public void testPartialAggregate() throws Exception {
+        System.out.println("partial aggregate");
+
+        final Random random = new Random(17);
+        final List<JSONObject> rows = new ArrayList<>();
+        final List<List<JSONObject>> nodeRows = Arrays.asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        for (int i = 0; i < 3000; i++) {
+            final JSONObject row = new JSONObject().put("id", i).put("g", random.nextInt(20));
+            if (i % 9 != 0) {
+                row.put("v", random.nextInt(1000));
+                row.put("d", random.nextInt(10));
+            }
+            rows.add(row);
+            nodeRows.get(random.nextInt(nodeRows.size())).add(row);
+        }
+
+        final List<AggregateOperator.AggregateColumn> aggregates = Arrays.asList(
+                new AggregateOperator.AggregateColumn("COUNT(*)", null, false, "COUNT(*)"),
+                new AggregateOperator.AggregateColumn("SUM", "v", false, "SUM(v)"),
+                new AggregateOperator.AggregateColumn("MIN", "v", false, "MIN(v)"),
+                new AggregateOperator.AggregateColumn("MAX", "v", false, "MAX(v)"),
+                new AggregateOperator.AggregateColumn("AVG", "d", false, "AVG(d)"),
+                new AggregateOperator.AggregateColumn("COUNT", "d", true, "COUNT(DISTINCT d)"));
+        final List<SortOperator.SortColumn> byGroup = Collections.singletonList(new SortOperator.SortColumn("g", true));
+        final Map<String, String> projection = new LinkedHashMap<>();
+        projection.put("g", "g");
+        aggregates.forEach(aggregate -> projection.put(aggregate.getOutputName(), aggregate.getOutputName()));
+
+        /* partial rows pass through their JSON form, as they do when sent between nodes */
+        final List<Operator> fragments = new ArrayList<>();
+        for (List<JSONObject> node : nodeRows) {
+            final List<JSONObject> partial = new ArrayList<>();
+            for (JSONObject row : drain(new AggregateOperator(new ListSource(node), Collections.singletonList("g"), aggregates, 2, null,
+                    AggregateOperator.Mode.PARTIAL))) {
+                partial.add(new JSONObject(row.toString()));
+            }
+            fragments.add(MergeOperator.inMemory(partial));
+        }
+
+        final List<JSONObject> expected = drain(new ProjectOperator(new SortOperator(new AggregateOperator(new ListSource(rows), Collections.singletonList("g"),
+                aggregates), byGroup), projection));
+        final List<JSONObject> merged = drain(new ProjectOperator(new SortOperator(new AggregateOperator(MergeOperator.concat(fragments),
+                Collections.singletonList("g"), aggregates, 1, null, AggregateOperator.Mode.MERGE), byGroup), projection));
+        assertEquals(20, expected.size());
+        assertSameRows(expected, merged);
+    }
+
+    @Test
+    public void testMergeSortedRuns() throws Exception {
+        System.out.println("merge sorted runs");
+
+        final List<SortOperator.SortColumn> byScore = Collections.singletonList(new SortOperator.SortColumn("score", false));
+        final List<Operator> runs = new ArrayList<>();
+        final List<JSONObject> rows = new ArrayList<>();
+        for (int run = 0; run < 4; run++) {
+            final List<JSONObject> runRows = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                runRows.add(new JSONObject().put("id", run * 100 + i).put("score", (i * 7 + run) % 50));
+            }
+            rows.addAll(runRows);
+            runs.add(new TopNOperator(new ListSource(runRows), byScore, 10));
+        }
+
+        final List<JSONObject> expected = drain(new LimitOperator(new SortOperator(new ListSource(rows), byScore), 0, 10));
+        final List<JSONObject> actual = drain(new LimitOperator(new MergeOperator(runs, SortOperator.comparator(byScore)), 0, 10));
+        assertEquals(10, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getInt("score"), actual.get(i).getInt("score"));
+        }
+
+        assertEquals(3, drain(MergeOperator.concat(Arrays.asList(MergeOperator.inMemory(rows.subList(0, 2)), MergeOperator.inMemory(Collections.emptyList()),
+                MergeOperator.inMemory(rows.subList(5, 6))))).size());
+    }
+
+    private void assertSameRows(final List<JSONObject> expected, final List<JSONObject> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+
+    private boolean matches(final String where, final JSONObject row) throws Exception {
+        final Predicate<JSONObject> predicate = RowPredicates.compile(where(parse("select * from t where " + where)));
+        return predicate.test(row);
+    }
+
+    private CursorNode parse(final String sql) throws Exception {
+        return (CursorNode) new SQLParser().parseStatement(sql);
+    }
+
+    private ValueNode where(final CursorNode node) {
+        return ((SelectNode) node.getResultSetNode()).getWhereClause();
+    }
+
+    private List<JSONObject> drain(final Operator operator) throws Exception {
+        final List<JSONObject> rows = new ArrayList<>();
+        try (Operator pipeline = operator) {
+            pipeline.open();
+            JSONObject row;
+            while ((row = pipeline.next()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static void assertSameValue(final Object expected, final Object actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        if (expected instanceof JSONObject) {
+            final JSONObject expectedObject = (JSONObject) expected;
+            final JSONObject actualObject = (JSONObject) actual;
+            assertEquals(expectedObject.length(), actualObject.length());
+            final Iterator<String> keys = expectedObject.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                assertSameValue(expectedObject.get(key), actualObject.get(key));
+            }
+        } else if (expected instanceof JSONArray) {
+            final JSONArray expectedArray = (JSONArray) expected;
+            final JSONArray actualArray = (JSONArray) actual;
+            assertEquals(expectedArray.length(), actualArray.length());
+            for (int i = 0; i < expectedArray.length(); i++) {
+                assertSameValue(expectedArray.get(i), actualArray.get(i));
+            }
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static class ListSource implements Operator {
+
+        private final List<JSONObject> rows;
+        private int position;
+
+        private ListSource(final List<JSONObject> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void open() {
+            position = 0;
+        }
+
+        @Override
+        public JSONObject next() {
+            return position < rows.size() ? rows.get(position++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingSource implements Operator {
+
+        private final int size;
+        private int pulled = 0;
+        private boolean closed = false;
+
+        private CountingSource(final int size) {
+            this.size = size;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public JSONObject next() {
+            if (pulled == size) {
+                return null;
+            }
+            final int a = pulled++;
+            return new JSONObject().put("a", a).put("b", a % 2 == 0 ? "even" : "odd");
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.constants.Governor;
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.foundationdb.sql.parser.SQLParser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link QueryScheduler}
+ *
+ * @author sanketsarang
+ */
+public class QuerySchedulerTest {
+
+    @Test
+    public void testClassify() throws Exception {
+        System.out.println("classify");
+
+        final SQLParser parser = new SQLParser();
+        assertEquals(QueryPriority.SHORT, QueryScheduler.classify(parser.parseStatement("select * from t where id = 'a'")));
+        assertEquals(QueryPriority.SHORT, QueryScheduler.classify(parser.parseStatement("select a from t where b in ('x', 'y') and c > 5")));
+        assertEquals(QueryPriority.SHORT, QueryScheduler.classify(parser.parseStatement("delete from t where a = 1")));
+        assertEquals(QueryPriority.HEAVY, QueryScheduler.classify(parser.parseStatement("select * from t")));
+        assertEquals(QueryPriority.HEAVY, QueryScheduler.classify(parser.parseStatement("select * from t where a = 1 or b > 2")));
+        assertEquals(QueryPriority.HEAVY, QueryScheduler.classify(parser.parseStatement("select count(a) from t where a = 1")));
+        assertEquals(QueryPriority.HEAVY, QueryScheduler.classify(parser.parseStatement("select * from t where a = 1 order by b")));
+    }
+
+    @Test
+    public void testKill() throws Exception {
+        System.out.println("kill");
+
+        final QueryScheduler scheduler = new QueryScheduler();
+        final QueryContext context = scheduler.admit("ds", "q1", "select * from t", QueryPriority.HEAVY);
+        assertSame(context, QueryContext.current());
+        assertSame(context, scheduler.admit("ds", "q2", "select * from u", QueryPriority.HEAVY));
+        scheduler.release(context);
+        assertSame(context, QueryContext.current());
+
+        QueryContext.checkCancelled();
+        assertTrue(scheduler.kill("q1"));
+        try {
+            QueryContext.checkCancelled();
+            fail("A killed query must stop");
+        } catch (OperationException ex) {
+            assertEquals(ErrorCode.QUERY_CANCELLED, ex.getErrorCode());
+        }
+
+        scheduler.release(context);
+        assertNull(QueryContext.current());
+        assertFalse(scheduler.kill("q1"));
+        assertEquals(0, scheduler.getStats("ds").getInt("running"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        System.out.println("timeout");
+
+        final QueryScheduler scheduler = new QueryScheduler();
+        scheduler.setTimeout("ds", 1);
+        final QueryContext context = scheduler.admit("ds", "q1", "select * from t", QueryPriority.HEAVY);
+        try {
+            Thread.sleep(20);
+            context.check();
+            fail("A query past its deadline must stop");
+        } catch (OperationException ex) {
+            assertEquals(ErrorCode.QUERY_TIMEOUT, ex.getErrorCode());
+        } finally {
+            scheduler.release(context);
+        }
+    }
+
+    @Test
+    public void testShortQueriesBypassHeavyLimit() throws Exception {
+        System.out.println("short queries bypass heavy limit");
+
+        final QueryScheduler scheduler = new QueryScheduler();
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        final CountDownLatch admitted = new CountDownLatch(Governor.MAX_CONCURRENT_HEAVY_QUERIES);
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            final List<Future<Void>> running = new ArrayList<>();
+            for (int i = 0; i < Governor.MAX_CONCURRENT_HEAVY_QUERIES; i++) {
+                final String requestId = "heavy" + i;
+                running.add(executorService.submit(() -> {
+                    final QueryContext context = scheduler.admit("ds", requestId, "select * from t", QueryPriority.HEAVY);
+                    admitted.countDown();
+                    done.await();
+                    scheduler.release(context);
+                    return null;
+                }));
+            }
+            assertTrue(admitted.await(10, TimeUnit.SECONDS));
+
+            final Future<QueryContext> waiting = executorService.submit(() -> scheduler.admit("ds", "waiting", "select * from t", QueryPriority.HEAVY));
+            while (scheduler.getStats("ds").getJSONArray("queued").length() == 0) {
+                Thread.sleep(5);
+            }
+
+            final QueryContext lookup = scheduler.admit("ds", "lookup", "select * from t where id = 'a'", QueryPriority.SHORT);
+            assertTrue(lookup.isRunning());
+            scheduler.release(lookup);
+
+            assertTrue(scheduler.kill("waiting"));
+            try {
+                waiting.get(10, TimeUnit.SECONDS);
+                fail("A query killed while queued must not be admitted");
+            } catch (java.util.concurrent.ExecutionException ex) {
+                assertEquals(ErrorCode.QUERY_CANCELLED, ((OperationException) ex.getCause()).getErrorCode());
+            }
+
+            done.countDown();
+            for (Future<Void> future : running) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(0, scheduler.getStats("ds").getInt("running-heavy"));
+        } finally {
+            done.countDown();
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.sql.execution;
+
+import com.blobcity.db.bsql.BSqlDataManager;
+import com.blobcity.db.bsql.BSqlIndexManager;
+import com.blobcity.db.cluster.partition.PartitionStore;
+import com.blobcity.db.data.RowCountStore;
+import com.blobcity.db.lang.Operators;
+import com.blobcity.db.lang.columntypes.FieldTypeFactory;
+import com.blobcity.db.lang.datatypes.converters.IntConverter;
+import com.blobcity.db.lang.datatypes.converters.StringConverter;
+import com.blobcity.db.lang.datatypes.converters.TypeConverterFactory;
+import com.blobcity.db.schema.AutoDefineTypes;
+import com.blobcity.db.schema.Column;
+import com.blobcity.db.schema.IndexTypes;
+import com.blobcity.db.schema.Schema;
+import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.processing.WherePlanner;
+import com.blobcity.db.storage.BSqlFileManager;
+import com.foundationdb.sql.parser.CursorNode;
+import com.foundationdb.sql.parser.SQLParser;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the sources chosen by {@link SelectPlanner}, over a collection whose records and column indexes are
+ * held in memory
+ *
+ * @author sanketsarang
+ */
+public class SelectPlannerTest {
+
+    private static final String DS = "ds";
+    private static final String COLLECTION = "c";
+    private static final int RECORDS = 100;
+
+    @Mock
+    private BSqlDataManager dataManager;
+    @Mock
+    private BSqlIndexManager indexManager;
+    @Mock
+    private BSqlFileManager fileManager;
+    @Mock
+    private SchemaStore schemaStore;
+    @Mock
+    private RowCountStore rowCountStore;
+    @Mock
+    private PartitionStore partitionStore;
+    @Mock
+    private TypeConverterFactory typeConverterFactory;
+    private SelectPlanner selectPlanner;
+    private final Map<String, JSONObject> records = new TreeMap<>();
+    private final Map<String, Map<String, Set<String>>> indexes = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        final Schema schema = new Schema();
+        schema.setPrimary("_id");
+        schema.getColumnMap().put("_id", new Column("_id", FieldTypeFactory.fromString("string"), IndexTypes.NONE, AutoDefineTypes.NONE));
+        schema.getColumnMap().put("city", new Column("city", FieldTypeFactory.fromString("string"), IndexTypes.BTREE, AutoDefineTypes.NONE));
+        schema.getColumnMap().put("age", new Column("age", FieldTypeFactory.fromString("int"), IndexTypes.BTREE, AutoDefineTypes.NONE));
+        schema.getColumnMap().put("seq", new Column("seq", FieldTypeFactory.fromString("int"), IndexTypes.BTREE, AutoDefineTypes.NONE));
+        schema.getColumnMap().put("note", new Column("note", FieldTypeFactory.fromString("string"), IndexTypes.NONE, AutoDefineTypes.NONE));
+        when(schemaStore.getSchema(DS, COLLECTION)).thenReturn(schema);
+        when(typeConverterFactory.getTypeConverter(schema.getColumn("city").getFieldType().getType())).thenReturn(new StringConverter());
+        when(typeConverterFactory.getTypeConverter(schema.getColumn("age").getFieldType().getType())).thenReturn(new IntConverter());
+
+        for (int i = 0; i < RECORDS; i++) {
+            insert(new JSONObject().put("_id", "k" + i).put("city", "c" + i % 10).put("age", i % 25).put("seq", i * 37 % RECORDS).put("note", "n" + i % 2));
+        }
+        when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn((long) RECORDS);
+        when(fileManager.count(DS, COLLECTION)).thenReturn((long) RECORDS);
+        when(partitionStore.isPartitioned(DS, COLLECTION)).thenReturn(false);
+
+        setUpDataManager();
+        setUpIndexManager();
+        final WherePlanner wherePlanner = new WherePlanner();
+        setField(wherePlanner, "schemaStore", schemaStore);
+        setField(wherePlanner, "indexManager", indexManager);
+        setField(wherePlanner, "rowCountStore", rowCountStore);
+        setField(wherePlanner, "fileManager", fileManager);
+        setField(wherePlanner, "typeConverterFactory", typeConverterFactory);
+
+        selectPlanner = new SelectPlanner();
+        setField(selectPlanner, "dataManager", dataManager);
+        setField(selectPlanner, "wherePlanner", wherePlanner);
+        setField(selectPlanner, "indexManager", indexManager);
+        setField(selectPlanner, "schemaStore", schemaStore);
+        setField(selectPlanner, "rowCountStore", rowCountStore);
+        setField(selectPlanner, "fileManager", fileManager);
+        setField(selectPlanner, "partitionStore", partitionStore);
+    }
+
+    private void setUpDataManager() throws Exception {
+        when(dataManager.selectAllAsStream(DS, COLLECTION)).then(invocation -> copies(records.values()).iterator());
+        when(dataManager.select(eq(DS), eq(COLLECTION), anyString())).then(invocation -> new JSONObject(records.get((String) invocation.getArguments()[2]).toString()));
+        when(dataManager.select(eq(DS), eq(COLLECTION), anyString(), anySetOf(String.class))).then(invocation -> {
+            final JSONObject record = records.get((String) invocation.getArguments()[2]);
+            final JSONObject row = new JSONObject();
+            for (Object column : (Set<?>) invocation.getArguments()[3]) {
+                row.put((String) column, record.get((String) column));
+            }
+            return row;
+        });
+        when(dataManager.selectKeysWithPattern(eq(DS), eq(COLLECTION), anyListOf(String.class), anyString(), any(), any(Operators.class))).then(invocation -> {
+            final Map<String, Set<String>> index = indexes.get((String) invocation.getArguments()[3]);
+            final Object value = invocation.getArguments()[4];
+            final Set<String> keys = new TreeSet<>();
+            for (Object cardinal : value instanceof Collection ? (Collection<?>) value : Collections.singleton(value)) {
+                keys.addAll(index.getOrDefault(String.valueOf(cardinal), Collections.emptySet()));
+            }
+            return keys.iterator();
+        });
+    }
+
+    private void setUpIndexManager() throws Exception {
+        when(indexManager.getCardinals(eq(DS), eq(COLLECTION), anyString())).then(invocation
+                -> new ArrayList<>(indexes.get((String) invocation.getArguments()[2]).keySet()).iterator());
+        when(indexManager.readIndexStream(eq(DS), eq(COLLECTION), anyString(), any())).then(invocation
+                -> new ArrayList<>(indexes.get((String) invocation.getArguments()[2]).get(String.valueOf(invocation.getArguments()[3]))).iterator());
+        when(indexManager.getIndexCount(eq(DS), eq(COLLECTION), anyString(), anyString())).then(invocation
+                -> (long) indexes.get((String) invocation.getArguments()[2]).getOrDefault((String) invocation.getArguments()[3], Collections.emptySet()).size());
+        when(indexManager.contains(eq(DS), eq(COLLECTION), anyString(), any(), any())).then(invocation
+                -> indexes.get((String) invocation.getArguments()[2]).getOrDefault(String.valueOf(invocation.getArguments()[3]), Collections.emptySet())
+                        .contains(String.valueOf(invocation.getArguments()[4])));
+
+    }
+
+    @Test
+    public void testSelectiveCondition() throws Exception {
+        System.out.println("selective condition");
+
+        assertEquals(keys(row -> row.getString("city").equals("c3")), keys(select("select * from t where city = 'c3'")));
+        verify(dataManager).selectKeysWithPattern(eq(DS), eq(COLLECTION), anyListOf(String.class), eq("city"), eq("c3"), any(Operators.class));
+        verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+    }
+
+    @Test
+    public void testSelectiveConditionWithoutRowCount() throws Exception {
+        System.out.println("selective condition without row count");
+
+        when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn(0L);
+        assertEquals(keys(row -> row.getString("city").equals("c3")), keys(select("select * from t where city = 'c3'")));
+        verify(fileManager, atLeastOnce()).count(DS, COLLECTION);
+        verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+
+        when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn(5L);
+        assertEquals(keys(row -> row.getString("city").equals("c3")), keys(select("select * from t where city = 'c3'")));
+        verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+    }
+
+    @Test
+    public void testNonSelectiveCondition() throws Exception {
+        System.out.println("non selective condition");
+
+        assertEquals(keys(row -> row.getString("city").compareTo("c4") < 0),
+                keys(select("select * from t where city in ('c0', 'c1', 'c2', 'c3')")));
+        verify(dataManager).selectAllAsStream(DS, COLLECTION);
+        verify(dataManager, never()).selectKeysWithPattern(eq(DS), eq(COLLECTION), anyListOf(String.class), anyString(), any(), any(Operators.class));
+    }
+
+    @Test
+    public void testMultipleConditions() throws Exception {
+        System.out.println("multiple conditions");
+
+        final Predicate<JSONObject> predicate = row -> row.getString("city").equals("c3") && row.getInt("age") == 3 && row.getString("note").equals("n1");
+        assertEquals(keys(predicate), keys(select("select * from t where city = 'c3' and age = 3 and note = 'n1'")));
+
+        /* the age condition matches 4 records and the city condition 10, so keys are read for the age and probed for the city */
+        verify(dataManager).selectKeysWithPattern(eq(DS), eq(COLLECTION), anyListOf(String.class), eq("age"), eq(3), any(Operators.class));
+        verify(dataManager, never()).selectKeysWithPattern(eq(DS), eq(COLLECTION), anyListOf(String.class), eq("city"), any(), any(Operators.class));
+        verify(indexManager, times(4)).contains(eq(DS), eq(COLLECTION), eq("city"), eq("c3"), anyString());
+        verify(dataManager, times(2)).select(eq(DS), eq(COLLECTION), anyString());
+        verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+    }
+
+    @Test
+    public void testIndexAggregate() throws Exception {
+        System.out.println("index aggregate");
+
+        final String[] queries = {"select count(age), min(age), max(age) from t", "select min(age) from t",
+            "select age, count(*), max(age) from t group by age order by age desc", "select distinct age from t order by age"};
+        for (long rowCount : new long[]{RECORDS, 0}) {
+            when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn(rowCount);
+            for (String query : queries) {
+                schemaStore.getSchema(DS, COLLECTION).getColumn("age").setIndexType(IndexTypes.BTREE);
+                final List<JSONObject> indexRows = select(query);
+                verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+                assertFalse(query, indexRows.isEmpty());
+
+                schemaStore.getSchema(DS, COLLECTION).getColumn("age").setIndexType(IndexTypes.NONE);
+                final List<JSONObject> scanRows = select(query);
+                verify(dataManager, times(1)).selectAllAsStream(DS, COLLECTION);
+                assertEquals(query, maps(scanRows), maps(indexRows));
+                reset(dataManager);
+                setUpDataManager();
+            }
+        }
+    }
+
+    @Test
+    public void testIndexAggregateOnIncompleteIndex() throws Exception {
+        System.out.println("index aggregate on incomplete index");
+
+        records.put("k" + RECORDS, new JSONObject().put("_id", "k" + RECORDS).put("city", "c0").put("note", "n0"));
+        when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn((long) RECORDS + 1);
+        when(fileManager.count(DS, COLLECTION)).thenReturn((long) RECORDS + 1);
+
+        final List<JSONObject> rows = select("select count(*), count(age) from t");
+        verify(dataManager).selectAllAsStream(DS, COLLECTION);
+        assertEquals(RECORDS + 1, rows.get(0).getLong("COUNT(*)"));
+        assertEquals(RECORDS, rows.get(0).getLong("COUNT(age)"));
+    }
+
+    @Test
+    public void testIndexOrder() throws Exception {
+        System.out.println("index order");
+
+        final String[] queries = {"select * from t order by seq limit 7", "select city, seq from t order by seq desc limit 12 offset 3",
+            "select seq from t order by seq"};
+        for (long rowCount : new long[]{RECORDS, 0}) {
+            when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn(rowCount);
+            for (String query : queries) {
+                schemaStore.getSchema(DS, COLLECTION).getColumn("seq").setIndexType(IndexTypes.BTREE);
+                final List<JSONObject> indexRows = select(query);
+                verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+                verify(indexManager, atLeastOnce()).readIndexStream(eq(DS), eq(COLLECTION), eq("seq"), any());
+                assertFalse(query, indexRows.isEmpty());
+
+                schemaStore.getSchema(DS, COLLECTION).getColumn("seq").setIndexType(IndexTypes.NONE);
+                final List<JSONObject> sortedRows = select(query);
+                verify(dataManager, times(1)).selectAllAsStream(DS, COLLECTION);
+                assertEquals(query, maps(sortedRows), maps(indexRows));
+                reset(dataManager, indexManager);
+                setUpDataManager();
+                setUpIndexManager();
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOrderInFragment() throws Exception {
+        System.out.println("index order in fragment");
+
+        when(rowCountStore.getRowCount(DS, COLLECTION)).thenReturn(0L);
+        final CursorNode node = (CursorNode) new SQLParser().parseStatement("select seq from t order by seq limit 5");
+        final List<JSONObject> rows = drain(selectPlanner.planFragment(DS, COLLECTION, node, key -> Integer.parseInt(key.substring(1)) % 2 == 0, null));
+        verify(dataManager, never()).selectAllAsStream(DS, COLLECTION);
+
+        final List<Integer> expected = new ArrayList<>();
+        records.values().stream().filter(record -> Integer.parseInt(record.getString("_id").substring(1)) % 2 == 0)
+                .map(record -> record.getInt("seq")).sorted().limit(5).forEach(expected::add);
+        final List<Integer> actual = new ArrayList<>();
+        rows.forEach(row -> actual.add(row.getInt("seq")));
+        assertEquals(expected, actual);
+    }
+
+    private void insert(final JSONObject record) {
+        final String key = record.getString("_id");
+        records.put(key, record);
+        for (String column : new String[]{"city", "age", "seq"}) {
+            indexes.computeIfAbsent(column, name -> new TreeMap<>()).computeIfAbsent(String.valueOf(record.get(column)), cardinal -> new TreeSet<>()).add(key);
+        }
+    }
+
+    private List<JSONObject> select(final String sql) throws Exception {
+        return drain(selectPlanner.plan(DS, COLLECTION, (CursorNode) new SQLParser().parseStatement(sql), null));
+    }
+
+    private List<JSONObject> drain(final Operator operator) throws Exception {
+        final List<JSONObject> rows = new ArrayList<>();
+        operator.open();
+        try {
+            JSONObject row;
+            while ((row = operator.next()) != null) {
+                rows.add(row);
+            }
+        } finally {
+            operator.close();
+        }
+        return rows;
+    }
+
+    private Set<String> keys(final Predicate<JSONObject> predicate) {
+        final Set<String> keys = new TreeSet<>();
+        records.values().stream().filter(predicate).forEach(record -> keys.add(record.getString("_id")));
+        return keys;
+    }
+
+    private Set<String> keys(final List<JSONObject> rows) {
+        final Set<String> keys = new TreeSet<>();
+        rows.forEach(row -> keys.add(row.getString("_id")));
+        return keys;
+    }
+
+    private static List<Map<String, String>> maps(final List<JSONObject> rows) {
+        final List<Map<String, String>> maps = new ArrayList<>();
+        for (JSONObject row : rows) {
+            final Map<String, String> map = new TreeMap<>();
+            final Iterator<String> columns = row.keys();
+            while (columns.hasNext()) {
+                final String column = columns.next();
+                map.put(column, String.valueOf(row.get(column)));
+            }
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    private static List<JSONObject> copies(final Collection<JSONObject> rows) {
+        final List<JSONObject> copies = new ArrayList<>();
+        rows.forEach(row -> copies.add(new JSONObject(row.toString())));
+        return copies;
+    }
+
+    private static void setField(final Object target, final String name, final Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
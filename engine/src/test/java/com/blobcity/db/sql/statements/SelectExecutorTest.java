@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.blobcity.db.sql.statements;
+
+import com.blobcity.db.bsql.BSqlCollectionManager;
+import com.blobcity.db.bsql.BSqlIndexManager;
+import com.blobcity.db.lang.columntypes.FieldTypeFactory;
+import com.blobcity.db.schema.AutoDefineTypes;
+import com.blobcity.db.schema.Column;
+import com.blobcity.db.schema.IndexTypes;
+import com.blobcity.db.schema.Schema;
+import com.blobcity.db.schema.beans.SchemaStore;
+import com.blobcity.db.sql.execution.SelectPlanner;
+import com.foundationdb.sql.parser.SQLParser;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link SelectExecutor}
+ *
+ * @author sanketsarang
+ */
+public class SelectExecutorTest {
+
+    private static final String DS = "ds";
+    private static final String COLLECTION = "c";
+    private static final int CARDINALS = 5;
+    private static final int KEYS_PER_CARDINAL = 3;
+
+    @Mock
+    private BSqlCollectionManager tableManager;
+    @Mock
+    private BSqlIndexManager indexManager;
+    @Mock
+    private SchemaStore schemaStore;
+    @Mock
+    private SelectPlanner selectPlanner;
+    private SelectExecutor selectExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        final Schema schema = new Schema();
+        schema.setPrimary("_id");
+        schema.getColumnMap().put("_id", new Column("_id", FieldTypeFactory.fromString("string"), IndexTypes.NONE, AutoDefineTypes.NONE));
+        schema.getColumnMap().put("city", new Column("city", FieldTypeFactory.fromString("string"), IndexTypes.BTREE, AutoDefineTypes.NONE));
+        when(schemaStore.getSchema(DS, COLLECTION)).thenReturn(schema);
+
+        when(indexManager.getCardinals(DS, COLLECTION, "city")).then(invocation -> cities().iterator());
+        when(indexManager.readIndexStream(eq(DS), eq(COLLECTION), eq("city"), anyString())).then(invocation -> {
+            final List<String> keys = new ArrayList<>();
+            for (int i = 0; i < KEYS_PER_CARDINAL; i++) {
+                keys.add(invocation.getArguments()[3] + "-k" + i);
+            }
+            return keys.iterator();
+        });
+
+        selectExecutor = new SelectExecutor();
+        setField(selectExecutor, "tableManager", tableManager);
+        setField(selectExecutor, "indexManager", indexManager);
+        setField(selectExecutor, "schemaStore", schemaStore);
+        setField(selectExecutor, "selectPlanner", selectPlanner);
+    }
+
+    @Test
+    public void testSingleColumnLimitAndOffset() throws Exception {
+        System.out.println("single column limit and offset");
+
+        final List<String> all = new ArrayList<>();
+        for (String city : cities()) {
+            for (int i = 0; i < KEYS_PER_CARDINAL; i++) {
+                all.add(city);
+            }
+        }
+
+        assertEquals(all, select("select city from c"));
+        for (int limit : new int[]{1, 2, 3, 4, 7, 15, 20}) {
+            for (int offset : new int[]{0, 1, 2, 3, 5, 14, 15}) {
+                final List<String> expected = all.subList(Math.min(offset, all.size()), Math.min(offset + limit, all.size()));
+                assertEquals("limit " + limit + " offset " + offset, expected, select("select city from c limit " + limit + " offset " + offset));
+            }
+        }
+    }
+
+    private List<String> select(final String sql) throws Exception {
+        final JSONObject response = new JSONObject(selectExecutor.execute(DS, new SQLParser().parseStatement(sql), sql));
+        assertEquals("1", response.getString("ack"));
+
+        final JSONArray rows = response.getJSONArray("p");
+        final List<String> cities = new ArrayList<>();
+        for (int i = 0; i < rows.length(); i++) {
+            cities.add(rows.getJSONObject(i).getString("city"));
+        }
+        return cities;
+    }
+
+    private static List<String> cities() {
+        final List<String> cities = new ArrayList<>();
+        for (int i = 0; i < CARDINALS; i++) {
+            cities.add("c" + i);
+        }
+        return cities;
+    }
+
+    private static void setField(final Object target, final String name, final Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CollectionSegments}
+ *
+ * @author sanketsarang
+ */
+public class CollectionSegmentsTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("segments-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(folder);
+    }
+
+    @Test
+    public void testInsertSelectDelete() throws IOException {
+        System.out.println("insert, get, delete");
+
+        try (CollectionSegments segments = new CollectionSegments(folder)) {
+            assertTrue(segments.insert("k1", bytes("v1")));
+            assertFalse("Duplicate insert must be rejected", segments.insert("k1", bytes("v2")));
+            assertEquals("v1", string(segments.get("k1")));
+
+            segments.put("k1", bytes("v3"));
+            assertEquals("v3", string(segments.get("k1")));
+
+            assertTrue(segments.delete("k1"));
+            assertFalse(segments.delete("k1"));
+            assertNull(segments.get("k1"));
+            assertFalse(segments.contains("k1"));
+        }
+    }
+
+    @Test
+    public void testInsertAll() throws IOException {
+        System.out.println("insert all");
+
+        try (CollectionSegments segments = new CollectionSegments(folder)) {
+            assertTrue(segments.insert("k1", bytes("v1")));
+
+            final Map<String, byte[]> records = new LinkedHashMap<>();
+            records.put("k1", bytes("x1"));
+            records.put("k2", bytes("v2"));
+            records.put("k3", bytes("v3"));
+            assertEquals(Collections.singleton("k1"), segments.insertAll(records));
+
+            assertEquals("v1", string(segments.get("k1")));
+            assertEquals("v2", string(segments.get("k2")));
+            assertEquals("v3", string(segments.get("k3")));
+            assertEquals(3, segments.size());
+        }
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        System.out.println("reload");
+
+        try (CollectionSegments segments = new CollectionSegments(folder, 256)) {
+            for (int i = 0; i < 100; i++) {
+                segments.put("key" + i, bytes("value" + i));
+            }
+            for (int i = 0; i < 100; i += 2) {
+                segments.delete("key" + i);
+            }
+            segments.put("key1", bytes("updated"));
+            segments.rename("key3", "renamed");
+        }
+
+        try (CollectionSegments segments = new CollectionSegments(folder, 256)) {
+            assertEquals(50, segments.size());
+            assertNull(segments.get("key0"));
+            assertNull(segments.get("key3"));
+            assertEquals("updated", string(segments.get("key1")));
+            assertEquals("value3", string(segments.get("renamed")));
+            assertEquals("value99", string(segments.get("key99")));
+        }
+    }
+
+    @Test
+    public void testTruncatedTail() throws IOException {
+        System.out.println("truncated tail recovery");
+
+        try (CollectionSegments segments = new CollectionSegments(folder)) {
+            segments.put("a", bytes("1"));
+            segments.put("b", bytes("2"));
+        }
+
+        /* simulate a crash in the middle of writing the last record */
+        try (FileChannel channel = FileChannel.open(folder.resolve("0" + CollectionSegments.SEGMENT_EXTENSION), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (CollectionSegments segments = new CollectionSegments(folder)) {
+            assertEquals("1", string(segments.get("a")));
+            assertNull(segments.get("b"));
+            segments.put("c", bytes("3"));
+        }
+
+        try (CollectionSegments segments = new CollectionSegments(folder)) {
+            assertEquals("3", string(segments.get("c")));
+            assertEquals(2, segments.size());
+        }
+    }
+
+    @Test
+    public void testCorruptSealedSegment() throws IOException {
+        System.out.println("corrupt sealed segment");
+
+        try (CollectionSegments segments = new CollectionSegments(folder, 64)) {
+            for (int i = 0; i < 20; i++) {
+                segments.put("key" + i, bytes("value" + i));
+            }
+        }
+        assertTrue(countSegmentFiles() > 2);
+
+        /* flip a byte inside the first record of the first, sealed, segment */
+        final Path sealed = folder.resolve("0" + CollectionSegments.SEGMENT_EXTENSION);
+        final long size = Files.size(sealed);
+        try (FileChannel channel = FileChannel.open(sealed, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, 13);
+            buffer.put(0, (byte) (buffer.get(0) ^ 0xFF));
+            buffer.rewind();
+            channel.write(buffer, 13);
+        }
+
+        try (CollectionSegments segments = new CollectionSegments(folder, 64)) {
+            fail("A corrupt sealed segment must fail the load");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertEquals("A sealed segment must never be truncated", size, Files.size(sealed));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        System.out.println("compact");
+
+        try (CollectionSegments segments = new CollectionSegments(folder, 512)) {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 20; i++) {
+                    segments.put("key" + i, bytes("value" + round + "-" + i));
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                segments.delete("key" + i);
+            }
+
+            final long filesBefore = countSegmentFiles();
+            assertTrue(segments.compact(0.5) > 0);
+            assertTrue(countSegmentFiles() < filesBefore);
+
+            for (int i = 10; i < 20; i++) {
+                assertEquals("value4-" + i, string(segments.get("key" + i)));
+            }
+        }
+
+        try (CollectionSegments segments = new CollectionSegments(folder, 512)) {
+            assertEquals(10, segments.size());
+            for (int i = 0; i < 10; i++) {
+                assertNull("Deleted record resurrected after compaction", segments.get("key" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        System.out.println("scan");
+
+        final Map<String, String> expected = new HashMap<>();
+        try (CollectionSegments segments = new CollectionSegments(folder, 1024)) {
+            for (int i = 0; i < 200; i++) {
+                segments.put("key" + i, bytes("value" + i));
+                expected.put("key" + i, "value" + i);
+            }
+
+            final Map<String, String> actual = new HashMap<>();
+            Iterator<Map.Entry<String, byte[]>> iterator = segments.scan();
+            while (iterator.hasNext()) {
+                Map.Entry<String, byte[]> entry = iterator.next();
+                actual.put(entry.getKey(), string(entry.getValue()));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    private long countSegmentFiles() throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + CollectionSegments.SEGMENT_EXTENSION)) {
+            for (Path path : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
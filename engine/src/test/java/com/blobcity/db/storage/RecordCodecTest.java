@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.storage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RecordCodec}
+ *
+ * @author sanketsarang
+ */
+public class RecordCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        System.out.println("round trip");
+
+        final JSONObject record = sampleRecord();
+        final byte[] bytes = RecordCodec.encode(record);
+        assertTrue(RecordCodec.isEncoded(bytes));
+
+        final JSONObject decoded = RecordCodec.decode(bytes);
+        assertEquals(record.length(), decoded.length());
+        assertEquals("abc-123", decoded.get("0"));
+        assertEquals(42, decoded.get("1"));
+        assertEquals(-1536000000000L, decoded.get("2"));
+        assertEquals(3.25, decoded.get("3"));
+        assertEquals(Boolean.TRUE, decoded.get("4"));
+        assertEquals("", decoded.get("5"));
+        assertEquals(JSONObject.NULL, decoded.get("6"));
+        assertEquals(new BigDecimal("-12.3450"), decoded.get("7"));
+        assertEquals(new BigInteger("123456789012345678901234567890"), decoded.get("8"));
+        assertEquals("{\"a\":1}", decoded.get("9").toString());
+        assertEquals("[1,\"b\"]", decoded.get("10").toString());
+        assertEquals("named value", decoded.get("_id"));
+        assertEquals("unicode é中", decoded.get("12"));
+    }
+
+    @Test
+    public void testSmallerThanJson() {
+        System.out.println("size");
+
+        final JSONObject record = sampleRecord();
+        assertTrue(RecordCodec.encode(record).length < record.toString().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void testPartialDecode() {
+        System.out.println("partial decode");
+
+        final byte[] bytes = RecordCodec.encode(sampleRecord());
+        assertEquals(42, RecordCodec.decodeColumn(bytes, "1"));
+        assertEquals("named value", RecordCodec.decodeColumn(bytes, "_id"));
+        assertEquals("[1,\"b\"]", RecordCodec.decodeColumn(bytes, "10").toString());
+        assertNull(RecordCodec.decodeColumn(bytes, "99"));
+        assertNull(RecordCodec.decodeColumn(bytes, "01"));
+
+        final JSONObject partial = RecordCodec.decode(bytes, new HashSet<>(Arrays.asList("2", "_id", "99")));
+        assertEquals(2, partial.length());
+        assertEquals(-1536000000000L, partial.get("2"));
+        assertEquals("named value", partial.get("_id"));
+    }
+
+    @Test
+    public void testJsonTextIsReadable() {
+        System.out.println("json text records");
+
+        final byte[] bytes = "{\"1\":\"x\",\"2\":7}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(RecordCodec.isEncoded(bytes));
+        assertEquals("x", RecordCodec.decode(bytes).get("1"));
+        assertEquals(7, RecordCodec.decodeColumn(bytes, "2"));
+        assertEquals(1, RecordCodec.decode(bytes, new HashSet<>(Arrays.asList("2"))).length());
+    }
+
+    @Test
+    public void testJsonTextProjection() {
+        System.out.println("json text projection");
+
+        final String json = "{\"1\":{\"a\":[1,\"}\",{\"b\":\"]\"}]},\"2\":\"x,\\\"y\",\"3\":-4.5e2,\"4\":[],\"5\":true}";
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final JSONObject partial = RecordCodec.decode(bytes, new HashSet<>(Arrays.asList("3", "5")));
+        assertEquals(2, partial.length());
+        assertEquals(-450.0, partial.getDouble("3"), 0);
+        assertEquals(Boolean.TRUE, partial.get("5"));
+        assertEquals("x,\"y", RecordCodec.decodeColumn(bytes, "2"));
+        assertEquals(0, ((JSONArray) RecordCodec.decodeColumn(bytes, "4")).length());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testTruncatedRecord() {
+        System.out.println("truncated record");
+
+        final byte[] bytes = RecordCodec.encode(sampleRecord());
+        RecordCodec.decode(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    private JSONObject sampleRecord() {
+        final JSONObject record = new JSONObject();
+        record.put("0", "abc-123");
+        record.put("1", 42);
+        record.put("2", -1536000000000L);
+        record.put("3", 3.25);
+        record.put("4", true);
+        record.put("5", "");
+        record.put("6", JSONObject.NULL);
+        record.put("7", new BigDecimal("-12.3450"));
+        record.put("8", new BigInteger("123456789012345678901234567890"));
+        record.put("9", new JSONObject("{\"a\":1}"));
+        record.put("10", new JSONArray("[1,\"b\"]"));
+        record.put("_id", "named value");
+        record.put("12", "unicode é中");
+        return record;
+    }
+}
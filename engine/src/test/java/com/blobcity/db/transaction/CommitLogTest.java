@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.transaction;
+
+import com.blobcity.db.exceptions.ErrorCode;
+import com.blobcity.db.exceptions.OperationException;
+import com.blobcity.lib.query.Query;
+import com.blobcity.lib.query.QueryParams;
+import com.blobcity.lib.query.QueryType;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CommitLog} and {@link QueryCommitLog}
+ *
+ * @author sanketsarang
+ */
+public class CommitLogTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("commit-log-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(folder);
+    }
+
+    @Test
+    public void testWriteAndReopen() throws IOException {
+        System.out.println("write and reopen");
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            assertEquals(1, commitLog.write(bytes("e1")));
+            assertEquals(2, commitLog.write(bytes("e2")));
+            assertEquals(2, commitLog.getDurableLsn());
+        }
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            assertEquals(2, commitLog.getDurableLsn());
+            assertEquals(list("e1", "e2"), payloads(commitLog.entries()));
+            assertEquals(3, commitLog.write(bytes("e3")));
+        }
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        System.out.println("torn tail");
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            commitLog.write(bytes("e1"));
+            commitLog.write(bytes("e2"));
+        }
+
+        final Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            assertEquals(1, commitLog.getDurableLsn());
+            assertEquals(list("e1"), payloads(commitLog.entries()));
+            assertEquals(2, commitLog.write(bytes("e2")));
+        }
+    }
+
+    @Test
+    public void testCheckpointDeletesSegments() throws IOException {
+        System.out.println("checkpoint");
+
+        try (CommitLog commitLog = new CommitLog(folder, 64, 0, 1)) {
+            for (int i = 1; i <= 6; i++) {
+                commitLog.write(bytes("entry-" + i));
+            }
+            final int segmentCount = segments().size();
+            assertTrue("Log must rotate segments", segmentCount > 1);
+
+            commitLog.checkpoint(4);
+            assertEquals(4, commitLog.getCheckpointLsn());
+            assertTrue(segments().size() < segmentCount);
+            assertEquals(list("entry-5", "entry-6"), payloads(commitLog.entries()));
+        }
+
+        try (CommitLog commitLog = new CommitLog(folder, 64, 0, 1)) {
+            assertEquals(4, commitLog.getCheckpointLsn());
+            assertEquals(list("entry-5", "entry-6"), payloads(commitLog.entries()));
+        }
+    }
+
+    @Test
+    public void testRetainedEntriesReadableAfterCheckpoint() throws IOException {
+        System.out.println("retained entries");
+
+        try (CommitLog commitLog = new CommitLog(folder, 64, 0, 1)) {
+            for (int i = 1; i <= 6; i++) {
+                commitLog.write(bytes("entry-" + i));
+            }
+            assertEquals(1, commitLog.getFirstLsn());
+
+            commitLog.retainAfter(2);
+            commitLog.checkpoint(5);
+            assertEquals(list("entry-6"), payloads(commitLog.entries()));
+            assertTrue(commitLog.getFirstLsn() <= 3);
+            assertEquals(list("entry-3", "entry-4", "entry-5", "entry-6"), payloads(commitLog.entries(2)));
+
+            commitLog.retainAfter(Long.MAX_VALUE);
+            commitLog.write(bytes("entry-7"));
+            commitLog.checkpoint(6);
+            assertTrue(commitLog.getFirstLsn() > 3);
+            assertEquals(list("entry-7"), payloads(commitLog.entries(6)));
+        }
+    }
+
+    @Test
+    public void testEntriesStopAtDurableLsn() throws IOException {
+        System.out.println("entries stop at durable lsn");
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            commitLog.write(bytes("e1"));
+            try (CommitLog.EntryIterator entries = commitLog.entries()) {
+                commitLog.write(bytes("e2"));
+                assertTrue(entries.hasNext());
+                assertEquals("e1", new String(entries.next().getPayload(), StandardCharsets.UTF_8));
+                assertFalse(entries.hasNext());
+                assertFalse(entries.hasNext());
+            }
+
+            final CommitLog.EntryIterator entries = commitLog.entries();
+            assertTrue(entries.hasNext());
+            entries.close();
+            assertFalse(entries.hasNext());
+        }
+    }
+
+    @Test
+    public void testConcurrentGroupCommit() throws Exception {
+        System.out.println("group commit");
+
+        final int writers = 8;
+        final int entriesPerWriter = 200;
+        final ExecutorService executorService = Executors.newFixedThreadPool(writers);
+        try (CommitLog commitLog = new CommitLog(folder, CommitLog.DEFAULT_MAX_SEGMENT_SIZE, TimeUnit.MILLISECONDS.toNanos(1), 64 * 1024)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < entriesPerWriter; i++) {
+                        final long lsn = commitLog.write(bytes(writer + "-" + i));
+                        assertTrue(commitLog.getDurableLsn() >= lsn);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(writers * entriesPerWriter, commitLog.getDurableLsn());
+        } finally {
+            executorService.shutdown();
+        }
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            final List<String> payloads = payloads(commitLog.entries());
+            assertEquals(writers * entriesPerWriter, payloads.size());
+            assertTrue(payloads.contains("3-199"));
+        }
+    }
+
+    @Test
+    public void testAppendThenAwaitDurable() throws IOException {
+        System.out.println("append then await durable");
+
+        try (QueryCommitLog log = new QueryCommitLog(new CommitLog(folder, CommitLog.DEFAULT_MAX_SEGMENT_SIZE, TimeUnit.MILLISECONDS.toNanos(50), 64 * 1024))) {
+            final long first = log.append(new Query().requestId("r1").softCommitSuccessQuery().ackSuccess());
+            final long second = log.append(new Query().requestId("r2").softCommitSuccessQuery().ackSuccess());
+            final long last = log.append(new Query().requestId("r1").commitSuccessQuery().ack("1"));
+            assertTrue(first < second && second < last);
+            assertTrue(log.getCommitLog().getDurableLsn() < first);
+
+            log.getCommitLog().awaitDurable(last);
+            assertEquals(last, log.getCommitLog().getDurableLsn());
+            assertEquals("Open request r2 must stay replayable", second - 1, log.checkpointableLsn());
+        }
+
+        try (CommitLog commitLog = new CommitLog(folder)) {
+            assertEquals(3, payloads(commitLog.entries()).size());
+        }
+    }
+
+    @Test
+    public void testRejectUnrecoverableQueries() {
+        System.out.println("reject unrecoverable queries");
+
+        final CollectionCommitLogWriter writer = new CollectionCommitLogWriter();
+        for (QueryType queryType : new QueryType[]{QueryType.UPDATE, QueryType.SAVE, QueryType.DELETE}) {
+            final Query query = new Query().requestId("r1");
+            query.put(QueryParams.QUERY, queryType.getQueryCode());
+            try {
+                writer.write("ds", "collection", query);
+                fail(queryType + " must not be logged");
+            } catch (OperationException ex) {
+                assertEquals(ErrorCode.OPERATION_NOT_SUPPORTED, ex.getErrorCode());
+            }
+            try {
+                writer.append("ds", "collection", query);
+                fail(queryType + " must not be logged");
+            } catch (OperationException ex) {
+                assertEquals(ErrorCode.OPERATION_NOT_SUPPORTED, ex.getErrorCode());
+            }
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + CommitLog.SEGMENT_EXTENSION)) {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private List<String> payloads(final Iterator<CommitLog.Entry> entries) {
+        final List<String> payloads = new ArrayList<>();
+        long lastLsn = 0;
+        while (entries.hasNext()) {
+            final CommitLog.Entry entry = entries.next();
+            assertTrue("LSNs must be increasing", entry.getLsn() > lastLsn);
+            lastLsn = entry.getLsn();
+            payloads.add(new String(entry.getPayload(), StandardCharsets.UTF_8));
+        }
+        return payloads;
+    }
+
+    private List<String> list(final String... values) {
+        final List<String> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    private byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.util;
+
+import com.blobcity.db.exceptions.OperationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CheckpointedCounter}
+ *
+ * @author sanketsarang
+ */
+public class CheckpointedCounterTest {
+
+    @Test
+    public void testCheckpoint() throws OperationException {
+        System.out.println("checkpoint");
+
+        final List<Long> written = new ArrayList<>();
+        final CheckpointedCounter counter = new CheckpointedCounter(10);
+        assertFalse(counter.isDirty());
+        counter.checkpoint(written::add);
+        assertTrue("Unchanged counters must not be written", written.isEmpty());
+
+        assertTrue(counter.add(1));
+        assertTrue(counter.add(1));
+        assertTrue(counter.add(-1));
+        assertEquals(11, counter.get());
+        assertTrue(counter.isDirty());
+
+        counter.checkpoint(written::add);
+        assertFalse(counter.isDirty());
+        counter.checkpoint(written::add);
+        assertEquals(1, written.size());
+        assertEquals(11L, written.get(0).longValue());
+    }
+
+    @Test
+    public void testRecountedValueIsDirty() {
+        System.out.println("recounted value");
+
+        final CheckpointedCounter counter = new CheckpointedCounter(12, 10);
+        assertEquals(12, counter.get());
+        assertTrue(counter.isDirty());
+        assertFalse("Counters with unwritten changes must not be retired", counter.retire());
+    }
+
+    @Test
+    public void testRetire() throws OperationException {
+        System.out.println("retire");
+
+        final CheckpointedCounter counter = new CheckpointedCounter(5);
+        counter.add(1);
+        assertFalse(counter.retire());
+        counter.checkpoint(value -> {
+        });
+        assertTrue(counter.retire());
+        assertFalse("Updates to a retired counter must be reported", counter.add(1));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        System.out.println("concurrent updates");
+
+        final CheckpointedCounter counter = new CheckpointedCounter(0);
+        final AtomicLong persisted = new AtomicLong();
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.add(1);
+                        if (i % 1000 == 0) {
+                            counter.checkpoint(persisted::set);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        counter.checkpoint(persisted::set);
+        assertEquals(80000, counter.get());
+        assertEquals(80000, persisted.get());
+    }
+}
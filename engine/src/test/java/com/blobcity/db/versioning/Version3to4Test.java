@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.db.versioning;
+
+import com.blobcity.db.storage.RecordCodec;
+import com.blobcity.db.util.FileNameEncoding;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the data upgrade of {@link Version3to4}
+ *
+ * @author sanketsarang
+ */
+public class Version3to4Test {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("version3to4-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Path path : files()) {
+            Files.delete(path);
+        }
+        Files.delete(folder);
+    }
+
+    @Test
+    public void testMigrateRecords() throws Exception {
+        System.out.println("migrate records");
+
+        for (int i = 1; i <= 3; i++) {
+            final JSONObject record = new JSONObject();
+            record.put("0", "old-" + i);
+            record.put("1", i);
+            Files.write(folder.resolve(FileNameEncoding.encode("old-" + i)), record.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(3, new Version3to4().migrateRecords(folder, "2"));
+
+        final List<Path> files = files();
+        assertEquals(3, files.size());
+        final Set<Integer> values = new HashSet<>();
+        for (Path file : files) {
+            final String pk = FileNameEncoding.decode(file.getFileName().toString());
+            assertFalse(pk.startsWith("old-"));
+
+            /* migrated records must remain readable by the segment upgrade that follows */
+            final JSONObject record = RecordCodec.decode(Files.readAllBytes(file));
+            assertEquals(pk, record.getString("2"));
+            values.add(record.getInt("1"));
+        }
+        assertEquals(3, values.size());
+    }
+
+    private List<Path> files() throws Exception {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.blobcity.lib.database.tcp.end.point.decoder.packet;
+
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.base.Header;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.base.Packet;
+
+/**
+ * Represents a packet requesting the execution of a prepared statement. The data holds the id of the statement,
+ * followed by a line feed and a JSON array with a value for each placeholder of the statement. The line feed and array
+ * may be omitted for statements without placeholders.
+ *
+ * @author sanketsarang
+ */
+public class ExecuteStatementPacket extends Packet {
+
+    private final String statementId;
+    private final String params;
+
+    /**
+     * Creates an instance of a packet requesting the execution of a prepared statement
+     *
+     * @param header {@link Header} object representing the header information for this packet
+     * @param dataBytes bytes of data remaining in the message after reading the header
+     */
+    public ExecuteStatementPacket(final Header header, final byte[] dataBytes) {
+        super(header);
+        final String data = new String(dataBytes);
+        final int separator = data.indexOf('\n');
+        this.statementId = separator == -1 ? data.trim() : data.substring(0, separator).trim();
+        this.params = separator == -1 ? null : data.substring(separator + 1);
+    }
+
+    @Override
+    public String getData() {
+        return params == null ? statementId : statementId + "\n" + params;
+    }
+
+    public String getStatementId() {
+        return statementId;
+    }
+
+    /**
+     * @return JSON array of the parameter values; {@code null} if none were sent
+     */
+    public String getParams() {
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecuteStatementPacket{header=\"" + header + "\", statementId=\"" + statementId + "\", params=\"" + params + "\"}";
+    }
+}
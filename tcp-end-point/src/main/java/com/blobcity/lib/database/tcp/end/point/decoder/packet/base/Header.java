@@ -17,7 +17,9 @@
 package com.blobcity.lib.database.tcp.end.point.decoder.packet.base;
 
 import com.blobcity.lib.database.tcp.end.point.decoder.exception.DecodeException;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.ExecuteStatementPacket;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.LoginRequestPacket;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.PrepareStatementPacket;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.SqlQueryPacket;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.field.MessageStatus;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.field.MessageType;
@@ -39,9 +41,15 @@ public abstract class Header {
     public Packet createPacket(final byte[] dataBytes) throws DecodeException {
         switch (getType()) {
             case SQL_BATCH:
+            case STREAM_JSON_REQ:
+            case STREAM_COLUMNS_REQ:
                 return new SqlQueryPacket(this, dataBytes);
             case LOGIN_REQ:
                 return new LoginRequestPacket(this, dataBytes);
+            case PREPARE_REQ:
+                return new PrepareStatementPacket(this, dataBytes);
+            case EXECUTE_REQ:
+                return new ExecuteStatementPacket(this, dataBytes);
             default:
                 throw new DecodeException("Invalid Packet Type specified. Unable to create a packet from header.");
         }
@@ -25,7 +25,7 @@ import com.blobcity.lib.database.tcp.end.point.decoder.exception.DecodeException
  */
 public enum MessageType {
 
-    SQL_BATCH((byte) 0x01), TABULAR_RESULT((byte) 0x02), BULK_LOAD_DATA((byte) 0x03), ACK_RESP((byte) 0x10), PRE_LOGIN_REQ((byte) 0x11), LOGIN_REQ((byte) 0x12);
+    SQL_BATCH((byte) 0x01), TABULAR_RESULT((byte) 0x02), BULK_LOAD_DATA((byte) 0x03), PREPARE_REQ((byte) 0x04), EXECUTE_REQ((byte) 0x05), STREAM_JSON_REQ((byte) 0x06), STREAM_COLUMNS_REQ((byte) 0x07), ACK_RESP((byte) 0x10), PRE_LOGIN_REQ((byte) 0x11), LOGIN_REQ((byte) 0x12);
 
     private final byte typeByte;
 
@@ -60,6 +60,14 @@ public enum MessageType {
                 return TABULAR_RESULT;
             case 0x03:
                 return BULK_LOAD_DATA;
+            case 0x04:
+                return PREPARE_REQ;
+            case 0x05:
+                return EXECUTE_REQ;
+            case 0x06:
+                return STREAM_JSON_REQ;
+            case 0x07:
+                return STREAM_COLUMNS_REQ;
             case 0x10:
                 return ACK_RESP;
             case 0x11:
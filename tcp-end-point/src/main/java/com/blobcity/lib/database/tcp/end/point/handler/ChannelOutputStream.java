@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.lib.database.tcp.end.point.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream over a Netty channel that applies the backpressure of the channel to its writer. Bytes are
+ * collected in a pooled buffer, and each {@link #flush()} hands the buffer to the channel. A flush blocks while the
+ * channel is not writable, so a writer producing data faster than the client reads it is held back once the outbound
+ * buffer of the channel passes its high water mark, instead of queueing the data in memory.
+ *
+ * <p>
+ * Must not be written to from the event loop of the channel, which would block the loop that drains the channel.
+ *
+ * @author sanketsarang
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long WRITABILITY_POLL_MILLIS = 100;
+
+    private final Channel channel;
+    private final Object writability = new Object();
+    private ByteBuf buffer;
+    private volatile Throwable failure;
+
+    public ChannelOutputStream(final Channel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        buffer().writeByte(b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        buffer().writeBytes(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer == null || !buffer.isReadable()) {
+            return;
+        }
+
+        awaitWritable();
+        final ByteBuf data = buffer;
+        buffer = null;
+        channel.writeAndFlush(data).addListener(future -> {
+            if (!future.isSuccess()) {
+                failure = future.cause();
+                writabilityChanged();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (buffer != null) {
+                buffer.release();
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Wakes up a writer waiting for the channel to become writable. Called by the channel handler on every change
+     * in the writability of the channel.
+     */
+    public void writabilityChanged() {
+        synchronized (writability) {
+            writability.notifyAll();
+        }
+    }
+
+    private ByteBuf buffer() throws IOException {
+        checkOpen();
+        if (buffer == null) {
+            buffer = channel.alloc().buffer(INITIAL_BUFFER_SIZE);
+        }
+        return buffer;
+    }
+
+    private void awaitWritable() throws IOException {
+        synchronized (writability) {
+            while (!channel.isWritable()) {
+                checkOpen();
+                try {
+                    writability.wait(WRITABILITY_POLL_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the client to read");
+                }
+            }
+        }
+        checkOpen();
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write to client failed", failure);
+        }
+        if (!channel.isActive()) {
+            throw new IOException("Connection closed by client");
+        }
+    }
+}
@@ -19,13 +19,24 @@ package com.blobcity.lib.database.tcp.end.point.handler;
 import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.RequestStore;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.SqlExecutor;
+import com.blobcity.lib.database.bean.manager.interfaces.security.SecurityManager;
+import com.blobcity.lib.database.bean.manager.stream.FramedResultWriter;
 import com.blobcity.lib.database.tcp.end.point.decoder.TcpStreamDecoder;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.ExecuteStatementPacket;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.LoginRequestPacket;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.PrepareStatementPacket;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.base.Packet;
 import com.blobcity.lib.database.tcp.end.point.decoder.packet.SqlQueryPacket;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.field.MessageType;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -33,15 +44,26 @@ import org.springframework.context.ApplicationContext;
 /**
  * Handles the stream of data that has been decoded by a channel decoder
  *
+ * <p>
+ * Streamed queries run off the event loop, writing their result in frames as rows are produced, and are held back by
+ * the writability of the channel when the client reads slower than the query produces. Packets received while a
+ * streamed query is running are queued behind it, so responses are always written in request order.
+ *
  * @author javatarz (Karun Japhet)
  */
 public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
 
+    private static final ExecutorService streamExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("tcp-stream", true));
+
     private final SqlExecutor sqlExecutorBean;
+    private final SecurityManager securityManager;
     private final RequestStore requestStore;
     private final Logger logger;
     private final TcpStreamDecoder decoder;
     private LoginRequestPacket sessionBean;
+    private String sessionToken;
+    private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+    private volatile ChannelOutputStream streamOutput;
 
     /**
      * Creates an instance of channel stream that is associated with the respective decoder
@@ -53,6 +75,7 @@ public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
         ApplicationContext context = BeanConfigFactory.getConfigBean("com.blobcity.pom.database.engine.factory.EngineBeanConfig");
         this.sqlExecutorBean = context.getBean(SqlExecutor.class);
         this.requestStore = context.getBean(RequestStore.class);
+        this.securityManager = (SecurityManager) context.getBean("SecurityManagerBean");
         this.decoder = decoder;
     }
 
@@ -64,12 +87,12 @@ public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
             } else if (msg instanceof Packet) {
                 logger.debug("Found message: \"{}\"", msg);
 
-                final String response = processPacket((Packet) msg);
-
-                final byte[] bytes = response.getBytes();
-                final ByteBuf respBytes = ctx.alloc().buffer(bytes.length);
-                respBytes.writeBytes(bytes, 0, bytes.length);
-                ctx.writeAndFlush(respBytes); // Note: this call is async afaik
+                final Packet packet = (Packet) msg;
+                if (isStreamed(packet) || !pending.isDone()) {
+                    pending = pending.thenRunAsync(() -> handle(ctx, packet), streamExecutor);
+                } else {
+                    handle(ctx, packet);
+                }
             } else {
                 logger.error("Unknown message found of type \"{}\" and value \"{}\"", msg.getClass(), msg); // TODO: Handle
             }
@@ -79,6 +102,70 @@ public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    private void handle(final ChannelHandlerContext ctx, final Packet packet) {
+        try {
+            if (isStreamed(packet)) {
+                streamPacket(ctx, (SqlQueryPacket) packet);
+                return;
+            }
+
+            final String response = processPacket(packet);
+
+            final byte[] bytes = response.getBytes();
+            final ByteBuf respBytes = ctx.alloc().buffer(bytes.length);
+            respBytes.writeBytes(bytes, 0, bytes.length);
+            ctx.writeAndFlush(respBytes); // Note: this call is async afaik
+        } catch (Throwable t) {
+            logger.error("Uncaught exception found while handling TCP stream", t);
+        }
+    }
+
+    private static boolean isStreamed(final Packet packet) {
+        final MessageType type = packet.getHeader().getType();
+        return type == MessageType.STREAM_JSON_REQ || type == MessageType.STREAM_COLUMNS_REQ;
+    }
+
+    /**
+     * Processes SQL packets requesting a streamed result. The result is written to the channel in frames as it is
+     * produced, so must not be called on the event loop of the channel.
+     *
+     * @param sqlPacket {@link Packet} containing SQL query data
+     * @param ctx context of the channel to write the result to
+     */
+    public void streamPacket(final ChannelHandlerContext ctx, final SqlQueryPacket sqlPacket) {
+        final ChannelOutputStream outputStream = new ChannelOutputStream(ctx.channel());
+        final FramedResultWriter resultWriter = new FramedResultWriter(outputStream,
+                sqlPacket.getHeader().getType() == MessageType.STREAM_COLUMNS_REQ);
+        streamOutput = outputStream;
+        try {
+            if (sessionBean == null || sessionToken == null) {
+                logger.error("No session bean found!");
+                final JSONObject status = new JSONObject();
+                status.put("ack", "0");
+                status.put("cause", "No session bean found!");
+                resultWriter.end(status);
+                return;
+            }
+
+            final String requestId = requestStore.registerNewRequest(sessionBean.getDbName(), sessionBean.getUserName(), sessionBean.getPasswordHash(), null);
+            try {
+                sqlExecutorBean.streamSessionQuery(requestId, sessionToken, sessionBean.getDbName(), sqlPacket.getData(), resultWriter);
+                logger.debug("[App: {} - SQL: {}] streamed.", sessionBean.getDbName(), sqlPacket.getData());
+            } finally {
+                requestStore.unregisterRequest(requestId);
+            }
+        } catch (IOException ex) {
+            logger.debug("Could not stream result to client: {}", ex.getMessage());
+        } finally {
+            streamOutput = null;
+            try {
+                outputStream.close();
+            } catch (IOException ex) {
+                logger.debug("Could not stream result to client: {}", ex.getMessage());
+            }
+        }
+    }
+
     /**
      * Processes packets based on the packet type and provides a response to be returned to the client
      *
@@ -93,6 +180,10 @@ public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
                 return processPacket((SqlQueryPacket) packet);
             case LOGIN_REQ:
                 return processPacket((LoginRequestPacket) packet);
+            case PREPARE_REQ:
+                return processPacket((PrepareStatementPacket) packet);
+            case EXECUTE_REQ:
+                return processPacket((ExecuteStatementPacket) packet);
             default:
                 throw new UnsupportedOperationException("Header type " + packet.getHeader().getType() + " is not yet supported.");
         }
@@ -105,19 +196,56 @@ public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
      * @return response to the requested query
      */
     public String processPacket(final SqlQueryPacket sqlPacket) {
-        if (sessionBean == null) {
+        if (sessionBean == null || sessionToken == null) {
             logger.error("No session bean found!");
             return "No session bean found!"; // TODO: Write error response here
         }
 
         //TODO: If secure then change sessionBean to store password instead of passwordHash, or change everything else to work on passwordHash only
         final String requestId = requestStore.registerNewRequest(sessionBean.getDbName(), sessionBean.getUserName(),sessionBean.getPasswordHash(), null);
-        final String response = sqlExecutorBean.runQuery(requestId, sessionBean.getUserName(), sessionBean.getPasswordHash(), sessionBean.getDbName(), sqlPacket.getData());
+        final String response = sqlExecutorBean.runSessionQuery(requestId, sessionToken, sessionBean.getDbName(), sqlPacket.getData());
         logger.debug("[App: {} - SQL: {}] executed. Received a response length of {}.", sessionBean.getDbName(), sqlPacket.getData(), response.length());
         requestStore.unregisterRequest(requestId);
         return response;
     }
 
+    /**
+     * Processes packets preparing a statement for repeated execution
+     *
+     * @param preparePacket {@link Packet} containing the SQL statement to prepare
+     * @return response holding the id of the prepared statement
+     */
+    public String processPacket(final PrepareStatementPacket preparePacket) {
+        if (sessionBean == null || sessionToken == null) {
+            logger.error("No session bean found!");
+            return "No session bean found!"; // TODO: Write error response here
+        }
+
+        final String response = sqlExecutorBean.prepareSessionStatement(null, sessionToken, sessionBean.getDbName(), preparePacket.getData());
+        logger.debug("[App: {} - SQL: {}] prepared.", sessionBean.getDbName(), preparePacket.getData());
+        return response;
+    }
+
+    /**
+     * Processes packets executing a prepared statement
+     *
+     * @param executePacket {@link Packet} containing the id of the prepared statement and its parameter values
+     * @return response to the executed statement
+     */
+    public String processPacket(final ExecuteStatementPacket executePacket) {
+        if (sessionBean == null || sessionToken == null) {
+            logger.error("No session bean found!");
+            return "No session bean found!"; // TODO: Write error response here
+        }
+
+        final String requestId = requestStore.registerNewRequest(sessionBean.getDbName(), sessionBean.getUserName(),sessionBean.getPasswordHash(), null);
+        final String response = sqlExecutorBean.executeSessionStatement(requestId, sessionToken, sessionBean.getDbName(),
+                executePacket.getStatementId(), executePacket.getParams());
+        logger.debug("[App: {} - Statement: {}] executed. Received a response length of {}.", sessionBean.getDbName(), executePacket.getStatementId(), response.length());
+        requestStore.unregisterRequest(requestId);
+        return response;
+    }
+
     /**
      * Processes Login Request packets
      *
@@ -125,13 +253,42 @@ public class TcpStreamHandler extends ChannelInboundHandlerAdapter {
      * @return response to be sent for the login request
      */
     public String processPacket(final LoginRequestPacket loginPacket) {
-        // TODO: perform login check here
+        if (sessionToken != null) {
+            securityManager.logout(sessionToken);
+            sessionToken = null;
+            sessionBean = null;
+        }
+
+        final String token = securityManager.login(loginPacket.getUserName(), loginPacket.getPasswordHash());
+        if (token == null) {
+            logger.debug("Login failed for user name {}", loginPacket.getUserName());
+            return "Login Failed"; // TODO: Write login response here
+        }
         this.sessionBean = loginPacket;
+        this.sessionToken = token;
 
         logger.debug("Login successful for user name {}", loginPacket.getUserName());
         return "Login Successful"; // TODO: Write login response here
     }
 
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+        final ChannelOutputStream outputStream = streamOutput;
+        if (outputStream != null) {
+            outputStream.writabilityChanged();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        if (sessionToken != null) {
+            securityManager.logout(sessionToken);
+            sessionToken = null;
+        }
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) { // (4)
         cause.printStackTrace();
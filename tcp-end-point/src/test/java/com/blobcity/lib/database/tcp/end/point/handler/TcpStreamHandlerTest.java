@@ -0,0 +1,446 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.blobcity.lib.database.tcp.end.point.handler;
+
+import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
+import com.blobcity.lib.database.bean.manager.interfaces.engine.RequestStore;
+import com.blobcity.lib.database.bean.manager.interfaces.engine.ResultWriter;
+import com.blobcity.lib.database.bean.manager.interfaces.engine.SqlExecutor;
+import com.blobcity.lib.database.bean.manager.interfaces.security.SecurityManager;
+import com.blobcity.lib.database.bean.manager.stream.FramedResultWriter;
+import com.blobcity.lib.database.tcp.end.point.decoder.TcpStreamDecoder;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.LoginRequestPacket;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.PacketHeader;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.SqlQueryPacket;
+import com.blobcity.lib.database.tcp.end.point.decoder.packet.field.MessageType;
+import com.blobcity.lib.query.Query;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import static org.junit.Assert.*;
+
+/**
+ * Round trip tests of streamed results, written by {@link TcpStreamHandler} through a {@link FramedResultWriter} over a
+ * {@link ChannelOutputStream}, and decoded from the bytes that reach the channel
+ *
+ * @author sanketsarang
+ */
+public class TcpStreamHandlerTest {
+
+    private static final String ENGINE_CONFIG = "com.blobcity.pom.database.engine.factory.EngineBeanConfig";
+
+    private FakeSqlExecutor sqlExecutor;
+    private TcpStreamHandler handler;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        sqlExecutor = new FakeSqlExecutor();
+        final StaticApplicationContext context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("sqlExecutor", sqlExecutor);
+        context.getBeanFactory().registerSingleton("requestStore", new FakeRequestStore());
+        context.getBeanFactory().registerSingleton("SecurityManagerBean", new FakeSecurityManager());
+        BeanConfigFactory.beanConfigMap.put(ENGINE_CONFIG, context);
+
+        handler = new TcpStreamHandler(new TcpStreamDecoder());
+        channel = new EmbeddedChannel(handler);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        BeanConfigFactory.beanConfigMap.remove(ENGINE_CONFIG);
+    }
+
+    @Test
+    public void testJsonRowsOverSeveralFrames() throws Exception {
+        System.out.println("json rows over several frames");
+
+        final int rows = 5000;
+        sqlExecutor.query = resultWriter -> {
+            for (int i = 0; i < rows; i++) {
+                resultWriter.writeRow(new JSONObject().put("id", i).put("name", "name-" + i).put("score", i * 0.5));
+            }
+            resultWriter.end(new JSONObject().put("ack", "1").put("time", 3));
+        };
+        login();
+        stream(MessageType.STREAM_JSON_REQ);
+
+        final List<Frame> frames = frames();
+        assertTrue("Result must span several frames", frames.size() > 2);
+        final List<JSONObject> received = new ArrayList<>();
+        for (Frame frame : frames.subList(0, frames.size() - 1)) {
+            assertEquals(FramedResultWriter.ROWS, frame.type);
+            assertTrue(frame.payload.length < 2 * FramedResultWriter.FRAME_SIZE);
+            for (String line : new String(frame.payload, StandardCharsets.UTF_8).split("\n")) {
+                received.add(new JSONObject(line));
+            }
+        }
+        assertEquals(rows, received.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals(i, received.get(i).getInt("id"));
+            assertEquals("name-" + i, received.get(i).getString("name"));
+            assertEquals(i * 0.5, received.get(i).getDouble("score"), 0);
+        }
+
+        final Frame end = frames.get(frames.size() - 1);
+        assertEquals(FramedResultWriter.END, end.type);
+        assertEquals("1", new JSONObject(end.text()).getString("ack"));
+        assertFalse(new JSONObject(end.text()).has("p"));
+    }
+
+    @Test
+    public void testColumnBatches() throws Exception {
+        System.out.println("column batches");
+
+        final int rows = 2 * FramedResultWriter.BATCH_ROWS + 100;
+        final List<Map<String, Object>> expected = new ArrayList<>();
+        sqlExecutor.query = resultWriter -> {
+            for (int i = 0; i < rows; i++) {
+                final JSONObject row = new JSONObject().put("id", i).put("name", "name-" + i).put("score", i * 0.25)
+                        .put("even", i % 2 == 0).put("price", new BigDecimal(i + ".10"))
+                        .put("tags", new JSONArray().put("t" + i));
+                if (i % 3 == 0) {
+                    row.put("note", "n" + i);
+                }
+                resultWriter.writeRow(row);
+            }
+            resultWriter.end(new JSONObject().put("ack", "1"));
+        };
+        for (int i = 0; i < rows; i++) {
+            final Map<String, Object> row = new HashMap<>();
+            row.put("id", (long) i);
+            row.put("name", "name-" + i);
+            row.put("score", i * 0.25);
+            row.put("even", i % 2 == 0);
+            row.put("price", new BigDecimal(i + ".10"));
+            row.put("tags", "[\"t" + i + "\"]");
+            row.put("note", i % 3 == 0 ? "n" + i : null);
+            expected.add(row);
+        }
+        login();
+        stream(MessageType.STREAM_COLUMNS_REQ);
+
+        final List<Frame> frames = frames();
+        assertEquals(4, frames.size());
+        final List<Map<String, Object>> received = new ArrayList<>();
+        for (Frame frame : frames.subList(0, 3)) {
+            assertEquals(FramedResultWriter.COLUMNS, frame.type);
+            received.addAll(decodeColumns(frame.payload));
+        }
+        assertEquals(expected, received);
+        assertEquals(FramedResultWriter.END, frames.get(3).type);
+        assertEquals("1", new JSONObject(frames.get(3).text()).getString("ack"));
+    }
+
+    @Test
+    public void testFailureAfterRows() throws Exception {
+        System.out.println("failure after rows");
+
+        sqlExecutor.query = resultWriter -> {
+            for (int i = 0; i < 10; i++) {
+                resultWriter.writeRow(new JSONObject().put("id", i));
+            }
+            resultWriter.end(new JSONObject().put("ack", "0").put("cause", "Query cancelled"));
+        };
+        login();
+        stream(MessageType.STREAM_JSON_REQ);
+
+        final List<Frame> frames = frames();
+        assertEquals(2, frames.size());
+        assertEquals(FramedResultWriter.ROWS, frames.get(0).type);
+        assertEquals(10, frames.get(0).text().split("\n").length);
+        assertEquals(FramedResultWriter.END, frames.get(1).type);
+        final JSONObject status = new JSONObject(frames.get(1).text());
+        assertEquals("0", status.getString("ack"));
+        assertEquals("Query cancelled", status.getString("cause"));
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        System.out.println("error response");
+
+        final String error = new JSONObject().put("ack", "0").put("code", "DB200").put("cause", "Invalid SQL").toString();
+        sqlExecutor.query = resultWriter -> resultWriter.writeResponse(error);
+        login();
+        stream(MessageType.STREAM_COLUMNS_REQ);
+
+        final List<Frame> frames = frames();
+        assertEquals(1, frames.size());
+        assertEquals(FramedResultWriter.END, frames.get(0).type);
+        assertEquals(error, frames.get(0).text());
+    }
+
+    @Test
+    public void testNoSession() throws Exception {
+        System.out.println("no session");
+
+        stream(MessageType.STREAM_JSON_REQ);
+
+        final List<Frame> frames = frames();
+        assertEquals(1, frames.size());
+        assertEquals(FramedResultWriter.END, frames.get(0).type);
+        assertEquals("0", new JSONObject(frames.get(0).text()).getString("ack"));
+        assertNull(sqlExecutor.failure);
+    }
+
+    @Test
+    public void testClosedConnection() throws Exception {
+        System.out.println("closed connection");
+
+        sqlExecutor.query = resultWriter -> {
+            for (int i = 0; i < 5000; i++) {
+                if (i == 10) {
+                    channel.close();
+                }
+                resultWriter.writeRow(new JSONObject().put("id", i).put("name", "name-" + i));
+            }
+            resultWriter.end(new JSONObject().put("ack", "1"));
+        };
+        login();
+        stream(MessageType.STREAM_JSON_REQ);
+
+        assertNotNull("Writing to a closed connection must fail the query", sqlExecutor.failure);
+    }
+
+    private void login() throws Exception {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[]{0, 4});
+        data.write("root".getBytes(StandardCharsets.UTF_8));
+        data.write(new byte[]{0, 4});
+        data.write("hash".getBytes(StandardCharsets.UTF_8));
+        data.write(new byte[]{2});
+        data.write("ds".getBytes(StandardCharsets.UTF_8));
+        final LoginRequestPacket packet = new LoginRequestPacket(header(MessageType.LOGIN_REQ, data.size()), data.toByteArray());
+        assertEquals("Login Successful", handler.processPacket(packet));
+    }
+
+    private void stream(final MessageType type) throws Exception {
+        final byte[] sql = "select * from c".getBytes(StandardCharsets.UTF_8);
+        handler.streamPacket(channel.pipeline().context(handler), new SqlQueryPacket(header(type, sql.length), sql));
+    }
+
+    private PacketHeader header(final MessageType type, final int length) throws Exception {
+        return new PacketHeader(new byte[]{type.getTypeByte(), 0x01, (byte) (length >>> 8), (byte) length, 0, 0, 0, 0});
+    }
+
+    private List<Frame> frames() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuf buffer;
+        while ((buffer = channel.readOutbound()) != null) {
+            final byte[] chunk = new byte[buffer.readableBytes()];
+            buffer.readBytes(chunk);
+            buffer.release();
+            bytes.write(chunk);
+        }
+
+        final List<Frame> frames = new ArrayList<>();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        while (in.available() > 0) {
+            final byte type = in.readByte();
+            final byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            frames.add(new Frame(type, payload));
+        }
+        return frames;
+    }
+
+    private static List<Map<String, Object>> decodeColumns(final byte[] payload) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        final int rowCount = in.readInt();
+        final int columnCount = in.readInt();
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(new HashMap<>());
+        }
+        for (int c = 0; c < columnCount; c++) {
+            final String column = readString(in);
+            for (Map<String, Object> row : rows) {
+                row.put(column, readValue(in));
+            }
+        }
+        assertEquals(0, in.available());
+        return rows;
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case 0:
+                return null;
+            case 1:
+                return in.readLong();
+            case 2:
+                return in.readDouble();
+            case 3:
+            case 6:
+                return readString(in);
+            case 4:
+                return in.readBoolean();
+            case 5:
+                return new BigDecimal(readString(in));
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Frame {
+
+        private final byte type;
+        private final byte[] payload;
+
+        private Frame(final byte type, final byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        private String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private interface StreamedQuery {
+
+        void run(ResultWriter resultWriter) throws IOException;
+    }
+
+    private static class FakeSqlExecutor implements SqlExecutor {
+
+        private StreamedQuery query;
+        private IOException failure;
+
+        @Override
+        public void streamSessionQuery(final String requestId, final String sessionToken, final String dbName, final String sqlString,
+                final ResultWriter resultWriter) {
+            try {
+                query.run(resultWriter);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+
+        @Override
+        public void streamQuery(final String requestId, final String userName, final String password, final String dbName, final String sqlString,
+                final ResultWriter resultWriter) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String runQuery(final String requestId, final String userName, final String password, final String dbName, final String sqlString) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String runSessionQuery(final String requestId, final String sessionToken, final String dbName, final String sqlString) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String prepareStatement(final String requestId, final String userName, final String password, final String dbName, final String sqlString) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String prepareSessionStatement(final String requestId, final String sessionToken, final String dbName, final String sqlString) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String executeStatement(final String requestId, final String userName, final String password, final String dbName,
+                final String statementId, final String params) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String executeSessionStatement(final String requestId, final String sessionToken, final String dbName, final String statementId,
+                final String params) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class FakeRequestStore implements RequestStore {
+
+        @Override
+        public String registerRequest(final Query query) {
+            return "r1";
+        }
+
+        @Override
+        public String registerNewRequest(final String datastore, final String collection, final String password, final String table) {
+            return "r1";
+        }
+
+        @Override
+        public boolean registerRequest(final String requestId, final String datastore, final String username, final String password,
+                final String collection) {
+            return true;
+        }
+
+        @Override
+        public Query getRequest(final String requestId) {
+            return null;
+        }
+
+        @Override
+        public void unregisterRequest(final String requestId) {
+        }
+    }
+
+    private static class FakeSecurityManager implements SecurityManager {
+
+        @Override
+        public boolean verifyCredentials(final String username, final String password) {
+            return true;
+        }
+
+        @Override
+        public String login(final String username, final String password) {
+            return "token";
+        }
+
+        @Override
+        public String getSessionUser(final String sessionToken) {
+            return "root";
+        }
+
+        @Override
+        public void logout(final String sessionToken) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2018 BlobCity Inc
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.blobcity.lib.database.web.end.point.db;
+
+import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
+import com.blobcity.lib.database.bean.manager.interfaces.security.SecurityManager;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.util.StringUtils;
+
+/**
+ * Web end-point to open and close user sessions. The token returned on login is sent in place of the username and
+ * password on further requests of the session, so that the password is verified only once per session.
+ *
+ * @author sanketsarang
+ */
+@Path("rest/session")
+public class SessionResource {
+
+    private final SecurityManager securityManager;
+    private final Logger logger;
+
+    public SessionResource() {
+        this.logger = LoggerFactory.getLogger(SessionResource.class.getName() + ":" + System.currentTimeMillis());
+        ApplicationContext context = BeanConfigFactory.getConfigBean("com.blobcity.pom.database.engine.factory.EngineBeanConfig");
+        this.securityManager = (SecurityManager) context.getBean("SecurityManagerBean");
+    }
+
+    @POST
+    @Produces("application/json")
+    public Response login(
+            @FormParam(value = "username")
+            final String username,
+            @FormParam(value = "password")
+            final String password
+    ) {
+        if (StringUtils.isEmpty(username) || StringUtils.isEmpty(password)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Both of the parameters: username, password - are required").build();
+        }
+
+        final String token = securityManager.login(username, password);
+        final JSONObject responseJson = new JSONObject();
+        if (token == null) {
+            logger.debug("Login failed for user: \"{}\"", username);
+            responseJson.put("ack", "0");
+            responseJson.put("cause", "Invalid credentials");
+        } else {
+            responseJson.put("ack", "1");
+            responseJson.put("token", token);
+        }
+        return Response.ok(responseJson.toString(), MediaType.APPLICATION_JSON).build();
+    }
+
+    @POST
+    @Path("logout")
+    @Produces("application/json")
+    public Response logout(
+            @FormParam(value = "token")
+            final String token
+    ) {
+        if (StringUtils.isEmpty(token)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("The parameter: token - is required").build();
+        }
+
+        securityManager.logout(token);
+        return Response.ok("{\"ack\":\"1\"}", MediaType.APPLICATION_JSON).build();
+    }
+}
@@ -18,7 +18,10 @@ package com.blobcity.lib.database.web.end.point.db;
 
 import com.blobcity.lib.database.bean.manager.factory.BeanConfigFactory;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.RequestStore;
+import com.blobcity.lib.database.bean.manager.interfaces.engine.ResultWriter;
 import com.blobcity.lib.database.bean.manager.interfaces.engine.SqlExecutor;
+import com.blobcity.lib.database.bean.manager.stream.FramedResultWriter;
+import com.blobcity.lib.database.bean.manager.stream.JsonResultWriter;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -27,6 +30,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
@@ -73,17 +77,22 @@ public class SqlResource {
             final String username,
             @FormParam(value = "password")
             final String password,
+            @FormParam(value = "token")
+            final String token,
             @FormParam(value = "ds")
             final String db,
             @FormParam(value = "q")
             final String queryPayload
     ) {
-        if (StringUtils.isEmpty(username) || StringUtils.isEmpty(password) || StringUtils.isEmpty(db) || StringUtils.isEmpty(queryPayload)) {
-            return Response.status(Response.Status.BAD_REQUEST).entity("All of the parameters: username, password, db, q - are required").build();
+        final boolean hasSession = !StringUtils.isEmpty(token);
+        if ((!hasSession && (StringUtils.isEmpty(username) || StringUtils.isEmpty(password))) || StringUtils.isEmpty(db) || StringUtils.isEmpty(queryPayload)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("All of the parameters: username, password (or token), db, q - are required").build();
         }
 
         final long startTime = System.currentTimeMillis();
-        final String response = sqlExecutorBean.runQuery("internal", username, password, db, queryPayload);
+        final String response = hasSession
+                ? sqlExecutorBean.runSessionQuery("internal", token, db, queryPayload)
+                : sqlExecutorBean.runQuery("internal", username, password, db, queryPayload);
         final long executionTime = System.currentTimeMillis() - startTime;
         logger.debug("User: \"{}\"\n"
                 + "DB: \"{}\"\n"
@@ -94,4 +103,118 @@ public class SqlResource {
 
         return Response.ok(response, MediaType.APPLICATION_JSON).build();
     }
+
+    /**
+     * Prepares a statement, which may contain <code>?</code> placeholders, for repeated execution through
+     * <code>rest/sql/execute</code>
+     *
+     * @return JSON response holding the id of the prepared statement in <code>statement</code>
+     */
+    @POST
+    @Path("prepare")
+    @Produces("application/json")
+    public Response prepare(
+            @FormParam(value = "username")
+            final String username,
+            @FormParam(value = "password")
+            final String password,
+            @FormParam(value = "token")
+            final String token,
+            @FormParam(value = "ds")
+            final String db,
+            @FormParam(value = "q")
+            final String queryPayload
+    ) {
+        final boolean hasSession = !StringUtils.isEmpty(token);
+        if ((!hasSession && (StringUtils.isEmpty(username) || StringUtils.isEmpty(password))) || StringUtils.isEmpty(db) || StringUtils.isEmpty(queryPayload)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("All of the parameters: username, password (or token), db, q - are required").build();
+        }
+
+        final String response = hasSession
+                ? sqlExecutorBean.prepareSessionStatement("internal", token, db, queryPayload)
+                : sqlExecutorBean.prepareStatement("internal", username, password, db, queryPayload);
+        logger.debug("DB: \"{}\" Prepared: \"{}\" Response: \"{}\"", new Object[]{db, queryPayload, response});
+
+        return Response.ok(response, MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * Executes a statement prepared through <code>rest/sql/prepare</code>
+     *
+     * @param params JSON array holding a value for each placeholder of the statement in order
+     */
+    @POST
+    @Path("execute")
+    @Produces("application/json")
+    public Response execute(
+            @FormParam(value = "username")
+            final String username,
+            @FormParam(value = "password")
+            final String password,
+            @FormParam(value = "token")
+            final String token,
+            @FormParam(value = "ds")
+            final String db,
+            @FormParam(value = "statement")
+            final String statementId,
+            @FormParam(value = "params")
+            final String params
+    ) {
+        final boolean hasSession = !StringUtils.isEmpty(token);
+        if ((!hasSession && (StringUtils.isEmpty(username) || StringUtils.isEmpty(password))) || StringUtils.isEmpty(db) || StringUtils.isEmpty(statementId)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("All of the parameters: username, password (or token), db, statement - are required").build();
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final String response = hasSession
+                ? sqlExecutorBean.executeSessionStatement("internal", token, db, statementId, params)
+                : sqlExecutorBean.executeStatement("internal", username, password, db, statementId, params);
+        logger.debug("Prepared statement \"{}\" executed in (ms): {}", statementId, System.currentTimeMillis() - startTime);
+
+        return Response.ok(response, MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * Runs a query and streams its result as rows are produced, instead of building the complete response in memory.
+     * With <code>format=binary</code> the result is written in length prefixed frames holding batches of rows in
+     * columnar form; otherwise as a JSON response of the same shape as that of <code>rest/sql</code>. A failure after
+     * rows were sent is reported in the status at the end of the response.
+     *
+     * @param format <code>json</code> (default) or <code>binary</code>
+     */
+    @POST
+    @Path("stream")
+    public Response stream(
+            @FormParam(value = "username")
+            final String username,
+            @FormParam(value = "password")
+            final String password,
+            @FormParam(value = "token")
+            final String token,
+            @FormParam(value = "ds")
+            final String db,
+            @FormParam(value = "q")
+            final String queryPayload,
+            @FormParam(value = "format")
+            final String format
+    ) {
+        final boolean hasSession = !StringUtils.isEmpty(token);
+        if ((!hasSession && (StringUtils.isEmpty(username) || StringUtils.isEmpty(password))) || StringUtils.isEmpty(db) || StringUtils.isEmpty(queryPayload)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("All of the parameters: username, password (or token), db, q - are required").build();
+        }
+
+        final boolean binary = "binary".equalsIgnoreCase(format);
+        final StreamingOutput output = outputStream -> {
+            final ResultWriter resultWriter = binary ? new FramedResultWriter(outputStream, true) : new JsonResultWriter(outputStream);
+            final long startTime = System.currentTimeMillis();
+            if (hasSession) {
+                sqlExecutorBean.streamSessionQuery("internal", token, db, queryPayload, resultWriter);
+            } else {
+                sqlExecutorBean.streamQuery("internal", username, password, db, queryPayload, resultWriter);
+            }
+            logger.debug("DB: \"{}\" Query: \"{}\" streamed in (ms): {}", new Object[]{db, queryPayload, System.currentTimeMillis() - startTime});
+        };
+
+        return Response.ok(output, binary ? MediaType.APPLICATION_OCTET_STREAM : MediaType.APPLICATION_JSON).build();
+    }
 }